@@ -0,0 +1,208 @@
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * BlockPostingsIterator class walks the documents of a {@link PostingList} in increasing document ID
+ * order, decoding one block at a time. Positions are only decoded for the documents whose
+ * {@link #positions()} are requested, and {@link #advance(int)} uses the skip table to jump over
+ * whole blocks. Documents marked as deleted are skipped.
+ */
+public class BlockPostingsIterator implements PostingsIterator {
+
+    private static final int BLOCK_SIZE = PostingsCodec.BLOCK_SIZE;
+
+    private final ByteBuffer data;
+    private final BitSet deleted;    // tombstoned documents to skip, or null
+    private final PostingsCodec codec;
+    private final int docCount;
+    private final int docBlockCount;
+    private final int positionSkipStart;
+    private final int blockDataStart;
+
+    private final int[] docs;
+    private final int[] freqs;
+    private int block = -1;          // current document block
+    private int blockLength;         // documents in the current block
+    private int indexInBlock = -1;   // current document within the block
+    private int positionIndex;       // index of the first position of the current document
+    private int docId = -1;
+
+    private final int[] positionBlock;
+    private int decodedPositionBlock = -1;
+    private int[] positions = new int[16];
+    private final long[] scanned = Metrics.postingsCounter(); // postings decoded by this thread
+
+    BlockPostingsIterator(ByteBuffer data, BitSet deleted) {
+        this.data = data;
+        this.deleted = deleted;
+        this.docCount = data.getInt(0);
+        int positionCount = data.getInt(4);
+        this.codec = PostingsCodec.values()[data.get(8) & 0xFF & ~PostingList.DOC_SET_FLAG];
+        this.docBlockCount = PostingList.blockCount(docCount);
+        this.positionSkipStart = PostingList.HEADER_SIZE + docBlockCount * PostingList.DOC_SKIP_ENTRY_SIZE;
+        this.blockDataStart = positionSkipStart + PostingList.blockCount(positionCount) * PostingList.POSITION_SKIP_ENTRY_SIZE;
+        // Rare terms are the common case, so size the block buffers to the list
+        this.docs = new int[Math.min(BLOCK_SIZE, docCount)];
+        this.freqs = new int[docs.length];
+        this.positionBlock = new int[Math.min(BLOCK_SIZE, positionCount)];
+    }
+
+    /**
+     * Returns the number of documents in the list, an upper bound on the work of a full scan.
+     */
+    @Override
+    public long cost() {
+        return docCount;
+    }
+
+    /**
+     * Returns the current document ID, -1 before the first call to nextDoc, or NO_MORE_DOCS at the end.
+     */
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    /**
+     * Moves to the next document and returns its ID, or NO_MORE_DOCS.
+     */
+    @Override
+    public int nextDoc() {
+        int doc = nextStoredDoc();
+        while (deleted != null && doc != NO_MORE_DOCS && deleted.get(doc)) {
+            doc = nextStoredDoc();
+        }
+        return doc;
+    }
+
+    private int nextStoredDoc() {
+        if (docId == NO_MORE_DOCS) {
+            return NO_MORE_DOCS;
+        }
+        if (indexInBlock + 1 < blockLength) {
+            positionIndex += freqs[indexInBlock];
+            indexInBlock++;
+            return docId = docs[indexInBlock];
+        }
+        if (block + 1 >= docBlockCount) {
+            return docId = NO_MORE_DOCS;
+        }
+        loadBlock(block + 1);
+        return docId = docs[0];
+    }
+
+    /**
+     * Moves to the first document whose ID is at least target and returns its ID, or NO_MORE_DOCS.
+     * Never moves backwards. Blocks are located by galloping over the skip table from the current
+     * block, and the document within the block by binary search, so a jump costs O(log distance).
+     */
+    @Override
+    public int advance(int target) {
+        int doc = advanceStored(target);
+        return deleted != null && doc != NO_MORE_DOCS && deleted.get(doc) ? nextDoc() : doc;
+    }
+
+    private int advanceStored(int target) {
+        if (docId >= target) {
+            return docId;
+        }
+        if (block < 0 || lastDocOfBlock(block) < target) {
+            int targetBlock = findBlock(target, Math.max(block, 0));
+            if (targetBlock == docBlockCount) {
+                return docId = NO_MORE_DOCS;
+            }
+            loadBlock(targetBlock);
+        }
+
+        // The current block holds the target (its last docID is >= target): binary search the rest of it
+        int low = indexInBlock;
+        int high = blockLength - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (docs[mid] < target) low = mid + 1;
+            else high = mid;
+        }
+        for (int i = indexInBlock; i < low; i++) {
+            positionIndex += freqs[i];
+        }
+        indexInBlock = low;
+        return docId = docs[low];
+    }
+
+    // Returns the first block at or after "from" whose last docID is >= target, or docBlockCount
+    private int findBlock(int target, int from) {
+        int low = from;
+        int step = 1;
+        int high = from;
+        // Gallop: double the step until the block's last document reaches the target
+        while (high < docBlockCount && lastDocOfBlock(high) < target) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        if (high >= docBlockCount) {
+            high = docBlockCount;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lastDocOfBlock(mid) < target) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the number of occurrences of the term in the current document.
+     */
+    @Override
+    public int freq() {
+        return freqs[indexInBlock];
+    }
+
+    /**
+     * Decodes the positions of the term in the current document. The returned array is reused by
+     * the next call; only its first {@link #freq()} entries are valid.
+     */
+    @Override
+    public int[] positions() {
+        int freq = freqs[indexInBlock];
+        if (positions.length < freq) {
+            positions = new int[Math.max(freq, positions.length * 2)];
+        }
+        int position = 0;
+        for (int i = 0; i < freq; i++) {
+            int index = positionIndex + i;
+            int positionBlockIndex = index / BLOCK_SIZE;
+            if (positionBlockIndex != decodedPositionBlock) {
+                int offset = data.getInt(positionSkipStart + positionBlockIndex * PostingList.POSITION_SKIP_ENTRY_SIZE);
+                int count = Math.min(BLOCK_SIZE, data.getInt(4) - positionBlockIndex * BLOCK_SIZE);
+                codec.decodeBlock(data, blockDataStart + offset, positionBlock, count);
+                decodedPositionBlock = positionBlockIndex;
+            }
+            position += positionBlock[index % BLOCK_SIZE];
+            positions[i] = position;
+        }
+        return positions;
+    }
+
+    private int lastDocOfBlock(int blockIndex) {
+        return data.getInt(PostingList.HEADER_SIZE + blockIndex * PostingList.DOC_SKIP_ENTRY_SIZE);
+    }
+
+    private void loadBlock(int blockIndex) {
+        int skipEntry = PostingList.HEADER_SIZE + blockIndex * PostingList.DOC_SKIP_ENTRY_SIZE;
+        blockLength = Math.min(BLOCK_SIZE, docCount - blockIndex * BLOCK_SIZE);
+        codec.decodeBlock(data, blockDataStart + data.getInt(skipEntry + 4), docs, blockLength);
+        codec.decodeBlock(data, blockDataStart + data.getInt(skipEntry + 8), freqs, blockLength);
+        scanned[0] += blockLength;
+        positionIndex = data.getInt(skipEntry + 12);
+
+        int previous = blockIndex == 0 ? 0 : lastDocOfBlock(blockIndex - 1);
+        for (int i = 0; i < blockLength; i++) {
+            previous += docs[i];
+            docs[i] = previous;
+        }
+        block = blockIndex;
+        indexInBlock = 0;
+    }
+}
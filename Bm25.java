@@ -0,0 +1,59 @@
+/**
+ * Bm25 class scores documents with the Okapi BM25 formula, using the document lengths and the
+ * term statistics stored in the index. It also gives an upper bound of a term's score, which
+ * lets {@link WandScorer} skip documents that cannot make it into the top results.
+ */
+public class Bm25 {
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+
+    private final int documentCount;
+    private final double averageLength;
+
+    /**
+     * @param documentCount The number of documents in the index.
+     * @param totalLength   The sum of the lengths of all documents.
+     */
+    public Bm25(int documentCount, long totalLength) {
+        this.documentCount = documentCount;
+        this.averageLength = documentCount == 0 ? 1 : Math.max(1.0, (double) totalLength / documentCount);
+    }
+
+    /**
+     * Returns the inverse document frequency of a term; always positive. Posting lists still count
+     * deleted documents until their segment is merged, while the document count only counts live
+     * ones, so the frequency is capped at the document count; otherwise idf would turn negative
+     * and the term's upper bound would no longer bound its scores.
+     *
+     * @param documentFrequency The number of documents containing the term, deleted ones included.
+     */
+    public double idf(int documentFrequency) {
+        int frequency = Math.min(documentFrequency, documentCount);
+        return Math.log(1 + (documentCount - frequency + 0.5) / (frequency + 0.5));
+    }
+
+    /**
+     * Returns the score of a term in a document.
+     *
+     * @param idf       The idf of the term.
+     * @param frequency The number of occurrences of the term in the document.
+     * @param length    The length of the document.
+     */
+    public double score(double idf, int frequency, int length) {
+        double norm = K1 * (1 - B + B * length / averageLength);
+        return idf * frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    /**
+     * Returns a score that no document can exceed for the term. The score grows with the
+     * frequency and shrinks with the length, so the highest frequency in the shortest document
+     * is an upper bound even if no single document has both.
+     *
+     * @param idf          The idf of the term.
+     * @param maxFrequency The highest frequency of the term in a document.
+     * @param minLength    The length of the shortest document.
+     */
+    public double upperBound(double idf, int maxFrequency, int minLength) {
+        return score(idf, maxFrequency, minLength);
+    }
+}
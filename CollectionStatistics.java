@@ -0,0 +1,54 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CollectionStatistics class holds the statistics BM25 needs about a collection: the number of
+ * documents, their total length, and the document frequencies of some terms. The shards of a
+ * {@link ShardedIndex} each report theirs for a query; the coordinator adds them up so that every
+ * shard scores with the statistics of the whole collection, and scores from different shards compare.
+ */
+public class CollectionStatistics {
+    private final int documentCount;
+    private final long totalLength;
+    private final Map<String, Integer> documentFrequencies;
+
+    /**
+     * @param documentCount       The number of live documents.
+     * @param totalLength         The sum of the lengths of the live documents.
+     * @param documentFrequencies The number of documents containing each term, by processed term.
+     */
+    public CollectionStatistics(int documentCount, long totalLength, Map<String, Integer> documentFrequencies) {
+        this.documentCount = documentCount;
+        this.totalLength = totalLength;
+        this.documentFrequencies = Collections.unmodifiableMap(new HashMap<>(documentFrequencies));
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    public Map<String, Integer> getDocumentFrequencies() {
+        return documentFrequencies;
+    }
+
+    /**
+     * Returns the document frequency of a term, 0 if the term is unknown.
+     */
+    public int getDocumentFrequency(String term) {
+        return documentFrequencies.getOrDefault(term, 0);
+    }
+
+    /**
+     * Returns the statistics of the union of two disjoint collections.
+     */
+    public CollectionStatistics add(CollectionStatistics other) {
+        Map<String, Integer> sum = new HashMap<>(documentFrequencies);
+        other.documentFrequencies.forEach((term, frequency) -> sum.merge(term, frequency, Integer::sum));
+        return new CollectionStatistics(documentCount + other.documentCount, totalLength + other.totalLength, sum);
+    }
+}
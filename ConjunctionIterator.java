@@ -0,0 +1,84 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * ConjunctionIterator class returns the documents matched by all of its iterators.
+ * The iterators are ordered by cost (document frequency for posting lists), and the rarest one leads: every candidate it
+ * produces is checked against the others with {@link PostingsIterator#advance(int)}, and any
+ * iterator that overshoots becomes the new target for the leader. The work is therefore
+ * proportional to the rarest list, with logarithmic skips through the common ones.
+ */
+public class ConjunctionIterator implements DocIterator {
+    private final DocIterator[] iterators;
+    private int docId = -1;
+
+    /**
+     * @param iterators The iterators to intersect, all positioned before their first document.
+     */
+    public ConjunctionIterator(List<? extends DocIterator> iterators) {
+        this.iterators = iterators.toArray(new DocIterator[0]);
+        Arrays.sort(this.iterators, Comparator.comparingLong(DocIterator::cost));
+    }
+
+    /**
+     * Returns the iterators, rarest first, positioned on the current document.
+     */
+    public DocIterator[] iterators() {
+        return iterators;
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    /**
+     * Moves to the next document contained in every list and returns its ID, or NO_MORE_DOCS.
+     */
+    @Override
+    public int nextDoc() {
+        if (iterators.length == 0) {
+            return docId = NO_MORE_DOCS;
+        }
+        return align(iterators[0].nextDoc());
+    }
+
+    /**
+     * Moves to the first common document whose ID is at least target.
+     */
+    @Override
+    public int advance(int target) {
+        if (iterators.length == 0) {
+            return docId = NO_MORE_DOCS;
+        }
+        return align(iterators[0].advance(target));
+    }
+
+    /**
+     * Returns the cost of the rarest iterator, which bounds the number of matches.
+     */
+    @Override
+    public long cost() {
+        return iterators.length == 0 ? 0 : iterators[0].cost();
+    }
+
+    // Leapfrogs until all iterators agree on a document, starting from the leader's candidate
+    private int align(int candidate) {
+        while (candidate != NO_MORE_DOCS) {
+            boolean agreed = true;
+            for (int i = 1; i < iterators.length; i++) {
+                int found = iterators[i].advance(candidate);
+                if (found != candidate) {
+                    candidate = iterators[0].advance(found);
+                    agreed = false;
+                    break;
+                }
+            }
+            if (agreed) {
+                return docId = candidate;
+            }
+        }
+        return docId = NO_MORE_DOCS;
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * CorpusManifest class records, for every document, the size, modification time and content hash
+ * of its file as it was indexed. When the index is opened again, comparing the manifest with the
+ * corpus directory tells which files were added, changed or removed, so only those are reindexed.
+ * A file whose modification time changed but whose size and content hash did not is unchanged.
+ */
+public class CorpusManifest {
+    static final int ENTRY_SIZE = 24; // long size, long modification time, long hash
+    private static final long ABSENT = -1;
+
+    private long[] sizes = new long[0];
+    private long[] modifiedTimes = new long[0];
+    private long[] hashes = new long[0];
+
+    /**
+     * Records the state of a document file.
+     *
+     * @param docId        The document ID.
+     * @param size         The file size in bytes.
+     * @param modifiedTime The file modification time, in milliseconds.
+     * @param hash         The content hash, see {@link #hash(File)}.
+     */
+    public void put(int docId, long size, long modifiedTime, long hash) {
+        if (docId >= sizes.length) {
+            int length = Math.max(docId + 1, sizes.length * 2);
+            int old = sizes.length;
+            sizes = Arrays.copyOf(sizes, length);
+            modifiedTimes = Arrays.copyOf(modifiedTimes, length);
+            hashes = Arrays.copyOf(hashes, length);
+            Arrays.fill(sizes, old, length, ABSENT);
+        }
+        sizes[docId] = size;
+        modifiedTimes[docId] = modifiedTime;
+        hashes[docId] = hash;
+    }
+
+    /**
+     * Forgets a document, e.g. because it was deleted.
+     */
+    public void remove(int docId) {
+        if (docId < sizes.length) {
+            sizes[docId] = ABSENT;
+        }
+    }
+
+    /**
+     * Returns true if the document has an entry.
+     */
+    public boolean contains(int docId) {
+        return docId < sizes.length && sizes[docId] != ABSENT;
+    }
+
+    /**
+     * Checks whether a file still has the content recorded for a document. The file is only read
+     * when its size matches but its modification time does not; the new time is then recorded.
+     *
+     * @param docId The document ID.
+     * @param file  The document file.
+     * @return True if the file is unchanged.
+     * @throws IOException If the file cannot be read.
+     */
+    public boolean isUnchanged(int docId, File file) throws IOException {
+        if (!contains(docId) || sizes[docId] != file.length()) {
+            return false;
+        }
+        long modifiedTime = file.lastModified();
+        if (modifiedTimes[docId] == modifiedTime) {
+            return true;
+        }
+        if (hashes[docId] != hash(file)) {
+            return false;
+        }
+        modifiedTimes[docId] = modifiedTime; // touched but not changed
+        return true;
+    }
+
+    long getSize(int docId) {
+        return contains(docId) ? sizes[docId] : ABSENT;
+    }
+
+    long getModifiedTime(int docId) {
+        return contains(docId) ? modifiedTimes[docId] : ABSENT;
+    }
+
+    long getHash(int docId) {
+        return contains(docId) ? hashes[docId] : ABSENT;
+    }
+
+    /**
+     * Returns the CRC32C of the file's bytes.
+     *
+     * @param file The file to hash.
+     * @throws IOException If the file cannot be read.
+     */
+    public static long hash(File file) throws IOException {
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.BitSet;
+
+/**
+ * DecodedPostings class holds the postings of one term fully decoded into arrays, so that many
+ * queries can iterate over them without decoding the blocks again; see {@link QueryBatch}.
+ * Positions are optional, as plain conjunctions and ranking never read them. The arrays cost
+ * 8 bytes per document and 4 per position, so only terms shared by several queries are decoded.
+ */
+public class DecodedPostings {
+    private final int[] docIds;
+    private final int[] freqs;
+    private final int[] positionStarts; // index of each document's first position, or null
+    private final int[] positions;      // all positions, or null
+
+    private DecodedPostings(int[] docIds, int[] freqs, int[] positionStarts, int[] positions) {
+        this.docIds = docIds;
+        this.freqs = freqs;
+        this.positionStarts = positionStarts;
+        this.positions = positions;
+    }
+
+    /**
+     * Decodes the rest of an iterator.
+     *
+     * @param it            The iterator, before its first document.
+     * @param withPositions True to decode the positions too.
+     */
+    static DecodedPostings decode(PostingsIterator it, boolean withPositions) {
+        IntList docIds = new IntList();
+        IntList freqs = new IntList();
+        IntList positionStarts = withPositions ? new IntList() : null;
+        IntList positions = withPositions ? new IntList() : null;
+        while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+            docIds.add(it.docId());
+            freqs.add(it.freq());
+            if (withPositions) {
+                positionStarts.add(positions.size());
+                int[] docPositions = it.positions();
+                for (int i = 0; i < it.freq(); i++) {
+                    positions.add(docPositions[i]);
+                }
+            }
+        }
+        return new DecodedPostings(docIds.toArray(), freqs.toArray(),
+                withPositions ? positionStarts.toArray() : null, withPositions ? positions.toArray() : null);
+    }
+
+    public boolean hasPositions() {
+        return positions != null;
+    }
+
+    /**
+     * Returns the number of ints held, a measure of the memory used.
+     */
+    public long size() {
+        return 2L * docIds.length + (positions != null ? positionStarts.length + positions.length : 0);
+    }
+
+    /**
+     * Returns a new iterator that skips the given documents, in addition to those already deleted when decoding.
+     *
+     * @param deleted The deleted documents, or null to skip none.
+     */
+    public PostingsIterator iterator(BitSet deleted) {
+        return new PostingsIterator() {
+            private int index = -1;
+            private int docId = -1;
+            private int[] docPositions = new int[16];
+            private final long[] scanned = Metrics.postingsCounter(); // postings stepped over by this thread
+
+            @Override
+            public int docId() {
+                return docId;
+            }
+
+            @Override
+            public int nextDoc() {
+                return skipDeleted(index + 1);
+            }
+
+            @Override
+            public int advance(int target) {
+                if (docId >= target) {
+                    return docId;
+                }
+                int low = index + 1;
+                int high = docIds.length;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (docIds[mid] < target) low = mid + 1;
+                    else high = mid;
+                }
+                return skipDeleted(low);
+            }
+
+            private int skipDeleted(int from) {
+                index = from;
+                while (index < docIds.length && deleted != null && deleted.get(docIds[index])) {
+                    index++;
+                }
+                scanned[0] += Math.min(index + 1, docIds.length) - from;
+                return docId = index < docIds.length ? docIds[index] : NO_MORE_DOCS;
+            }
+
+            @Override
+            public long cost() {
+                return docIds.length;
+            }
+
+            @Override
+            public int freq() {
+                return freqs[index];
+            }
+
+            @Override
+            public int[] positions() {
+                if (positions == null) {
+                    throw new IllegalStateException("The positions were not decoded");
+                }
+                int freq = freqs[index];
+                if (docPositions.length < freq) {
+                    docPositions = new int[Math.max(freq, docPositions.length * 2)];
+                }
+                System.arraycopy(positions, positionStarts[index], docPositions, 0, freq);
+                return docPositions;
+            }
+        };
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * DisjunctionIterator class returns the documents matched by any of its iterators. The iterators
+ * are kept in a heap ordered by their current document, so each step only moves the iterators
+ * that are on the smallest document; the work is proportional to the sum of the lists.
+ */
+public class DisjunctionIterator implements DocIterator {
+    private final PriorityQueue<DocIterator> heap;
+    private final List<? extends DocIterator> iterators;
+    private final long cost;
+    private int docId = -1;
+
+    /**
+     * @param iterators The iterators to merge, all positioned before their first document.
+     */
+    public DisjunctionIterator(List<? extends DocIterator> iterators) {
+        this.iterators = iterators;
+        this.heap = new PriorityQueue<>(Math.max(iterators.size(), 1), (a, b) -> Integer.compare(a.docId(), b.docId()));
+        long sum = 0;
+        for (DocIterator iterator : iterators) {
+            sum += iterator.cost();
+        }
+        this.cost = sum;
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        return advance(docId + 1);
+    }
+
+    /**
+     * Moves every iterator that is behind target to its first document at or after target, and
+     * returns the smallest document any iterator is on.
+     */
+    @Override
+    public int advance(int target) {
+        if (docId == NO_MORE_DOCS) {
+            return docId;
+        }
+        if (docId < 0) {
+            // First call: position every iterator, then keep the ones that are not exhausted
+            for (DocIterator iterator : iterators) {
+                if (iterator.advance(Math.max(target, 0)) != NO_MORE_DOCS) {
+                    heap.add(iterator);
+                }
+            }
+        } else {
+            while (!heap.isEmpty() && heap.peek().docId() < target) {
+                DocIterator iterator = heap.poll();
+                if (iterator.advance(target) != NO_MORE_DOCS) {
+                    heap.add(iterator);
+                }
+            }
+        }
+        return docId = heap.isEmpty() ? NO_MORE_DOCS : heap.peek().docId();
+    }
+
+    /**
+     * Returns the sum of the costs of the iterators, which bounds the number of matches.
+     */
+    @Override
+    public long cost() {
+        return cost;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * DocIterator interface walks the IDs of matching documents in increasing order. It is
+ * implemented by posting lists and by the operators combining them.
+ */
+public interface DocIterator {
+    /** Returned by {@link #nextDoc()} and {@link #advance(int)} once the iterator is exhausted. */
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * Returns the current document ID, -1 before the first call to nextDoc, or NO_MORE_DOCS at the end.
+     */
+    int docId();
+
+    /**
+     * Moves to the next matching document and returns its ID, or NO_MORE_DOCS.
+     */
+    int nextDoc();
+
+    /**
+     * Moves to the first matching document whose ID is at least target and returns its ID, or
+     * NO_MORE_DOCS. Never moves backwards.
+     */
+    int advance(int target);
+
+    /**
+     * Returns an estimate of the number of documents this iterator can match, used to order work.
+     */
+    long cost();
+}
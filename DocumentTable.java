@@ -0,0 +1,147 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * DocumentTable class assigns dense integer IDs to documents and stores, per document ID,
+ * its name (the lower-cased file name used in search results), its path and its length in words.
+ * Deleted documents keep their ID, which is never reused, but are marked in a tombstone set
+ * that iterators use to skip them; their name can then be added again under a new ID.
+ */
+public class DocumentTable implements Serializable {
+    private static final long serialVersionUID = 2L;
+    private final HashMap<String, Integer> idsByName = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> paths = new ArrayList<>();
+    private int[] lengths = new int[64];
+    private final BitSet deleted = new BitSet();
+    private transient volatile boolean statisticsValid; // whether totalLength and minLength are up to date
+    private transient long totalLength;
+    private transient int minLength;
+
+    /**
+     * Adds a document, or returns the existing ID if a document with this name was already added.
+     *
+     * @param name   The document name.
+     * @param path   The path of the document file.
+     * @param length The number of words in the document.
+     * @return The document ID.
+     */
+    public int add(String name, String path, int length) {
+        statisticsValid = false;
+        Integer existing = idsByName.get(name);
+        if (existing != null) {
+            lengths[existing] += length;
+            return existing;
+        }
+        int id = names.size();
+        idsByName.put(name, id);
+        names.add(name);
+        paths.add(path);
+        if (id == lengths.length) {
+            lengths = Arrays.copyOf(lengths, id * 2);
+        }
+        lengths[id] = length;
+        return id;
+    }
+
+    /**
+     * Returns the ID of a document, or -1 if the document is unknown.
+     */
+    public int getId(String name) {
+        Integer id = idsByName.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    public String getPath(int id) {
+        return paths.get(id);
+    }
+
+    public int getLength(int id) {
+        if (id >= names.size()) throw new IndexOutOfBoundsException("Unknown document ID: " + id);
+        return lengths[id];
+    }
+
+    /**
+     * Returns the number of document IDs assigned, including deleted documents.
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Marks a document as deleted and frees its name. Its length no longer counts in the statistics.
+     *
+     * @param id The document ID.
+     * @return False if the document was already deleted.
+     */
+    public boolean delete(int id) {
+        if (id >= names.size()) throw new IndexOutOfBoundsException("Unknown document ID: " + id);
+        if (deleted.get(id)) {
+            return false;
+        }
+        deleted.set(id);
+        idsByName.remove(names.get(id));
+        lengths[id] = 0;
+        statisticsValid = false;
+        return true;
+    }
+
+    public boolean isDeleted(int id) {
+        return deleted.get(id);
+    }
+
+    /**
+     * Returns the deleted document IDs; the set must not be modified.
+     */
+    BitSet getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Returns the number of documents that are not deleted.
+     */
+    public int getLiveCount() {
+        return names.size() - deleted.cardinality();
+    }
+
+    /**
+     * Returns the sum of the lengths of all documents.
+     */
+    public long getTotalLength() {
+        updateStatistics();
+        return totalLength;
+    }
+
+    /**
+     * Returns the length of the shortest non-empty document, or 0 if there is none.
+     */
+    public int getMinLength() {
+        updateStatistics();
+        return minLength;
+    }
+
+    private void updateStatistics() {
+        if (statisticsValid) {
+            return;
+        }
+        long total = 0;
+        int min = Integer.MAX_VALUE;
+        for (int id = 0; id < names.size(); id++) {
+            total += lengths[id];
+            if (lengths[id] > 0) {
+                min = Math.min(min, lengths[id]);
+            }
+        }
+        totalLength = total;
+        minLength = min == Integer.MAX_VALUE ? 0 : min;
+        statisticsValid = true;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * ExclusionIterator class returns the documents of one iterator that another does not match,
+ * e.g. {@code red NOT flower}. Only the candidates are walked: the excluded iterator is advanced
+ * to each candidate, so it skips over everything in between and costs at most one step per candidate.
+ */
+public class ExclusionIterator implements DocIterator {
+    private final DocIterator candidates;
+    private final DocIterator excluded;
+    private int docId = -1;
+
+    /**
+     * @param candidates The documents to return, positioned before their first document.
+     * @param excluded   The documents to leave out, positioned before their first document.
+     */
+    public ExclusionIterator(DocIterator candidates, DocIterator excluded) {
+        this.candidates = candidates;
+        this.excluded = excluded;
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        return confirm(candidates.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) {
+        return confirm(candidates.advance(target));
+    }
+
+    /**
+     * Returns the cost of the candidates, which bounds the number of matches.
+     */
+    @Override
+    public long cost() {
+        return candidates.cost();
+    }
+
+    // Moves on until a candidate is not excluded
+    private int confirm(int candidate) {
+        while (candidate != NO_MORE_DOCS) {
+            int found = excluded.docId() < candidate ? excluded.advance(candidate) : excluded.docId();
+            if (found != candidate) {
+                return docId = candidate;
+            }
+            candidate = candidates.nextDoc();
+        }
+        return docId = NO_MORE_DOCS;
+    }
+}
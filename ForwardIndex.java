@@ -0,0 +1,240 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ForwardIndex class stores, for every document, the terms it contains and their positions, so a
+ * document can be listed in time proportional to its length instead of scanning the whole vocabulary.
+ *
+ * Each document entry is a sequence of variable-byte ints:
+ * {@code termCount, then per term: termId, frequency, position deltas}.
+ * Entries are kept as byte arrays while building, or read in place from a mapped {@link SegmentFile} section.
+ */
+public class ForwardIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Receives the terms of a document entry.
+     */
+    public interface TermHandler {
+        /**
+         * @param termId    The term ID.
+         * @param positions The positions of the term; only valid during the call.
+         * @param count     The number of valid positions.
+         */
+        void term(int termId, int[] positions, int count);
+    }
+
+    private transient List<byte[]> entries;  // heap entries by docID, or null when mapped
+    private transient ByteBuffer section;    // mapped section: long[docCount + 1] offsets, then entries
+    private transient int documentCount;
+
+    public ForwardIndex() {
+        this.entries = new ArrayList<>();
+    }
+
+    ForwardIndex(ByteBuffer section, int documentCount) {
+        this.section = section;
+        this.documentCount = documentCount;
+    }
+
+    /**
+     * Stores the entry of a document, replacing any previous one. Documents without an entry are empty.
+     *
+     * @param docId The document ID.
+     * @param entry The entry, as produced by an {@link EntryWriter}.
+     */
+    public void put(int docId, byte[] entry) {
+        if (entries == null) {
+            throw new UnsupportedOperationException("A mapped forward index is read-only");
+        }
+        while (entries.size() <= docId) {
+            entries.add(null);
+        }
+        entries.set(docId, entry);
+    }
+
+    /**
+     * Returns a writable copy; used before documents are added to an index opened from a file.
+     */
+    public ForwardIndex writableCopy() {
+        ForwardIndex copy = new ForwardIndex();
+        for (int docId = 0; docId < size(); docId++) {
+            ByteBuffer entry = entry(docId);
+            if (entry != null) {
+                byte[] bytes = new byte[entry.remaining()];
+                entry.get(bytes);
+                copy.put(docId, bytes);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a read-only copy in the memory of an arena, in the section layout, or this instance
+     * if it is read-only already.
+     *
+     * @param arena         The arena to allocate the section in.
+     * @param documentCount The number of documents of the segment.
+     */
+    ForwardIndex offHeapCopy(OffHeapArena arena, int documentCount) {
+        if (isReadOnly()) {
+            return this;
+        }
+        long entryBytes = 0;
+        for (int docId = 0; docId < documentCount; docId++) {
+            ByteBuffer entry = entry(docId);
+            entryBytes += entry == null ? 0 : entry.remaining();
+        }
+        ByteBuffer copy = arena.allocate(Segment.sectionSize((documentCount + 1) * 8L + entryBytes));
+        long offset = 0;
+        copy.putLong(0);
+        for (int docId = 0; docId < documentCount; docId++) {
+            ByteBuffer entry = entry(docId);
+            offset += entry == null ? 0 : entry.remaining();
+            copy.putLong(offset);
+        }
+        for (int docId = 0; docId < documentCount; docId++) {
+            ByteBuffer entry = entry(docId);
+            if (entry != null) {
+                copy.put(entry);
+            }
+        }
+        return new ForwardIndex(copy.clear(), documentCount);
+    }
+
+    public boolean isReadOnly() {
+        return entries == null;
+    }
+
+    /**
+     * Returns the number of documents that can have an entry.
+     */
+    public int size() {
+        return entries != null ? entries.size() : documentCount;
+    }
+
+    /**
+     * Decodes the entry of a document and passes every term to the handler.
+     *
+     * @return False if the document has no entry.
+     */
+    public boolean forEachTerm(int docId, TermHandler handler) {
+        ByteBuffer entry = entry(docId);
+        if (entry == null) {
+            return false;
+        }
+        int[] cursor = {0};
+        int termCount = readVarInt(entry, cursor);
+        int[] positions = new int[16];
+        for (int t = 0; t < termCount; t++) {
+            int termId = readVarInt(entry, cursor);
+            int freq = readVarInt(entry, cursor);
+            if (positions.length < freq) {
+                positions = new int[Math.max(freq, positions.length * 2)];
+            }
+            int position = 0;
+            for (int i = 0; i < freq; i++) {
+                position += readVarInt(entry, cursor);
+                positions[i] = position;
+            }
+            handler.term(termId, positions, freq);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the encoded entry of a document, starting at index 0, or null if there is none.
+     */
+    ByteBuffer entry(int docId) {
+        if (docId < 0 || docId >= size()) {
+            return null;
+        }
+        if (entries != null) {
+            byte[] entry = entries.get(docId);
+            return entry == null ? null : ByteBuffer.wrap(entry);
+        }
+        int dataStart = (documentCount + 1) * 8;
+        int start = dataStart + (int) section.getLong(docId * 8);
+        int end = dataStart + (int) section.getLong(docId * 8 + 8);
+        if (start == end) {
+            return null;
+        }
+        ByteBuffer slice = section.duplicate();
+        slice.position(start).limit(end);
+        return slice.slice();
+    }
+
+    private static int readVarInt(ByteBuffer in, int[] cursor) {
+        int b = in.get(cursor[0]++);
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = in.get(cursor[0]++);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * EntryWriter class encodes the entry of one document.
+     */
+    public static class EntryWriter {
+        private final IntList values = new IntList();
+        private int termCount;
+
+        public EntryWriter addTerm(int termId, int[] positions, int count) {
+            values.add(termId);
+            values.add(count);
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                values.add(positions[i] - previous);
+                previous = positions[i];
+            }
+            termCount++;
+            return this;
+        }
+
+        public byte[] toBytes() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(values.size() + 4);
+            PostingsCodec.VARINT.encodeBlock(new int[] {termCount}, 0, 1, out);
+            PostingsCodec.VARINT.encodeBlock(values.array(), 0, values.size(), out);
+            return out.toByteArray();
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size());
+        for (int docId = 0; docId < size(); docId++) {
+            ByteBuffer entry = entry(docId);
+            if (entry == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = new byte[entry.remaining()];
+                entry.get(bytes);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        entries = new ArrayList<>(count);
+        for (int docId = 0; docId < count; docId++) {
+            int length = in.readInt();
+            byte[] bytes = null;
+            if (length >= 0) {
+                bytes = new byte[length];
+                in.readFully(bytes);
+            }
+            entries.add(bytes);
+        }
+    }
+}
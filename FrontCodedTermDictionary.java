@@ -0,0 +1,496 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * FrontCodedTermDictionary class is a read-only, sorted {@link TermDictionary} stored in one byte
+ * buffer, either on the heap or in a mapped {@link SegmentFile}. Terms are sorted by their UTF-8
+ * bytes and a term's ID is its rank. They are front coded in blocks of {@link #BLOCK_SIZE}: the
+ * first term of a block is stored whole, every other term as the length of the prefix it shares
+ * with the previous one and the remaining bytes. An exact lookup is a binary search over the first
+ * terms of the blocks followed by a scan of one block; terms with a given prefix are a contiguous
+ * range of IDs found the same way.
+ *
+ * A second, front-coded copy of the terms holds their bytes reversed and sorted, with the ID of
+ * each term, so that terms with a given suffix (leading wildcards) are a contiguous range too.
+ *
+ * Layout (all ints big-endian):
+ * <pre>
+ *   int termCount, int blockCount, int forward data length, int reversed data length
+ *   int[blockCount] offsets of the forward blocks, int[blockCount] offsets of the reversed blocks
+ *   int[termCount] term ID of each reversed term, in reversed order
+ *   forward blocks, then reversed blocks; each block:
+ *     vint length, bytes                      (first term)
+ *     vint shared, vint length, bytes         (up to BLOCK_SIZE - 1 following terms)
+ * </pre>
+ */
+public class FrontCodedTermDictionary implements TermDictionary {
+    static final int BLOCK_SIZE = 16;
+    private static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final Blocks forward;
+    private final Blocks reversed;
+    private final int reversedIdsStart;
+
+    /**
+     * @param buffer The encoded dictionary, starting at index 0; see {@link #encode(List)}.
+     */
+    FrontCodedTermDictionary(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.termCount = buffer.getInt(0);
+        int blockCount = buffer.getInt(4);
+        int forwardLength = buffer.getInt(8);
+        this.reversedIdsStart = HEADER_SIZE + blockCount * 8;
+        int forwardStart = reversedIdsStart + termCount * 4;
+        this.forward = new Blocks(HEADER_SIZE, forwardStart);
+        this.reversed = new Blocks(HEADER_SIZE + blockCount * 4, forwardStart + forwardLength);
+    }
+
+    /**
+     * Builds a heap dictionary of terms that are already sorted, see {@link #compare(String, String)}.
+     */
+    public static FrontCodedTermDictionary of(List<String> sortedTerms) {
+        return new FrontCodedTermDictionary(ByteBuffer.wrap(encode(sortedTerms)));
+    }
+
+    /**
+     * Encodes sorted, distinct terms; term IDs are their indexes in the list.
+     */
+    static byte[] encode(List<String> sortedTerms) {
+        int termCount = sortedTerms.size();
+        int blockCount = (termCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        byte[][] termBytes = new byte[termCount][];
+        byte[][] reversedBytes = new byte[termCount][];
+        Integer[] reversedOrder = new Integer[termCount];
+        for (int id = 0; id < termCount; id++) {
+            termBytes[id] = sortedTerms.get(id).getBytes(StandardCharsets.UTF_8);
+            if (id > 0 && Arrays.compareUnsigned(termBytes[id - 1], termBytes[id]) >= 0) {
+                throw new IllegalArgumentException("Terms are not sorted: " + sortedTerms.get(id - 1) + ", " + sortedTerms.get(id));
+            }
+            reversedBytes[id] = reverse(termBytes[id], termBytes[id].length);
+            reversedOrder[id] = id;
+        }
+        Arrays.sort(reversedOrder, (a, b) -> Arrays.compareUnsigned(reversedBytes[a], reversedBytes[b]));
+
+        int[] forwardOffsets = new int[blockCount];
+        int[] reversedOffsets = new int[blockCount];
+        ByteArrayOutputStream forwardData = new ByteArrayOutputStream();
+        ByteArrayOutputStream reversedData = new ByteArrayOutputStream();
+        for (int rank = 0; rank < termCount; rank++) {
+            boolean first = rank % BLOCK_SIZE == 0;
+            if (first) {
+                forwardOffsets[rank / BLOCK_SIZE] = forwardData.size();
+                reversedOffsets[rank / BLOCK_SIZE] = reversedData.size();
+            }
+            writeTerm(forwardData, first ? null : termBytes[rank - 1], termBytes[rank]);
+            writeTerm(reversedData, first ? null : reversedBytes[reversedOrder[rank - 1]], reversedBytes[reversedOrder[rank]]);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + blockCount * 8 + termCount * 4
+                + forwardData.size() + reversedData.size());
+        out.putInt(termCount).putInt(blockCount).putInt(forwardData.size()).putInt(reversedData.size());
+        for (int offset : forwardOffsets) out.putInt(offset);
+        for (int offset : reversedOffsets) out.putInt(offset);
+        for (int id : reversedOrder) out.putInt(id);
+        out.put(forwardData.toByteArray()).put(reversedData.toByteArray());
+        return out.array();
+    }
+
+    // Writes a term as its full bytes if previous is null, else as the suffix after the prefix shared with previous
+    private static void writeTerm(ByteArrayOutputStream out, byte[] previous, byte[] term) {
+        int shared = 0;
+        if (previous != null) {
+            int max = Math.min(previous.length, term.length);
+            while (shared < max && previous[shared] == term[shared]) {
+                shared++;
+            }
+            writeVarInt(out, shared);
+        }
+        writeVarInt(out, term.length - shared);
+        out.write(term, shared, term.length - shared);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Compares two terms in dictionary order, the unsigned order of their UTF-8 bytes, which is
+     * also the order of their code points.
+     */
+    public static int compare(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    @Override
+    public int getOrAdd(String term) {
+        throw new UnsupportedOperationException("A front-coded term dictionary is read-only");
+    }
+
+    @Override
+    public int getId(String term) {
+        byte[] probe = term.getBytes(StandardCharsets.UTF_8);
+        Cursor cursor = forward.seek(probe, 0);
+        return cursor.rank < termCount && cursor.compareTo(probe) == 0 ? cursor.rank : -1;
+    }
+
+    @Override
+    public String getTerm(int id) {
+        if (id < 0 || id >= termCount) {
+            throw new IndexOutOfBoundsException("Term ID " + id + " out of range 0-" + (termCount - 1));
+        }
+        Cursor cursor = new Cursor(forward, id);
+        cursor.next();
+        return cursor.toTerm();
+    }
+
+    @Override
+    public int size() {
+        return termCount;
+    }
+
+    /**
+     * Returns the terms in sorted order.
+     */
+    @Override
+    public Iterable<String> terms() {
+        return () -> new Iterator<String>() {
+            private final Cursor cursor = new Cursor(forward, 0);
+
+            @Override
+            public boolean hasNext() {
+                return cursor.rank + 1 < termCount;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                cursor.next();
+                return cursor.toTerm();
+            }
+        };
+    }
+
+    @Override
+    public Iterable<String> sortedTerms() {
+        return terms();
+    }
+
+    /**
+     * Returns the terms starting with a prefix, in sorted order, reading only the blocks that hold them.
+     */
+    @Override
+    public List<String> termsWithPrefix(String prefix) {
+        byte[] probe = prefix.getBytes(StandardCharsets.UTF_8);
+        List<String> terms = new ArrayList<>();
+        for (Cursor cursor = forward.seek(probe, 0); cursor.rank < termCount && cursor.startsWith(probe); cursor.next()) {
+            terms.add(cursor.toTerm());
+        }
+        return terms;
+    }
+
+    /**
+     * Returns the terms ending with a suffix, found through the reversed terms, in no particular order.
+     */
+    @Override
+    public List<String> termsWithSuffix(String suffix) {
+        byte[] suffixBytes = suffix.getBytes(StandardCharsets.UTF_8);
+        byte[] probe = reverse(suffixBytes, suffixBytes.length);
+        List<String> terms = new ArrayList<>();
+        for (Cursor cursor = reversed.seek(probe, 0); cursor.rank < termCount && cursor.startsWith(probe); cursor.next()) {
+            terms.add(getTerm(buffer.getInt(reversedIdsStart + cursor.rank * 4)));
+        }
+        return terms;
+    }
+
+    /**
+     * Returns the terms accepted by a Levenshtein automaton, in sorted order. The automaton reads
+     * each term from the first byte that differs from the previous term. When it reaches a dead
+     * state, the automaton itself finds the next prefix it can still accept, and the dictionary
+     * seeks straight to it, so only terms whose prefixes can still match are decoded.
+     */
+    @Override
+    public List<String> termsWithin(LevenshteinAutomaton automaton) {
+        List<String> terms = new ArrayList<>();
+        int[][] states = new int[16][];  // states[d]: the state after the first d bytes of path
+        byte[] path = new byte[16];      // the bytes the states were computed for
+        int depth = 0;                   // states[0..depth] are valid
+        states[0] = new int[automaton.stateSize()];
+        automaton.start(states[0]);
+
+        Cursor cursor = forward.seek(new byte[0], 0);
+        while (cursor.rank < termCount) {
+            int length = cursor.length;
+            if (states.length <= length) {
+                states = Arrays.copyOf(states, length + 1);
+                path = Arrays.copyOf(path, length + 1);
+            }
+            // Keep the states of the prefix this term shares with the path
+            int common = 0;
+            while (common < depth && common < length && path[common] == cursor.term[common]) {
+                common++;
+            }
+            depth = common;
+
+            boolean dead = false;
+            while (depth < length && !dead) {
+                byte ch = cursor.term[depth];
+                if (states[depth + 1] == null) {
+                    states[depth + 1] = new int[automaton.stateSize()];
+                }
+                automaton.step(depth > 0 ? states[depth - 1] : null, depth > 0 ? path[depth - 1] : 0,
+                        states[depth], ch, states[depth + 1]);
+                path[depth++] = ch;
+                dead = !automaton.canMatch(states[depth]);
+            }
+            if (!dead) {
+                if (automaton.isMatch(states[length])) {
+                    terms.add(cursor.toTerm());
+                }
+                cursor.next();
+                continue;
+            }
+
+            // Replace the last byte by the next one the automaton accepts there, going up a level
+            // when there is none, and seek to the first term with that prefix
+            int level = depth - 1;
+            int next = -1;
+            while (level >= 0 && next < 0) {
+                next = automaton.nextByte(level > 0 ? states[level - 1] : null, level > 0 ? path[level - 1] : 0,
+                        states[level], path[level] & 0xFF);
+                if (next < 0) {
+                    level--;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            byte[] target = Arrays.copyOf(path, level + 1);
+            target[level] = (byte) next;
+            depth = level;
+            cursor = cursor.advanceTo(target);
+        }
+        return terms;
+    }
+
+    /**
+     * Returns the size of the encoded dictionary in bytes.
+     */
+    public int sizeInBytes() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns true if the dictionary is read from a mapped file or an {@link OffHeapArena}, not the heap.
+     */
+    boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    /**
+     * Returns a copy of this dictionary in the memory of an arena, or this dictionary if it is
+     * read from a mapped file or an arena already.
+     */
+    FrontCodedTermDictionary offHeapCopy(OffHeapArena arena) {
+        if (isDirect()) {
+            return this;
+        }
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        return new FrontCodedTermDictionary(arena.allocate(source.remaining()).put(source).clear());
+    }
+
+    /**
+     * Returns a copy of the encoded dictionary, e.g. to write it to a file.
+     */
+    byte[] toBytes() {
+        byte[] bytes = new byte[buffer.capacity()];
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        source.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] reverse(byte[] bytes, int length) {
+        byte[] reversed = new byte[length];
+        for (int i = 0; i < length; i++) {
+            reversed[i] = bytes[length - 1 - i];
+        }
+        return reversed;
+    }
+
+    // One front-coded list of terms: the forward terms or the reversed ones
+    private class Blocks {
+        final int offsetsStart;
+        final int dataStart;
+
+        Blocks(int offsetsStart, int dataStart) {
+            this.offsetsStart = offsetsStart;
+            this.dataStart = dataStart;
+        }
+
+        int blockStart(int block) {
+            return dataStart + buffer.getInt(offsetsStart + block * 4);
+        }
+
+        // Returns a cursor on the first term not smaller than probe, or at rank termCount if there is none.
+        // The search gallops forward from the block of fromRank, so a seek to a nearby term costs little.
+        Cursor seek(byte[] probe, int fromRank) {
+            // The last block whose first term is smaller than probe holds the answer, or the answer starts the next block
+            int blockCount = (termCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int block = -1;
+            int low = 0;
+            int high = blockCount - 1;
+            int from = Math.min(fromRank, termCount - 1) / BLOCK_SIZE;
+            if (from > 0 && compareFirstTerm(from, probe) < 0) {
+                block = from;
+                int step = 1;
+                while (from + step < blockCount && compareFirstTerm(from + step, probe) < 0) {
+                    block = from + step;
+                    step <<= 1;
+                }
+                low = block + 1;
+                high = Math.min(from + step, blockCount) - 1;
+            }
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (compareFirstTerm(mid, probe) < 0) {
+                    block = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            Cursor cursor = new Cursor(this, Math.max(block, 0) * BLOCK_SIZE);
+            while (cursor.next() && cursor.compareTo(probe) < 0) {
+                // Skip the smaller terms of the block
+            }
+            return cursor;
+        }
+
+        private int compareFirstTerm(int block, byte[] probe) {
+            int[] position = {blockStart(block)};
+            int length = readVarInt(position);
+            int common = Math.min(length, probe.length);
+            for (int i = 0; i < common; i++) {
+                int cmp = (buffer.get(position[0] + i) & 0xFF) - (probe[i] & 0xFF);
+                if (cmp != 0) return cmp;
+            }
+            return length - probe.length;
+        }
+    }
+
+    // Decodes the terms of a list one after the other, starting at a rank
+    private class Cursor {
+        private final Blocks blocks;
+        private final int[] position = new int[1];
+        private byte[] term = new byte[32];
+        private int length;
+        int rank; // the rank of the current term; the cursor starts before fromRank
+
+        Cursor(Blocks blocks, int fromRank) {
+            this.blocks = blocks;
+            this.rank = fromRank - 1;
+            if (fromRank < termCount) {
+                // Decode the terms of the block before fromRank, which the first one may share bytes with
+                int first = fromRank - fromRank % BLOCK_SIZE;
+                position[0] = blocks.blockStart(first / BLOCK_SIZE);
+                rank = first - 1;
+                while (rank < fromRank - 1) {
+                    next();
+                }
+            }
+        }
+
+        // Moves to the next term; false at the end of the list
+        boolean next() {
+            if (rank + 1 >= termCount) {
+                rank = termCount;
+                return false;
+            }
+            rank++;
+            int shared = 0;
+            if (rank % BLOCK_SIZE == 0) {
+                position[0] = blocks.blockStart(rank / BLOCK_SIZE);
+            } else {
+                shared = readVarInt(position);
+            }
+            int suffix = readVarInt(position);
+            length = shared + suffix;
+            if (term.length < length) {
+                term = Arrays.copyOf(term, Math.max(length, term.length * 2));
+            }
+            buffer.get(position[0], term, shared, suffix);
+            position[0] += suffix;
+            return true;
+        }
+
+        // Returns a cursor on the first term not smaller than probe, which must be larger than the current term.
+        // Targets within the current block are reached by decoding on; others by a seek.
+        Cursor advanceTo(byte[] probe) {
+            int nextBlock = rank / BLOCK_SIZE + 1;
+            if (nextBlock * BLOCK_SIZE < termCount && blocks.compareFirstTerm(nextBlock, probe) <= 0) {
+                return blocks.seek(probe, rank);
+            }
+            while (next() && compareTo(probe) < 0) {
+                // Skip the smaller terms of the block
+            }
+            return this;
+        }
+
+        int compareTo(byte[] probe) {
+            int common = Math.min(length, probe.length);
+            for (int i = 0; i < common; i++) {
+                int cmp = (term[i] & 0xFF) - (probe[i] & 0xFF);
+                if (cmp != 0) return cmp;
+            }
+            return length - probe.length;
+        }
+
+        boolean startsWith(byte[] prefix) {
+            if (length < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (term[i] != prefix[i]) return false;
+            }
+            return true;
+        }
+
+        String toTerm() {
+            return new String(term, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private int readVarInt(int[] cursor) {
+        int b = buffer.get(cursor[0]++);
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buffer.get(cursor[0]++);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+}
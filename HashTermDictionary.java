@@ -0,0 +1,60 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * HashTermDictionary class is the in-memory, growable {@link TermDictionary} used while building an index.
+ * Term IDs are assigned in the order terms are first seen.
+ */
+public class HashTermDictionary implements TermDictionary, Serializable {
+    private static final long serialVersionUID = 1L;
+    private final HashMap<String, Integer> idsByTerm = new HashMap<>();
+    private final List<String> terms = new ArrayList<>();
+
+    /**
+     * Creates a writable copy of another dictionary, keeping its term IDs.
+     */
+    public static HashTermDictionary copyOf(TermDictionary dictionary) {
+        HashTermDictionary copy = new HashTermDictionary();
+        for (int id = 0; id < dictionary.size(); id++) {
+            copy.getOrAdd(dictionary.getTerm(id));
+        }
+        return copy;
+    }
+
+    @Override
+    public int getOrAdd(String term) {
+        Integer id = idsByTerm.get(term);
+        if (id == null) {
+            id = terms.size();
+            idsByTerm.put(term, id);
+            terms.add(term);
+        }
+        return id;
+    }
+
+    @Override
+    public int getId(String term) {
+        Integer id = idsByTerm.get(term);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public String getTerm(int id) {
+        return terms.get(id);
+    }
+
+    @Override
+    public int size() {
+        return terms.size();
+    }
+
+    /**
+     * Returns the terms in hash order, the order the index has always been written in.
+     */
+    @Override
+    public Iterable<String> terms() {
+        return idsByTerm.keySet();
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram class records the distribution of non-negative values, such as latencies, in
+ * log-linear buckets: every power of two is split into 8 buckets, so a percentile is off by at
+ * most 12.5% while the whole range of longs fits in fewer than 500 counters. Recording is
+ * lock-free and costs a few atomic additions, so it can sit on the indexing and query paths.
+ */
+public class Histogram implements HistogramMXBean {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String unit;
+    private final long scale; // recorded values are divided by this when reported, e.g. 1000 for ns -> us
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param unit  The unit values are reported in.
+     * @param scale The number of recorded units per reported unit.
+     */
+    public Histogram(String unit, long scale) {
+        this.unit = unit;
+        this.scale = scale;
+    }
+
+    /**
+     * Returns a histogram of durations recorded in nanoseconds and reported in microseconds.
+     */
+    public static Histogram latency() {
+        return new Histogram("us", 1000);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time elapsed since start, a value of {@link System#nanoTime()}.
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // at least SUB_BUCKET_BITS
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // The largest value that falls into a bucket
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Returns the recorded value below which the given fraction of the values fall, in recorded units.
+     */
+    public long valueAt(double fraction) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBound(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String getUnit() {
+        return unit;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n / scale;
+    }
+
+    @Override
+    public long getPercentile50() {
+        return valueAt(0.5) / scale;
+    }
+
+    @Override
+    public long getPercentile90() {
+        return valueAt(0.9) / scale;
+    }
+
+    @Override
+    public long getPercentile99() {
+        return valueAt(0.99) / scale;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get() / scale;
+    }
+
+    /**
+     * Writes the summary of this histogram as a JSON object.
+     */
+    public void writeJson(JsonWriter json) {
+        json.beginObject()
+                .name("unit").value(unit)
+                .name("count").value(getCount())
+                .name("mean").value(Math.round(getMean() * 10) / 10.0)
+                .name("p50").value(getPercentile50())
+                .name("p90").value(getPercentile90())
+                .name("p99").value(getPercentile99())
+                .name("max").value(getMax())
+                .endObject();
+    }
+}
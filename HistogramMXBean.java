@@ -0,0 +1,19 @@
+/**
+ * HistogramMXBean interface is the JMX view of a {@link Histogram}. Values are in the unit of
+ * {@link #getUnit()}; percentiles are accurate to within 12.5%.
+ */
+public interface HistogramMXBean {
+    String getUnit();
+
+    long getCount();
+
+    double getMean();
+
+    long getPercentile50();
+
+    long getPercentile90();
+
+    long getPercentile99();
+
+    long getMax();
+}
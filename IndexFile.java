@@ -0,0 +1,323 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * IndexFile class reads and writes the binary on-disk format of an {@link InvertedIndex}. The index
+ * file itself only holds the document table, the corpus manifest and the list of segments; the terms
+ * and postings of each {@link Segment} are in a separate {@link SegmentFile} next to it, written once.
+ * Saving an index therefore rewrites this small file and writes only the segments that are new.
+ * Opening it maps every segment file into memory and copies only the document table onto the heap.
+ *
+ * Format, version 4 (all numbers big-endian; versions 1 to 3 kept all postings in this file and must be rebuilt):
+ * <pre>
+ * Header, 128 bytes:
+ *   int  magic "EIDX" (0x45494458)
+ *   int  format version
+ *   int  flags (bit 0: stemming enabled, bit 1: forward index enabled, bit 3: corpus manifest present)
+ *   int  document count
+ *   int  segment count
+ *   int  next segment number
+ *   long document table offset
+ *   long segment list offset
+ *   long corpus manifest offset, 0 if absent
+ *   long file length
+ *   long CRC32 of all bytes after the header
+ *   72 reserved bytes, 0
+ * Document table, per document in ID order:
+ *   int name length, name bytes (UTF-8), int path length, path bytes (UTF-8), int word count (-1 if deleted)
+ * Segment list, in document ID order:
+ *   int segment number, int first document ID, int document count
+ * Corpus manifest, if present (see {@link CorpusManifest}), per document in ID order:
+ *   long file size (-1 if unknown), long modification time, long content hash
+ * </pre>
+ * Segment files no longer listed are deleted after the index file is replaced.
+ */
+public class IndexFile {
+    static final int MAGIC = 0x45494458;
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = 128;
+    static final int FLAG_STEMMING = 1;
+    static final int FLAG_FORWARD_INDEX = 2;
+    static final int FLAG_MANIFEST = 8;
+
+    final boolean stemming;
+    final boolean forwardIndexEnabled;
+    final DocumentTable documents;
+    final List<Segment> segments;
+    final int nextSegmentNumber;
+    final CorpusManifest manifest;         // null if the file has none
+
+    private IndexFile(boolean stemming, boolean forwardIndexEnabled, DocumentTable documents, List<Segment> segments,
+                      int nextSegmentNumber, CorpusManifest manifest) {
+        this.stemming = stemming;
+        this.forwardIndexEnabled = forwardIndexEnabled;
+        this.documents = documents;
+        this.segments = segments;
+        this.nextSegmentNumber = nextSegmentNumber;
+        this.manifest = manifest;
+    }
+
+    /**
+     * Writes an index to a file. Segments that are not stored next to this file yet are written
+     * first; the index file is then written under a temporary name and renamed, so readers never
+     * see a partially written index. Finally the segment files it no longer lists are deleted.
+     */
+    public static void write(String filePath, boolean stemming, boolean forwardIndexEnabled, DocumentTable documents,
+                             List<Segment> segments, int nextSegmentNumber, CorpusManifest manifest) throws IOException {
+        File target = new File(filePath).getAbsoluteFile();
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+
+        Set<String> segmentFiles = new HashSet<>();
+        for (Segment segment : segments) {
+            File segmentFile = SegmentFile.path(filePath, segment.getNumber());
+            if (!segmentFile.equals(segment.getFile())) {
+                if (segment.getFile() != null && segment.getFile().exists()) {
+                    SegmentFile.copy(segment.getFile(), segmentFile); // e.g. a segment merged from spilled runs
+                } else {
+                    SegmentFile.write(segmentFile, segment);
+                }
+                segment.setFile(segmentFile);
+            }
+            segmentFiles.add(segmentFile.getName());
+        }
+
+        CRC32 crc = new CRC32();
+        long documentOffset, segmentsOffset, manifestOffset = 0, fileLength;
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(file, 1 << 16);
+            buffered.write(new byte[HEADER_SIZE]); // rewritten once the offsets are known
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+
+            documentOffset = HEADER_SIZE;
+            for (int docId = 0; docId < documents.size(); docId++) {
+                writeString(out, documents.getName(docId));
+                writeString(out, documents.getPath(docId));
+                out.writeInt(documents.isDeleted(docId) ? -1 : documents.getLength(docId));
+            }
+
+            segmentsOffset = position(out, file);
+            for (Segment segment : segments) {
+                out.writeInt(segment.getNumber());
+                out.writeInt(segment.getFirstDocId());
+                out.writeInt(segment.getDocumentCount());
+            }
+
+            if (manifest != null) {
+                manifestOffset = position(out, file);
+                for (int docId = 0; docId < documents.size(); docId++) {
+                    out.writeLong(manifest.getSize(docId));
+                    out.writeLong(manifest.getModifiedTime(docId));
+                    out.writeLong(manifest.getHash(docId));
+                }
+            }
+            fileLength = position(out, file);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt((stemming ? FLAG_STEMMING : 0) | (forwardIndexEnabled ? FLAG_FORWARD_INDEX : 0)
+                    | (manifest != null ? FLAG_MANIFEST : 0));
+            raf.writeInt(documents.size());
+            raf.writeInt(segments.size());
+            raf.writeInt(nextSegmentNumber);
+            raf.writeLong(documentOffset);
+            raf.writeLong(segmentsOffset);
+            raf.writeLong(manifestOffset);
+            raf.writeLong(fileLength);
+            raf.writeLong(crc.getValue());
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Merged-away segments; a segment still in use stays readable through its mapping
+        File[] stale = target.getParentFile().listFiles((dir, name) ->
+                SegmentFile.isSegmentFileOf(target, name) && !segmentFiles.contains(name));
+        if (stale != null) {
+            for (File file : stale) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    // DataOutputStream.size() saturates at 2 GB, so offsets are taken from the file itself
+    static long position(DataOutputStream out, FileOutputStream file) throws IOException {
+        out.flush();
+        return file.getChannel().position();
+    }
+
+    /**
+     * Opens an index file and maps its segment files into memory.
+     *
+     * @param filePath       The index file.
+     * @param verifyChecksum True to read all files once and check their CRC32.
+     * @return The opened index file.
+     * @throws IOException If the file cannot be read or is not a valid index file.
+     */
+    public static IndexFile open(String filePath, boolean verifyChecksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(filePath).toPath(), StandardOpenOption.READ)) {
+            int version = readVersion(channel);
+            if (version < 0) {
+                throw new IOException(filePath + " is not an index file");
+            }
+            if (version != VERSION) {
+                throw new IOException(filePath + " has unsupported format version " + version);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            int flags = header.getInt(8);
+            int documentCount = header.getInt(12);
+            int segmentCount = header.getInt(16);
+            int nextSegmentNumber = header.getInt(20);
+            long documentOffset = header.getLong(24);
+            long segmentsOffset = header.getLong(32);
+            long manifestOffset = (flags & FLAG_MANIFEST) != 0 ? header.getLong(40) : 0;
+            long fileLength = header.getLong(48);
+            if (fileLength != channel.size()) {
+                throw new IOException(filePath + " is truncated: expected " + fileLength + " bytes, found " + channel.size());
+            }
+
+            long segmentsEnd = manifestOffset != 0 ? manifestOffset : fileLength;
+            MappedByteBuffer documentSection = map(channel, documentOffset, segmentsOffset);
+            MappedByteBuffer segmentSection = map(channel, segmentsOffset, segmentsEnd);
+            MappedByteBuffer manifestSection = manifestOffset != 0 ? map(channel, manifestOffset, fileLength) : null;
+
+            if (verifyChecksum) {
+                CRC32 crc = new CRC32();
+                crc.update(documentSection.duplicate());
+                crc.update(segmentSection.duplicate());
+                if (manifestSection != null) {
+                    crc.update(manifestSection.duplicate());
+                }
+                if (crc.getValue() != header.getLong(56)) {
+                    throw new IOException(filePath + " is corrupt: checksum mismatch");
+                }
+            }
+
+            DocumentTable documents = new DocumentTable();
+            ByteBuffer in = documentSection.duplicate();
+            for (int docId = 0; docId < documentCount; docId++) {
+                String name = readString(in);
+                String path = readString(in);
+                int length = in.getInt();
+                documents.add(name, path, Math.max(length, 0));
+                if (length < 0) {
+                    documents.delete(docId);
+                }
+            }
+
+            List<Segment> segments = new ArrayList<>(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                int number = segmentSection.getInt(i * 12);
+                File segmentFile = SegmentFile.path(filePath, number);
+                segments.add(SegmentFile.open(segmentFile, number, segmentSection.getInt(i * 12 + 4),
+                        segmentSection.getInt(i * 12 + 8), verifyChecksum));
+            }
+
+            CorpusManifest manifest = null;
+            if (manifestSection != null) {
+                manifest = new CorpusManifest();
+                for (int docId = 0; docId < documentCount; docId++) {
+                    int entry = docId * CorpusManifest.ENTRY_SIZE;
+                    long size = manifestSection.getLong(entry);
+                    if (size >= 0) {
+                        manifest.put(docId, size, manifestSection.getLong(entry + 8), manifestSection.getLong(entry + 16));
+                    }
+                }
+            }
+
+            return new IndexFile((flags & FLAG_STEMMING) != 0, (flags & FLAG_FORWARD_INDEX) != 0, documents, segments,
+                    nextSegmentNumber, manifest);
+        }
+    }
+
+    /**
+     * Returns the format version of an index file, or -1 if the file is not an index file.
+     *
+     * @param filePath The index file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static int version(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(filePath).toPath(), StandardOpenOption.READ)) {
+            return readVersion(channel);
+        }
+    }
+
+    /**
+     * Returns true if the file is an index file in a format older than {@link #VERSION}; such a
+     * file cannot be opened and has to be rebuilt from its corpus.
+     *
+     * @param filePath The index file; false if it does not exist.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isOutdated(String filePath) throws IOException {
+        if (!new File(filePath).exists()) {
+            return false;
+        }
+        int version = version(filePath);
+        return version >= 0 && version < VERSION;
+    }
+
+    private static int readVersion(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+        return start.getInt(0) == MAGIC ? start.getInt(4) : -1;
+    }
+
+    static MappedByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IOException("Index section of " + (to - from) + " bytes is too large to map");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Prints the header and the segments of an index file and verifies the checksums of all its files.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java IndexFile <index_file>");
+            return;
+        }
+        long begin = System.nanoTime();
+        IndexFile indexFile = open(args[0], true);
+        System.out.println("Stemming: " + indexFile.stemming);
+        System.out.println("Forward index: " + indexFile.forwardIndexEnabled);
+        System.out.println("Corpus manifest: " + (indexFile.manifest != null));
+        System.out.println("Documents: " + indexFile.documents.getLiveCount() + " (" + indexFile.documents.size() + " IDs)");
+        System.out.println("Segments: " + indexFile.segments.size());
+        for (Segment segment : indexFile.segments) {
+            System.out.println("  " + segment);
+        }
+        System.out.printf("Checksum OK, verified in %.1f ms%n", (System.nanoTime() - begin) / 1e6);
+    }
+}
@@ -1,25 +1,117 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 /**
  * InvertedIndex class builds and manages the inverted index for a corpus of documents.
  * It supports optional stemming based on a command-line flag.
+ *
+ * The index is a list of immutable {@link Segment}s that queries search together. Added documents
+ * are collected in memory and flushed into a new segment after each batch; a {@link MergeScheduler}
+ * merges small neighbouring segments into larger ones in the background, so adding documents costs
+ * a bounded amount of work and queries visit only a few segments. Segments opened from files are
+ * mapped, and with {@link #setOffHeap(boolean)} built and merged segments are kept in
+ * {@link OffHeapArena}s, so the heap holds little more than the document table and the queries.
+ * With {@link #setMemoryBudget(long, File)} an index is built single-pass in memory (SPIMI): each
+ * block of documents that fills the budget is written to a temporary file as a sorted run, and the
+ * runs are merged k ways into one segment at the end of the build.
  */
-public class InvertedIndex implements Serializable {
-    private static final long serialVersionUID = 1L; // Serialization version for compatibility
-    private HashMap<String, HashMap<String, List<Integer>>> invertedIndex;
+public class InvertedIndex implements Serializable, PostingsSource, Closeable {
+    private static final long serialVersionUID = 6L; // Serialization version for compatibility
+    private DocumentTable documents;      // docID -> name, path, length
+    private volatile List<Segment> segments = Collections.emptyList(); // in docID order; replaced, never modified
+    private transient SegmentBuilder buffer; // documents added since the last flush, or null
+    private int nextSegmentNumber;
+    private PostingsCodec postingsCodec = PostingsCodec.VARINT;
+    private boolean forwardIndexEnabled;  // whether segments keep a docID -> terms and positions index
+    private int maxBufferedDocuments = 10000; // documents collected in memory before a segment is flushed
+    private int mergeThreads = 1;             // merges that can run at the same time
+    private transient MergeScheduler mergeScheduler;
+    private long resultCacheBytes = 32 << 20;  // budget of the search and ranked search results cache
+    private long snippetCacheBytes = 64 << 20; // budget of the snippets cache
+    private transient volatile QueryCache<Collection<?>> resultCache; // created on first use
+    private transient volatile QueryCache<Map<String, Map<Integer, List<String>>>> snippetCache;
+    private transient CorpusManifest manifest;         // docID -> file size, modification time and hash when indexed
     private transient StopwordHandler stopwordHandler; //"transient" because it's not serializable
+    private transient volatile boolean verbose; // whether every indexed document is printed
+    private transient boolean offHeap;          // whether new segments are copied off the heap
+    private transient long memoryBudget;        // heap bytes of postings collected before they are spilled; 0 for no budget
+    private transient File spillDirectory;      // where the run directory is created; null for the temporary directory
+    private transient File runDirectory;        // the runs and the segments merged from them; created on the first spill
+    private transient List<Segment> runs;       // runs spilled by the current build, merged at its end
+    private transient volatile SegmentReaders readers; // closes merged-away segments once no query reads them; created on first use
+    private transient volatile boolean closed;          // set by close(); the segments are gone, but not the documents
     private boolean enableStemming; // Flag for stemming
+    private static final TermPostings EMPTY_POSTINGS = new TermPostings(new PostingList[0], new int[0]);
+    private static final ThreadLocal<Tokenizer> TOKENIZER = ThreadLocal.withInitial(Tokenizer::new); // one reusable buffer per thread
 
     public InvertedIndex(String stopwordFile, boolean enableStemming) throws IOException {
-        this.invertedIndex = new HashMap<>();
+        this.documents = new DocumentTable();
+        this.manifest = new CorpusManifest();
         this.stopwordHandler = new StopwordHandler();
         this.enableStemming = enableStemming;
         this.stopwordHandler.loadStopwords(stopwordFile);
     }
 
-    // **: Save to .ser file**
+    private InvertedIndex(StopwordHandler stopwordHandler, IndexFile indexFile) {
+        this.stopwordHandler = stopwordHandler;
+        this.enableStemming = indexFile.stemming;
+        this.documents = indexFile.documents;
+        this.segments = Collections.unmodifiableList(indexFile.segments);
+        this.nextSegmentNumber = indexFile.nextSegmentNumber;
+        this.forwardIndexEnabled = indexFile.forwardIndexEnabled;
+        this.manifest = indexFile.manifest != null ? indexFile.manifest : new CorpusManifest();
+    }
+
+    /**
+     * Saves the index in the binary {@link IndexFile} format. Only the segments that are not in
+     * a file next to it yet are written; merges still running are saved by a later call.
+     *
+     * @param indexFilePath The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void save(String indexFilePath) throws IOException {
+        ensureOpen();
+        flush();
+        IndexFile.write(indexFilePath, enableStemming, forwardIndexEnabled, documents, segments, nextSegmentNumber, manifest);
+        System.out.println("Inverted index has been saved to " + indexFilePath);
+    }
+
+    /**
+     * Opens an index saved with {@link #save(String)}. The segment files are memory-mapped and
+     * queried in place, so opening costs about the same regardless of the index size.
+     *
+     * @param indexFilePath The index file.
+     * @param stopwordFile  The stopword file used with the index.
+     * @return The index, or null if the file does not exist.
+     * @throws IOException If the file cannot be read, is not a valid index file or uses an older
+     *                     format (see {@link IndexFile#isOutdated(String)}).
+     */
+    public static InvertedIndex open(String indexFilePath, String stopwordFile) throws IOException {
+        if (!new File(indexFilePath).exists()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        if (IndexFile.isOutdated(indexFilePath)) {
+            throw new IOException(indexFilePath + " was written by an older version of the index format and has to be rebuilt from its corpus");
+        }
+        StopwordHandler stopwordHandler = new StopwordHandler();
+        stopwordHandler.loadStopwords(stopwordFile);
+        InvertedIndex index = new InvertedIndex(stopwordHandler, IndexFile.open(indexFilePath, false));
+        Metrics.shared().indexLoaded(start);
+        System.out.println("Inverted index has been opened from " + indexFilePath);
+        return index;
+    }
+
+    // **: Save to .ser file** (legacy format, superseded by save/open)
     public void saveToSerFile(String serFilePath) {
+        ensureOpen();
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(serFilePath))) {
             oos.writeObject(this); 
             System.out.println("Inverted index has been saved to " + serFilePath);
@@ -32,10 +124,19 @@ public class InvertedIndex implements Serializable {
     public static InvertedIndex loadFromSerFile(String serFilePath, String stopwordFile) throws IOException, ClassNotFoundException {
         File file = new File(serFilePath);
         if (file.exists()) {
+            long start = System.nanoTime();
             try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                InvertedIndex index = (InvertedIndex) ois.readObject();
+                InvertedIndex index;
+                try {
+                    index = (InvertedIndex) ois.readObject();
+                } catch (InvalidClassException e) {
+                    System.out.println(serFilePath + " was written by an incompatible version and will be rebuilt.");
+                    return null;
+                }
+                index.manifest = new CorpusManifest();
                 index.stopwordHandler = new StopwordHandler();
                 index.stopwordHandler.loadStopwords(stopwordFile);
+                Metrics.shared().indexLoaded(start);
                 System.out.println("Inverted index has been loaded from " + serFilePath);
                 return index;
             }
@@ -46,158 +147,1217 @@ public class InvertedIndex implements Serializable {
     }
 
     public void buildIndex(String corpusDirPath) throws IOException {
+        buildIndex(corpusDirPath, 1);
+    }
+
+    /**
+     * Builds the index using the given number of worker threads. Each worker tokenizes whole
+     * documents into partial postings; the partials are merged on the calling thread in corpus
+     * order, so the resulting index is identical to a sequential build.
+     */
+    public void buildIndex(String corpusDirPath, int threadCount) throws IOException {
+        buildIndex(corpusDirPath, threadCount, name -> true);
+    }
+
+    /**
+     * Builds the index from the corpus files whose lower-cased name is accepted by owns; used to
+     * build one shard of a {@link ShardedIndex}.
+     */
+    void buildIndex(String corpusDirPath, int threadCount, Predicate<String> owns) throws IOException {
         File corpusDir = new File(corpusDirPath);
         if (!corpusDir.exists() || !corpusDir.isDirectory()) {
             throw new IllegalArgumentException("The provided corpus directory path is invalid: " + corpusDirPath);
         }
 
-        File[] files = corpusDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".txt") || name.toLowerCase().endsWith(".html"));
-        if (files == null || files.length == 0) {
+        File[] files = listCorpusFiles(corpusDir);
+        if (files.length == 0) {
             System.out.println("No text or HTML files found in the directory: " + corpusDirPath);
             return;
         }
-
+        List<File> owned = new ArrayList<>(files.length);
         for (File file : files) {
-            if (file.getName().toLowerCase().endsWith(".txt")) {
-                indexDocument(file);
-            } else if (file.getName().toLowerCase().endsWith(".html")) {
-                indexHtmlDocument(file);
+            if (owns.test(file.getName().toLowerCase())) {
+                owned.add(file);
+            }
+        }
+        indexFiles(owned, threadCount);
+    }
+
+    private static File[] listCorpusFiles(File corpusDir) {
+        File[] files = corpusDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".txt") || name.toLowerCase().endsWith(".html"));
+        return files == null ? new File[0] : files;
+    }
+
+    // Tokenizes the files, on worker threads if threadCount > 1, merges them in order and encodes the postings
+    private void indexFiles(List<File> files, int threadCount) throws IOException {
+        ensureOpen();
+        if (threadCount <= 1) {
+            for (File file : files) {
+                mergeDocument(file, indexFile(file));
+            }
+            finishBuild();
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            // Workers run at most a few documents ahead of the merge, so their partials take bounded memory
+            int window = threadCount * 4;
+            List<Future<DocumentPostings>> partials = new ArrayList<>(files.size());
+            for (int i = 0; i < Math.min(window, files.size()); i++) {
+                File file = files.get(i);
+                partials.add(pool.submit(() -> indexFile(file)));
             }
+            // Merge in submission order: documents get their docIDs in file order, as in a sequential build,
+            // so every posting list of the segment builder is appended to in docID order
+            for (int i = 0; i < files.size(); i++) {
+                if (i + window < files.size()) {
+                    File file = files.get(i + window);
+                    partials.add(pool.submit(() -> indexFile(file)));
+                }
+                mergeDocument(files.get(i), partials.get(i).get());
+                partials.set(i, null);
+            }
+            finishBuild();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Index build interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException("Failed to index corpus", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Adds a document to the index.
+     *
+     * @param file The document file.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If a document with the same name is already indexed.
+     */
+    public void addDocument(File file) throws IOException {
+        if (documents.getId(file.getName().toLowerCase()) >= 0) {
+            throw new IllegalArgumentException("Document already indexed: " + file.getName());
         }
+        indexFiles(Collections.singletonList(file), 1);
     }
 
-    private void indexDocument(File file) throws IOException {
+    /**
+     * Replaces the indexed content of a document with the current content of its file, or adds
+     * the document if it is not indexed yet. The old version is deleted and the new one gets a new ID.
+     *
+     * @param file The document file.
+     * @throws IOException If the file cannot be read.
+     */
+    public void replaceDocument(File file) throws IOException {
+        deleteDocument(file.getName());
+        indexFiles(Collections.singletonList(file), 1);
+    }
+
+    /**
+     * Deletes a document. Its postings stay in its segment until the segment is merged, but a
+     * tombstone hides them from every search.
+     *
+     * @param name The document name.
+     * @return False if no such document is indexed.
+     */
+    public synchronized boolean deleteDocument(String name) {
+        ensureOpen();
+        int docId = documents.getId(name.toLowerCase());
+        if (docId < 0) {
+            return false;
+        }
+        documents.delete(docId);
+        manifest.remove(docId);
+        invalidateCaches();
+        return true;
+    }
+
+    /**
+     * Brings the index up to date with the corpus directory: files that are new are added, files
+     * whose size or content changed since they were indexed are replaced, and documents whose file
+     * is gone are deleted. Unchanged files are not read, except to hash those whose modification
+     * time changed but whose size did not.
+     *
+     * @param corpusDirPath The corpus directory.
+     * @param threadCount   Worker threads used to index the new and changed files.
+     * @return True if the index changed.
+     * @throws IOException If a file cannot be read.
+     */
+    public boolean reconcile(String corpusDirPath, int threadCount) throws IOException {
+        return reconcile(corpusDirPath, threadCount, name -> true);
+    }
+
+    /**
+     * Reconciles the index with the corpus files whose lower-cased name is accepted by owns; the
+     * other files are treated as absent. Used to reconcile one shard of a {@link ShardedIndex}.
+     */
+    boolean reconcile(String corpusDirPath, int threadCount, Predicate<String> owns) throws IOException {
+        ensureOpen();
+        File corpusDir = new File(corpusDirPath);
+        if (!corpusDir.isDirectory()) {
+            throw new IllegalArgumentException("The provided corpus directory path is invalid: " + corpusDirPath);
+        }
+        Map<String, File> filesByName = new LinkedHashMap<>();
+        for (File file : listCorpusFiles(corpusDir)) {
+            String name = file.getName().toLowerCase();
+            if (owns.test(name)) {
+                filesByName.put(name, file);
+            }
+        }
+
+        List<String> removed = new ArrayList<>();
+        List<File> changed = new ArrayList<>();
+        int unchanged = 0;
+        for (int docId = 0; docId < documents.size(); docId++) {
+            if (documents.isDeleted(docId)) {
+                continue;
+            }
+            String name = documents.getName(docId);
+            File file = filesByName.remove(name);
+            if (file == null) {
+                removed.add(name);
+            } else if (manifest.isUnchanged(docId, file)) {
+                unchanged++;
+            } else {
+                changed.add(file);
+            }
+        }
+        List<File> added = new ArrayList<>(filesByName.values());
+
+        for (String name : removed) {
+            deleteDocument(name);
+        }
+        for (File file : changed) {
+            deleteDocument(file.getName());
+        }
+        List<File> toIndex = new ArrayList<>(changed);
+        toIndex.addAll(added);
+        indexFiles(toIndex, threadCount);
+        System.out.println("Reconciled with " + corpusDirPath + ": " + added.size() + " added, " + changed.size()
+                + " changed, " + removed.size() + " deleted, " + unchanged + " unchanged.");
+        return !removed.isEmpty() || !toIndex.isEmpty();
+    }
+
+    // Postings of a single document before they are merged into the index
+    private static class DocumentPostings {
+        final Map<String, IntList> positionsByTerm = new LinkedHashMap<>(); // first-occurrence order
+        final PositionOffsets.Recorder checkpoints = new PositionOffsets.Recorder();
+        int length;
+        int stopwords; // tokens dropped as stopwords
+        long fileSize;
+        long modifiedTime;
+        long hash;
+    }
+
+    // Tokenizes one corpus file into its own postings (word -> positions); touches no shared state
+    private DocumentPostings indexFile(File file) throws IOException {
+        long begin = System.nanoTime();
         String documentName = file.getName().toLowerCase();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            int wordPosition = 0;
+        boolean html = documentName.endsWith(".html");
+        DocumentPostings documentPostings = new DocumentPostings();
+        // Read the file state first, so a change made while indexing shows up at the next reconcile
+        documentPostings.modifiedTime = file.lastModified();
+        documentPostings.fileSize = file.length();
+        documentPostings.hash = CorpusManifest.hash(file);
+
+        documentPostings.length = TOKENIZER.get().tokenize(file, html, true, (buffer, start, length, position, offset) -> {
+            documentPostings.checkpoints.token(buffer, position, offset);
+            String word = new String(buffer, start, length);
+            if (stopwordHandler.isStopword(word)) {
+                documentPostings.stopwords++;
+                return;
+            }
 
-            while ((line = br.readLine()) != null) {
-                String[] tokens = line.split("\\W+");
+            if (enableStemming) {
+                word = StemCache.shared().stem(word);
+            }
 
-                for (String token : tokens) {
-                    if (token.isEmpty()) continue;
+            documentPostings.positionsByTerm
+                .computeIfAbsent(word, k -> new IntList())
+                .add(position);
+        });
+        Metrics.shared().documentIndexed(begin, documentPostings.length, documentPostings.stopwords, documentPostings.fileSize);
+        if (verbose) {
+            System.out.println((html ? "Indexed HTML document: " : "Indexed document: ") + documentName);
+        }
+        return documentPostings;
+    }
 
-                    wordPosition++;
-                    String word = token.toLowerCase();
+    // Adds the postings of a single document to the in-memory segment, and flushes it once it is full
+    private synchronized void mergeDocument(File file, DocumentPostings documentPostings) {
+        String name = file.getName().toLowerCase();
+        int existing = documents.getId(name);
+        if (existing >= 0 && (buffer == null || existing < buffer.getFirstDocId())) {
+            // The earlier file is in a segment, which cannot change any more: the later file replaces it
+            deleteDocument(name);
+            existing = -1;
+        }
+        if (buffer == null) {
+            buffer = new SegmentBuilder(documents.size(), forwardIndexEnabled);
+        }
+        int docId = documents.add(name, file.getPath(), documentPostings.length);
+        manifest.put(docId, documentPostings.fileSize, documentPostings.modifiedTime, documentPostings.hash);
+        // Two files with the same lower-cased name share positions, so neither one's offsets fit
+        buffer.add(docId, documentPostings.positionsByTerm, existing >= 0 ? null : documentPostings.checkpoints.toArray());
+        if (memoryBudget > 0 ? buffer.estimatedBytes() >= memoryBudget : buffer.getDocumentCount() >= maxBufferedDocuments) {
+            flush(memoryBudget == 0); // a memory-bounded build merges its runs once, at the end
+        }
+    }
 
-                    if (stopwordHandler.isStopword(word)) continue;
+    // Flushes the last documents of a build and merges the runs it spilled, if any
+    private void finishBuild() throws IOException {
+        flush(false);
+        List<Segment> merging;
+        synchronized (this) {
+            merging = runs == null ? Collections.emptyList() : runs;
+            runs = null;
+        }
+        if (merging.size() > 1) {
+            try {
+                mergeSegments(merging);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        mergeScheduler().maybeMerge();
+    }
 
-                    if (enableStemming) {
-                        PorterStemmer stemmer = new PorterStemmer(word);
-                        word = stemmer.stem();
-                    }
+    /**
+     * Turns the documents added since the last flush into a new segment, which searches see from
+     * then on, and lets the merge scheduler merge it with its neighbours. Adding documents flushes
+     * at the end of every batch and whenever {@link #setMaxBufferedDocuments(int)} documents are pending.
+     */
+    public synchronized void flush() {
+        ensureOpen();
+        flush(true);
+    }
 
-                    invertedIndex
-                        .computeIfAbsent(word, k -> new HashMap<>())
-                        .computeIfAbsent(documentName, k -> new ArrayList<>())
-                        .add(wordPosition);
+    // With a memory budget, the new segment is written to the run directory as a run and mapped from there
+    private synchronized void flush(boolean merge) {
+        if (buffer == null) {
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            long start = System.nanoTime();
+            Segment segment = buffer.build(nextSegmentNumber++, postingsCodec);
+            if (memoryBudget > 0) {
+                segment = spill(segment);
+                if (runs == null) {
+                    runs = new ArrayList<>();
                 }
+                runs.add(segment);
+            } else {
+                segment = place(segment);
             }
+            List<Segment> updated = new ArrayList<>(segments);
+            updated.add(segment);
+            Metrics.shared().segmentFlush.recordSince(start);
+            segments = Collections.unmodifiableList(updated);
+            invalidateCaches();
+        }
+        buffer = null;
+        if (merge) {
+            mergeScheduler().maybeMerge();
         }
-        System.out.println("Indexed document: " + documentName);
     }
 
-    private void indexHtmlDocument(File file) throws IOException {
-        String documentName = file.getName().toLowerCase();
-        StringBuilder content = new StringBuilder();
+    // Writes a segment to a file of the run directory and maps it, so it leaves the heap
+    private Segment spill(Segment segment) {
+        try {
+            File file = runFile(segment.getNumber());
+            SegmentFile.write(file, segment);
+            file.deleteOnExit();
+            return SegmentFile.open(file, segment.getNumber(), segment.getFirstDocId(), segment.getDocumentCount(), false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                content.append(line).append(" ");
+    // The file of a run or merged segment in the run directory, which is created on first use
+    private synchronized File runFile(int number) throws IOException {
+        if (runDirectory == null) {
+            File parent = spillDirectory != null ? spillDirectory : new File(System.getProperty("java.io.tmpdir"));
+            runDirectory = Files.createTempDirectory(parent.toPath(), "spimi-").toFile();
+            runDirectory.deleteOnExit();
+        }
+        return SegmentFile.path(new File(runDirectory, "run.idx").getPath(), number);
+    }
+
+    private synchronized boolean isInRunDirectory(Segment segment) {
+        File file = segment.getFile();
+        return runDirectory != null && file != null && runDirectory.equals(file.getParentFile());
+    }
+
+    /**
+     * Merges adjacent segments into one and puts it in their place; called by the {@link MergeScheduler}.
+     * The merge itself runs without holding the index lock. If the segments were replaced meanwhile,
+     * e.g. re-encoded with another codec, the result is dropped.
+     */
+    void mergeSegments(List<Segment> merging) {
+        BitSet deleted;
+        int number;
+        PostingsCodec codec;
+        boolean toOffHeap;
+        boolean toDisk;
+        synchronized (this) {
+            deleted = (BitSet) documents.getDeleted().clone(); // documents deleted later stay hidden by their tombstone
+            number = nextSegmentNumber++;
+            codec = postingsCodec;
+            toOffHeap = offHeap;
+            toDisk = memoryBudget > 0;
+        }
+        long begin = System.nanoTime();
+        Segment merged;
+        if (toDisk) {
+            // Within a memory budget, the segments are merged k ways from their files into a new file
+            try {
+                merged = SegmentFile.merge(runFile(number), number, merging, deleted, codec);
+                merged.getFile().deleteOnExit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            merged = Segment.merge(number, merging, deleted, codec);
+        }
+        if (toOffHeap) {
+            merged = merged.offHeap();
+        }
+        synchronized (this) {
+            List<Segment> updated = new ArrayList<>(segments);
+            int at = updated.indexOf(merging.get(0));
+            if (at < 0 || at + merging.size() > updated.size() || !updated.subList(at, at + merging.size()).equals(merging)) {
+                merged.close(); // never searched
+                return;
+            }
+            updated.subList(at, at + merging.size()).clear();
+            updated.add(at, merged);
+            segments = Collections.unmodifiableList(updated);
+            for (Segment segment : merging) {
+                if (isInRunDirectory(segment)) {
+                    segment.getFile().delete(); // a query still reading it keeps its mapping
+                }
             }
         }
+        segmentReaders().retire(merging); // their arenas are freed once the queries reading them are done
+        Metrics.shared().segmentMerge.recordSince(begin);
+        System.out.printf("Merged %d segments into segment %d (%d documents) in %.1f ms%n", merging.size(),
+                number, merged.getDocumentCount(), (System.nanoTime() - begin) / 1e6);
+    }
 
-        String text = content.toString().replaceAll("<[^>]+>", " ").replaceAll("\\s+", " ").trim();
-        String[] tokens = text.split("\\W+");
-        int wordPosition = 0;
+    /**
+     * Returns the segments of the index, in document ID order. The list never changes; flushes
+     * and merges replace it. Segments are only read between {@link #beginRead()} and its close.
+     */
+    public List<Segment> getSegments() {
+        return segments;
+    }
 
-        for (String token : tokens) {
-            if (token.isEmpty()) continue;
+    /**
+     * Sets whether every indexed document is printed; off by default, since console output slows
+     * indexing down noticeably.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
 
-            wordPosition++;
-            String word = token.toLowerCase();
+    /**
+     * Sets whether segments are kept off the heap. When enabled, the segments on the heap are
+     * copied to {@link OffHeapArena}s, and so is every segment flushed, merged or re-encoded from
+     * then on; queries read them in place. Segments opened from files are mapped, and never on the
+     * heap. Off by default; segments already off the heap stay there when it is turned off.
+     */
+    public synchronized void setOffHeap(boolean enabled) {
+        flush();
+        offHeap = enabled;
+        if (enabled) {
+            List<Segment> updated = new ArrayList<>(segments.size());
+            for (Segment segment : segments) {
+                updated.add(segment.offHeap());
+            }
+            segments = Collections.unmodifiableList(updated);
+        }
+    }
 
-            if (stopwordHandler.isStopword(word)) continue;
+    public synchronized boolean isOffHeap() {
+        return offHeap;
+    }
 
-            if (enableStemming) {
-                PorterStemmer stemmer = new PorterStemmer(word);
-                word = stemmer.stem();
+    /**
+     * Bounds the heap that building the index takes, for corpora larger than the heap: documents
+     * are collected until their postings take about budgetBytes, and each such block is then
+     * written to a file as a sorted run and mapped. At the end of a build the runs are merged k
+     * ways into one segment file, reading them in place and holding one posting list at a time;
+     * later merges also run on disk. The document table and the merged term dictionary stay on
+     * the heap. The files live in a new directory under spillDirectory until the index is saved
+     * and the process exits.
+     *
+     * @param budgetBytes    The heap budget of the collected postings, or 0 to build in memory.
+     * @param spillDirectory The directory for the runs, or null for the temporary directory.
+     */
+    public synchronized void setMemoryBudget(long budgetBytes, File spillDirectory) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("The memory budget must not be negative: " + budgetBytes);
+        }
+        flush();
+        this.memoryBudget = budgetBytes;
+        if (!Objects.equals(spillDirectory, this.spillDirectory)) {
+            this.spillDirectory = spillDirectory;
+            this.runDirectory = null;
+        }
+    }
+
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    // Moves a new segment off the heap if segments are kept there
+    private Segment place(Segment segment) {
+        return offHeap ? segment.offHeap() : segment;
+    }
+
+    /**
+     * Waits for the running merges, then frees the memory of the segments kept off the heap and
+     * drops the documents added since the last flush. Queries still running keep the segments they
+     * read until they finish, and their memory is freed then. Afterwards searching, saving or
+     * changing the index and {@link #beginRead()} throw an {@link IllegalStateException}.
+     *
+     * @throws InterruptedIOException If the thread is interrupted while waiting for the merges.
+     */
+    @Override
+    public void close() throws InterruptedIOException {
+        waitForMerges();
+        List<Segment> closing;
+        synchronized (this) {
+            closed = true;
+            closing = segments;
+            segments = Collections.emptyList();
+            buffer = null;
+            invalidateCaches();
+        }
+        segmentReaders().retire(closing);
+    }
+
+    // Throws if the index is closed, so a closed index is never searched or saved as if it had no postings
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("The index is closed");
+        }
+    }
+
+    /**
+     * Starts a read of the segments by code that reads them through {@link #getPostings(String)},
+     * {@link #postings(String)}, {@link #getTerms()} or {@link #getSegments()}; close the returned
+     * generation once nothing read from them is used any more. Until then, the segments a merge or
+     * {@link #close()} removes are not freed. The search methods start their own reads.
+     *
+     * @throws IllegalStateException If the index is closed.
+     */
+    public SegmentReaders.Generation beginRead() {
+        ensureOpen();
+        return segmentReaders().enter();
+    }
+
+    private SegmentReaders segmentReaders() {
+        SegmentReaders current = readers;
+        if (current == null) {
+            synchronized (this) {
+                if (readers == null) {
+                    readers = new SegmentReaders();
+                }
+                current = readers;
             }
+        }
+        return current;
+    }
 
-            invertedIndex
-                .computeIfAbsent(word, k -> new HashMap<>())
-                .computeIfAbsent(documentName, k -> new ArrayList<>())
-                .add(wordPosition);
+    /**
+     * Sets how many documents are collected in memory before they are flushed into a segment.
+     */
+    public synchronized void setMaxBufferedDocuments(int maxBufferedDocuments) {
+        if (maxBufferedDocuments < 1) {
+            throw new IllegalArgumentException("At least one document must be buffered: " + maxBufferedDocuments);
         }
-        System.out.println("Indexed HTML document: " + documentName);
+        this.maxBufferedDocuments = maxBufferedDocuments;
+    }
+
+    /**
+     * Sets how many segment merges can run at the same time, each on its own background thread.
+     */
+    public synchronized void setMergeThreads(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one merge thread is needed: " + threadCount);
+        }
+        this.mergeThreads = threadCount;
+        if (mergeScheduler != null) {
+            mergeScheduler.shutdown();
+            mergeScheduler = null;
+        }
+    }
+
+    /**
+     * Waits until the background merges are done, so the segments are as merged as the policy wants.
+     *
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    public void waitForMerges() throws InterruptedIOException {
+        try {
+            mergeScheduler().waitForMerges();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for segment merges");
+        }
+    }
+
+    private synchronized MergeScheduler mergeScheduler() {
+        if (mergeScheduler == null) {
+            mergeScheduler = new MergeScheduler(this, new TieredMergePolicy(), mergeThreads);
+        }
+        return mergeScheduler;
+    }
+
+    /**
+     * Turns the forward index (document -> terms and positions) on or off. It makes
+     * {@link #searchDocument(String)} proportional to the document length, at the cost of storing
+     * every position a second time. Enabling it on a non-empty index derives it from the postings.
+     */
+    public synchronized void setForwardIndexEnabled(boolean enabled) {
+        flush();
+        forwardIndexEnabled = enabled;
+        List<Segment> updated = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            updated.add(place(segment.withForwardIndex(enabled)));
+        }
+        segments = Collections.unmodifiableList(updated);
+    }
+
+    public boolean isForwardIndexEnabled() {
+        return forwardIndexEnabled;
+    }
+
+    /**
+     * Returns the number of indexed documents, not counting deleted ones.
+     */
+    public int getDocumentCount() {
+        return documents.getLiveCount();
+    }
+
+    /**
+     * Sets the budgets of the query caches; 0 disables a cache. Search and ranked search results
+     * share one cache, snippets, which cost the most to produce, have their own. Cached results
+     * are dropped.
+     *
+     * @param resultBytes  The budget for search and ranked search results, in bytes.
+     * @param snippetBytes The budget for snippets, in bytes.
+     */
+    public synchronized void setQueryCacheSize(long resultBytes, long snippetBytes) {
+        if (resultBytes < 0 || snippetBytes < 0) {
+            throw new IllegalArgumentException("A cache size cannot be negative");
+        }
+        this.resultCacheBytes = resultBytes;
+        this.snippetCacheBytes = snippetBytes;
+        this.resultCache = null;
+        this.snippetCache = null;
+    }
+
+    /**
+     * Returns the cache of search and ranked search results, e.g. for its hit and miss counts.
+     */
+    public QueryCache<Collection<?>> getResultCache() {
+        QueryCache<Collection<?>> cache = resultCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (resultCache == null) {
+                    resultCache = new QueryCache<>(resultCacheBytes, InvertedIndex::resultBytes);
+                }
+                cache = resultCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the cache of snippets.
+     */
+    public QueryCache<Map<String, Map<Integer, List<String>>>> getSnippetCache() {
+        QueryCache<Map<String, Map<Integer, List<String>>>> cache = snippetCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (snippetCache == null) {
+                    snippetCache = new QueryCache<>(snippetCacheBytes, InvertedIndex::snippetBytes);
+                }
+                cache = snippetCache;
+            }
+        }
+        return cache;
+    }
+
+    // Called with the lock held whenever the documents a search can find change
+    private void invalidateCaches() {
+        if (resultCache != null) {
+            resultCache.invalidate();
+        }
+        if (snippetCache != null) {
+            snippetCache.invalidate();
+        }
+    }
+
+    // Estimated heap size of a result list: a reference and at most a ScoredDocument per result, as names are shared with the document table
+    private static long resultBytes(Collection<?> results) {
+        return 64 + 32L * results.size();
+    }
+
+    // Estimated heap size of the snippets of a word; words are mostly Latin-1, one byte per character
+    private static long snippetBytes(Map<String, Map<Integer, List<String>>> snippets) {
+        long bytes = 64;
+        for (Map<Integer, List<String>> documentSnippets : snippets.values()) {
+            bytes += 120;
+            for (List<String> words : documentSnippets.values()) {
+                bytes += 80;
+                for (String word : words) {
+                    bytes += 48 + word.length();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Re-encodes all postings with the given codec; also used for postings built afterwards.
+     */
+    public synchronized void setPostingsCodec(PostingsCodec codec) {
+        flush();
+        List<Segment> updated = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            updated.add(place(segment.withCodec(codec, documents.getDeleted())));
+        }
+        this.segments = Collections.unmodifiableList(updated);
+        this.postingsCodec = codec;
+    }
+
+    /**
+     * Returns the total encoded size of all posting lists in bytes.
+     */
+    public long getPostingsSizeInBytes() {
+        long bytes = 0;
+        SegmentReaders.Generation read = beginRead();
+        try {
+            for (Segment segment : segments) {
+                bytes += segment.sizeInBytes();
+            }
+        } finally {
+            read.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the indexed terms, after stopword removal and stemming, in sorted order. The sorted
+     * dictionaries of the segments are merged as the terms are read, without collecting them, so
+     * the terms are read between {@link #beginRead()} and its close.
+     */
+    public Iterable<String> getTerms() {
+        List<Segment> current = segments;
+        if (current.size() == 1) {
+            return current.get(0).getTerms().sortedTerms();
+        }
+        return () -> new Iterator<String>() {
+            // The next term of each segment, smallest first; each entry is {term, iterator}
+            private final PriorityQueue<Map.Entry<String, Iterator<String>>> heads = new PriorityQueue<>(
+                    Math.max(current.size(), 1), (a, b) -> FrontCodedTermDictionary.compare(a.getKey(), b.getKey()));
+            {
+                for (Segment segment : current) {
+                    advance(segment.getTerms().sortedTerms().iterator());
+                }
+            }
+
+            private void advance(Iterator<String> terms) {
+                if (terms.hasNext()) {
+                    heads.add(new AbstractMap.SimpleEntry<>(terms.next(), terms));
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (heads.isEmpty()) throw new NoSuchElementException();
+                String term = heads.peek().getKey();
+                while (!heads.isEmpty() && heads.peek().getKey().equals(term)) {
+                    advance(heads.poll().getValue()); // the same term in several segments is returned once
+                }
+                return term;
+            }
+        };
+    }
+
+    /**
+     * Returns the indexed terms matching a wildcard pattern, in sorted order; {@code *} matches any
+     * characters. The literal text before the first {@code *}, or after the last one if the pattern
+     * starts with {@code *}, selects the candidates in each segment's sorted dictionary, and only
+     * those are matched against the whole pattern. A pattern like {@code *low*} reads every term.
+     *
+     * @param pattern A lower-cased pattern with at least one literal character.
+     */
+    public List<String> expandWildcard(String pattern) {
+        int first = pattern.indexOf('*');
+        Set<String> matches = new TreeSet<>(FrontCodedTermDictionary::compare);
+        SegmentReaders.Generation read = beginRead();
+        try {
+            for (Segment segment : segments) {
+                TermDictionary terms = segment.getTerms();
+                List<String> candidates = first != 0
+                        ? terms.termsWithPrefix(first < 0 ? pattern : pattern.substring(0, first))
+                        : terms.termsWithSuffix(pattern.substring(pattern.lastIndexOf('*') + 1));
+                for (String candidate : candidates) {
+                    if (wildcardMatches(pattern, candidate)) {
+                        matches.add(candidate);
+                    }
+                }
+            }
+        } finally {
+            read.close();
+        }
+        return new ArrayList<>(matches);
+    }
+
+    /**
+     * Returns the indexed terms within maxEdits edits of a term, in sorted order. Each segment's
+     * dictionary is intersected with a {@link LevenshteinAutomaton}, so only the terms whose
+     * prefixes can still be within the distance are read.
+     *
+     * @param term     A lower-cased term.
+     * @param maxEdits The maximum edit distance, from 0 to {@link LevenshteinAutomaton#MAX_EDITS}.
+     */
+    public List<String> expandFuzzy(String term, int maxEdits) {
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(term, maxEdits);
+        Set<String> matches = new TreeSet<>(FrontCodedTermDictionary::compare);
+        SegmentReaders.Generation read = beginRead();
+        try {
+            for (Segment segment : segments) {
+                matches.addAll(segment.getTerms().termsWithin(automaton));
+            }
+        } finally {
+            read.close();
+        }
+        return new ArrayList<>(matches);
+    }
+
+    /**
+     * Returns the indexed terms closest to a word, for a "did you mean" suggestion: the terms
+     * within maxEdits edits, fewest edits first, then the most frequent first.
+     *
+     * @param word     The word, e.g. a query word that matched nothing; it is lower-cased but not stemmed.
+     * @param maxEdits The maximum edit distance, from 0 to {@link LevenshteinAutomaton#MAX_EDITS}.
+     * @param count    The maximum number of suggestions.
+     */
+    public List<String> suggest(String word, int maxEdits, int count) {
+        long start = System.nanoTime();
+        long scanned = Metrics.postingsCounter()[0];
+        SegmentReaders.Generation read = beginRead();
+        try {
+            String term = word.toLowerCase();
+            LevenshteinAutomaton automaton = new LevenshteinAutomaton(term, maxEdits);
+            Map<String, Integer> distances = new HashMap<>();
+            Map<String, Integer> frequencies = new HashMap<>();
+            // Closer terms come first, so a larger distance is only searched when they are too few
+            for (int edits = Math.min(1, maxEdits); edits <= maxEdits && distances.size() < count; edits++) {
+                for (String candidate : expandFuzzy(term, edits)) {
+                    TermPostings postings = getPostings(candidate);
+                    distances.put(candidate, automaton.distance(candidate));
+                    frequencies.put(candidate, postings == null ? 0 : postings.getDocumentFrequency());
+                }
+            }
+            List<String> suggestions = new ArrayList<>(distances.keySet());
+            suggestions.sort(Comparator.<String>comparingInt(distances::get)
+                    .thenComparing(frequencies::get, Comparator.reverseOrder())
+                    .thenComparing(FrontCodedTermDictionary::compare));
+            return suggestions.subList(0, Math.max(0, Math.min(count, suggestions.size())));
+        } finally {
+            read.close();
+            Metrics.shared().queryDone(Metrics.shared().suggestQuery, start, scanned);
+        }
+    }
+
+    // Expands a query pattern: a fuzzy term such as flower~1, or a wildcard pattern
+    List<String> expand(String pattern) {
+        int tilde = pattern.lastIndexOf('~');
+        if (tilde >= 0) {
+            return expandFuzzy(pattern.substring(0, tilde), Integer.parseInt(pattern.substring(tilde + 1)));
+        }
+        return expandWildcard(pattern);
+    }
+
+    // Matches a term against a pattern, backtracking only to the last *
+    static boolean wildcardMatches(String pattern, String term) {
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int starTerm = 0;
+        while (t < term.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                starTerm = t;
+            } else if (p < pattern.length() && pattern.charAt(p) == term.charAt(t)) {
+                p++;
+                t++;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++starTerm;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    /**
+     * Returns an iterator over the postings of an indexed term (already normalized), empty if the term is unknown.
+     */
+    public PostingsIterator postings(String term) {
+        TermPostings termPostings = getPostings(term);
+        return iterator(termPostings == null ? EMPTY_POSTINGS : termPostings);
+    }
+
+    /**
+     * Returns the postings of an already normalized term in every segment, or null if the term is
+     * not indexed. They are read between {@link #beginRead()} and its close.
+     */
+    @Override
+    public TermPostings getPostings(String term) {
+        List<Segment> current = segments;
+        PostingList[] parts = new PostingList[current.size()];
+        int[] lastDocIds = new int[current.size()];
+        int count = 0;
+        for (Segment segment : current) {
+            PostingList postingList = segment.getPostings(term);
+            if (postingList != null) {
+                parts[count] = postingList;
+                lastDocIds[count++] = segment.getLastDocId();
+            }
+        }
+        return count == 0 ? null : new TermPostings(Arrays.copyOf(parts, count), Arrays.copyOf(lastDocIds, count));
+    }
+
+    /**
+     * Returns an iterator over the postings of the documents that are not deleted.
+     */
+    @Override
+    public PostingsIterator iterator(TermPostings termPostings) {
+        return termPostings.iterator(documents.getDeleted());
+    }
+
+    /**
+     * Returns an iterator over the documents of a set that are not deleted.
+     */
+    @Override
+    public DocIterator iterator(RoaringDocSet docSet) {
+        return docSet.iterator(documents.getDeleted());
+    }
+
+    // Returns the segment holding a document, or null if the document is not flushed yet
+    private Segment segmentOf(int docId) {
+        List<Segment> current = segments;
+        int low = 0;
+        int high = current.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Segment segment = current.get(mid);
+            if (segment.getLastDocId() < docId) low = mid + 1;
+            else if (segment.getFirstDocId() > docId) high = mid - 1;
+            else return segment;
+        }
+        return null;
+    }
+
+    private static List<Integer> toList(int[] positions, int count) {
+        List<Integer> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(positions[i]);
+        }
+        return list;
     }
 
     public Map<String, List<Integer>> searchWord(String word) {
-        word = word.toLowerCase();
-        if (enableStemming) {
-            PorterStemmer stemmer = new PorterStemmer(word);
-            word = stemmer.stem();
+        long start = System.nanoTime();
+        long scanned = Metrics.postingsCounter()[0];
+        SegmentReaders.Generation read = beginRead();
+        try {
+            word = word.toLowerCase();
+            if (enableStemming) {
+                word = StemCache.shared().stem(word);
+            }
+
+            Map<String, List<Integer>> result = new HashMap<>();
+            PostingsIterator it = postings(word);
+            while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+                result.put(documents.getName(it.docId()), toList(it.positions(), it.freq()));
+            }
+            return result;
+        } finally {
+            read.close();
+            Metrics.shared().queryDone(Metrics.shared().wordQuery, start, scanned);
         }
-        // force to use HashMap
-        return (HashMap<String, List<Integer>>) invertedIndex.getOrDefault(word, new HashMap<>());
     }
 
     public Map<String, List<Integer>> searchDocument(String document) {
-        document = document.toLowerCase();
-        Map<String, List<Integer>> result = new HashMap<>();
+        long start = System.nanoTime();
+        long scanned = Metrics.postingsCounter()[0];
+        SegmentReaders.Generation read = beginRead();
+        try {
+            document = document.toLowerCase();
+            Map<String, List<Integer>> result = new HashMap<>();
+            int docId = documents.getId(document);
+            if (docId < 0) {
+                return result;
+            }
 
-        for (Map.Entry<String, HashMap<String, List<Integer>>> wordEntry : invertedIndex.entrySet()) {
-            String word = wordEntry.getKey();
-            HashMap<String, List<Integer>> docMap = wordEntry.getValue();
+            Segment segment = segmentOf(docId);
+            if (segment == null) {
+                return result;
+            }
+            TermDictionary terms = segment.getTerms();
+            if (segment.hasForwardIndex()) {
+                segment.forEachTerm(docId, (termId, positions, count) ->
+                    result.merge(terms.getTerm(termId), toList(positions, count), (existing, added) -> {
+                        existing.addAll(added);
+                        Collections.sort(existing);
+                        return existing;
+                    }));
+                return result;
+            }
 
-            if (docMap.containsKey(document)) {
-                result.put(word, docMap.get(document));
+            // Only the terms of the document's own segment can occur in it
+            for (int termId = 0; termId < terms.size(); termId++) {
+                PostingsIterator it = segment.getPostings(termId).iterator(documents.getDeleted());
+                if (it.advance(docId) == docId) {
+                    result.put(terms.getTerm(termId), toList(it.positions(), it.freq()));
+                }
             }
+            return result;
+        } finally {
+            read.close();
+            Metrics.shared().queryDone(Metrics.shared().documentQuery, start, scanned);
         }
-        return result;
     }
 
     public void saveIndex(String outputFilePath) throws IOException {
+        SegmentReaders.Generation read = beginRead();
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFilePath))) {
-            for (Map.Entry<String, HashMap<String, List<Integer>>> entry : invertedIndex.entrySet()) {
-                String word = entry.getKey();
+            for (String word : getTerms()) {
+                PostingsIterator it = postings(word);
+                if (it.nextDoc() == DocIterator.NO_MORE_DOCS) {
+                    continue; // every document containing the word was deleted
+                }
                 bw.write("Word: " + word);
                 bw.newLine();
-                for (Map.Entry<String, List<Integer>> docEntry : entry.getValue().entrySet()) {
-                    bw.write("  Document: " + docEntry.getKey() + " -> " + docEntry.getValue());
+                do {
+                    bw.write("  Document: " + documents.getName(it.docId()) + " -> " + toList(it.positions(), it.freq()));
                     bw.newLine();
-                }
+                } while (it.nextDoc() != DocIterator.NO_MORE_DOCS);
             }
+        } finally {
+            read.close();
         }
         System.out.println("Inverted index has been saved to " + outputFilePath);
     }
 
+    /**
+     * Returns the documents matching a query. Plain words must all occur; quoted phrases and
+     * {@code NEAR/k} operators are checked against the indexed positions, and clauses can be
+     * combined with OR, NOT and parentheses, see {@link QueryParser}. The query is planned by
+     * a {@link QueryPlanner} before any postings are read.
+     */
     public Set<String> search(String query) {
-        String[] terms = query.split("\\s+"); // Split query into terms
-        Set<String> resultSet = null;
+        long start = System.nanoTime();
+        long scanned = Metrics.postingsCounter()[0];
+        SegmentReaders.Generation read = beginRead();
+        try {
+            Set<String> resultSet = new HashSet<>();
+            Query parsed = parse(query);
+            if (parsed == null) {
+                return resultSet;
+            }
 
-        for (String term : terms) {
-            String processedTerm = term.toLowerCase();
-            if (enableStemming) {
-                PorterStemmer stemmer = new PorterStemmer(processedTerm);
-                processedTerm = stemmer.stem();
+            // Queries that differ only in case, stemming or word order share one cache entry
+            QueryCache<Collection<?>> cache = getResultCache();
+            String key = "search " + parsed.key();
+            Collection<?> cached = cache.get(key);
+            if (cached != null) {
+                for (Object name : cached) {
+                    resultSet.add((String) name);
+                }
+                return resultSet;
             }
+            long generation = cache.generation();
+
+            resultSet = evaluate(parsed, this);
+            cache.put(key, new ArrayList<>(resultSet), generation);
+            return resultSet;
+        } finally {
+            read.close();
+            Metrics.shared().queryDone(Metrics.shared().booleanQuery, start, scanned);
+        }
+    }
 
-            HashMap<String, List<Integer>> postings = invertedIndex.get(processedTerm);
-            if (postings == null) {
-                return new HashSet<>(); // If any term has no postings, result is empty
+    // Parses a query with this index's stopwords and stemming, expanding wildcards and fuzzy words with its terms; null if it has no words
+    Query parse(String query) {
+        return new QueryParser(TOKENIZER.get(), stopwordHandler, enableStemming, this::expand).parse(query);
+    }
+
+    // Returns the names of the documents matching a parsed query, reading the postings from source
+    Set<String> evaluate(Query parsed, PostingsSource source) {
+        Set<String> resultSet = new HashSet<>();
+        DocIterator it = filter(parsed, source);
+        if (it == null) {
+            return resultSet; // The planner found that the query cannot match
+        }
+
+        // Conjunctions are intersected rarest-first; positions are only decoded for the candidates
+        while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+            resultSet.add(documents.getName(it.docId()));
+        }
+        return resultSet;
+    }
+
+    // Plans a parsed query and returns an iterator over its matches, or null if it cannot match
+    private DocIterator filter(Query parsed, PostingsSource source) {
+        QueryPlanner planner = new QueryPlanner(source, documents.size());
+        Query plan = planner.plan(parsed);
+        return plan == null ? null : plan.iterator(planner);
+    }
+
+    /**
+     * Returns the k documents that best match a query, ranked by BM25. Any of the query words can
+     * match; if the query has phrases, {@code NEAR/k} operators or NOT, only documents matching the
+     * whole query are ranked. Documents that cannot reach the top k are skipped (see {@link WandScorer}).
+     *
+     * @param query The query.
+     * @param k     The maximum number of results.
+     * @return The results, best first.
+     */
+    public List<ScoredDocument> searchTopK(String query, int k) {
+        long start = System.nanoTime();
+        long scanned = Metrics.postingsCounter()[0];
+        SegmentReaders.Generation read = beginRead();
+        try {
+            Query parsed = parse(query);
+            if (parsed == null) {
+                return new ArrayList<>();
             }
+            QueryCache<Collection<?>> cache = getResultCache();
+            String key = "top" + k + " " + parsed.key();
+            Collection<?> cached = cache.get(key);
+            if (cached != null) {
+                List<ScoredDocument> results = new ArrayList<>(cached.size());
+                for (Object result : cached) {
+                    results.add((ScoredDocument) result);
+                }
+                return results;
+            }
+            long generation = cache.generation();
+
+            List<ScoredDocument> results = rank(parsed, k, this);
+            cache.put(key, new ArrayList<>(results), generation);
+            return results;
+        } finally {
+            read.close();
+            Metrics.shared().queryDone(Metrics.shared().rankedQuery, start, scanned);
+        }
+    }
 
-            Set<String> documents = postings.keySet();
-            if (resultSet == null) {
-                resultSet = new HashSet<>(documents);
-            } else {
-                resultSet.retainAll(documents); // Intersect with previous results
+    // Returns the k best documents for a parsed query, reading the postings from source
+    List<ScoredDocument> rank(Query parsed, int k, PostingsSource source) {
+        return rank(parsed, k, source, null);
+    }
+
+    // Same, scoring with the given collection statistics instead of this index's own if not null
+    List<ScoredDocument> rank(Query parsed, int k, PostingsSource source, CollectionStatistics statistics) {
+        DocIterator filter = null;
+        if (parsed.needsFilter()) {
+            filter = filter(parsed, source);
+            if (filter == null) {
+                return new ArrayList<>();
+            }
+        }
+
+        Set<String> queryTerms = new LinkedHashSet<>();
+        parsed.collectTerms(queryTerms);
+        List<TermPostings> termPostings = new ArrayList<>();
+        IntList documentFrequencies = new IntList();
+        for (String term : queryTerms) {
+            TermPostings postings = source.getPostings(term);
+            if (postings != null) {
+                termPostings.add(postings);
+                documentFrequencies.add(statistics != null ? statistics.getDocumentFrequency(term) : postings.getDocumentFrequency());
+            }
+        }
+        Bm25 bm25 = statistics != null
+                ? new Bm25(statistics.getDocumentCount(), statistics.getTotalLength())
+                : new Bm25(documents.getLiveCount(), documents.getTotalLength());
+        return new WandScorer(termPostings, documentFrequencies.toArray(), bm25, documents, filter).topK(k);
+    }
+
+    /**
+     * Returns the statistics BM25 needs for a query: the number and total length of the live
+     * documents, and the document frequency of each query term. A {@link ShardedIndex} adds up
+     * those of its shards and passes the sum to {@link #searchTopK(String, int, CollectionStatistics)}.
+     *
+     * @param query The query.
+     * @return The statistics; terms missing from this index are left out.
+     */
+    public CollectionStatistics getStatistics(String query) {
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        SegmentReaders.Generation read = beginRead();
+        try {
+            Query parsed = parse(query);
+            if (parsed != null) {
+                Set<String> queryTerms = new LinkedHashSet<>();
+                parsed.collectTerms(queryTerms);
+                for (String term : queryTerms) {
+                    TermPostings postings = getPostings(term);
+                    if (postings != null) {
+                        documentFrequencies.put(term, postings.getDocumentFrequency());
+                    }
+                }
             }
+        } finally {
+            read.close();
+        }
+        return new CollectionStatistics(documents.getLiveCount(), documents.getTotalLength(), documentFrequencies);
+    }
+
+    /**
+     * Returns the k documents of this index that best match a query, scored with the statistics of
+     * a larger collection this index is part of, so that the scores compare with those of the other
+     * parts. The results are not cached, since they depend on the other parts too.
+     *
+     * @param query      The query.
+     * @param k          The maximum number of results.
+     * @param statistics The statistics of the whole collection, see {@link #getStatistics(String)}.
+     * @return The results, best first.
+     */
+    public List<ScoredDocument> searchTopK(String query, int k, CollectionStatistics statistics) {
+        long start = System.nanoTime();
+        long scanned = Metrics.postingsCounter()[0];
+        SegmentReaders.Generation read = beginRead();
+        try {
+            Query parsed = parse(query);
+            return parsed == null ? new ArrayList<>() : rank(parsed, k, this, statistics);
+        } finally {
+            read.close();
+            Metrics.shared().queryDone(Metrics.shared().rankedQuery, start, scanned);
         }
-        return resultSet == null ? new HashSet<>() : resultSet;
     }
 
     // Save search results to a file
@@ -212,23 +1372,58 @@ public class InvertedIndex implements Serializable {
     }
 
 
-    // Method to search for snippets around a term
+    /**
+     * Returns the words around each occurrence of a term, by document. Results are cached
+     * separately from search results (see {@link #setQueryCacheSize(long, long)}); the returned
+     * map may be shared with the cache and must not be modified.
+     *
+     * @param term          The term.
+     * @param snipRange     The number of words kept on each side of an occurrence.
+     * @param corpusDirPath The corpus directory the documents are read from.
+     * @return Document name -> position -> words of the snippet.
+     * @throws IOException If a document cannot be read.
+     * @throws IllegalArgumentException If snipRange is negative.
+     */
     public Map<String, Map<Integer, List<String>>> searchSnippets(String term, int snipRange, String corpusDirPath) throws IOException {
-        String processedTerm = term.toLowerCase();
-        if (enableStemming) {
-            PorterStemmer stemmer = new PorterStemmer(processedTerm);
-            processedTerm = stemmer.stem();
+        if (snipRange < 0) {
+            throw new IllegalArgumentException("The snippet range must not be negative: " + snipRange);
         }
+        long start = System.nanoTime();
+        long scanned = Metrics.postingsCounter()[0];
+        SegmentReaders.Generation read = beginRead();
+        try {
+            String processedTerm = term.toLowerCase();
+            if (enableStemming) {
+                processedTerm = StemCache.shared().stem(processedTerm);
+            }
+
+            QueryCache<Map<String, Map<Integer, List<String>>>> cache = getSnippetCache();
+            String key = snipRange + " " + new File(corpusDirPath).getAbsolutePath() + " " + processedTerm;
+            Map<String, Map<Integer, List<String>>> cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            long generation = cache.generation();
+            Map<String, Map<Integer, List<String>>> snippetResults = Collections.unmodifiableMap(findSnippets(processedTerm, snipRange, corpusDirPath));
+            cache.put(key, snippetResults, generation);
+            return snippetResults;
+        } finally {
+            read.close();
+            Metrics.shared().queryDone(Metrics.shared().snippetQuery, start, scanned);
+        }
+    }
 
+    private Map<String, Map<Integer, List<String>>> findSnippets(String processedTerm, int snipRange, String corpusDirPath) throws IOException {
         Map<String, Map<Integer, List<String>>> snippetResults = new LinkedHashMap<>();
-        HashMap<String, List<Integer>> postings = invertedIndex.get(processedTerm);
-        if (postings == null) {
+        TermPostings termPostings = getPostings(processedTerm);
+        if (termPostings == null) {
             return snippetResults; // Return empty map if term not found
         }
 
-        for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
-            String documentName = entry.getKey();
-            List<Integer> positions = entry.getValue();
+        PostingsIterator it = iterator(termPostings);
+        while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+            String documentName = documents.getName(it.docId());
+            List<Integer> positions = toList(it.positions(), it.freq());
             File documentFile = new File(corpusDirPath, documentName);
 
             if (!documentFile.exists()) {
@@ -236,14 +1431,15 @@ public class InvertedIndex implements Serializable {
                 continue;
             }
 
-            Map<Integer, List<String>> snippets = extractSnippetsFromFile(documentFile, positions, snipRange);
+            Map<Integer, List<String>> snippets = extractSnippetsFromFile(it.docId(), documentFile, positions, snipRange);
             snippetResults.put(documentName, snippets);
         }
         return snippetResults;
     }
 
 
-    private Map<Integer, List<String>> extractSnippetsFromFile(File file, List<Integer> positions, int snipRange) throws IOException {
+    // Builds the snippet windows around the given positions; a snippet lists the words within snipRange of its position
+    private Map<Integer, List<String>> extractSnippetsFromFile(int docId, File file, List<Integer> positions, int snipRange) throws IOException {
         Map<Integer, List<String>> snippetMap = new LinkedHashMap<>();
 
         if (!file.exists()) {
@@ -251,33 +1447,92 @@ public class InvertedIndex implements Serializable {
             return snippetMap;
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            List<String> words = new ArrayList<>();
-            String line;
+        List<List<String>> snippets = new ArrayList<>(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            snippets.add(new ArrayList<>());
+        }
 
-            // Tokenize entire file
-            while ((line = reader.readLine()) != null) {
-                String[] tokens = line.split("\\W+");
-                Collections.addAll(words, tokens);
-            }
+        boolean html = file.getName().toLowerCase().endsWith(".html");
+        if (!readSnippetWindows(docId, file, html, positions, snipRange, snippets)) {
+            // No usable offsets: tokenize the whole document once
+            TOKENIZER.get().tokenize(file, html, false, windowCollector(positions, snippets, snipRange, 0));
+        }
 
-            // Create snippets for each position
-            for (int position : positions) {
-                int start = Math.max(0, position - snipRange - 1);
-                int end = Math.min(words.size() - 1, position + snipRange - 1);
-                List<String> snippetParts = new ArrayList<>();
+        for (int i = 0; i < positions.size(); i++) {
+            snippetMap.put(positions.get(i), snippets.get(i));
+        }
+        return snippetMap;
+    }
+
+    /**
+     * Reads only the parts of the file around the positions, using the position offsets recorded at
+     * index time. A part runs from the checkpoint before a window to the checkpoint after it, so it
+     * starts and ends on a word and never cuts an HTML tag; overlapping parts are read together.
+     *
+     * @return False if the document has no offsets or the file no longer matches them.
+     */
+    private boolean readSnippetWindows(int docId, File file, boolean html, List<Integer> positions, int snipRange,
+                                       List<List<String>> snippets) throws IOException {
+        Segment segment = segmentOf(docId);
+        int checkpointCount = segment == null ? 0 : segment.getCheckpointCount(docId);
+        if (checkpointCount == 0) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int from = 0;
+            while (from < positions.size()) {
+                // Group the windows whose checkpoint ranges touch
+                int firstCheckpoint = Math.max(0, positions.get(from) - snipRange - 1) / PositionOffsets.INTERVAL;
+                int endCheckpoint = firstCheckpoint;
+                int to = from;
+                while (to < positions.size()
+                        && Math.max(0, positions.get(to) - snipRange - 1) / PositionOffsets.INTERVAL <= endCheckpoint) {
+                    endCheckpoint = (int) Math.max(endCheckpoint, ((long) positions.get(to) + snipRange - 1) / PositionOffsets.INTERVAL + 1);
+                    to++;
+                }
 
-                for (int i = start; i <= end; i++) {
-                    snippetParts.add(String.format("[Index %d: %s]", i + 1, words.get(i)));
+                long start = segment.getCheckpoint(docId, firstCheckpoint);
+                long end = endCheckpoint < checkpointCount ? segment.getCheckpoint(docId, endCheckpoint) : raf.length();
+                if (end > raf.length() || start >= end) {
+                    return false;
+                }
+                byte[] bytes = new byte[(int) (end - start)];
+                raf.seek(start);
+                raf.readFully(bytes);
+                if (!Tokenizer.isWordChar((char) bytes[0])) {
+                    return false; // the file changed since it was indexed
                 }
 
-                snippetMap.put(position, snippetParts);
+                char[] text = new String(bytes, StandardCharsets.UTF_8).toCharArray();
+                Tokenizer.tokenize(text, 0, text.length, html, false, windowCollector(positions.subList(from, to),
+                        snippets.subList(from, to), snipRange, firstCheckpoint * PositionOffsets.INTERVAL));
+                from = to;
             }
         }
-        return snippetMap;
+        return true;
+    }
+
+    // Adds each token to the snippets whose window covers it. Positions are ascending, so the
+    // windows covering a token are contiguous from "first"; basePosition is the position before the text.
+    private static Tokenizer.TokenHandler windowCollector(List<Integer> positions, List<List<String>> snippets,
+                                                          int snipRange, int basePosition) {
+        int[] first = {0};
+        return (buffer, start, length, tokenPosition, offset) -> {
+            int position = basePosition + tokenPosition;
+            while (first[0] < positions.size() && (long) positions.get(first[0]) + snipRange < position) {
+                first[0]++;
+            }
+            String word = null;
+            for (int i = first[0]; i < positions.size() && positions.get(i) - snipRange <= position; i++) {
+                if (word == null) {
+                    word = new String(buffer, start, length);
+                }
+                snippets.get(i).add("[Index " + position + ": " + word + "]");
+            }
+        };
     }
-    
-    public void saveSnippets(Map<String, Map<Integer, List<String>>> snippets, String outputFilePath, String query) throws IOException {
+
+    public static void saveSnippets(Map<String, Map<Integer, List<String>>> snippets, String outputFilePath, String query) throws IOException {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath, true))) { // 使用追加模式
             writer.write("Query: " + query);
             writer.newLine();
@@ -296,7 +1551,7 @@ public class InvertedIndex implements Serializable {
         System.out.println("Snippets have been saved to " + outputFilePath);
     }
 
-    public List<String> readQueriesFromFile(String queryFilePath) throws IOException {
+    public static List<String> readQueriesFromFile(String queryFilePath) throws IOException {
         List<String> queries = new ArrayList<>();
         try (BufferedReader br = new BufferedReader(new FileReader(queryFilePath))) {
             String line;
@@ -310,7 +1565,7 @@ public class InvertedIndex implements Serializable {
     }
 
     // Save search results in a grouped format with query-specific context
-    public void saveFormattedSearchResults(Map<String, Set<String>> queryResults, String outputFilePath) throws IOException {
+    public static void saveFormattedSearchResults(Map<String, Set<String>> queryResults, String outputFilePath) throws IOException {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
             for (Map.Entry<String, Set<String>> entry : queryResults.entrySet()) {
                 String query = entry.getKey();
@@ -331,6 +1586,31 @@ public class InvertedIndex implements Serializable {
         System.out.println("Formatted search results have been saved to " + outputFilePath);
     }
 
+    // Save ranked search results, best first, with their scores
+    public static void saveRankedSearchResults(Map<String, List<ScoredDocument>> queryResults, String outputFilePath) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+            for (Map.Entry<String, List<ScoredDocument>> entry : queryResults.entrySet()) {
+                writer.write("Query: " + entry.getKey());
+                writer.newLine();
+
+                if (entry.getValue().isEmpty()) {
+                    writer.write("Results: No matching documents.");
+                    writer.newLine();
+                } else {
+                    writer.write("Results:");
+                    writer.newLine();
+                    int rank = 1;
+                    for (ScoredDocument result : entry.getValue()) {
+                        writer.write(String.format("  %d. %s", rank++, result));
+                        writer.newLine();
+                    }
+                }
+                writer.newLine(); // Add extra line for readability
+            }
+        }
+        System.out.println("Ranked search results have been saved to " + outputFilePath);
+    }
+
     public static void main(String[] args) {
         // Define command-line argument variables
         String stopwordFile = null;         // Path to stopword file
@@ -341,12 +1621,38 @@ public class InvertedIndex implements Serializable {
         String snippetOutputFile = null;   // File to save snippets
         String indexOutputFile = null;     // File to save the inverted index
         int snippetRange = 0;              // Range for generating snippets
+        int threadCount = 1;               // Worker threads used to build the index
+        int queryThreads = 1;              // Worker threads used to run the queries
+        int topK = 0;                      // Number of ranked results per query; 0 for unranked boolean search
+        int mergeThreads = 1;              // Segment merges that can run at the same time
+        int maxBufferedDocuments = 0;      // Documents per flushed segment; 0 for the default
+        int servePort = -1;                // Port of the query server; -1 to exit after the queries
+        long cacheMegabytes = -1;          // Budget of the query result cache; -1 for the default
+        long snippetCacheMegabytes = -1;   // Budget of the snippet cache; -1 for the default
+        String metricsFile = null;         // File the metrics are appended to as JSON lines
+        long metricsInterval = 10;         // Seconds between two lines of the metrics file
+        boolean verbose = false;           // Flag to print every indexed document
+        PostingsCodec postingsCodec = PostingsCodec.VARINT; // Compression of the posting lists
+        boolean enableForwardIndex = false; // Flag to keep a document -> terms index
+        boolean offHeap = false;           // Flag to keep built and merged segments off the heap
+        long memoryBudgetMegabytes = 0;    // Heap budget of a build that spills sorted runs; 0 to build in memory
+        String spillDirectory = null;      // Directory of the spilled runs; null for the temporary directory
         boolean enableStemming = false;    // Flag to enable stemming
 
-        // Define paths for serialized index files
+        // Define paths for index files; the serialized .ser files are only read to import legacy indexes
+        String indexFilePathStemmed = "InvertedIndexStemmed.idx";
+        String indexFilePathNonStemmed = "InvertedIndexNonStemmed.idx";
         String serFilePathStemmed = "InvertedIndexStemmed.ser";
         String serFilePathNonStemmed = "InvertedIndexNonStemmed.ser";
 
+        // A sharded index has a command line of its own
+        for (String arg : args) {
+            if (arg.startsWith("--shards=")) {
+                ShardedIndex.main(args);
+                return;
+            }
+        }
+
         // Parse command-line arguments
         for (String arg : args) {
             if (arg.startsWith("--stopword=")) stopwordFile = arg.substring(arg.indexOf('=') + 1);
@@ -357,64 +1663,154 @@ public class InvertedIndex implements Serializable {
             else if (arg.startsWith("--snip=")) snippetRange = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
             else if (arg.startsWith("--snip-output=")) snippetOutputFile = arg.substring(arg.indexOf('=') + 1);
             else if (arg.startsWith("--output=")) indexOutputFile = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--codec=")) postingsCodec = PostingsCodec.fromName(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--threads=")) threadCount = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--query-threads=")) queryThreads = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--k=")) topK = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--merge-threads=")) mergeThreads = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--max-buffered-docs=")) maxBufferedDocuments = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--serve=")) servePort = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--cache-mb=")) cacheMegabytes = Long.parseLong(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--snippet-cache-mb=")) snippetCacheMegabytes = Long.parseLong(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--metrics=")) metricsFile = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--metrics-interval=")) metricsInterval = Long.parseLong(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.equals("--forward-index")) enableForwardIndex = true;
+            else if (arg.equals("--off-heap")) offHeap = true;
+            else if (arg.startsWith("--memory-budget-mb=")) memoryBudgetMegabytes = Long.parseLong(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--spill-dir=")) spillDirectory = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.equals("--verbose")) verbose = true;
             else if (arg.equals("--stem") || arg.equals("-st")) enableStemming = true;
         }
 
         // Ensure required parameters are provided
         if (stopwordFile == null) {
-            System.err.println("Usage: java InvertedIndex --stopword=<file> [--corpus=<dir>] [--query-file=<file>] [--query=<query>] [--search-output=<file>] [--snip=<number>] [--snip-output=<file>] [--output=<file>] [--stem]");
+            System.err.println("Usage: java InvertedIndex --stopword=<file> [--corpus=<dir>] [--query-file=<file>] [--query=<query>] [--search-output=<file>] [--k=<number>] [--snip=<number>] [--snip-output=<file>] [--output=<file>] [--threads=<number>] [--query-threads=<number>] [--merge-threads=<number>] [--max-buffered-docs=<number>] [--codec=varint|packed] [--forward-index] [--off-heap] [--memory-budget-mb=<number>] [--spill-dir=<dir>] [--cache-mb=<number>] [--snippet-cache-mb=<number>] [--serve=<port>] [--metrics=<file>] [--metrics-interval=<seconds>] [--verbose] [--stem]\n       java InvertedIndex --stopword=<file> --shards=<number> [--shard-processes] ... (see ShardedIndex)");
             System.exit(1);
         }
 
         try {
-            // Determine the serialized file path
+            // Determine the index file path
+            String indexFilePath = enableStemming ? indexFilePathStemmed : indexFilePathNonStemmed;
             String serFilePath = enableStemming ? serFilePathStemmed : serFilePathNonStemmed;
             System.out.println("Stemming enabled: " + enableStemming);
-            System.out.println("Using serialized file: " + serFilePath);
+            System.out.println("Using index file: " + indexFilePath);
 
-            // Load or build the inverted index
-            InvertedIndex index = InvertedIndex.loadFromSerFile(serFilePath, stopwordFile);
+            // Publish the metrics through JMX, and to a file if asked
+            Metrics metrics = Metrics.shared();
+            metrics.registerMBeans();
+            if (metricsFile != null) {
+                metrics.startDump(metricsFile, metricsInterval);
+            }
+
+            // An index file in an older format can only be rebuilt, and is left alone without a corpus to rebuild it from
+            boolean outdated = IndexFile.isOutdated(indexFilePath);
+            if (outdated && corpusDirectory == null) {
+                System.err.println(indexFilePath + " was written by an older version of the index format. Run again with --corpus=<dir> to rebuild it.");
+                System.exit(1);
+            }
+
+            // Open, import or build the inverted index
+            long openStart = System.nanoTime();
+            InvertedIndex index = outdated ? null : InvertedIndex.open(indexFilePath, stopwordFile);
             if (index == null) {
-                System.out.println(serFilePath + " not found. Creating a new index.");
-                index = new InvertedIndex(stopwordFile, enableStemming);
-                if (corpusDirectory != null) {
-                    index.buildIndex(corpusDirectory);
+                if (outdated) {
+                    System.out.println(indexFilePath + " was written by an older version and will be rebuilt from " + corpusDirectory);
+                } else {
+                    System.out.println(indexFilePath + " not found. Looking for a legacy " + serFilePath + " to import.");
+                    index = InvertedIndex.loadFromSerFile(serFilePath, stopwordFile);
                 }
-                index.saveToSerFile(serFilePath);
+                if (index == null) {
+                    index = new InvertedIndex(stopwordFile, enableStemming);
+                    index.setVerbose(verbose);
+                    index.setPostingsCodec(postingsCodec);
+                    index.setForwardIndexEnabled(enableForwardIndex);
+                    index.setOffHeap(offHeap);
+                    index.setMemoryBudget(memoryBudgetMegabytes << 20, spillDirectory != null ? new File(spillDirectory) : null);
+                    index.setMergeThreads(mergeThreads);
+                    if (maxBufferedDocuments > 0) {
+                        index.setMaxBufferedDocuments(maxBufferedDocuments);
+                    }
+                    if (corpusDirectory != null) {
+                        index.buildIndex(corpusDirectory, threadCount);
+                    }
+                }
+                index.setOffHeap(offHeap); // an imported index is on the heap
+                index.waitForMerges(); // save the merged segments rather than the ones they replace
+                index.save(indexFilePath);
             } else {
-                System.out.println("Inverted index has been loaded successfully.");
+                System.out.printf("Inverted index has been opened in %.1f ms.%n", (System.nanoTime() - openStart) / 1e6);
+                index.setVerbose(verbose);
+                index.setOffHeap(offHeap);
+                index.setMemoryBudget(memoryBudgetMegabytes << 20, spillDirectory != null ? new File(spillDirectory) : null);
+                index.setMergeThreads(mergeThreads);
+                if (maxBufferedDocuments > 0) {
+                    index.setMaxBufferedDocuments(maxBufferedDocuments);
+                }
+                if (corpusDirectory != null && index.reconcile(corpusDirectory, threadCount)) {
+                    index.waitForMerges();
+                    index.save(indexFilePath);
+                }
+                if (enableForwardIndex && !index.isForwardIndexEnabled()) {
+                    System.out.println("Adding the forward index to " + indexFilePath);
+                    index.setForwardIndexEnabled(true);
+                    index.save(indexFilePath);
+                }
+            }
+
+            if (cacheMegabytes >= 0 || snippetCacheMegabytes >= 0) {
+                index.setQueryCacheSize(cacheMegabytes >= 0 ? cacheMegabytes << 20 : index.resultCacheBytes,
+                        snippetCacheMegabytes >= 0 ? snippetCacheMegabytes << 20 : index.snippetCacheBytes);
             }
 
             // Load queries
             List<String> queries = new ArrayList<>();
             if (queryFilePath != null) {
-                queries = index.readQueriesFromFile(queryFilePath); // Load queries from file
+                queries = InvertedIndex.readQueriesFromFile(queryFilePath); // Load queries from file
             } else if (singleQuery != null) {
                 queries.add(singleQuery); // Add single query
             }
 
-            // Process queries and save results
-            if (searchOutputFile != null) {
+            // Process queries in one batch and save results in query order
+            QueryBatch batch = new QueryBatch(index, queryThreads);
+            if (searchOutputFile != null && topK > 0) {
+                Map<String, List<ScoredDocument>> rankedResults = new LinkedHashMap<>();
+
+                long batchStart = System.nanoTime();
+                List<List<ScoredDocument>> results = batch.searchTopK(queries, topK);
+                for (int i = 0; i < queries.size(); i++) {
+                    rankedResults.put(queries.get(i), results.get(i));
+                }
+                System.out.printf("Processed %d ranked queries on %d threads in %.1f ms (%d shared terms decoded once)%n",
+                        queries.size(), queryThreads, (System.nanoTime() - batchStart) / 1e6, batch.getDecodedTermCount());
+
+                InvertedIndex.saveRankedSearchResults(rankedResults, searchOutputFile);
+            } else if (searchOutputFile != null) {
                 Map<String, Set<String>> queryResults = new LinkedHashMap<>();
 
-                for (String query : queries) {
-                    System.out.println("Processing query: " + query);
-                    Set<String> searchResults = index.search(query); // Get search results
-                    queryResults.put(query, searchResults);
+                long batchStart = System.nanoTime();
+                List<Set<String>> results = batch.search(queries); // Get search results
+                for (int i = 0; i < queries.size(); i++) {
+                    queryResults.put(queries.get(i), results.get(i));
                 }
+                System.out.printf("Processed %d queries on %d threads in %.1f ms (%d shared terms decoded once)%n",
+                        queries.size(), queryThreads, (System.nanoTime() - batchStart) / 1e6, batch.getDecodedTermCount());
 
                 // Save search results
-                index.saveFormattedSearchResults(queryResults, searchOutputFile);
+                InvertedIndex.saveFormattedSearchResults(queryResults, searchOutputFile);
             }
 
-            // Handle snippet generation
+            // Handle snippet generation; the files are read in parallel, the snippets written in query order
             if (snippetRange > 0 && snippetOutputFile != null) {
-                for (String query : queries) {
-                    System.out.println("Extracting snippets for query: " + query);
-                    Map<String, Map<Integer, List<String>>> snippets = index.searchSnippets(query, snippetRange, corpusDirectory);
-                    index.saveSnippets(snippets, snippetOutputFile, query);
+                System.out.println("Extracting snippets for " + queries.size() + " queries on " + queryThreads + " threads");
+                List<Map<String, Map<Integer, List<String>>>> results = batch.searchSnippets(queries, snippetRange, corpusDirectory);
+                for (int i = 0; i < queries.size(); i++) {
+                    InvertedIndex.saveSnippets(results.get(i), snippetOutputFile, queries.get(i));
                 }
             }
+            if (!queries.isEmpty()) {
+                System.out.println("Query cache: " + index.getResultCache());
+                System.out.println("Snippet cache: " + index.getSnippetCache());
+            }
 
             // Save the index to a file if specified
             if (indexOutputFile != null) {
@@ -422,6 +1818,21 @@ public class InvertedIndex implements Serializable {
                 index.saveIndex(indexOutputFile);
             }
 
+            if (metricsFile != null) {
+                metrics.dump(metricsFile);
+                System.out.println("Metrics have been appended to " + metricsFile);
+            }
+
+            // Keep the index loaded and answer queries over HTTP until the process is stopped
+            if (servePort >= 0) {
+                SearchServer server = new SearchServer(index, corpusDirectory, servePort);
+                server.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+                System.out.println("Serving " + indexFilePath + " on http://localhost:" + server.getPort() + "/");
+            } else {
+                metrics.stopDump();
+            }
+
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,115 @@
+import java.util.List;
+
+/**
+ * JsonWriter class builds a JSON text by appending values in order; commas between the members
+ * of objects and arrays are inserted automatically. It has no dependencies beyond the JDK.
+ */
+public class JsonWriter {
+    private final StringBuilder out = new StringBuilder();
+    private boolean first = true; // whether the next value opens its object or array, so needs no comma
+
+    public JsonWriter beginObject() {
+        separator();
+        out.append('{');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        out.append('}');
+        first = false;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separator();
+        out.append('[');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        out.append(']');
+        first = false;
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of an object; the value must follow.
+     */
+    public JsonWriter name(String name) {
+        separator();
+        string(name);
+        out.append(':');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separator();
+        if (value == null) {
+            out.append("null");
+        } else {
+            string(value);
+        }
+        first = false;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separator();
+        out.append(value);
+        first = false;
+        return this;
+    }
+
+    /**
+     * Writes a number; NaN and infinite values, which JSON cannot represent, are written as null.
+     */
+    public JsonWriter value(double value) {
+        separator();
+        out.append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+        first = false;
+        return this;
+    }
+
+    public JsonWriter value(List<Integer> values) {
+        beginArray();
+        for (int value : values) {
+            value(value);
+        }
+        return endArray();
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void separator() {
+        if (!first) {
+            out.append(',');
+        }
+    }
+
+    private void string(String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (ch < 0x20) {
+                        out.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        out.append(ch);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
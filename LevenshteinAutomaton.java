@@ -0,0 +1,151 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LevenshteinAutomaton class accepts the terms within a maximum edit distance of a query term,
+ * counting insertions, deletions, substitutions and transpositions of adjacent characters.
+ * It is a deterministic automaton built on demand: a state is the row of the edit-distance table
+ * for the characters read so far, with distances capped at maxEdits + 1, and reading a character
+ * computes the next row. A state from which no term can be accepted any more is dead, so a sorted
+ * {@link TermDictionary} can skip every term sharing the prefix that led to it; see
+ * {@link FrontCodedTermDictionary#termsWithin(LevenshteinAutomaton)}.
+ *
+ * Indexed terms are ASCII (see {@link Tokenizer#isWordChar(char)}), so the automaton reads UTF-8
+ * bytes and an edit is one byte.
+ */
+public class LevenshteinAutomaton {
+    /** The largest supported edit distance; more would accept most short terms. */
+    public static final int MAX_EDITS = 2;
+
+    private final byte[] term;
+    private final int maxEdits;
+
+    /**
+     * @param term     The query term.
+     * @param maxEdits The maximum edit distance, from 0 to {@link #MAX_EDITS}.
+     */
+    public LevenshteinAutomaton(String term, int maxEdits) {
+        if (maxEdits < 0 || maxEdits > MAX_EDITS) {
+            throw new IllegalArgumentException("Edit distance must be between 0 and " + MAX_EDITS + ": " + maxEdits);
+        }
+        this.term = term.getBytes(StandardCharsets.UTF_8);
+        this.maxEdits = maxEdits;
+    }
+
+    public int getMaxEdits() {
+        return maxEdits;
+    }
+
+    /**
+     * Returns the length of a state, i.e. of the rows passed to {@link #step}.
+     */
+    public int stateSize() {
+        return term.length + 1;
+    }
+
+    /**
+     * Writes the start state, before any character is read, into state.
+     */
+    public void start(int[] state) {
+        for (int i = 0; i <= term.length; i++) {
+            state[i] = Math.min(i, maxEdits + 1);
+        }
+    }
+
+    /**
+     * Computes the state after reading one more character.
+     *
+     * @param before     The state before the previous character, or null if ch is the first one.
+     * @param previousCh The previous character, ignored if before is null.
+     * @param state      The state before ch.
+     * @param ch         The character read.
+     * @param next       Receives the new state.
+     */
+    public void step(int[] before, byte previousCh, int[] state, byte ch, int[] next) {
+        int cap = maxEdits + 1;
+        next[0] = Math.min(state[0] + 1, cap);
+        for (int i = 1; i <= term.length; i++) {
+            int cost = term[i - 1] == ch ? 0 : 1;
+            int distance = Math.min(Math.min(state[i] + 1, next[i - 1] + 1), state[i - 1] + cost);
+            if (before != null && i > 1 && term[i - 1] == previousCh && term[i - 2] == ch) {
+                distance = Math.min(distance, before[i - 2] + 1); // adjacent characters swapped
+            }
+            next[i] = Math.min(distance, cap);
+        }
+    }
+
+    /**
+     * Returns true if the characters read so far are a term within the maximum distance.
+     */
+    public boolean isMatch(int[] state) {
+        return state[term.length] <= maxEdits;
+    }
+
+    /**
+     * Returns false if no term starting with the characters read so far can be within the
+     * maximum distance, i.e. if the state is dead.
+     */
+    public boolean canMatch(int[] state) {
+        for (int distance : state) {
+            if (distance <= maxEdits) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the smallest byte greater than after whose transition from state is not dead, or -1
+     * if there is none. Every byte keeps a state alive if it is below the maximum distance
+     * somewhere; otherwise only a byte of the query term that matches, or completes a swap, at a
+     * position where the distance is still within the maximum can.
+     *
+     * @param before     The state before the previous character, or null if none was read.
+     * @param previousCh The previous character, ignored if before is null.
+     * @param state      A state that is not dead.
+     * @param after      An unsigned byte value, from 0 to 255.
+     */
+    public int nextByte(int[] before, byte previousCh, int[] state, int after) {
+        int best = 256;
+        for (int i = 0; i <= term.length; i++) {
+            if (state[i] < maxEdits) {
+                return after < 255 ? after + 1 : -1;
+            }
+            if (state[i] == maxEdits && i < term.length) {
+                int value = term[i] & 0xFF; // matching the next character of the term keeps the distance
+                if (value > after && value < best) best = value;
+            }
+            if (before != null && i >= 2 && before[i - 2] < maxEdits && term[i - 1] == previousCh) {
+                int value = term[i - 2] & 0xFF; // swapping the previous character and this one costs one edit
+                if (value > after && value < best) best = value;
+            }
+        }
+        return best < 256 ? best : -1;
+    }
+
+    /**
+     * Returns the edit distance between the query term and a candidate, or maxEdits + 1 if it is larger.
+     */
+    public int distance(String candidate) {
+        byte[] bytes = candidate.getBytes(StandardCharsets.UTF_8);
+        int[][] rows = new int[3][stateSize()];
+        start(rows[0]);
+        for (int i = 0; i < bytes.length; i++) {
+            int[] before = i > 0 ? rows[(i + 2) % 3] : null;
+            step(before, i > 0 ? bytes[i - 1] : 0, rows[i % 3], bytes[i], rows[(i + 1) % 3]);
+            if (!canMatch(rows[(i + 1) % 3])) {
+                return maxEdits + 1;
+            }
+        }
+        return rows[bytes.length % 3][term.length];
+    }
+
+    /**
+     * Returns true if a candidate is within the maximum edit distance of the query term.
+     */
+    public boolean matches(String candidate) {
+        return distance(candidate) <= maxEdits;
+    }
+
+    @Override
+    public String toString() {
+        return new String(term, StandardCharsets.UTF_8) + "~" + maxEdits;
+    }
+}
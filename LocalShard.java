@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LocalShard class is a {@link Shard} loaded in the coordinator's own JVM.
+ */
+public class LocalShard implements Shard {
+    private final InvertedIndex index;
+
+    public LocalShard(InvertedIndex index) {
+        this.index = index;
+    }
+
+    public InvertedIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public int getDocumentCount() {
+        return index.getDocumentCount();
+    }
+
+    @Override
+    public Set<String> search(String query) {
+        return index.search(query);
+    }
+
+    @Override
+    public CollectionStatistics getStatistics(String query) {
+        return index.getStatistics(query);
+    }
+
+    @Override
+    public List<ScoredDocument> searchTopK(String query, int k, CollectionStatistics statistics) {
+        return index.searchTopK(query, k, statistics);
+    }
+
+    @Override
+    public Map<String, List<Integer>> searchWord(String word) {
+        return index.searchWord(word);
+    }
+
+    @Override
+    public Map<String, List<Integer>> searchDocument(String document) {
+        return index.searchDocument(document);
+    }
+
+    @Override
+    public Map<String, Map<Integer, List<String>>> searchSnippets(String term, int snipRange, String corpusDirPath) throws IOException {
+        return index.searchSnippets(term, snipRange, corpusDirPath);
+    }
+
+    /**
+     * Waits for the merges still running, so none is lost; the index stays usable.
+     */
+    @Override
+    public void close() throws IOException {
+        index.waitForMerges();
+    }
+}
@@ -0,0 +1,121 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * MappedTermDictionary class is a read-only {@link TermDictionary} that reads the term section of
+ * a {@link SegmentFile} in place. Terms are stored sorted by their UTF-8 bytes and a term's ID is
+ * its rank, so lookups are a binary search over the mapped bytes without building any objects.
+ *
+ * Section layout: {@code int[termCount + 1]} offsets into the term bytes, then the UTF-8 bytes of all terms.
+ * This is the term section of version 1 files; later versions use a {@link FrontCodedTermDictionary}.
+ */
+public class MappedTermDictionary implements TermDictionary {
+    private final ByteBuffer section;
+    private final int termCount;
+    private final int bytesStart;
+
+    MappedTermDictionary(ByteBuffer section, int termCount) {
+        this.section = section;
+        this.termCount = termCount;
+        this.bytesStart = (termCount + 1) * 4;
+    }
+
+    @Override
+    public int getOrAdd(String term) {
+        throw new UnsupportedOperationException("A mapped term dictionary is read-only");
+    }
+
+    @Override
+    public int getId(String term) {
+        byte[] probe = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareTo(mid, probe);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    @Override
+    public Iterable<String> sortedTerms() {
+        return terms();
+    }
+
+    /**
+     * Returns the terms starting with a prefix, in sorted order, found by binary search.
+     */
+    @Override
+    public List<String> termsWithPrefix(String prefix) {
+        byte[] probe = prefix.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareTo(mid, probe) < 0) low = mid + 1;
+            else high = mid;
+        }
+        List<String> matches = new ArrayList<>();
+        for (int id = low; id < termCount; id++) {
+            String term = getTerm(id);
+            if (!term.startsWith(prefix)) break;
+            matches.add(term);
+        }
+        return matches;
+    }
+
+    @Override
+    public String getTerm(int id) {
+        int start = section.getInt(id * 4);
+        byte[] bytes = new byte[section.getInt(id * 4 + 4) - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = section.get(bytesStart + start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return termCount;
+    }
+
+    /**
+     * Returns the terms in sorted order.
+     */
+    @Override
+    public Iterable<String> terms() {
+        return () -> new Iterator<String>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < termCount;
+            }
+
+            @Override
+            public String next() {
+                if (next >= termCount) throw new NoSuchElementException();
+                return getTerm(next++);
+            }
+        };
+    }
+
+    // Compares the stored term with the given ID to the probe bytes, as unsigned bytes
+    private int compareTo(int id, byte[] probe) {
+        int start = bytesStart + section.getInt(id * 4);
+        int length = bytesStart + section.getInt(id * 4 + 4) - start;
+        int common = Math.min(length, probe.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (section.get(start + i) & 0xFF) - (probe[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return length - probe.length;
+    }
+}
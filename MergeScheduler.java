@@ -0,0 +1,96 @@
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MergeScheduler class runs the segment merges of an {@link InvertedIndex} in the background on
+ * a fixed number of threads, so adding documents never waits for a merge. Whenever the segments
+ * change, the {@link TieredMergePolicy} is asked for merges; a segment takes part in at most one
+ * merge at a time, so up to threadCount merges of different segments can run concurrently.
+ */
+public class MergeScheduler {
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private final InvertedIndex index;
+    private final TieredMergePolicy policy;
+    private final ExecutorService executor;
+    private final Set<Segment> merging = new HashSet<>(); // guarded by this
+    private int pending;                                  // merges submitted and not finished; guarded by this
+    private long completed;                               // guarded by this
+
+    /**
+     * @param index       The index whose segments are merged.
+     * @param policy      The policy that picks the segments to merge.
+     * @param threadCount The maximum number of merges running at the same time.
+     */
+    public MergeScheduler(InvertedIndex index, TieredMergePolicy policy, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one merge thread is needed: " + threadCount);
+        }
+        this.index = index;
+        this.policy = policy;
+        // Daemon threads: an unfinished merge is simply lost at exit, the segments it reads are still there
+        this.executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "segment-merge-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the merges the policy finds among the segments that are not being merged yet.
+     */
+    public synchronized void maybeMerge() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        for (List<Segment> segments : policy.findMerges(index.getSegments(), merging)) {
+            merging.addAll(segments);
+            pending++;
+            executor.execute(() -> merge(segments));
+        }
+    }
+
+    private void merge(List<Segment> segments) {
+        try {
+            index.mergeSegments(segments);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to merge " + segments.size() + " segments: " + e);
+        } finally {
+            synchronized (this) {
+                merging.removeAll(segments);
+                completed++;
+                maybeMerge(); // the merged segment may complete a run of the next tier
+                pending--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until no merge is running or waiting to run, including the merges started meanwhile.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized void waitForMerges() throws InterruptedException {
+        while (pending > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Returns the number of merges finished so far.
+     */
+    public synchronized long getCompletedMerges() {
+        return completed;
+    }
+
+    /**
+     * Stops the merge threads; merges that are still running are abandoned.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
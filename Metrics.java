@@ -0,0 +1,243 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics class collects the operational metrics of the engine: indexing counters, latency
+ * histograms per operation and query type, and the number of postings each query decodes.
+ * One instance, {@link #shared()}, is updated by all indexes in the process. The metrics can be
+ * read through JMX (see {@link #registerMBeans()}), as JSON ({@link #toJson()}), or appended to a
+ * file as one JSON line every few seconds ({@link #startDump(String, long)}).
+ */
+public class Metrics implements MetricsMXBean {
+    private static final Metrics SHARED = new Metrics();
+    private static final String DOMAIN = "EfficientSearchEngine";
+    // Postings scanned by the current thread; read before and after a query to attribute them to it
+    private static final ThreadLocal<long[]> POSTINGS_SCANNED = ThreadLocal.withInitial(() -> new long[1]);
+
+    public final Histogram indexDocument = Histogram.latency(); // tokenizing and stemming one document
+    public final Histogram indexLoad = Histogram.latency();
+    public final Histogram segmentFlush = Histogram.latency();
+    public final Histogram segmentMerge = Histogram.latency();
+    public final Histogram wordQuery = Histogram.latency();
+    public final Histogram documentQuery = Histogram.latency();
+    public final Histogram booleanQuery = Histogram.latency();
+    public final Histogram rankedQuery = Histogram.latency();
+    public final Histogram snippetQuery = Histogram.latency();
+    public final Histogram suggestQuery = Histogram.latency(); // fuzzy scans of the term dictionaries
+    public final Histogram postingsPerQuery = new Histogram("postings", 1);
+
+    private final LongAdder documentsIndexed = new LongAdder();
+    private final LongAdder tokensIndexed = new LongAdder();
+    private final LongAdder stopwordsRemoved = new LongAdder();
+    private final LongAdder bytesIndexed = new LongAdder();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private volatile long lastIndexLoadNanos;
+    private ScheduledExecutorService dumper; // guarded by this
+
+    public Metrics() {
+        histograms.put("index.document", indexDocument);
+        histograms.put("index.load", indexLoad);
+        histograms.put("segment.flush", segmentFlush);
+        histograms.put("segment.merge", segmentMerge);
+        histograms.put("query.word", wordQuery);
+        histograms.put("query.doc", documentQuery);
+        histograms.put("query.boolean", booleanQuery);
+        histograms.put("query.ranked", rankedQuery);
+        histograms.put("query.snippet", snippetQuery);
+        histograms.put("query.suggest", suggestQuery);
+        histograms.put("query.postings", postingsPerQuery);
+    }
+
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the postings counter of the current thread. Postings iterators look it up once when
+     * created and add the documents they decode or step over to element 0.
+     */
+    static long[] postingsCounter() {
+        return POSTINGS_SCANNED.get();
+    }
+
+    /**
+     * Records one indexed document.
+     *
+     * @param start     The value of {@link System#nanoTime()} when indexing the document started.
+     * @param tokens    The number of tokens in the document, stopwords included.
+     * @param stopwords The number of those tokens that were stopwords.
+     * @param bytes     The file size.
+     */
+    public void documentIndexed(long start, int tokens, int stopwords, long bytes) {
+        indexDocument.recordSince(start);
+        documentsIndexed.increment();
+        tokensIndexed.add(tokens);
+        stopwordsRemoved.add(stopwords);
+        bytesIndexed.add(bytes);
+    }
+
+    /**
+     * Records the time taken to open or load an index.
+     */
+    public void indexLoaded(long start) {
+        lastIndexLoadNanos = System.nanoTime() - start;
+        indexLoad.record(lastIndexLoadNanos);
+    }
+
+    /**
+     * Records a query: its latency, and the postings the current thread decoded for it.
+     *
+     * @param histogram       The latency histogram of the query type.
+     * @param start           The value of {@link System#nanoTime()} when the query started.
+     * @param postingsAtStart The value of {@code postingsCounter()[0]} when the query started.
+     */
+    public void queryDone(Histogram histogram, long start, long postingsAtStart) {
+        histogram.recordSince(start);
+        postingsPerQuery.record(postingsCounter()[0] - postingsAtStart);
+    }
+
+    /**
+     * Returns the histograms by name, in a fixed order.
+     */
+    public Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    @Override
+    public long getDocumentsIndexed() {
+        return documentsIndexed.sum();
+    }
+
+    @Override
+    public long getTokensIndexed() {
+        return tokensIndexed.sum();
+    }
+
+    @Override
+    public long getBytesIndexed() {
+        return bytesIndexed.sum();
+    }
+
+    @Override
+    public double getTokensPerSecond() {
+        double seconds = indexDocument.getMean() * indexDocument.getCount() / 1e6;
+        return seconds == 0 ? 0 : tokensIndexed.sum() / seconds;
+    }
+
+    @Override
+    public double getStopwordRatio() {
+        long tokens = tokensIndexed.sum();
+        return tokens == 0 ? 0 : (double) stopwordsRemoved.sum() / tokens;
+    }
+
+    @Override
+    public double getStemCacheHitRate() {
+        StemCache stemCache = StemCache.shared();
+        long lookups = stemCache.getHits() + stemCache.getMisses();
+        return lookups == 0 ? 0 : (double) stemCache.getHits() / lookups;
+    }
+
+    @Override
+    public double getLastIndexLoadMillis() {
+        return lastIndexLoadNanos / 1e6;
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return OffHeapArena.totalAllocatedBytes();
+    }
+
+    /**
+     * Registers this instance and its histograms with the platform MBean server, under the domain
+     * "EfficientSearchEngine"; already registered beans are left alone.
+     */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName(DOMAIN + ":type=Metrics"), this);
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                register(server, new ObjectName(DOMAIN + ":type=Histogram,name=" + entry.getKey()), entry.getValue());
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register the metrics MBeans: " + e);
+        }
+    }
+
+    private static void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+        if (!server.isRegistered(name)) {
+            server.registerMBean(bean, name);
+        }
+    }
+
+    /**
+     * Returns all metrics as one JSON object.
+     */
+    public String toJson() {
+        JsonWriter json = new JsonWriter().beginObject()
+                .name("timestamp").value(System.currentTimeMillis())
+                .name("documentsIndexed").value(getDocumentsIndexed())
+                .name("tokensIndexed").value(getTokensIndexed())
+                .name("bytesIndexed").value(getBytesIndexed())
+                .name("tokensPerSecond").value(Math.round(getTokensPerSecond()))
+                .name("stopwordRatio").value(Math.round(getStopwordRatio() * 1e4) / 1e4)
+                .name("stemCacheHitRate").value(Math.round(getStemCacheHitRate() * 1e4) / 1e4)
+                .name("lastIndexLoadMillis").value(Math.round(getLastIndexLoadMillis() * 10) / 10.0)
+                .name("offHeapBytes").value(getOffHeapBytes())
+                .name("histograms").beginObject();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            entry.getValue().writeJson(json.name(entry.getKey()));
+        }
+        return json.endObject().endObject().toString();
+    }
+
+    /**
+     * Appends {@link #toJson()} as one line to a file every intervalSeconds, on a daemon thread,
+     * until {@link #stopDump()}.
+     *
+     * @param path            The file to append to.
+     * @param intervalSeconds The time between two lines.
+     */
+    public synchronized void startDump(String path, long intervalSeconds) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(path), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic dump started by {@link #startDump(String, long)}.
+     */
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    /**
+     * Appends {@link #toJson()} as one line to a file.
+     */
+    public void dump(String path) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path, true))) {
+            writer.write(toJson());
+            writer.newLine();
+        } catch (IOException e) {
+            System.err.println("Failed to write metrics to " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * MetricsMXBean interface is the JMX view of the engine's {@link Metrics} counters. The latency
+ * histograms are registered as separate {@link HistogramMXBean}s.
+ */
+public interface MetricsMXBean {
+    long getDocumentsIndexed();
+
+    long getTokensIndexed();
+
+    long getBytesIndexed();
+
+    /**
+     * Returns the tokens indexed per second of document indexing time, per worker thread.
+     */
+    double getTokensPerSecond();
+
+    /**
+     * Returns the fraction of indexed tokens that were stopwords.
+     */
+    double getStopwordRatio();
+
+    /**
+     * Returns the fraction of stemmed words found in the stem cache.
+     */
+    double getStemCacheHitRate();
+
+    /**
+     * Returns the time the last index open or load took, in milliseconds.
+     */
+    double getLastIndexLoadMillis();
+
+    /**
+     * Returns the bytes held off the heap by the segments of all indexes, see {@link OffHeapArena}.
+     */
+    long getOffHeapBytes();
+}
@@ -0,0 +1,74 @@
+/**
+ * MultiPostingsIterator class walks the postings of a term in several segments as one list.
+ * Segments cover consecutive, disjoint document ID ranges, so the segment iterators are simply
+ * visited one after the other; {@link #advance(int)} passes over whole segments without touching them.
+ */
+public class MultiPostingsIterator implements PostingsIterator {
+    private final PostingsIterator[] parts; // in document ID order
+    private final int[] lastDocIds;         // the last document ID each part can return
+    private int current;
+    private int docId = -1;
+
+    /**
+     * @param parts      The iterators of the segments, in document ID order.
+     * @param lastDocIds The last document ID covered by each segment.
+     */
+    MultiPostingsIterator(PostingsIterator[] parts, int[] lastDocIds) {
+        this.parts = parts;
+        this.lastDocIds = lastDocIds;
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        while (current < parts.length) {
+            int doc = parts[current].nextDoc();
+            if (doc != NO_MORE_DOCS) {
+                return docId = doc;
+            }
+            current++;
+        }
+        return docId = NO_MORE_DOCS;
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docId >= target) {
+            return docId;
+        }
+        while (current < parts.length && lastDocIds[current] < target) {
+            current++;
+        }
+        while (current < parts.length) {
+            int doc = parts[current].advance(target);
+            if (doc != NO_MORE_DOCS) {
+                return docId = doc;
+            }
+            current++;
+        }
+        return docId = NO_MORE_DOCS;
+    }
+
+    @Override
+    public long cost() {
+        long cost = 0;
+        for (PostingsIterator part : parts) {
+            cost += part.cost();
+        }
+        return cost;
+    }
+
+    @Override
+    public int freq() {
+        return parts[current].freq();
+    }
+
+    @Override
+    public int[] positions() {
+        return parts[current].positions();
+    }
+}
@@ -0,0 +1,111 @@
+import java.io.Closeable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Cleaner;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OffHeapArena class owns memory outside the Java heap that an off-heap {@link Segment} is read
+ * from in place. The memory is allocated as direct buffers, which the garbage collector sees as
+ * one small object each however large they are, so an index in an arena adds next to nothing to
+ * the heap the collector has to trace and copy.
+ *
+ * The memory is freed all at once by {@link #close()}, or, if the arena is never closed, by the
+ * garbage collector once no buffer of the arena is reachable any more. Closing is immediate: a
+ * buffer of a closed arena must not be read again, so the segments an index removes are closed by
+ * {@link SegmentReaders} once no query can still be reading them. The direct memory of the process is limited by
+ * {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ */
+public class OffHeapArena implements Closeable {
+    private static final AtomicLong ALLOCATED = new AtomicLong(); // bytes of the arenas neither closed nor collected
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final List<ByteBuffer> buffers = new ArrayList<>(); // guarded by this
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final Cleaner.Cleanable release; // takes the bytes off the total when closed or collected
+    private boolean closed;                  // guarded by this
+
+    public OffHeapArena() {
+        AtomicLong bytes = allocatedBytes; // the action must not refer to the arena itself
+        release = CLEANER.register(this, () -> ALLOCATED.addAndGet(-bytes.getAndSet(0)));
+    }
+
+    /**
+     * Returns a zeroed buffer of the given size, positioned at 0, that lives until this arena is closed.
+     *
+     * @throws IllegalStateException If the arena is closed.
+     */
+    public synchronized ByteBuffer allocate(int size) {
+        if (closed) {
+            throw new IllegalStateException("The arena is closed");
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffers.add(buffer);
+        allocatedBytes.addAndGet(size);
+        ALLOCATED.addAndGet(size);
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes allocated in this arena, 0 once it is closed.
+     */
+    public long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes allocated in all arenas of the process that are neither closed
+     * nor collected.
+     */
+    public static long totalAllocatedBytes() {
+        return ALLOCATED.get();
+    }
+
+    /**
+     * Frees the memory of every buffer of the arena. Closing an arena again does nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (ByteBuffer buffer : buffers) {
+            free(buffer);
+        }
+        buffers.clear();
+        release.clean();
+    }
+
+    // Frees a direct buffer now rather than when it is collected; its cleaner then has nothing left to do
+    private static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return; // the collector frees it once it is unreachable
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to free a direct buffer", t);
+        }
+    }
+
+    // sun.misc.Unsafe.invokeCleaner, bound to the Unsafe instance, or null if this JVM lacks it
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -1,14 +1,89 @@
+/**
+ * PorterStemmer class reduces words to their stems. It works in place on a reusable character
+ * buffer, so stemming a word allocates nothing beyond the returned String (and nothing at all if
+ * the word is its own stem). A PorterStemmer is not thread-safe; {@link StemCache} keeps one per thread.
+ */
 public class PorterStemmer {
-    private StringBuilder word;
+    private char[] b;  // the word being stemmed, in b[0..k)
+    private int k;
+    private char[] buffer = new char[32];
 
+    public PorterStemmer() {
+    }
+
+    /**
+     * Creates a stemmer for a single word; call {@link #stem()} to get its stem.
+     */
     public PorterStemmer(String word) {
-        this.word = new StringBuilder(word != null ? word.toLowerCase() : "");
+        load(word != null ? word.toLowerCase() : "");
+    }
+
+    // Complete Stemming Process
+    public String stem() {
+        return new String(buffer, 0, stem(buffer, k));
+    }
+
+    /**
+     * Stems a word.
+     *
+     * @param word The word; lower-cased first.
+     * @return The stem, or the word itself if it is its own stem.
+     */
+    public String stem(String word) {
+        word = word.toLowerCase();
+        int length = word.length();
+        load(word);
+        int stemLength = stem(buffer, length);
+        if (stemLength == length && sameChars(word, stemLength)) {
+            return word;
+        }
+        return new String(buffer, 0, stemLength);
+    }
+
+    /**
+     * Stems a lower-case word in place. Stemming never makes a word longer.
+     *
+     * @param word   The buffer holding the word at index 0; overwritten with the stem.
+     * @param length The length of the word.
+     * @return The length of the stem.
+     */
+    public int stem(char[] word, int length) {
+        b = word;
+        k = length;
+        if (k > 0) {
+            step1a();
+            step1b();
+            step1c();
+            step2();
+            step3();
+            step4();
+            step5a();
+            step5b();
+        }
+        b = buffer;
+        return k;
+    }
+
+    private void load(String word) {
+        if (buffer.length < word.length()) {
+            buffer = new char[Math.max(word.length(), buffer.length * 2)];
+        }
+        word.getChars(0, word.length(), buffer, 0);
+        b = buffer;
+        k = word.length();
+    }
+
+    private boolean sameChars(String word, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != word.charAt(i)) return false;
+        }
+        return true;
     }
 
     // Check if a character is a consonant
     private boolean isConsonant(int i) {
-        if (i < 0 || i >= word.length()) return false;
-        char ch = word.charAt(i);
+        if (i < 0 || i >= k) return false;
+        char ch = b[i];
         return (ch != 'a' && ch != 'e' && ch != 'i' && ch != 'o' && ch != 'u')
                 && !(ch == 'y' && i > 0 && !isConsonant(i - 1));
     }
@@ -17,7 +92,7 @@ public class PorterStemmer {
     private int measure() {
         int count = 0;
         boolean inVowelSeq = false;
-        for (int i = 0; i < word.length(); i++) {
+        for (int i = 0; i < k; i++) {
             if (!isConsonant(i)) {
                 inVowelSeq = true;
             } else if (inVowelSeq) {
@@ -28,127 +103,124 @@ public class PorterStemmer {
         return count;
     }
 
+    private boolean endsWith(String suffix) {
+        int length = suffix.length();
+        if (length > k) return false;
+        for (int i = 0; i < length; i++) {
+            if (b[k - length + i] != suffix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Replaces the last suffixLength characters with the replacement
+    private void replaceEnd(int suffixLength, String replacement) {
+        k -= suffixLength;
+        for (int i = 0; i < replacement.length(); i++) {
+            b[k++] = replacement.charAt(i);
+        }
+    }
+
     // Step 1a: Deal with plurals and "s" endings
     private void step1a() {
-        if (word.length() == 0) return;
-        if (word.toString().endsWith("sses")) {
-            word.replace(word.length() - 4, word.length(), "ss");
-        } else if (word.toString().endsWith("ies")) {
-            word.replace(word.length() - 3, word.length(), "i");
-        } else if (word.length() > 2 && word.charAt(word.length() - 1) == 's') {
-            word.deleteCharAt(word.length() - 1);
+        if (endsWith("sses")) {
+            replaceEnd(4, "ss");
+        } else if (endsWith("ies")) {
+            replaceEnd(3, "i");
+        } else if (k > 2 && b[k - 1] == 's') {
+            k--;
         }
     }
 
     // Step 1b: Deal with -ed and -ing endings
     private void step1b() {
-        if (word.length() == 0) return;
-        if (word.toString().endsWith("eed")) {
+        if (k == 0) return;
+        if (endsWith("eed")) {
             if (measure() > 0) {
-                word.replace(word.length() - 3, word.length(), "ee");
+                replaceEnd(3, "ee");
             }
-        } else if ((word.toString().endsWith("ed") || word.toString().endsWith("ing")) && containsVowel()) {
-            word.delete(word.length() - (word.toString().endsWith("ed") ? 2 : 3), word.length());
-            if (word.toString().endsWith("at") || word.toString().endsWith("bl") || word.toString().endsWith("iz")) {
-                word.append("e");
-            } else if (isDoubleConsonant(word.length() - 1)) {
-                word.deleteCharAt(word.length() - 1);
-            } else if (measure() == 1 && cvc(word.length() - 1)) {
-                word.append("e");
+        } else if ((endsWith("ed") || endsWith("ing")) && containsVowel()) {
+            k -= endsWith("ed") ? 2 : 3;
+            if (endsWith("at") || endsWith("bl") || endsWith("iz")) {
+                b[k++] = 'e';
+            } else if (isDoubleConsonant(k - 1)) {
+                k--;
+            } else if (measure() == 1 && cvc(k - 1)) {
+                b[k++] = 'e';
             }
         }
     }
 
     // Step 1c: Replace ending 'y' with 'i' if there is a vowel before it
     private void step1c() {
-        if (word.length() > 0 && word.charAt(word.length() - 1) == 'y' && containsVowelBeforeLast()) {
-            word.setCharAt(word.length() - 1, 'i');
+        if (k > 0 && b[k - 1] == 'y' && containsVowelBeforeLast()) {
+            b[k - 1] = 'i';
         }
     }
 
     // Step 2: Handle certain suffixes like -ational, -tional
     private void step2() {
-        if (word.length() == 0) return;
-        if (word.toString().endsWith("ational") && measure() > 0) {
-            word.replace(word.length() - 7, word.length(), "ate");
-        } else if (word.toString().endsWith("tional") && measure() > 0) {
-            word.replace(word.length() - 6, word.length(), "tion");
+        if (endsWith("ational") && measure() > 0) {
+            replaceEnd(7, "ate");
+        } else if (endsWith("tional") && measure() > 0) {
+            replaceEnd(6, "tion");
         }
     }
 
     // Step 3: Further suffix reduction (e.g., -icate -> -ic)
     private void step3() {
-        if (word.length() == 0) return;
-        if (word.toString().endsWith("icate") && measure() > 0) {
-            word.replace(word.length() - 5, word.length(), "ic");
-        } else if (word.toString().endsWith("ative") && measure() > 0) {
-            word.delete(word.length() - 5, word.length());
+        if (endsWith("icate") && measure() > 0) {
+            replaceEnd(5, "ic");
+        } else if (endsWith("ative") && measure() > 0) {
+            k -= 5;
         }
     }
 
     // Step 4: Remove certain suffixes like -ance, -ence
     private void step4() {
-        if (word.length() == 0) return;
-        if (word.toString().endsWith("ance") && measure() > 1) {
-            word.replace(word.length() - 4, word.length(), "");
-        } else if (word.toString().endsWith("ence") && measure() > 1) {
-            word.replace(word.length() - 4, word.length(), "");
+        if ((endsWith("ance") || endsWith("ence")) && measure() > 1) {
+            k -= 4;
         }
     }
 
     // Step 5a: Remove 'e' if m > 1, or if m = 1 and not CVC
     private void step5a() {
-        if (word.length() > 0 && word.charAt(word.length() - 1) == 'e') {
+        if (k > 0 && b[k - 1] == 'e') {
             int m = measure();
-            if (m > 1 || (m == 1 && !cvc(word.length() - 2))) {
-                word.deleteCharAt(word.length() - 1);
+            if (m > 1 || (m == 1 && !cvc(k - 2))) {
+                k--;
             }
         }
     }
 
     // Step 5b: Remove double 'l' if measure > 1
     private void step5b() {
-        if (word.length() > 1 && isDoubleConsonant(word.length() - 1) && measure() > 1 && word.charAt(word.length() - 1) == 'l') {
-            word.deleteCharAt(word.length() - 1);
+        if (k > 1 && isDoubleConsonant(k - 1) && measure() > 1 && b[k - 1] == 'l') {
+            k--;
         }
     }
 
     // Helper methods
     private boolean containsVowel() {
-        for (int i = 0; i < word.length(); i++) {
+        for (int i = 0; i < k; i++) {
             if (!isConsonant(i)) return true;
         }
         return false;
     }
 
     private boolean containsVowelBeforeLast() {
-        for (int i = 0; i < word.length() - 1; i++) {
+        for (int i = 0; i < k - 1; i++) {
             if (!isConsonant(i)) return true;
         }
         return false;
     }
 
     private boolean isDoubleConsonant(int i) {
-        return i > 0 && word.charAt(i) == word.charAt(i - 1) && isConsonant(i);
+        return i > 0 && b[i] == b[i - 1] && isConsonant(i);
     }
 
     private boolean cvc(int i) {
         return i >= 2 && isConsonant(i) && !isConsonant(i - 1) && isConsonant(i - 2)
-                && word.charAt(i) != 'w' && word.charAt(i) != 'x' && word.charAt(i) != 'y';
-    }
-
-    // Complete Stemming Process
-    public String stem() {
-        if (word.length() == 0) return ""; // Handle empty input
-        step1a();
-        step1b();
-        step1c();
-        step2();
-        step3();
-        step4();
-        step5a();
-        step5b();
-        return word.toString();
+                && b[i] != 'w' && b[i] != 'x' && b[i] != 'y';
     }
 
     // Main method to test the PorterStemmer
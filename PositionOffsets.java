@@ -0,0 +1,177 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PositionOffsets class stores, for every document, a sparse table mapping word positions to byte
+ * offsets in the document file: checkpoint i is the offset of the word at position
+ * {@code i * INTERVAL + 1}. A snippet around a position can then be read from the file between two
+ * checkpoints instead of tokenizing the document from the start.
+ *
+ * Offsets are counted in UTF-8 bytes. Documents that are not valid UTF-8 get no checkpoints, and
+ * their snippets are read the slow way.
+ *
+ * Section layout: {@code int[documentCount + 1]} index of each document's first checkpoint, then the checkpoints.
+ */
+public class PositionOffsets {
+    /** Number of word positions between two checkpoints. */
+    public static final int INTERVAL = 64;
+
+    private final List<int[]> entries;  // heap checkpoints by docID, or null when mapped
+    private final ByteBuffer section;
+    private final int documentCount;
+
+    public PositionOffsets() {
+        this.entries = new ArrayList<>();
+        this.section = null;
+        this.documentCount = 0;
+    }
+
+    PositionOffsets(ByteBuffer section, int documentCount) {
+        this.entries = null;
+        this.section = section;
+        this.documentCount = documentCount;
+    }
+
+    /**
+     * Stores the checkpoints of a document, replacing any previous ones.
+     *
+     * @param docId       The document ID.
+     * @param checkpoints The byte offsets, or null if the document has none.
+     */
+    public void put(int docId, int[] checkpoints) {
+        if (entries == null) {
+            throw new UnsupportedOperationException("Mapped position offsets are read-only");
+        }
+        while (entries.size() <= docId) {
+            entries.add(null);
+        }
+        entries.set(docId, checkpoints);
+    }
+
+    /**
+     * Returns a writable copy; used before documents are added to an index opened from a file.
+     */
+    public PositionOffsets writableCopy() {
+        PositionOffsets copy = new PositionOffsets();
+        for (int docId = 0; docId < size(); docId++) {
+            int count = getCheckpointCount(docId);
+            if (count > 0) {
+                int[] checkpoints = new int[count];
+                for (int i = 0; i < count; i++) {
+                    checkpoints[i] = getCheckpoint(docId, i);
+                }
+                copy.put(docId, checkpoints);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a read-only copy in the memory of an arena, in the section layout, or this instance
+     * if it is read-only already.
+     *
+     * @param arena         The arena to allocate the section in.
+     * @param documentCount The number of documents of the segment.
+     */
+    PositionOffsets offHeapCopy(OffHeapArena arena, int documentCount) {
+        if (isReadOnly()) {
+            return this;
+        }
+        long checkpointCount = 0;
+        for (int docId = 0; docId < documentCount; docId++) {
+            checkpointCount += getCheckpointCount(docId);
+        }
+        ByteBuffer copy = arena.allocate(Segment.sectionSize((documentCount + 1 + checkpointCount) * 4));
+        int start = 0;
+        copy.putInt(0);
+        for (int docId = 0; docId < documentCount; docId++) {
+            start += getCheckpointCount(docId);
+            copy.putInt(start);
+        }
+        for (int docId = 0; docId < documentCount; docId++) {
+            for (int i = 0; i < getCheckpointCount(docId); i++) {
+                copy.putInt(getCheckpoint(docId, i));
+            }
+        }
+        return new PositionOffsets(copy.clear(), documentCount);
+    }
+
+    public boolean isReadOnly() {
+        return entries == null;
+    }
+
+    /**
+     * Returns the number of documents that can have checkpoints.
+     */
+    public int size() {
+        return entries != null ? entries.size() : documentCount;
+    }
+
+    /**
+     * Returns the number of checkpoints of a document, 0 if it has none.
+     */
+    public int getCheckpointCount(int docId) {
+        if (docId < 0 || docId >= size()) {
+            return 0;
+        }
+        if (entries != null) {
+            int[] checkpoints = entries.get(docId);
+            return checkpoints == null ? 0 : checkpoints.length;
+        }
+        return section.getInt(docId * 4 + 4) - section.getInt(docId * 4);
+    }
+
+    /**
+     * Returns the byte offset of the word at position {@code index * INTERVAL + 1} in a document.
+     */
+    public int getCheckpoint(int docId, int index) {
+        if (entries != null) {
+            return entries.get(docId)[index];
+        }
+        int dataStart = (documentCount + 1) * 4;
+        return section.getInt(dataStart + (section.getInt(docId * 4) + index) * 4);
+    }
+
+    /**
+     * Recorder class collects the checkpoints of one document from the tokens of its text.
+     */
+    public static class Recorder {
+        private final IntList checkpoints = new IntList();
+        private int charOffset;
+        private long byteOffset;
+        private boolean valid = true;
+
+        /**
+         * Called for every token, in order.
+         *
+         * @param text     The whole document text.
+         * @param position The 1-based word position of the token.
+         * @param offset   The character offset of the token in the text.
+         */
+        public void token(char[] text, int position, int offset) {
+            if (!valid || (position - 1) % INTERVAL != 0) {
+                return;
+            }
+            for (int i = charOffset; i < offset; i++) {
+                char ch = text[i];
+                if (ch < 0x80) byteOffset += 1;
+                else if (ch < 0x800 || Character.isSurrogate(ch)) byteOffset += 2; // a surrogate pair is 4 bytes
+                else if (ch == '\uFFFD') valid = false; // malformed input; the original bytes are unknown
+                else byteOffset += 3;
+            }
+            charOffset = offset;
+            if (byteOffset > Integer.MAX_VALUE) {
+                valid = false;
+            }
+            checkpoints.add((int) byteOffset);
+        }
+
+        /**
+         * Returns the checkpoints, or null if they could not be computed.
+         */
+        public int[] toArray() {
+            return valid && checkpoints.size() > 0 ? checkpoints.toArray() : null;
+        }
+    }
+}
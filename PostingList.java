@@ -0,0 +1,223 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * PostingList class is the compact, read-only form of the postings of one term.
+ * Document IDs are delta-encoded, and so are the positions within each document. Every stream
+ * is cut into blocks of {@link PostingsCodec#BLOCK_SIZE} values encoded with one codec, and a
+ * skip table in front of the data lets readers jump to any block without decoding the ones before.
+ *
+ * Layout of the encoded bytes (all ints are 4-byte big-endian):
+ * <pre>
+ * int  docCount
+ * int  positionCount
+ * byte codec ordinal
+ * int  maxFrequency, the highest frequency in any document (bounds the term's score)
+ * per document block:  int lastDocId, int docOffset, int freqOffset, int positionsBefore
+ * per position block:  int positionOffset
+ * blocks of docID deltas, blocks of frequencies, blocks of position deltas
+ * </pre>
+ * Offsets are relative to the start of the block data. The first docID delta of a block is
+ * relative to the last docID of the previous block, and the first position of each document
+ * is stored as is, so every block can be decoded on its own.
+ *
+ * A list of at least {@link #DOC_SET_MIN_DOCUMENTS} documents that cover at least one in
+ * {@link #DOC_SET_MAX_GAP} of the document IDs of its range also stores its documents as a
+ * {@link RoaringDocSet}, after the block data and followed by the int size of the set; the high
+ * bit of the codec byte marks it. Boolean queries combine such sets a word at a time instead of
+ * decoding the lists, and rare terms pay nothing for it.
+ */
+public class PostingList implements Serializable {
+    private static final long serialVersionUID = 2L;
+    static final int HEADER_SIZE = 13;
+    static final int DOC_SKIP_ENTRY_SIZE = 16;
+    static final int POSITION_SKIP_ENTRY_SIZE = 4;
+    static final int DOC_SET_FLAG = 0x80;
+    static final int DOC_SET_MIN_DOCUMENTS = 256;
+    static final int DOC_SET_MAX_GAP = 16;
+
+    private transient ByteBuffer data; // the encoded postings, starting at index 0
+    private transient volatile RoaringDocSet docSet; // read from data on first use
+
+    PostingList(ByteBuffer data) {
+        this.data = data.slice();
+    }
+
+    static PostingList encode(PostingListBuilder builder, PostingsCodec codec) {
+        int docCount = builder.getDocumentFrequency();
+        int positionCount = builder.getPositionCount();
+        int docBlocks = blockCount(docCount);
+        int positionBlocks = blockCount(positionCount);
+        int blockSize = PostingsCodec.BLOCK_SIZE;
+
+        int[] docDeltas = new int[docCount];
+        int[] freqs = new int[docCount];
+        int previousDoc = 0;
+        int maxFrequency = 0;
+        for (int i = 0; i < docCount; i++) {
+            docDeltas[i] = builder.getDocId(i) - previousDoc;
+            previousDoc = builder.getDocId(i);
+            freqs[i] = builder.getFrequency(i);
+            maxFrequency = Math.max(maxFrequency, freqs[i]);
+        }
+        int[] positionDeltas = new int[positionCount];
+        int[] positions = builder.positionArray();
+        for (int i = 0; i < docCount; i++) {
+            int previous = 0;
+            for (int p = builder.getPositionStart(i); p < builder.getPositionStart(i + 1); p++) {
+                positionDeltas[p] = positions[p] - previous;
+                previous = positions[p];
+            }
+        }
+
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        int[] docOffsets = new int[docBlocks];
+        int[] freqOffsets = new int[docBlocks];
+        int[] positionOffsets = new int[positionBlocks];
+        for (int b = 0; b < docBlocks; b++) {
+            docOffsets[b] = blocks.size();
+            codec.encodeBlock(docDeltas, b * blockSize, Math.min(blockSize, docCount - b * blockSize), blocks);
+        }
+        for (int b = 0; b < docBlocks; b++) {
+            freqOffsets[b] = blocks.size();
+            codec.encodeBlock(freqs, b * blockSize, Math.min(blockSize, docCount - b * blockSize), blocks);
+        }
+        for (int b = 0; b < positionBlocks; b++) {
+            positionOffsets[b] = blocks.size();
+            codec.encodeBlock(positionDeltas, b * blockSize, Math.min(blockSize, positionCount - b * blockSize), blocks);
+        }
+
+        RoaringDocSet docSet = null;
+        if (docCount >= DOC_SET_MIN_DOCUMENTS
+                && (long) docCount * DOC_SET_MAX_GAP >= (long) builder.getDocId(docCount - 1) - builder.getDocId(0) + 1) {
+            int[] docIds = new int[docCount];
+            for (int i = 0; i < docCount; i++) {
+                docIds[i] = builder.getDocId(i);
+            }
+            docSet = RoaringDocSet.of(docIds, docCount);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + docBlocks * DOC_SKIP_ENTRY_SIZE
+                + positionBlocks * POSITION_SKIP_ENTRY_SIZE + blocks.size() + (docSet == null ? 0 : docSet.serializedSize() + 4));
+        out.putInt(docCount).putInt(positionCount).put((byte) (codec.ordinal() | (docSet == null ? 0 : DOC_SET_FLAG)))
+           .putInt(maxFrequency);
+        for (int b = 0; b < docBlocks; b++) {
+            int last = Math.min(docCount, (b + 1) * blockSize) - 1;
+            out.putInt(builder.getDocId(last)).putInt(docOffsets[b]).putInt(freqOffsets[b])
+               .putInt(builder.getPositionStart(b * blockSize));
+        }
+        for (int b = 0; b < positionBlocks; b++) {
+            out.putInt(positionOffsets[b]);
+        }
+        out.put(blocks.toByteArray());
+        if (docSet != null) {
+            docSet.writeTo(out);
+            out.putInt(docSet.serializedSize());
+        }
+        out.flip();
+        return new PostingList(out);
+    }
+
+    static int blockCount(int values) {
+        return (values + PostingsCodec.BLOCK_SIZE - 1) / PostingsCodec.BLOCK_SIZE;
+    }
+
+    /**
+     * Returns the number of documents containing the term.
+     */
+    public int getDocumentFrequency() {
+        return data.getInt(0);
+    }
+
+    /**
+     * Returns the total number of occurrences of the term.
+     */
+    public int getPositionCount() {
+        return data.getInt(4);
+    }
+
+    /**
+     * Returns the highest frequency of the term in a single document.
+     */
+    public int getMaxFrequency() {
+        return data.getInt(9);
+    }
+
+    public PostingsCodec getCodec() {
+        return PostingsCodec.values()[data.get(8) & 0xFF & ~DOC_SET_FLAG];
+    }
+
+    /**
+     * Returns true if the list also stores its documents as a {@link RoaringDocSet}.
+     */
+    public boolean hasDocSet() {
+        return (data.get(8) & DOC_SET_FLAG) != 0;
+    }
+
+    /**
+     * Returns the documents of the list as a set read in place, including deleted documents, or
+     * null if the list has too few documents to store one.
+     */
+    public RoaringDocSet getDocSet() {
+        if (!hasDocSet()) {
+            return null;
+        }
+        RoaringDocSet set = docSet;
+        if (set == null) {
+            int end = data.capacity() - 4;
+            int start = end - data.getInt(end);
+            docSet = set = RoaringDocSet.read(data.duplicate().position(start).limit(end).slice());
+        }
+        return set;
+    }
+
+    /**
+     * Returns the encoded size of this list in bytes.
+     */
+    public int sizeInBytes() {
+        return data.capacity();
+    }
+
+    /**
+     * Returns the encoded bytes, from position 0 to the limit, without copying them.
+     */
+    ByteBuffer bytes() {
+        return data.duplicate();
+    }
+
+    /**
+     * Returns a new iterator positioned before the first document.
+     */
+    public PostingsIterator iterator() {
+        return new BlockPostingsIterator(data, null);
+    }
+
+    /**
+     * Returns a new iterator that skips the given documents.
+     *
+     * @param deleted The deleted documents, or null to skip none.
+     */
+    public PostingsIterator iterator(BitSet deleted) {
+        return new BlockPostingsIterator(data, deleted == null || deleted.isEmpty() ? null : deleted);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        data = ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * PostingListBuilder class collects the postings of one term while documents are being indexed:
+ * the documents containing the term, sorted by document ID, together with the word positions of
+ * the term in each document. Everything is kept in primitive arrays: the positions of the i-th
+ * document are {@code positions[positionStarts[i] .. positionStarts[i + 1])}.
+ * Once complete, the postings are encoded into a compact {@link PostingList}.
+ */
+public class PostingListBuilder implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private int[] docIds = new int[4];
+    private int[] positionStarts = new int[5];
+    private int[] positions = new int[8];
+    private int docCount;
+
+    /**
+     * Adds the positions of the term in one document. Documents are normally added in
+     * increasing ID order; positions for a document that is already present are appended to it.
+     *
+     * @param docId     The document ID.
+     * @param docPositions The positions of the term in the document.
+     * @param count     The number of valid entries in docPositions.
+     */
+    public void add(int docId, int[] docPositions, int count) {
+        int index = docCount == 0 || docIds[docCount - 1] < docId ? -(docCount + 1) : Arrays.binarySearch(docIds, 0, docCount, docId);
+        int positionCount = positionStarts[docCount];
+        if (positionCount + count > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(positions.length * 2, positionCount + count));
+        }
+
+        if (index >= 0) {
+            // Existing document: make room after its last position
+            int insertAt = positionStarts[index + 1];
+            System.arraycopy(positions, insertAt, positions, insertAt + count, positionCount - insertAt);
+            System.arraycopy(docPositions, 0, positions, insertAt, count);
+            for (int i = index + 1; i <= docCount; i++) {
+                positionStarts[i] += count;
+            }
+            Arrays.sort(positions, positionStarts[index], positionStarts[index + 1]); // keep positions ascending for delta coding
+            return;
+        }
+
+        int insertAt = -index - 1;
+        if (docCount == docIds.length) {
+            docIds = Arrays.copyOf(docIds, Math.max(4, docCount * 2));
+            positionStarts = Arrays.copyOf(positionStarts, docIds.length + 1);
+        }
+        int positionInsertAt = positionStarts[insertAt];
+        System.arraycopy(docIds, insertAt, docIds, insertAt + 1, docCount - insertAt);
+        System.arraycopy(positionStarts, insertAt, positionStarts, insertAt + 1, docCount + 1 - insertAt);
+        System.arraycopy(positions, positionInsertAt, positions, positionInsertAt + count, positionCount - positionInsertAt);
+        System.arraycopy(docPositions, 0, positions, positionInsertAt, count);
+        docIds[insertAt] = docId;
+        docCount++;
+        for (int i = insertAt + 1; i <= docCount; i++) {
+            positionStarts[i] += count;
+        }
+    }
+
+    /**
+     * Returns the number of documents containing the term.
+     */
+    public int getDocumentFrequency() {
+        return docCount;
+    }
+
+    public int getDocId(int index) {
+        return docIds[index];
+    }
+
+    /**
+     * Returns the number of times the term occurs in the index-th document.
+     */
+    public int getFrequency(int index) {
+        return positionStarts[index + 1] - positionStarts[index];
+    }
+
+    /**
+     * Returns the index of a document in this list, or a negative value if the term does not occur in it.
+     */
+    public int indexOf(int docId) {
+        return Arrays.binarySearch(docIds, 0, docCount, docId);
+    }
+
+    /**
+     * Returns the total number of positions stored.
+     */
+    public int getPositionCount() {
+        return positionStarts[docCount];
+    }
+
+    /**
+     * Returns the positions array; the positions of the index-th document start at {@link #getPositionStart(int)}.
+     */
+    int[] positionArray() {
+        return positions;
+    }
+
+    int getPositionStart(int index) {
+        return positionStarts[index];
+    }
+
+    /**
+     * Encodes the postings with the given codec.
+     */
+    public PostingList build(PostingsCodec codec) {
+        return PostingList.encode(this, codec);
+    }
+
+    /**
+     * Decodes an encoded posting list back into a builder so more documents can be added to it.
+     */
+    public static PostingListBuilder from(PostingList postingList) {
+        return from(postingList, null);
+    }
+
+    /**
+     * Decodes an encoded posting list back into a builder, dropping the postings of deleted documents.
+     *
+     * @param postingList The posting list.
+     * @param deleted     The deleted documents, or null.
+     */
+    public static PostingListBuilder from(PostingList postingList, BitSet deleted) {
+        PostingListBuilder builder = new PostingListBuilder();
+        PostingsIterator it = postingList.iterator(deleted);
+        while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+            builder.add(it.docId(), it.positions(), it.freq());
+        }
+        return builder;
+    }
+}
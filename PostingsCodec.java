@@ -0,0 +1,148 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * PostingsCodec enum lists the ways a block of (delta-encoded, non-negative) integers can be
+ * stored inside a {@link PostingList}. Blocks hold at most {@link #BLOCK_SIZE} values.
+ *
+ * VARINT stores each value in 7-bit groups, one to five bytes per value; it is small for
+ * skewed values and cheap to write. PACKED stores every value of a block with the bit width of
+ * the largest one; it decodes faster and is smaller when the values in a block are similar.
+ */
+public enum PostingsCodec {
+    VARINT {
+        @Override
+        void encodeBlock(int[] values, int offset, int count, ByteArrayOutputStream out) {
+            for (int i = offset; i < offset + count; i++) {
+                int value = values[i];
+                while ((value & ~0x7F) != 0) {
+                    out.write((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                out.write(value);
+            }
+        }
+
+        @Override
+        void decodeBlock(ByteBuffer in, int position, int[] out, int count) {
+            for (int i = 0; i < count; i++) {
+                int b = in.get(position++);
+                int value = b & 0x7F;
+                for (int shift = 7; b < 0; shift += 7) {
+                    b = in.get(position++);
+                    value |= (b & 0x7F) << shift;
+                }
+                out[i] = value;
+            }
+        }
+    },
+
+    PACKED {
+        @Override
+        void encodeBlock(int[] values, int offset, int count, ByteArrayOutputStream out) {
+            int max = 0;
+            for (int i = offset; i < offset + count; i++) {
+                max |= values[i];
+            }
+            int bits = 32 - Integer.numberOfLeadingZeros(max);
+            out.write(bits);
+
+            long buffer = 0;
+            int buffered = 0;
+            for (int i = offset; i < offset + count; i++) {
+                buffer |= (values[i] & 0xFFFFFFFFL) << buffered;
+                buffered += bits;
+                while (buffered >= 8) {
+                    out.write((int) buffer);
+                    buffer >>>= 8;
+                    buffered -= 8;
+                }
+            }
+            if (buffered > 0) {
+                out.write((int) buffer);
+            }
+        }
+
+        @Override
+        void decodeBlock(ByteBuffer in, int position, int[] out, int count) {
+            int bits = in.get(position++);
+            if (bits == 0) {
+                for (int i = 0; i < count; i++) out[i] = 0;
+                return;
+            }
+            long mask = (1L << bits) - 1;
+            long buffer = 0;
+            int buffered = 0;
+            for (int i = 0; i < count; i++) {
+                while (buffered < bits) {
+                    buffer |= (in.get(position++) & 0xFFL) << buffered;
+                    buffered += 8;
+                }
+                out[i] = (int) (buffer & mask);
+                buffer >>>= bits;
+                buffered -= bits;
+            }
+        }
+    };
+
+    /** Number of values per block; also the interval of the skip entries in a {@link PostingList}. */
+    public static final int BLOCK_SIZE = 128;
+
+    /**
+     * Appends count values starting at offset to the output.
+     */
+    abstract void encodeBlock(int[] values, int offset, int count, ByteArrayOutputStream out);
+
+    /**
+     * Decodes count values stored at the given absolute buffer position into out.
+     */
+    abstract void decodeBlock(ByteBuffer in, int position, int[] out, int count);
+
+    /**
+     * Parses a codec name as given on the command line, ignoring case.
+     */
+    public static PostingsCodec fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Builds an index of a corpus and reports, for every codec, the encoded postings size and how
+     * fast all postings (documents and positions) can be decoded.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java PostingsCodec <stopword_file> <corpus_directory> [--stem]");
+            return;
+        }
+
+        InvertedIndex index = new InvertedIndex(args[0], args.length > 2 && args[2].equals("--stem"));
+        index.buildIndex(args[1]);
+
+        for (PostingsCodec codec : values()) {
+            index.setPostingsCodec(codec);
+            long bytes = index.getPostingsSizeInBytes();
+
+            long best = Long.MAX_VALUE;
+            long decoded = 0;
+            for (int round = 0; round < 5; round++) {
+                long begin = System.nanoTime();
+                decoded = 0;
+                SegmentReaders.Generation read = index.beginRead();
+                try {
+                    for (String term : index.getTerms()) {
+                        PostingsIterator it = index.postings(term);
+                        while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+                            it.positions();
+                            decoded += 1 + it.freq();
+                        }
+                    }
+                } finally {
+                    read.close();
+                }
+                best = Math.min(best, System.nanoTime() - begin);
+            }
+            System.out.printf("%-7s %,12d bytes | %,d integers decoded in %.1f ms (%.0f M ints/s)%n",
+                    codec, bytes, decoded, best / 1e6, decoded * 1e3 / best);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * PostingsIterator interface walks the postings of one term in increasing document ID order,
+ * giving the frequency and the positions of the term in the current document.
+ */
+public interface PostingsIterator extends DocIterator {
+
+    /**
+     * Returns the number of occurrences of the term in the current document.
+     */
+    int freq();
+
+    /**
+     * Returns the positions of the term in the current document. The returned array may be reused
+     * by the next call; only its first {@link #freq()} entries are valid.
+     */
+    int[] positions();
+}
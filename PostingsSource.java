@@ -0,0 +1,22 @@
+/**
+ * PostingsSource interface looks up the postings a {@link Query} is evaluated on. It is
+ * implemented by {@link InvertedIndex}, and by {@link QueryBatch}, which shares postings decoded
+ * once among all queries of a batch.
+ */
+public interface PostingsSource {
+
+    /**
+     * Returns the postings of an already normalized term, or null if the term is not indexed.
+     */
+    TermPostings getPostings(String term);
+
+    /**
+     * Returns an iterator over the postings of the documents that are not deleted.
+     */
+    PostingsIterator iterator(TermPostings termPostings);
+
+    /**
+     * Returns an iterator over the documents of a set that are not deleted.
+     */
+    DocIterator iterator(RoaringDocSet docSet);
+}
@@ -3,6 +3,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * PrintIndexHandler class handles printing detailed information about a specific word or document
@@ -95,4 +96,46 @@ public class PrintIndexHandler {
 
         System.out.println("Document information has been written to " + outputFile);
     }
+
+    /**
+     * Returns detailed information about a specific word as JSON, documents sorted by name:
+     * {@code {"word": ..., "documents": [{"document": ..., "frequency": ..., "positions": [...]}, ...]}}.
+     *
+     * @param word The word to return information for.
+     */
+    public String wordInfoJson(String word) {
+        word = word.toLowerCase();
+        Map<String, List<Integer>> searchResult = new TreeMap<>(invertedIndex.searchWord(word));
+
+        JsonWriter json = new JsonWriter().beginObject().name("word").value(word).name("documents").beginArray();
+        for (Map.Entry<String, List<Integer>> entry : searchResult.entrySet()) {
+            json.beginObject()
+                .name("document").value(entry.getKey())
+                .name("frequency").value(entry.getValue().size())
+                .name("positions").value(entry.getValue())
+                .endObject();
+        }
+        return json.endArray().endObject().toString();
+    }
+
+    /**
+     * Returns detailed information about a specific document as JSON, words sorted:
+     * {@code {"document": ..., "words": [{"word": ..., "frequency": ..., "positions": [...]}, ...]}}.
+     *
+     * @param document The document to return information for.
+     */
+    public String documentInfoJson(String document) {
+        document = document.toLowerCase();
+        Map<String, List<Integer>> searchResult = new TreeMap<>(invertedIndex.searchDocument(document));
+
+        JsonWriter json = new JsonWriter().beginObject().name("document").value(document).name("words").beginArray();
+        for (Map.Entry<String, List<Integer>> entry : searchResult.entrySet()) {
+            json.beginObject()
+                .name("word").value(entry.getKey())
+                .name("frequency").value(entry.getValue().size())
+                .name("positions").value(entry.getValue())
+                .endObject();
+        }
+        return json.endArray().endObject().toString();
+    }
 }
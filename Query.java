@@ -0,0 +1,711 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Query class is the parsed form of a search query, produced by {@link QueryParser}. Terms are
+ * already normalized (lower-cased and, if enabled, stemmed). A query is evaluated by turning it
+ * into a {@link DocIterator} over the postings of an {@link InvertedIndex} or another
+ * {@link PostingsSource}; positional queries check the stored positions and never re-read the documents.
+ * Searches first rewrite the parsed query with a {@link QueryPlanner}.
+ */
+public abstract class Query {
+
+    /**
+     * Returns an iterator over the matching documents, or null if the query cannot match any document.
+     */
+    abstract DocIterator iterator(PostingsSource index);
+
+    /**
+     * Returns an upper bound of the number of matching documents, from the document frequencies
+     * of the terms alone; no postings are read. 0 means the query cannot match any document.
+     */
+    abstract long cost(PostingsSource index);
+
+    /**
+     * Adds the terms of this query to the collection; these are the terms a ranked search scores.
+     */
+    abstract void collectTerms(Collection<String> terms);
+
+    /**
+     * Adds every term whose postings evaluating this query reads, including the terms of negated
+     * clauses, which are not scored.
+     */
+    void collectAllTerms(Collection<String> terms) {
+        collectTerms(terms);
+    }
+
+    /**
+     * Returns true if matching depends on positions, so the terms alone do not decide a match.
+     */
+    boolean isPositional() {
+        return false;
+    }
+
+    /**
+     * Returns true if matching any of the scored terms is not enough to match, so a ranked
+     * search must also check the query itself: for positions, or for excluded documents.
+     */
+    boolean needsFilter() {
+        return isPositional();
+    }
+
+    /**
+     * Returns a normalized form of the query, the same for all queries that match the same
+     * documents with the same scores; used as the key of the {@link QueryCache}.
+     */
+    String key() {
+        return toString();
+    }
+
+    /**
+     * A single term.
+     */
+    public static class Term extends Query {
+        final String term;
+
+        public Term(String term) {
+            this.term = term;
+        }
+
+        @Override
+        DocIterator iterator(PostingsSource index) {
+            TermPostings termPostings = index.getPostings(term);
+            return termPostings == null ? null : index.iterator(termPostings);
+        }
+
+        @Override
+        long cost(PostingsSource index) {
+            return documentFrequency(index, term);
+        }
+
+        @Override
+        void collectTerms(Collection<String> terms) {
+            terms.add(term);
+        }
+
+        @Override
+        public String toString() {
+            return term;
+        }
+    }
+
+    /**
+     * Terms that must occur at fixed distances from each other, e.g. {@code "red flower"}.
+     * Offsets are relative word positions, so stopwords left out of the phrase still count.
+     */
+    public static class Phrase extends Query {
+        final String[] terms;
+        final int[] offsets;
+
+        public Phrase(String[] terms, int[] offsets) {
+            this.terms = terms;
+            this.offsets = offsets;
+        }
+
+        @Override
+        DocIterator iterator(PostingsSource index) {
+            PostingsIterator[] iterators = new PostingsIterator[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                TermPostings termPostings = index.getPostings(terms[i]);
+                if (termPostings == null) {
+                    return null;
+                }
+                iterators[i] = index.iterator(termPostings);
+            }
+            return new PositionalIterator(iterators) {
+                @Override
+                boolean matches() {
+                    return phraseMatches(iterators, offsets);
+                }
+            };
+        }
+
+        @Override
+        long cost(PostingsSource index) {
+            long cost = Long.MAX_VALUE;
+            for (String term : terms) {
+                cost = Math.min(cost, documentFrequency(index, term));
+            }
+            return cost;
+        }
+
+        @Override
+        void collectTerms(Collection<String> terms) {
+            terms.addAll(Arrays.asList(this.terms));
+        }
+
+        @Override
+        boolean isPositional() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("\"");
+            for (int i = 0; i < terms.length; i++) {
+                if (i > 0) sb.append(' ');
+                sb.append(terms[i]).append('@').append(offsets[i]);
+            }
+            return sb.append('"').toString();
+        }
+    }
+
+    /**
+     * Two terms occurring within a maximum distance of each other, in either order, e.g. {@code red NEAR/3 flower}.
+     */
+    public static class Near extends Query {
+        final String left;
+        final String right;
+        final int distance;
+
+        public Near(String left, String right, int distance) {
+            this.left = left;
+            this.right = right;
+            this.distance = distance;
+        }
+
+        @Override
+        DocIterator iterator(PostingsSource index) {
+            TermPostings leftPostings = index.getPostings(left);
+            TermPostings rightPostings = index.getPostings(right);
+            if (leftPostings == null || rightPostings == null) {
+                return null;
+            }
+            PostingsIterator[] iterators = {index.iterator(leftPostings), index.iterator(rightPostings)};
+            return new PositionalIterator(iterators) {
+                @Override
+                boolean matches() {
+                    return withinDistance(iterators[0], iterators[1], distance);
+                }
+            };
+        }
+
+        @Override
+        long cost(PostingsSource index) {
+            return Math.min(documentFrequency(index, left), documentFrequency(index, right));
+        }
+
+        @Override
+        void collectTerms(Collection<String> terms) {
+            terms.add(left);
+            terms.add(right);
+        }
+
+        @Override
+        boolean isPositional() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return left + " NEAR/" + distance + " " + right;
+        }
+    }
+
+    /**
+     * Documents containing any of the indexed terms a pattern expands to: a wildcard pattern such as
+     * {@code flow*}, or a fuzzy term such as {@code flowr~1}. The terms are looked up in the sorted
+     * term dictionary when the query is parsed.
+     */
+    public static class Expanded extends Query {
+        final String pattern;
+        final List<String> terms;
+
+        /**
+         * @param pattern The lower-cased pattern or fuzzy term.
+         * @param terms   The indexed terms matching it.
+         */
+        public Expanded(String pattern, List<String> terms) {
+            this.pattern = pattern;
+            this.terms = new ArrayList<>(terms);
+        }
+
+        @Override
+        DocIterator iterator(PostingsSource index) {
+            List<DocIterator> iterators = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                TermPostings termPostings = index.getPostings(term);
+                if (termPostings != null) {
+                    iterators.add(index.iterator(termPostings));
+                }
+            }
+            if (iterators.isEmpty()) {
+                return null;
+            }
+            return iterators.size() == 1 ? iterators.get(0) : new DisjunctionIterator(iterators);
+        }
+
+        @Override
+        long cost(PostingsSource index) {
+            long cost = 0;
+            for (String term : terms) {
+                cost += documentFrequency(index, term);
+            }
+            return cost;
+        }
+
+        @Override
+        void collectTerms(Collection<String> terms) {
+            terms.addAll(this.terms);
+        }
+
+        // The expansion follows from the pattern and the index, which the cache generation tracks
+        @Override
+        String key() {
+            return pattern;
+        }
+
+        @Override
+        public String toString() {
+            return pattern + terms;
+        }
+    }
+
+    /**
+     * Documents matching all clauses. {@link Not} clauses are subtracted from the documents
+     * matching the others; a conjunction of negations alone matches nothing.
+     */
+    public static class And extends Query {
+        final List<Query> clauses;
+
+        public And(List<Query> clauses) {
+            this.clauses = new ArrayList<>(clauses);
+        }
+
+        @Override
+        DocIterator iterator(PostingsSource index) {
+            List<DocIterator> iterators = new ArrayList<>(clauses.size());
+            List<DocIterator> excluded = new ArrayList<>();
+            for (Query clause : clauses) {
+                if (clause instanceof Not) {
+                    DocIterator iterator = ((Not) clause).clause.iterator(index);
+                    if (iterator != null) {
+                        excluded.add(iterator); // a negation that cannot match excludes nothing
+                    }
+                    continue;
+                }
+                DocIterator iterator = clause.iterator(index);
+                if (iterator == null) {
+                    return null; // one clause cannot match, so neither can the conjunction
+                }
+                iterators.add(iterator);
+            }
+            if (iterators.isEmpty()) {
+                return null;
+            }
+            DocIterator result = iterators.size() == 1 ? iterators.get(0) : new ConjunctionIterator(iterators);
+            for (DocIterator iterator : excluded) {
+                result = new ExclusionIterator(result, iterator);
+            }
+            return result;
+        }
+
+        @Override
+        long cost(PostingsSource index) {
+            long cost = Long.MAX_VALUE;
+            for (Query clause : clauses) {
+                if (!(clause instanceof Not)) {
+                    cost = Math.min(cost, clause.cost(index));
+                }
+            }
+            return cost == Long.MAX_VALUE ? 0 : cost;
+        }
+
+        @Override
+        void collectTerms(Collection<String> terms) {
+            for (Query clause : clauses) {
+                clause.collectTerms(terms);
+            }
+        }
+
+        @Override
+        void collectAllTerms(Collection<String> terms) {
+            for (Query clause : clauses) {
+                clause.collectAllTerms(terms);
+            }
+        }
+
+        @Override
+        boolean isPositional() {
+            for (Query clause : clauses) {
+                if (clause.isPositional()) return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean needsFilter() {
+            for (Query clause : clauses) {
+                if (clause.needsFilter()) return true;
+            }
+            return false;
+        }
+
+        // Clause order and repeated clauses do not change the matches or the scored terms
+        @Override
+        String key() {
+            Set<String> keys = new TreeSet<>();
+            for (Query clause : clauses) {
+                keys.add(clause.key());
+            }
+            return keys.size() == 1 ? keys.iterator().next() : "(" + String.join(" AND ", keys) + ")";
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < clauses.size(); i++) {
+                if (i > 0) sb.append(" AND ");
+                sb.append(clauses.get(i));
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    /**
+     * Documents matching any of the clauses, e.g. {@code red OR "blue flower"}. The lists are
+     * merged in a heap, or, if hashed, drained into a bit set, see {@link QueryPlanner}.
+     */
+    public static class Or extends Query {
+        final List<Query> clauses;
+        final boolean hashed;
+
+        public Or(List<Query> clauses) {
+            this(clauses, false);
+        }
+
+        /**
+         * @param clauses The clauses.
+         * @param hashed  True to collect the matches in a {@link BitSetIterator} instead of
+         *                merging them with a {@link DisjunctionIterator}.
+         */
+        public Or(List<Query> clauses, boolean hashed) {
+            this.clauses = new ArrayList<>(clauses);
+            this.hashed = hashed;
+        }
+
+        @Override
+        DocIterator iterator(PostingsSource index) {
+            List<DocIterator> iterators = new ArrayList<>(clauses.size());
+            for (Query clause : clauses) {
+                DocIterator iterator = clause.iterator(index);
+                if (iterator != null) {
+                    iterators.add(iterator);
+                }
+            }
+            if (iterators.isEmpty()) {
+                return null;
+            }
+            if (iterators.size() == 1) {
+                return iterators.get(0);
+            }
+            return hashed ? BitSetIterator.union(iterators) : new DisjunctionIterator(iterators);
+        }
+
+        @Override
+        long cost(PostingsSource index) {
+            long cost = 0;
+            for (Query clause : clauses) {
+                cost += clause.cost(index);
+            }
+            return cost;
+        }
+
+        @Override
+        void collectTerms(Collection<String> terms) {
+            for (Query clause : clauses) {
+                clause.collectTerms(terms);
+            }
+        }
+
+        @Override
+        void collectAllTerms(Collection<String> terms) {
+            for (Query clause : clauses) {
+                clause.collectAllTerms(terms);
+            }
+        }
+
+        @Override
+        boolean isPositional() {
+            for (Query clause : clauses) {
+                if (clause.isPositional()) return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean needsFilter() {
+            for (Query clause : clauses) {
+                if (clause.needsFilter()) return true;
+            }
+            return false;
+        }
+
+        @Override
+        String key() {
+            Set<String> keys = new TreeSet<>();
+            for (Query clause : clauses) {
+                keys.add(clause.key());
+            }
+            return keys.size() == 1 ? keys.iterator().next() : "(" + String.join(" OR ", keys) + ")";
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < clauses.size(); i++) {
+                if (i > 0) sb.append(" OR ");
+                sb.append(clauses.get(i));
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    /**
+     * Documents not matching a clause, e.g. {@code NOT flower}. A negation only has a meaning as
+     * a clause of an {@link And}, which subtracts it from the documents of its other clauses; on
+     * its own it matches nothing. Its terms are not scored.
+     */
+    public static class Not extends Query {
+        final Query clause;
+
+        public Not(Query clause) {
+            this.clause = clause;
+        }
+
+        @Override
+        DocIterator iterator(PostingsSource index) {
+            return null;
+        }
+
+        // The number of documents excluded
+        @Override
+        long cost(PostingsSource index) {
+            return clause.cost(index);
+        }
+
+        @Override
+        void collectTerms(Collection<String> terms) {
+        }
+
+        @Override
+        void collectAllTerms(Collection<String> terms) {
+            clause.collectAllTerms(terms);
+        }
+
+        @Override
+        boolean isPositional() {
+            return clause.isPositional();
+        }
+
+        @Override
+        boolean needsFilter() {
+            return true;
+        }
+
+        @Override
+        String key() {
+            return "NOT " + clause.key();
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + clause;
+        }
+    }
+
+    /**
+     * Documents of frequent terms, read from their {@link RoaringDocSet}s instead of their posting
+     * lists: those containing all the terms and none of the excluded ones, or, for a union, any of
+     * the terms. The sets are combined a word at a time, and the result is iterated like a posting
+     * list, so it mixes with the other clauses. Made by {@link QueryPlanner}.
+     */
+    public static class Dense extends Query {
+        final List<String> terms;
+        final List<String> excluded;
+        final boolean union;
+
+        /**
+         * @param terms    The terms that must all occur, or, for a union, any of them.
+         * @param excluded The terms that must not occur; empty for a union.
+         * @param union    True for the documents containing any of the terms.
+         */
+        public Dense(List<String> terms, List<String> excluded, boolean union) {
+            this.terms = new ArrayList<>(terms);
+            this.excluded = new ArrayList<>(excluded);
+            this.union = union;
+        }
+
+        @Override
+        DocIterator iterator(PostingsSource index) {
+            List<RoaringDocSet> sets = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                RoaringDocSet set = docSet(index, term);
+                if (set != null) {
+                    sets.add(set);
+                } else if (!union) {
+                    return null;
+                }
+            }
+            RoaringDocSet result = union ? RoaringDocSet.or(sets) : RoaringDocSet.and(sets);
+            for (String term : excluded) {
+                RoaringDocSet set = docSet(index, term);
+                if (set != null && !result.isEmpty()) {
+                    result = RoaringDocSet.andNot(result, set);
+                }
+            }
+            return result.isEmpty() ? null : index.iterator(result);
+        }
+
+        // Returns the documents of a term, reading its posting list if it stores no set; null if it is not indexed
+        private static RoaringDocSet docSet(PostingsSource index, String term) {
+            TermPostings termPostings = index.getPostings(term);
+            if (termPostings == null) {
+                return null;
+            }
+            RoaringDocSet set = termPostings.getDocSet();
+            return set != null ? set : RoaringDocSet.of(termPostings.iterator(null));
+        }
+
+        @Override
+        long cost(PostingsSource index) {
+            long cost = union ? 0 : Long.MAX_VALUE;
+            for (String term : terms) {
+                long documentFrequency = documentFrequency(index, term);
+                cost = union ? cost + documentFrequency : Math.min(cost, documentFrequency);
+            }
+            return cost == Long.MAX_VALUE ? 0 : cost;
+        }
+
+        @Override
+        void collectTerms(Collection<String> terms) {
+            terms.addAll(this.terms);
+        }
+
+        @Override
+        void collectAllTerms(Collection<String> terms) {
+            terms.addAll(this.terms);
+            terms.addAll(excluded);
+        }
+
+        @Override
+        boolean needsFilter() {
+            return !excluded.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("{").append(String.join(union ? " OR " : " AND ", terms));
+            for (String term : excluded) {
+                sb.append(" NOT ").append(term);
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    // Documents containing all the terms, filtered by a check on their positions
+    private abstract static class PositionalIterator implements DocIterator {
+        private final ConjunctionIterator conjunction;
+
+        PositionalIterator(PostingsIterator[] iterators) {
+            this.conjunction = new ConjunctionIterator(Arrays.asList(iterators));
+        }
+
+        // Called with every term iterator positioned on the same document
+        abstract boolean matches();
+
+        @Override
+        public int docId() {
+            return conjunction.docId();
+        }
+
+        @Override
+        public int nextDoc() {
+            return confirm(conjunction.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) {
+            return confirm(conjunction.advance(target));
+        }
+
+        @Override
+        public long cost() {
+            return conjunction.cost();
+        }
+
+        private int confirm(int docId) {
+            while (docId != NO_MORE_DOCS && !matches()) {
+                docId = conjunction.nextDoc();
+            }
+            return docId;
+        }
+    }
+
+    // Returns the number of documents containing a term, 0 if it is not indexed
+    static long documentFrequency(PostingsSource index, String term) {
+        TermPostings termPostings = index.getPostings(term);
+        return termPostings == null ? 0 : termPostings.getDocumentFrequency();
+    }
+
+    /**
+     * Checks whether the terms occur at their offsets from a common start position, by merging
+     * the sorted position lists of the current document.
+     */
+    static boolean phraseMatches(PostingsIterator[] iterators, int[] offsets) {
+        int n = iterators.length;
+        int[][] positions = new int[n][];
+        int[] counts = new int[n];
+        int lead = 0;
+        for (int i = 0; i < n; i++) {
+            counts[i] = iterators[i].freq();
+            positions[i] = iterators[i].positions().clone(); // the same list may back several terms
+            if (counts[i] < counts[lead]) lead = i;
+        }
+
+        int[] cursors = new int[n];
+        for (int k = 0; k < counts[lead]; k++) {
+            int start = positions[lead][k] - offsets[lead];
+            boolean all = true;
+            for (int i = 0; i < n && all; i++) {
+                int wanted = start + offsets[i];
+                while (cursors[i] < counts[i] && positions[i][cursors[i]] < wanted) {
+                    cursors[i]++;
+                }
+                if (cursors[i] == counts[i]) {
+                    return false; // this term has no occurrence left at or after the wanted position
+                }
+                all = positions[i][cursors[i]] == wanted;
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether two occurrences of the terms are at most distance words apart.
+     */
+    static boolean withinDistance(PostingsIterator left, PostingsIterator right, int distance) {
+        int[] a = left.positions().clone();
+        int na = left.freq();
+        int[] b = right.positions();
+        int nb = right.freq();
+        int i = 0;
+        int j = 0;
+        while (i < na && j < nb) {
+            int gap = Math.abs(a[i] - b[j]);
+            if (gap != 0 && gap <= distance) {
+                return true; // gap 0 only happens for the same term, which needs two occurrences
+            }
+            if (a[i] <= b[j]) i++;
+            else j++;
+        }
+        return false;
+    }
+}
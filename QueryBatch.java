@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * QueryBatch class runs many queries against an {@link InvertedIndex} at once, on a pool of
+ * worker threads, and returns the results in the order of the queries.
+ *
+ * Queries share the result cache of the index with {@link InvertedIndex#search(String)} and
+ * {@link InvertedIndex#searchTopK(String, int)}: cached results are returned as they are, and the
+ * results of the other queries are cached once evaluated.
+ *
+ * Work shared by the queries of a batch is done once: repeated queries, after normalization, are
+ * evaluated once, and a term used by several queries is looked up in every segment and decoded
+ * once into {@link DecodedPostings}, which all those queries then iterate over. Positions are
+ * only decoded for terms of phrase and {@code NEAR/k} queries. Decoded postings are bounded by
+ * {@link #MAX_DECODED_INTS} per batch; the rarer shared terms beyond it are read as usual.
+ *
+ * The index must not change while a batch runs.
+ */
+public class QueryBatch {
+    static final long MAX_DECODED_INTS = 1L << 25; // 128 MB of decoded postings
+    private final InvertedIndex index;
+    private final int threadCount;
+    private int decodedTermCount; // terms decoded for the last batch
+
+    /**
+     * @param index       The index to search.
+     * @param threadCount The number of worker threads; 1 runs the queries on the calling thread.
+     */
+    public QueryBatch(InvertedIndex index, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one query thread is needed: " + threadCount);
+        }
+        this.index = index;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Runs {@link InvertedIndex#search(String)} for every query.
+     *
+     * @param queries The queries.
+     * @return The matching documents of each query, in the order of the queries; equal queries share one set.
+     * @throws IOException If the worker threads are interrupted.
+     */
+    public List<Set<String>> search(List<String> queries) throws IOException {
+        return evaluate(queries, "search ", (parsed, source) -> index.evaluate(parsed, source), cached -> {
+            Set<String> names = new HashSet<>();
+            for (Object name : cached) {
+                names.add((String) name);
+            }
+            return names;
+        }, new HashSet<>(), Metrics.shared().booleanQuery);
+    }
+
+    /**
+     * Runs {@link InvertedIndex#searchTopK(String, int)} for every query.
+     *
+     * @param queries The queries.
+     * @param k       The maximum number of results per query.
+     * @return The ranked results of each query, in the order of the queries; equal queries share one list.
+     * @throws IOException If the worker threads are interrupted.
+     */
+    public List<List<ScoredDocument>> searchTopK(List<String> queries, int k) throws IOException {
+        return evaluate(queries, "top" + k + " ", (parsed, source) -> index.rank(parsed, k, source), cached -> {
+            List<ScoredDocument> results = new ArrayList<>(cached.size());
+            for (Object result : cached) {
+                results.add((ScoredDocument) result);
+            }
+            return results;
+        }, new ArrayList<>(), Metrics.shared().rankedQuery);
+    }
+
+    /**
+     * Runs {@link InvertedIndex#searchSnippets(String, int, String)} for every query. Snippets are
+     * read from the corpus files, so they gain the most from more threads.
+     *
+     * @param queries       The queries.
+     * @param snipRange     The number of words kept on each side of an occurrence.
+     * @param corpusDirPath The corpus directory.
+     * @return The snippets of each query, in the order of the queries.
+     * @throws IOException If a document cannot be read.
+     */
+    public List<Map<String, Map<Integer, List<String>>>> searchSnippets(List<String> queries, int snipRange,
+                                                                        String corpusDirPath) throws IOException {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(queries));
+        List<Callable<Map<String, Map<Integer, List<String>>>>> tasks = new ArrayList<>(distinct.size());
+        for (String query : distinct) {
+            tasks.add(() -> index.searchSnippets(query, snipRange, corpusDirPath));
+        }
+        List<Map<String, Map<Integer, List<String>>>> results = run(tasks);
+
+        Map<String, Map<Integer, List<String>>> empty = Collections.emptyMap();
+        Map<String, Map<String, Map<Integer, List<String>>>> byQuery = new HashMap<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            byQuery.put(distinct.get(i), results.get(i));
+        }
+        List<Map<String, Map<Integer, List<String>>>> ordered = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            ordered.add(byQuery.getOrDefault(query, empty));
+        }
+        return ordered;
+    }
+
+    /**
+     * Returns the number of terms decoded once and shared by the queries of the last batch.
+     */
+    public int getDecodedTermCount() {
+        return decodedTermCount;
+    }
+
+    // Evaluates one parsed query against a source of postings
+    private interface Evaluator<T> {
+        T evaluate(Query parsed, PostingsSource source);
+    }
+
+    // Evaluates the distinct queries not in the result cache under keyPrefix + their key, and caches their results
+    private <T extends Collection<?>> List<T> evaluate(List<String> queries, String keyPrefix, Evaluator<T> evaluator,
+                                                      Function<Collection<?>, T> fromCache, T noWords, Histogram latency) throws IOException {
+        // The segments the queries read stay readable until the whole batch is done
+        SegmentReaders.Generation read = index.beginRead();
+        try {
+            // Parse, and keep one query per normalized form
+            List<Query> distinct = new ArrayList<>();
+            Map<String, Integer> distinctByKey = new HashMap<>();
+            int[] distinctOf = new int[queries.size()];
+            for (int i = 0; i < queries.size(); i++) {
+                Query parsed = index.parse(queries.get(i));
+                if (parsed == null) {
+                    distinctOf[i] = -1;
+                    continue;
+                }
+                Integer at = distinctByKey.putIfAbsent(parsed.key(), distinct.size());
+                if (at == null) {
+                    at = distinct.size();
+                    distinct.add(parsed);
+                }
+                distinctOf[i] = at;
+            }
+
+            // Only the queries whose results are not cached are evaluated, and only their terms are shared
+            QueryCache<Collection<?>> cache = index.getResultCache();
+            long generation = cache.generation();
+            List<T> results = new ArrayList<>(Collections.nCopies(distinct.size(), null));
+            List<Integer> missing = new ArrayList<>();
+            List<Query> evaluated = new ArrayList<>();
+            for (int at = 0; at < distinct.size(); at++) {
+                long start = System.nanoTime();
+                long scanned = Metrics.postingsCounter()[0];
+                Collection<?> cached = cache.get(keyPrefix + distinct.get(at).key());
+                if (cached != null) {
+                    results.set(at, fromCache.apply(cached));
+                    Metrics.shared().queryDone(latency, start, scanned);
+                } else {
+                    missing.add(at);
+                    evaluated.add(distinct.get(at));
+                }
+            }
+
+            PostingsSource source = sharedPostings(evaluated);
+            List<Callable<T>> tasks = new ArrayList<>(evaluated.size());
+            for (Query parsed : evaluated) {
+                tasks.add(() -> {
+                    // Shared postings were decoded beforehand, so only the evaluation itself is measured
+                    long start = System.nanoTime();
+                    long scanned = Metrics.postingsCounter()[0];
+                    try {
+                        return evaluator.evaluate(parsed, source);
+                    } finally {
+                        Metrics.shared().queryDone(latency, start, scanned);
+                    }
+                });
+            }
+            List<T> evaluatedResults = run(tasks);
+            for (int i = 0; i < missing.size(); i++) {
+                T result = evaluatedResults.get(i);
+                results.set(missing.get(i), result);
+                cache.put(keyPrefix + evaluated.get(i).key(), new ArrayList<>(result), generation);
+            }
+
+            List<T> ordered = new ArrayList<>(queries.size());
+            for (int at : distinctOf) {
+                ordered.add(at < 0 ? noWords : results.get(at));
+            }
+            return ordered;
+        } finally {
+            read.close();
+        }
+    }
+
+    // Decodes the terms used by more than one query, most used first, within the budget
+    private PostingsSource sharedPostings(List<Query> queries) throws IOException {
+        Map<String, Integer> uses = new HashMap<>();
+        Set<String> positional = new HashSet<>();
+        for (Query parsed : queries) {
+            Set<String> terms = new HashSet<>();
+            parsed.collectAllTerms(terms);
+            for (String term : terms) {
+                uses.merge(term, 1, Integer::sum);
+            }
+            if (parsed.isPositional()) {
+                positional.addAll(terms);
+            }
+        }
+        List<String> sharedTerms = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : uses.entrySet()) {
+            if (entry.getValue() > 1) {
+                sharedTerms.add(entry.getKey());
+            }
+        }
+        sharedTerms.sort((a, b) -> uses.get(b) - uses.get(a));
+
+        List<String> decodedTerms = new ArrayList<>();
+        List<Callable<TermPostings>> tasks = new ArrayList<>();
+        long budget = MAX_DECODED_INTS;
+        for (String term : sharedTerms) {
+            TermPostings termPostings = index.getPostings(term);
+            if (termPostings == null) {
+                continue;
+            }
+            boolean withPositions = positional.contains(term);
+            long size = 2L * termPostings.getDocumentFrequency()
+                    + (withPositions ? termPostings.getDocumentFrequency() + termPostings.getPositionCount() : 0);
+            if (size > budget) {
+                continue;
+            }
+            budget -= size;
+            decodedTerms.add(term);
+            tasks.add(() -> termPostings.decode(null, withPositions)); // deleted documents are skipped when iterating
+        }
+        List<TermPostings> decoded = run(tasks);
+        decodedTermCount = decoded.size();
+
+        Map<String, TermPostings> shared = new HashMap<>();
+        for (int i = 0; i < decoded.size(); i++) {
+            shared.put(decodedTerms.get(i), decoded.get(i));
+        }
+        return new PostingsSource() {
+            @Override
+            public TermPostings getPostings(String term) {
+                TermPostings termPostings = shared.get(term);
+                return termPostings != null ? termPostings : index.getPostings(term);
+            }
+
+            @Override
+            public PostingsIterator iterator(TermPostings termPostings) {
+                return index.iterator(termPostings);
+            }
+
+            @Override
+            public DocIterator iterator(RoaringDocSet docSet) {
+                return index.iterator(docSet);
+            }
+        };
+    }
+
+    // Waits for the tasks of a stopped pool to finish, keeping the interrupt for the caller
+    private static void awaitTermination(ExecutorService pool) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs the tasks on the worker threads and returns their results in order
+    private <T> List<T> run(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            if (threadCount <= 1 || tasks.size() <= 1) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+                return results;
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, tasks.size()));
+            try {
+                List<Future<T>> futures = pool.invokeAll(tasks);
+                for (Future<T> future : futures) {
+                    results.add(future.get());
+                }
+                return results;
+            } finally {
+                pool.shutdownNow();
+                awaitTermination(pool); // the tasks read segments that may be freed once the batch returns
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Query batch interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException("Failed to run the query batch", cause);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to run the query batch", e);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * QueryCache class keeps the results of recent queries within a budget of bytes, evicting with a
+ * segmented LRU policy. A new entry starts in the probation segment; only an entry hit again is
+ * promoted to the protected segment, which holds 80% of the budget. A burst of queries seen once
+ * thus only evicts other entries seen once, while the frequent queries stay in the protected segment.
+ *
+ * Entries are dropped as a whole by {@link #invalidate()} whenever the index changes. A result
+ * computed before an invalidation is not stored, even if it is put afterwards: callers take
+ * {@link #generation()} before computing and pass it to {@link #put(String, Object, long)}.
+ *
+ * @param <V> The cached results; they must not be modified once cached.
+ */
+public class QueryCache<V> {
+    private static final long ENTRY_OVERHEAD = 96; // map entry, key object and bookkeeping, in bytes
+    private final ToLongFunction<V> weigher;       // estimated size of a result in bytes
+    private final long maxBytes;
+    private final long protectedMaxBytes;
+    // Both in access order, least recently used first; guarded by this
+    private final LinkedHashMap<String, Entry<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry<V>> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static class Entry<V> {
+        final V value;
+        final long bytes;
+
+        Entry(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param maxBytes The budget of the cache in bytes; 0 disables caching.
+     * @param weigher  Estimates the size of a result in bytes.
+     */
+    public QueryCache(long maxBytes, ToLongFunction<V> weigher) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The cache size cannot be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.protectedMaxBytes = maxBytes / 5 * 4;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the cached result for a key, or null if it is not cached.
+     */
+    public synchronized V get(String key) {
+        Entry<V> entry = protectedEntries.get(key);
+        if (entry == null) {
+            entry = probation.remove(key);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            // Hit a second time: promote, demoting the least recently used protected entries if needed
+            probationBytes -= entry.bytes;
+            protectedEntries.put(key, entry);
+            protectedBytes += entry.bytes;
+            Iterator<Map.Entry<String, Entry<V>>> it = protectedEntries.entrySet().iterator();
+            while (protectedBytes > protectedMaxBytes && it.hasNext()) {
+                Map.Entry<String, Entry<V>> demoted = it.next();
+                if (demoted.getKey().equals(key)) {
+                    break;
+                }
+                it.remove();
+                protectedBytes -= demoted.getValue().bytes;
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationBytes += demoted.getValue().bytes;
+            }
+            evict();
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Returns the current generation, to be passed to {@link #put(String, Object, long)}.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches a result, unless the cache was invalidated since the result's computation started
+     * or the result alone exceeds the budget.
+     *
+     * @param key        The normalized query.
+     * @param value      The result.
+     * @param generation The value of {@link #generation()} before the result was computed.
+     */
+    public synchronized void put(String key, V value, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        long bytes = ENTRY_OVERHEAD + 2L * key.length() + weigher.applyAsLong(value);
+        if (bytes > maxBytes) {
+            return;
+        }
+        remove(key);
+        probation.put(key, new Entry<>(value, bytes));
+        probationBytes += bytes;
+        evict();
+    }
+
+    // Evicts the least recently used entries, probation first, until the cache fits its budget
+    private void evict() {
+        evictFrom(probation, true);
+        evictFrom(protectedEntries, false);
+    }
+
+    private void evictFrom(LinkedHashMap<String, Entry<V>> segment, boolean isProbation) {
+        Iterator<Entry<V>> it = segment.values().iterator();
+        while (probationBytes + protectedBytes > maxBytes && it.hasNext()) {
+            long bytes = it.next().bytes;
+            it.remove();
+            if (isProbation) {
+                probationBytes -= bytes;
+            } else {
+                protectedBytes -= bytes;
+            }
+            evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Entry<V> entry = probation.remove(key);
+        if (entry != null) {
+            probationBytes -= entry.bytes;
+        }
+        entry = protectedEntries.remove(key);
+        if (entry != null) {
+            protectedBytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * Drops every cached result; called whenever the index changes.
+     */
+    public synchronized void invalidate() {
+        probation.clear();
+        protectedEntries.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+        generation++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedEntries.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("%d entries, %d of %d bytes, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                size(), sizeInBytes(), maxBytes, hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions);
+    }
+}
@@ -77,4 +77,22 @@ public class QueryHandler {
 
         System.out.println("Search results have been written to " + outputFile);
     }
+
+    /**
+     * Handles the search query and returns the results as JSON, in the format of
+     * {@link PrintIndexHandler#wordInfoJson(String)} or {@link PrintIndexHandler#documentInfoJson(String)}.
+     *
+     * @param queryType The type of search: "word" or "doc".
+     * @param queryTerm The word or document to search for.
+     * @throws IllegalArgumentException If the search type is neither "word" nor "doc".
+     */
+    public String searchJson(String queryType, String queryTerm) {
+        PrintIndexHandler printer = new PrintIndexHandler(invertedIndex);
+        if (queryType.equals("word")) {
+            return printer.wordInfoJson(queryTerm);
+        } else if (queryType.equals("doc")) {
+            return printer.documentInfoJson(queryTerm);
+        }
+        throw new IllegalArgumentException("Invalid SEARCH type. Use 'word' or 'doc'.");
+    }
 }
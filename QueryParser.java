@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * QueryParser class turns a query string into a {@link Query}. Supported syntax:
+ * <ul>
+ *   <li>{@code red flower} - documents containing all the words;</li>
+ *   <li>{@code "red flower"} - the words next to each other, in this order;</li>
+ *   <li>{@code red NEAR/3 flower} - the two words at most 3 words apart, in either order;</li>
+ *   <li>{@code flow*}, {@code *ing}, {@code fl*r} - any indexed term matching the pattern, where
+ *       {@code *} stands for any characters;</li>
+ *   <li>{@code flowr~1}, {@code flowr~} - any indexed term within 1 or 2 (the default and the
+ *       maximum) edits of the word, an edit being an inserted, deleted, replaced or swapped character;</li>
+ *   <li>{@code red OR blue}, {@code red AND blue}, {@code red NOT blue}, {@code (red OR blue) "cut flower"} -
+ *       either clause, both clauses (the same as {@code red blue}), and the documents of the other
+ *       clauses without the negated one. NOT binds tightest, then AND, then OR; parentheses group.</li>
+ * </ul>
+ * Words are tokenized and stemmed the same way documents are indexed. Stopwords inside a phrase
+ * are not indexed, so they are left out but still count towards the distance between the other
+ * words. The left operand of {@code NEAR/k} is the term before it, also when that term is the operand of
+ * NOT or a group of one word, so {@code red NOT flower NEAR/3 vase} excludes the documents where "flower"
+ * and "vase" are near each other. A {@code NEAR/k} without a term on both sides is ignored, and a
+ * malformed one is searched as plain words. Patterns and fuzzy words are only lower-cased,
+ * never stemmed, and are matched against the indexed (possibly stemmed) terms; a pattern without
+ * any literal character is ignored. Wildcards inside phrases are dropped like punctuation, and
+ * {@code NEAR/k} does not take a pattern as operand. Operators are only recognized in upper case,
+ * so {@code or} is a word. A query of negations alone matches nothing, and so does a negated
+ * clause on its own inside OR. Unbalanced parentheses are closed at the end of the query, or ignored.
+ */
+public class QueryParser {
+    private final Tokenizer tokenizer;
+    private final StopwordHandler stopwordHandler;
+    private final boolean enableStemming;
+    private final Function<String, List<String>> termExpander; // pattern -> matching terms; null to ignore * and ~
+
+    /**
+     * Creates a parser that treats {@code *} and {@code ~} like punctuation.
+     *
+     * @param tokenizer       The tokenizer used to split the query text.
+     * @param stopwordHandler The stopwords that were left out of the index.
+     * @param enableStemming  True if the index was built with stemming.
+     */
+    public QueryParser(Tokenizer tokenizer, StopwordHandler stopwordHandler, boolean enableStemming) {
+        this(tokenizer, stopwordHandler, enableStemming, null);
+    }
+
+    /**
+     * @param tokenizer        The tokenizer used to split the query text.
+     * @param stopwordHandler  The stopwords that were left out of the index.
+     * @param enableStemming   True if the index was built with stemming.
+     * @param termExpander     Returns the indexed terms matching a lower-cased pattern, either a
+     *                         wildcard pattern or a fuzzy term such as {@code flower~1}; see
+     *                         {@link InvertedIndex#expandWildcard(String)} and {@link InvertedIndex#expandFuzzy(String, int)}.
+     */
+    public QueryParser(Tokenizer tokenizer, StopwordHandler stopwordHandler, boolean enableStemming,
+                       Function<String, List<String>> termExpander) {
+        this.tokenizer = tokenizer;
+        this.stopwordHandler = stopwordHandler;
+        this.enableStemming = enableStemming;
+        this.termExpander = termExpander;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param query The query string.
+     * @return The parsed query, or null if the query contains no words.
+     */
+    public Query parse(String query) {
+        Input input = new Input(query);
+        Query parsed = disjunction(input);
+        while (input.position < query.length()) {
+            input.position++; // an unmatched ")" closes nothing; parse what follows it too
+            Query rest = disjunction(input);
+            if (rest != null) {
+                parsed = parsed == null ? rest : new Query.And(List.of(parsed, rest));
+            }
+        }
+        return parsed;
+    }
+
+    // The query string and the position of the parser in it
+    private static class Input {
+        final String query;
+        int position;
+
+        Input(String query) {
+            this.query = query;
+        }
+
+        // Skips whitespace and returns true if the input is at the end or at a closing parenthesis
+        boolean atGroupEnd() {
+            position = skipWhitespace(query, position);
+            return position == query.length() || query.charAt(position) == ')';
+        }
+
+        // Returns true if an operator chunk comes next
+        boolean atOperator(String operator) {
+            int start = skipWhitespace(query, position);
+            return query.startsWith(operator, start) && chunkEnd(query, start) == start + operator.length();
+        }
+
+        // Consumes an operator chunk if it comes next
+        boolean skipOperator(String operator) {
+            if (!atOperator(operator)) {
+                return false;
+            }
+            position = skipWhitespace(query, position) + operator.length();
+            return true;
+        }
+    }
+
+    // Parses clauses separated by OR, up to the end of the group
+    private Query disjunction(Input input) {
+        List<Query> clauses = new ArrayList<>();
+        do {
+            Query clause = conjunction(input);
+            if (clause != null) {
+                clauses.add(clause);
+            }
+        } while (input.skipOperator("OR"));
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new Query.Or(clauses);
+    }
+
+    // Parses clauses that must all match, up to an OR or the end of the group
+    private Query conjunction(Input input) {
+        String query = input.query;
+        List<Query> clauses = new ArrayList<>();
+        boolean lastIsTerm = false; // whether the last clause is a plain term, the left operand of NEAR
+
+        while (!input.atGroupEnd() && !input.atOperator("OR")) {
+            if (input.skipOperator("AND")) {
+                lastIsTerm = false;
+                continue;
+            }
+            if (input.skipOperator("NOT")) {
+                Query negated = operand(input);
+                if (negated != null) {
+                    clauses.add(new Query.Not(negated));
+                }
+                lastIsTerm = false;
+                continue;
+            }
+            char ch = query.charAt(input.position);
+            if (ch == '(' || ch == '"') {
+                Query operand = operand(input); // takes a NEAR/k that follows a group of one word itself
+                if (operand != null) {
+                    clauses.add(operand);
+                }
+                lastIsTerm = false;
+                continue;
+            }
+            if (lastIsTerm && near(input, clauses)) {
+                lastIsTerm = clauses.get(clauses.size() - 1) instanceof Query.Term;
+                continue;
+            }
+
+            int end = chunkEnd(query, input.position);
+            String chunk = query.substring(input.position, end);
+            input.position = end;
+
+            if (nearDistance(chunk) > 0) {
+                lastIsTerm = false; // a NEAR/k without a term on both sides is dropped
+                continue;
+            }
+            if (isPattern(chunk)) {
+                lastIsTerm = addPatterns(chunk, clauses);
+                continue;
+            }
+
+            List<String> words = normalize(chunk);
+            for (String word : words) {
+                clauses.add(new Query.Term(word));
+            }
+            lastIsTerm = !words.isEmpty();
+        }
+
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new Query.And(clauses);
+    }
+
+    // Parses the operand of NOT, or a group or phrase: one chunk, phrase or parenthesized group, with
+    // a NEAR/k that follows it if it ends in a plain term; null if it has no words
+    private Query operand(Input input) {
+        String query = input.query;
+        if (input.atGroupEnd() || input.atOperator("OR") || input.atOperator("AND")) {
+            return null; // a NOT without an operand is ignored
+        }
+        if (input.skipOperator("NOT")) {
+            Query negated = operand(input);
+            return negated == null ? null : new Query.Not(negated);
+        }
+        List<Query> clauses = new ArrayList<>();
+        char ch = query.charAt(input.position);
+        if (ch == '(') {
+            input.position++;
+            Query group = disjunction(input);
+            if (input.position < query.length()) {
+                input.position++; // an unclosed group runs to the end of the query
+            }
+            if (group != null) {
+                clauses.add(group);
+            }
+        } else if (ch == '"') {
+            int close = query.indexOf('"', input.position + 1);
+            int end = close < 0 ? query.length() : close; // an unterminated phrase runs to the end of the query
+            Query phrase = phrase(query.substring(input.position + 1, end));
+            input.position = close < 0 ? query.length() : close + 1;
+            if (phrase != null) {
+                clauses.add(phrase);
+            }
+        } else {
+            int end = chunkEnd(query, input.position);
+            String chunk = query.substring(input.position, end);
+            input.position = end;
+            if (nearDistance(chunk) > 0) {
+                return null; // a NEAR/k without a term on both sides is dropped
+            }
+            if (isPattern(chunk)) {
+                addPatterns(chunk, clauses);
+            } else {
+                for (String word : normalize(chunk)) {
+                    clauses.add(new Query.Term(word));
+                }
+            }
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        if (clauses.get(clauses.size() - 1) instanceof Query.Term) {
+            near(input, clauses);
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new Query.And(clauses);
+    }
+
+    // If "NEAR/k word" comes next, consumes it and replaces the last clause, a plain term, with the
+    // Near query of the two, followed by the other words of the right chunk. Returns true if it did.
+    private boolean near(Input input, List<Query> clauses) {
+        String query = input.query;
+        int start = skipWhitespace(query, input.position);
+        int end = chunkEnd(query, start);
+        int distance = nearDistance(query.substring(start, end));
+        if (distance <= 0) {
+            return false;
+        }
+        int next = skipWhitespace(query, end);
+        int nextEnd = chunkEnd(query, next);
+        String right = query.substring(next, nextEnd);
+        if (nextEnd == next || isPattern(right) || isOperator(right)) {
+            return false;
+        }
+        List<String> words = normalize(right);
+        if (words.isEmpty()) {
+            return false;
+        }
+        Query.Term left = (Query.Term) clauses.remove(clauses.size() - 1);
+        clauses.add(new Query.Near(left.term, words.get(0), distance));
+        for (int t = 1; t < words.size(); t++) {
+            clauses.add(new Query.Term(words.get(t)));
+        }
+        input.position = nextEnd;
+        return true;
+    }
+
+    // Builds a phrase from the quoted text, or a single term if only one word is left
+    private Query phrase(String text) {
+        List<String> phraseTerms = new ArrayList<>();
+        IntList offsets = new IntList();
+        tokenizer.tokenize(text, (buffer, start, length, position, offset) -> {
+            String word = new String(buffer, start, length);
+            if (stopwordHandler.isStopword(word)) return;
+            phraseTerms.add(stem(word));
+            offsets.add(position);
+        });
+
+        if (phraseTerms.isEmpty()) {
+            return null;
+        }
+        if (phraseTerms.size() == 1) {
+            return new Query.Term(phraseTerms.get(0));
+        }
+        return new Query.Phrase(phraseTerms.toArray(new String[0]), offsets.toArray());
+    }
+
+    // Adds the clauses of a chunk with patterns: an Expanded query for each wildcard pattern or fuzzy
+    // term, Terms for the words around them. Returns true if the last clause is a plain term.
+    private boolean addPatterns(String chunk, List<Query> clauses) {
+        boolean lastIsTerm = false;
+        int i = 0;
+        while (i < chunk.length()) {
+            if (!isPatternChar(chunk.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < chunk.length() && isPatternChar(chunk.charAt(end))) {
+                end++;
+            }
+            String run = chunk.substring(i, end);
+            i = end;
+            if (run.indexOf('*') < 0 && end < chunk.length() && chunk.charAt(end) == '~') {
+                // A fuzzy term: word~ or word~k, with at most MAX_EDITS edits
+                int digits = end + 1;
+                while (digits < chunk.length() && digits < end + 4 && chunk.charAt(digits) >= '0' && chunk.charAt(digits) <= '9') {
+                    digits++;
+                }
+                int edits = digits == end + 1 ? LevenshteinAutomaton.MAX_EDITS
+                        : Math.min(Integer.parseInt(chunk.substring(end + 1, digits)), LevenshteinAutomaton.MAX_EDITS);
+                String pattern = run.toLowerCase() + "~" + edits;
+                clauses.add(new Query.Expanded(pattern, termExpander.apply(pattern)));
+                lastIsTerm = false;
+                i = digits;
+            } else if (run.indexOf('*') < 0) {
+                List<String> words = normalize(run);
+                for (String word : words) {
+                    clauses.add(new Query.Term(word));
+                }
+                lastIsTerm = !words.isEmpty() || lastIsTerm;
+            } else if (run.replace("*", "").length() > 0) {
+                String pattern = run.toLowerCase().replaceAll("\\*+", "*");
+                clauses.add(new Query.Expanded(pattern, termExpander.apply(pattern)));
+                lastIsTerm = false;
+            }
+        }
+        return lastIsTerm;
+    }
+
+    private boolean isPattern(String chunk) {
+        return termExpander != null && (chunk.indexOf('*') >= 0 || chunk.indexOf('~') >= 0);
+    }
+
+    private static boolean isPatternChar(char ch) {
+        return Tokenizer.isWordChar(ch) || ch == '*';
+    }
+
+    // Tokenizes and stems plain query words; stopwords are kept, as they always were for plain queries
+    private List<String> normalize(String text) {
+        List<String> words = new ArrayList<>();
+        tokenizer.tokenize(text, (buffer, start, length, position, offset) ->
+            words.add(stem(new String(buffer, start, length))));
+        return words;
+    }
+
+    private String stem(String word) {
+        if (enableStemming) {
+            word = StemCache.shared().stem(word);
+        }
+        return word;
+    }
+
+    // Returns k for a "NEAR/k" operator, or 0 if the chunk is not one
+    private static int nearDistance(String chunk) {
+        if (!chunk.startsWith("NEAR/") || chunk.length() == 5 || chunk.length() > 14) {
+            return 0;
+        }
+        for (int i = 5; i < chunk.length(); i++) {
+            if (chunk.charAt(i) < '0' || chunk.charAt(i) > '9') {
+                return 0;
+            }
+        }
+        long distance = Long.parseLong(chunk.substring(5));
+        return (int) Math.min(distance, Integer.MAX_VALUE);
+    }
+
+    // A chunk ends at whitespace, at the start of a phrase or at a parenthesis
+    private static int chunkEnd(String query, int from) {
+        int i = from;
+        while (i < query.length() && !Character.isWhitespace(query.charAt(i)) && "\"()".indexOf(query.charAt(i)) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isOperator(String chunk) {
+        return chunk.equals("AND") || chunk.equals("OR") || chunk.equals("NOT");
+    }
+
+    private static int skipWhitespace(String query, int from) {
+        int i = from;
+        while (i < query.length() && Character.isWhitespace(query.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
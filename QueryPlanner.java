@@ -0,0 +1,236 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * QueryPlanner class rewrites a parsed {@link Query} into one with the same matches that is
+ * cheaper to evaluate, before any postings are read. The cost of each clause is estimated from
+ * the document frequencies of its terms (see {@link Query#cost(PostingsSource)}), and:
+ * <ul>
+ *   <li>clauses that cannot match are found: they empty a conjunction, and are dropped from a
+ *       disjunction or a negation; {@code x AND NOT x} matches nothing;</li>
+ *   <li>nested conjunctions and disjunctions are flattened, and the clauses of a conjunction are
+ *       ordered rarest first;</li>
+ *   <li>negations are pushed down, {@code NOT NOT x} to x and {@code NOT (x OR y)} to
+ *       {@code NOT x AND NOT y}, and subtracted from the intersection of the other clauses of
+ *       their conjunction, the smallest candidate set;</li>
+ *   <li>each disjunction, including the terms of a wildcard or fuzzy word, is either merged in a
+ *       heap or hashed into a bit set, whichever its estimated cost makes cheaper;</li>
+ *   <li>frequent terms, whose posting lists also store a {@link RoaringDocSet}, are read from
+ *       their sets: those of a conjunction or disjunction are combined a word at a time when many
+ *       documents are candidates, and otherwise each set is probed for the few candidates of a
+ *       rarer clause, which costs a lookup instead of decoding blocks of the list.</li>
+ * </ul>
+ * The planner is also the {@link PostingsSource} the plan is evaluated on, so each term is looked
+ * up in the dictionaries once. It is not thread-safe; use one per query.
+ */
+public class QueryPlanner implements PostingsSource {
+    private final PostingsSource source;
+    private final int documentCount;
+    private final Map<String, TermPostings> postings = new HashMap<>();
+
+    /**
+     * @param source        The postings the query is evaluated on.
+     * @param documentCount The number of document IDs, i.e. the size of a bit set of documents.
+     */
+    public QueryPlanner(PostingsSource source, int documentCount) {
+        this.source = source;
+        this.documentCount = documentCount;
+    }
+
+    /**
+     * Returns the plan of a query, to be evaluated on this planner, or null if the query cannot
+     * match any document.
+     */
+    public Query plan(Query query) {
+        return rewrite(query, Long.MAX_VALUE);
+    }
+
+    @Override
+    public TermPostings getPostings(String term) {
+        if (postings.containsKey(term)) {
+            return postings.get(term);
+        }
+        TermPostings termPostings = source.getPostings(term);
+        postings.put(term, termPostings);
+        return termPostings;
+    }
+
+    @Override
+    public PostingsIterator iterator(TermPostings termPostings) {
+        return source.iterator(termPostings);
+    }
+
+    @Override
+    public DocIterator iterator(RoaringDocSet docSet) {
+        return source.iterator(docSet);
+    }
+
+    // Plans a query that at most probes candidates are checked against; Long.MAX_VALUE if it is iterated on its own
+    private Query rewrite(Query query, long probes) {
+        if (query instanceof Query.And) {
+            return conjunction(((Query.And) query).clauses, probes);
+        }
+        if (query instanceof Query.Or) {
+            return disjunction(((Query.Or) query).clauses, probes);
+        }
+        if (query instanceof Query.Expanded) {
+            List<Query> terms = new ArrayList<>();
+            for (String term : ((Query.Expanded) query).terms) {
+                terms.add(new Query.Term(term));
+            }
+            return disjunction(terms, probes);
+        }
+        if (query instanceof Query.Not) {
+            return null; // there is nothing to subtract from
+        }
+        return query.cost(this) == 0 ? null : query;
+    }
+
+    private Query conjunction(List<Query> clauses, long probes) {
+        List<Query> required = new ArrayList<>();
+        List<Query> excluded = new ArrayList<>();
+        for (Query clause : clauses) {
+            add(clause, false, required, excluded);
+        }
+        if (required.isEmpty()) {
+            return null;
+        }
+
+        // Rarest first; a clause that cannot match empties the conjunction before any postings are read
+        Map<Query, Long> costs = new HashMap<>();
+        for (Query clause : required) {
+            long cost = clause.cost(this);
+            if (cost == 0) {
+                return null;
+            }
+            costs.put(clause, cost);
+        }
+        required.sort(Comparator.comparingLong(costs::get));
+        long candidates = Math.min(probes, costs.get(required.get(0)));
+
+        // Frequent terms are read from their document sets: combined a word at a time when there
+        // are many candidates, or each probed on its own when a rare clause leads
+        boolean combine = candidates >= documentCount / 64;
+        List<Query> planned = new ArrayList<>();
+        List<String> denseTerms = new ArrayList<>();
+        List<String> denseExcluded = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for (Query clause : required) {
+            Query plan = rewrite(clause, candidates);
+            if (plan == null) {
+                return null;
+            }
+            String term = denseTerm(plan);
+            if (term != null && combine) {
+                denseTerms.add(term);
+            } else {
+                planned.add(term != null ? dense(term) : plan);
+            }
+            keys.add(clause.key());
+        }
+        // The exclusions most likely to remove a candidate go first, so the others check fewer
+        excluded.sort(Comparator.comparingLong((Query clause) -> clause.cost(this)).reversed());
+        for (Query clause : excluded) {
+            if (keys.contains(clause.key())) {
+                return null; // x AND NOT x
+            }
+            Query plan = rewrite(clause, candidates);
+            String term = plan == null ? null : denseTerm(plan);
+            if (term != null && !denseTerms.isEmpty()) {
+                denseExcluded.add(term);
+            } else if (plan != null) {
+                planned.add(new Query.Not(term != null ? dense(term) : plan));
+            }
+        }
+        if (!denseTerms.isEmpty()) {
+            planned.add(0, new Query.Dense(denseTerms, denseExcluded, false));
+        }
+        return planned.size() == 1 ? planned.get(0) : new Query.And(planned);
+    }
+
+    // Adds a clause of a conjunction to the required or excluded clauses, pushing negations down
+    private static void add(Query clause, boolean negated, List<Query> required, List<Query> excluded) {
+        if (clause instanceof Query.Not) {
+            add(((Query.Not) clause).clause, !negated, required, excluded);
+        } else if (!negated && clause instanceof Query.And) {
+            for (Query nested : ((Query.And) clause).clauses) {
+                add(nested, false, required, excluded);
+            }
+        } else if (negated && clause instanceof Query.Or) {
+            for (Query nested : ((Query.Or) clause).clauses) {
+                add(nested, true, required, excluded);
+            }
+        } else {
+            (negated ? excluded : required).add(clause);
+        }
+    }
+
+    private Query disjunction(List<Query> clauses, long probes) {
+        List<Query> flattened = new ArrayList<>();
+        for (Query clause : clauses) {
+            Query plan = rewrite(clause, probes);
+            if (plan instanceof Query.Or) {
+                flattened.addAll(((Query.Or) plan).clauses);
+            } else if (plan instanceof Query.Dense && ((Query.Dense) plan).union) {
+                for (String term : ((Query.Dense) plan).terms) {
+                    flattened.add(new Query.Term(term));
+                }
+            } else if (plan != null) {
+                flattened.add(plan);
+            }
+        }
+
+        // Frequent terms are read from their document sets, combined a word at a time unless only a few documents are probed
+        boolean combine = probes >= documentCount / 64;
+        List<Query> planned = new ArrayList<>();
+        List<String> denseTerms = new ArrayList<>();
+        for (Query plan : flattened) {
+            String term = denseTerm(plan);
+            if (term != null && combine) {
+                denseTerms.add(term);
+            } else {
+                planned.add(term != null ? dense(term) : plan);
+            }
+        }
+        if (denseTerms.size() == 1) {
+            planned.add(dense(denseTerms.get(0)));
+        } else if (!denseTerms.isEmpty()) {
+            planned.add(new Query.Dense(denseTerms, List.of(), true));
+        }
+        if (planned.size() <= 1) {
+            return planned.isEmpty() ? null : planned.get(0);
+        }
+        long cost = 0;
+        for (Query clause : planned) {
+            cost += clause.cost(this);
+        }
+        return new Query.Or(planned, isHashCheaper(cost, planned.size(), probes));
+    }
+
+    // Returns the term of a plain term query whose postings store a document set, or null
+    private String denseTerm(Query plan) {
+        if (!(plan instanceof Query.Term)) {
+            return null;
+        }
+        TermPostings termPostings = getPostings(((Query.Term) plan).term);
+        return termPostings != null && termPostings.hasDocSet() ? ((Query.Term) plan).term : null;
+    }
+
+    private static Query dense(String term) {
+        return new Query.Dense(List.of(term), List.of(), false);
+    }
+
+    // A heap merge pays a logarithm of the number of lists for every posting it passes, and each
+    // probe may move every list; hashing reads every posting once and then scans the bit set
+    private boolean isHashCheaper(long cost, int lists, long probes) {
+        double log = Math.log(lists) / Math.log(2);
+        double merge = Math.min((double) cost, (double) probes * lists) * log;
+        double hash = cost + documentCount / 64.0;
+        return hash < merge;
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RemoteShard class is a {@link Shard} served by a {@link ShardServer}, usually in another JVM on
+ * the same machine. Idle connections are kept for reuse; concurrent requests each borrow their own,
+ * opening a new one when none is idle.
+ */
+public class RemoteShard implements Shard {
+    private final InetSocketAddress address;
+    private final Process process; // the shard's JVM if it was launched by this object, or null
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    // Writes the arguments of a request
+    private interface Request {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Reads the result of a request
+    private interface Response<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    /**
+     * Connects to a shard server already running on this machine.
+     *
+     * @param port The port of the server on the loopback address.
+     */
+    public RemoteShard(int port) {
+        this(port, null);
+    }
+
+    private RemoteShard(int port, Process process) {
+        this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        this.process = process;
+    }
+
+    /**
+     * Starts a {@link ShardServer} for a shard index file in a new JVM, with the class path of this
+     * one, and connects to it. The process exits when this shard is closed or this JVM exits.
+     *
+     * @param indexFilePath The shard's index file.
+     * @param stopwordFile  The stopword file used with the index.
+     * @param jvmOptions    Options for the new JVM, e.g. its heap size.
+     * @return The shard.
+     * @throws IOException If the process cannot be started or cannot open the index.
+     */
+    public static RemoteShard launch(String indexFilePath, String stopwordFile, List<String> jvmOptions) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("ShardServer");
+        command.add("--stopword=" + stopwordFile);
+        command.add("--index=" + indexFilePath);
+        command.add("--exit-with-parent");
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        // The server prints its port once it accepts requests
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = output.readLine()) != null && !line.startsWith(ShardServer.READY)) {
+            // Skip the messages printed while opening the index
+        }
+        if (line == null) {
+            process.destroy();
+            throw new IOException("The shard server for " + indexFilePath + " exited before accepting requests");
+        }
+        int port = Integer.parseInt(line.substring(ShardServer.READY.length()).trim());
+
+        // Keep reading its output, so the process never blocks on a full pipe
+        Thread drain = new Thread(() -> {
+            try {
+                while (output.readLine() != null) {
+                    // Discarded
+                }
+            } catch (IOException e) {
+                // The process is gone
+            }
+        }, "shard-output-" + port);
+        drain.setDaemon(true);
+        drain.start();
+        return new RemoteShard(port, process);
+    }
+
+    // Sends a request on an idle connection, or a new one, and reads its result
+    private <T> T call(int operation, Request request, Response<T> response) throws IOException {
+        if (closed) {
+            throw new IOException("The shard on port " + address.getPort() + " is closed");
+        }
+        Connection connection = idle.poll();
+        if (connection == null) {
+            connection = new Connection(address);
+        }
+        String error;
+        T result = null;
+        try {
+            connection.out.writeByte(operation);
+            request.write(connection.out);
+            connection.out.flush();
+            if (connection.in.readUnsignedByte() == ShardServer.OK) {
+                result = response.read(connection.in);
+                error = null;
+            } else {
+                error = connection.in.readUTF();
+            }
+        } catch (IOException e) {
+            connection.close(); // its state is unknown, so it cannot be reused
+            throw e;
+        }
+        if (closed) {
+            connection.close();
+        } else {
+            idle.offer(connection);
+        }
+        if (error != null) {
+            throw new IOException("The shard on port " + address.getPort() + " failed: " + error);
+        }
+        return result;
+    }
+
+    @Override
+    public int getDocumentCount() throws IOException {
+        return call(ShardServer.DOCUMENT_COUNT, out -> { }, DataInputStream::readInt);
+    }
+
+    @Override
+    public Set<String> search(String query) throws IOException {
+        return call(ShardServer.SEARCH, out -> out.writeUTF(query), ShardServer::readStrings);
+    }
+
+    @Override
+    public CollectionStatistics getStatistics(String query) throws IOException {
+        return call(ShardServer.STATISTICS, out -> out.writeUTF(query), ShardServer::readStatistics);
+    }
+
+    @Override
+    public List<ScoredDocument> searchTopK(String query, int k, CollectionStatistics statistics) throws IOException {
+        return call(ShardServer.TOP_K, out -> {
+            out.writeUTF(query);
+            out.writeInt(k);
+            ShardServer.writeStatistics(out, statistics);
+        }, ShardServer::readScoredDocuments);
+    }
+
+    @Override
+    public Map<String, List<Integer>> searchWord(String word) throws IOException {
+        return call(ShardServer.WORD, out -> out.writeUTF(word), ShardServer::readPositions);
+    }
+
+    @Override
+    public Map<String, List<Integer>> searchDocument(String document) throws IOException {
+        return call(ShardServer.DOCUMENT, out -> out.writeUTF(document), ShardServer::readPositions);
+    }
+
+    @Override
+    public Map<String, Map<Integer, List<String>>> searchSnippets(String term, int snipRange, String corpusDirPath) throws IOException {
+        return call(ShardServer.SNIPPETS, out -> {
+            out.writeUTF(term);
+            out.writeInt(snipRange);
+            out.writeUTF(corpusDirPath);
+        }, ShardServer::readSnippets);
+    }
+
+    /**
+     * Closes the idle connections, and stops the shard's process if it was launched by {@link #launch}.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+        if (process != null) {
+            process.destroy();
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "shard on port " + address.getPort() + (process != null ? " (pid " + process.pid() + ")" : "");
+    }
+}
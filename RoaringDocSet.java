@@ -0,0 +1,597 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * RoaringDocSet class is a compressed, immutable set of document IDs in the Roaring layout: the
+ * IDs are split by their high 16 bits into chunks of 65536, and each chunk is stored in the
+ * smallest of three containers:
+ * <ul>
+ *   <li>array - the sorted low 16 bits, 2 bytes per document, for at most {@link #ARRAY_MAX} documents;</li>
+ *   <li>bitmap - 1024 words of 64 bits, one bit per document ID of the chunk;</li>
+ *   <li>run - sorted runs of consecutive IDs, 4 bytes per run.</li>
+ * </ul>
+ * {@link #and}, {@link #or} and {@link #andNot} only combine chunks present in the operands, and
+ * two bitmaps are combined a word at a time. {@link #iterator(BitSet)} turns a set into a
+ * {@link DocIterator} whose advance costs a container lookup, so sets combine with posting lists.
+ *
+ * A {@link PostingList} with many documents stores its documents as a set too, see
+ * {@link #read(ByteBuffer)} for the layout. Containers read from a buffer are views of it; the
+ * results of operations are on the heap.
+ */
+public final class RoaringDocSet {
+    /** The largest number of documents in an array container; a larger one is a bitmap. */
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+    private static final byte RUN = 2;
+    private static final int CONTAINER_HEADER_SIZE = 12;
+
+    private static final RoaringDocSet EMPTY = new RoaringDocSet(new char[0], new Container[0], 0);
+
+    private final char[] keys;             // the high 16 bits of each chunk, increasing
+    private final Container[] containers;  // the low 16 bits of the documents of each chunk
+    private final int size;                // the number of chunks
+
+    private RoaringDocSet(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    /**
+     * Builds a set from document IDs in increasing order.
+     *
+     * @param docIds The IDs; only the first count are read.
+     * @param count  The number of IDs.
+     */
+    public static RoaringDocSet of(int[] docIds, int count) {
+        char[] keys = new char[count == 0 ? 0 : (docIds[count - 1] >>> 16) - (docIds[0] >>> 16) + 1];
+        Container[] containers = new Container[keys.length];
+        int size = 0;
+        int start = 0;
+        while (start < count) {
+            int key = docIds[start] >>> 16;
+            int end = start;
+            while (end < count && docIds[end] >>> 16 == key) {
+                end++;
+            }
+            keys[size] = (char) key;
+            containers[size++] = Container.of(docIds, start, end);
+            start = end;
+        }
+        return new RoaringDocSet(keys, containers, size);
+    }
+
+    /**
+     * Reads the documents of an iterator into a set.
+     */
+    public static RoaringDocSet of(DocIterator iterator) {
+        IntList docIds = new IntList();
+        while (iterator.nextDoc() != DocIterator.NO_MORE_DOCS) {
+            docIds.add(iterator.docId());
+        }
+        return of(docIds.toArray(), docIds.size());
+    }
+
+    /**
+     * Returns a view of a set written by {@link #writeTo(ByteBuffer)}. Layout (big-endian):
+     * <pre>
+     * int  container count
+     * per container: char key, byte type (0 array, 1 bitmap, 2 run), byte 0, int cardinality, int value count
+     * per container: the values, as chars (array), longs (bitmap) or start and length - 1 char pairs (run)
+     * </pre>
+     * The value count is the number of chars of an array, of words of a bitmap, and of runs.
+     */
+    public static RoaringDocSet read(ByteBuffer data) {
+        int size = data.getInt(0);
+        char[] keys = new char[size];
+        Container[] containers = new Container[size];
+        int offset = 4 + size * CONTAINER_HEADER_SIZE;
+        for (int i = 0; i < size; i++) {
+            int header = 4 + i * CONTAINER_HEADER_SIZE;
+            keys[i] = data.getChar(header);
+            byte type = data.get(header + 2);
+            int cardinality = data.getInt(header + 4);
+            int count = data.getInt(header + 8);
+            int bytes = type == BITMAP ? count * 8 : type == RUN ? count * 4 : count * 2;
+            ByteBuffer slice = data.duplicate().position(offset).limit(offset + bytes).slice();
+            containers[i] = type == BITMAP ? new Container(BITMAP, cardinality, null, slice.asLongBuffer())
+                    : new Container(type, cardinality, slice.asCharBuffer(), null);
+            offset += bytes;
+        }
+        return new RoaringDocSet(keys, containers, size);
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeTo(ByteBuffer)} writes.
+     */
+    public int serializedSize() {
+        int bytes = 4 + size * CONTAINER_HEADER_SIZE;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].serializedSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the set at the position of the buffer, see {@link #read(ByteBuffer)}.
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putInt(size);
+        for (int i = 0; i < size; i++) {
+            Container container = containers[i];
+            out.putChar(keys[i]).put(container.type).put((byte) 0).putInt(container.cardinality).putInt(container.valueCount());
+        }
+        for (int i = 0; i < size; i++) {
+            containers[i].writeTo(out);
+        }
+    }
+
+    /**
+     * Returns the number of documents in the set.
+     */
+    public long cardinality() {
+        long cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int docId) {
+        int i = Arrays.binarySearch(keys, 0, size, (char) (docId >>> 16));
+        return i >= 0 && containers[i].contains(docId & 0xFFFF);
+    }
+
+    /**
+     * Returns the documents in both sets.
+     */
+    public static RoaringDocSet and(RoaringDocSet a, RoaringDocSet b) {
+        char[] keys = new char[Math.min(a.size, b.size)];
+        Container[] containers = new Container[keys.length];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.size && j < b.size; ) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container container = Container.and(a.containers[i], b.containers[j]);
+                if (container != null) {
+                    keys[size] = a.keys[i];
+                    containers[size++] = container;
+                }
+                i++;
+                j++;
+            }
+        }
+        return new RoaringDocSet(keys, containers, size);
+    }
+
+    /**
+     * Returns the documents in all the sets, intersecting the smallest ones first.
+     */
+    public static RoaringDocSet and(List<RoaringDocSet> sets) {
+        if (sets.isEmpty()) {
+            return EMPTY;
+        }
+        RoaringDocSet[] ordered = sets.toArray(new RoaringDocSet[0]);
+        Arrays.sort(ordered, (x, y) -> Long.compare(x.cardinality(), y.cardinality()));
+        RoaringDocSet result = ordered[0];
+        for (int i = 1; i < ordered.length && !result.isEmpty(); i++) {
+            result = and(result, ordered[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the documents in either set.
+     */
+    public static RoaringDocSet or(RoaringDocSet a, RoaringDocSet b) {
+        char[] keys = new char[a.size + b.size];
+        Container[] containers = new Container[keys.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                keys[size] = a.keys[i];
+                containers[size++] = a.containers[i++];
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                keys[size] = b.keys[j];
+                containers[size++] = b.containers[j++];
+            } else {
+                keys[size] = a.keys[i];
+                containers[size++] = Container.or(a.containers[i++], b.containers[j++]);
+            }
+        }
+        return new RoaringDocSet(keys, containers, size);
+    }
+
+    /**
+     * Returns the documents in any of the sets.
+     */
+    public static RoaringDocSet or(List<RoaringDocSet> sets) {
+        RoaringDocSet result = EMPTY;
+        for (RoaringDocSet set : sets) {
+            result = or(result, set);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the documents of a that are not in b.
+     */
+    public static RoaringDocSet andNot(RoaringDocSet a, RoaringDocSet b) {
+        char[] keys = new char[a.size];
+        Container[] containers = new Container[keys.length];
+        int size = 0;
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+            Container container = j < b.size && b.keys[j] == a.keys[i]
+                    ? Container.andNot(a.containers[i], b.containers[j]) : a.containers[i];
+            if (container != null) {
+                keys[size] = a.keys[i];
+                containers[size++] = container;
+            }
+        }
+        return new RoaringDocSet(keys, containers, size);
+    }
+
+    /**
+     * Returns an iterator over the documents of the set.
+     *
+     * @param deleted The documents to skip, or null to skip none.
+     */
+    public DocIterator iterator(BitSet deleted) {
+        BitSet skipped = deleted == null || deleted.isEmpty() ? null : deleted;
+        long cost = cardinality();
+        return new DocIterator() {
+            private int index;    // the current container
+            private int docId = -1;
+
+            @Override
+            public int docId() {
+                return docId;
+            }
+
+            @Override
+            public int nextDoc() {
+                return advance(docId + 1);
+            }
+
+            @Override
+            public int advance(int target) {
+                if (target <= docId || docId == NO_MORE_DOCS) {
+                    return docId;
+                }
+                while (index < size) {
+                    int key = target >>> 16;
+                    if (keys[index] < key) {
+                        index++;
+                        continue;
+                    }
+                    int value = containers[index].nextValue(keys[index] == key ? target & 0xFFFF : 0);
+                    if (value < 0) {
+                        index++;
+                        continue;
+                    }
+                    int found = keys[index] << 16 | value;
+                    if (skipped != null && skipped.get(found)) {
+                        target = found + 1;
+                        continue;
+                    }
+                    return docId = found;
+                }
+                return docId = NO_MORE_DOCS;
+            }
+
+            @Override
+            public long cost() {
+                return cost;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "RoaringDocSet(" + cardinality() + " documents in " + size + " containers)";
+    }
+
+    // The low 16 bits of the documents of one chunk
+    private static final class Container {
+        final byte type;
+        final int cardinality;
+        final CharBuffer values; // sorted values (array), or start and length - 1 pairs (run)
+        final LongBuffer words;  // bitmap
+
+        Container(byte type, int cardinality, CharBuffer values, LongBuffer words) {
+            this.type = type;
+            this.cardinality = cardinality;
+            this.values = values;
+            this.words = words;
+        }
+
+        // Builds the smallest container for docIds[start..end), which share their high 16 bits
+        static Container of(int[] docIds, int start, int end) {
+            int cardinality = end - start;
+            int runs = 1;
+            for (int i = start + 1; i < end; i++) {
+                if (docIds[i] != docIds[i - 1] + 1) runs++;
+            }
+            if (runs * 4 < Math.min(cardinality * 2, WORDS * 8)) {
+                char[] pairs = new char[runs * 2];
+                int run = 0;
+                int runStart = start;
+                for (int i = start + 1; i <= end; i++) {
+                    if (i == end || docIds[i] != docIds[i - 1] + 1) {
+                        pairs[run++] = (char) docIds[runStart];
+                        pairs[run++] = (char) (i - 1 - runStart);
+                        runStart = i;
+                    }
+                }
+                return new Container(RUN, cardinality, CharBuffer.wrap(pairs), null);
+            }
+            if (cardinality <= ARRAY_MAX) {
+                char[] array = new char[cardinality];
+                for (int i = 0; i < cardinality; i++) {
+                    array[i] = (char) docIds[start + i];
+                }
+                return array(array, cardinality);
+            }
+            long[] bits = new long[WORDS];
+            for (int i = start; i < end; i++) {
+                int value = docIds[i] & 0xFFFF;
+                bits[value >>> 6] |= 1L << value;
+            }
+            return new Container(BITMAP, cardinality, null, LongBuffer.wrap(bits));
+        }
+
+        static Container array(char[] array, int cardinality) {
+            return new Container(ARRAY, cardinality, CharBuffer.wrap(array, 0, cardinality).slice(), null);
+        }
+
+        // Returns the container of a bitmap, an array if it is small enough, or null if it is empty
+        static Container ofWords(long[] bits) {
+            int cardinality = 0;
+            for (long word : bits) {
+                cardinality += Long.bitCount(word);
+            }
+            if (cardinality == 0) {
+                return null;
+            }
+            if (cardinality > ARRAY_MAX) {
+                return new Container(BITMAP, cardinality, null, LongBuffer.wrap(bits));
+            }
+            char[] array = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    array[n++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                }
+            }
+            return array(array, cardinality);
+        }
+
+        int valueCount() {
+            return type == BITMAP ? words.limit() : type == RUN ? values.limit() / 2 : values.limit();
+        }
+
+        int serializedSize() {
+            return type == BITMAP ? words.limit() * 8 : values.limit() * 2;
+        }
+
+        void writeTo(ByteBuffer out) {
+            if (type == BITMAP) {
+                for (int w = 0; w < words.limit(); w++) {
+                    out.putLong(words.get(w));
+                }
+            } else {
+                for (int i = 0; i < values.limit(); i++) {
+                    out.putChar(values.get(i));
+                }
+            }
+        }
+
+        boolean contains(int value) {
+            if (type == BITMAP) {
+                return (words.get(value >>> 6) & 1L << value) != 0;
+            }
+            if (type == ARRAY) {
+                int i = lowerBound(values, 0, values.limit(), value);
+                return i < values.limit() && values.get(i) == value;
+            }
+            int run = runAtOrAfter(value);
+            return run >= 0 && values.get(run * 2) <= value;
+        }
+
+        // Returns the smallest value at least from, or -1
+        int nextValue(int from) {
+            if (type == BITMAP) {
+                int w = from >>> 6;
+                long word = words.get(w) & -1L << from;
+                while (word == 0) {
+                    if (++w == WORDS) {
+                        return -1;
+                    }
+                    word = words.get(w);
+                }
+                return w << 6 | Long.numberOfTrailingZeros(word);
+            }
+            if (type == ARRAY) {
+                int i = lowerBound(values, 0, values.limit(), from);
+                return i < values.limit() ? values.get(i) : -1;
+            }
+            int run = runAtOrAfter(from);
+            return run < 0 ? -1 : Math.max(from, values.get(run * 2));
+        }
+
+        // Returns the first run ending at or after value, or -1
+        private int runAtOrAfter(int value) {
+            int low = 0;
+            int high = values.limit() / 2 - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (values.get(mid * 2) + values.get(mid * 2 + 1) < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low < values.limit() / 2 ? low : -1;
+        }
+
+        // Returns a new bitmap of the container's values
+        long[] toWords() {
+            long[] bits = new long[WORDS];
+            if (type == BITMAP) {
+                words.duplicate().get(bits);
+            } else if (type == ARRAY) {
+                for (int i = 0; i < values.limit(); i++) {
+                    int value = values.get(i);
+                    bits[value >>> 6] |= 1L << value;
+                }
+            } else {
+                for (int run = 0; run < values.limit() / 2; run++) {
+                    setRange(bits, values.get(run * 2), values.get(run * 2) + values.get(run * 2 + 1) + 1);
+                }
+            }
+            return bits;
+        }
+
+        static Container and(Container a, Container b) {
+            if (a.type == ARRAY || b.type == ARRAY) {
+                Container array = a.type == ARRAY ? a : b;
+                Container other = array == a ? b : a;
+                char[] result = new char[array.cardinality];
+                int n = 0;
+                for (int i = 0; i < array.cardinality; i++) {
+                    char value = array.values.get(i);
+                    if (other.contains(value)) result[n++] = value;
+                }
+                return n == 0 ? null : array(result, n);
+            }
+            long[] bits = a.toWords();
+            if (b.type == BITMAP) {
+                for (int w = 0; w < WORDS; w++) {
+                    bits[w] &= b.words.get(w);
+                }
+            } else {
+                long[] other = b.toWords();
+                for (int w = 0; w < WORDS; w++) {
+                    bits[w] &= other[w];
+                }
+            }
+            return ofWords(bits);
+        }
+
+        static Container or(Container a, Container b) {
+            if (a.type == ARRAY && b.type == ARRAY && a.cardinality + b.cardinality <= ARRAY_MAX) {
+                char[] result = new char[a.cardinality + b.cardinality];
+                int n = 0;
+                int i = 0;
+                int j = 0;
+                while (i < a.cardinality || j < b.cardinality) {
+                    char next;
+                    if (j == b.cardinality || (i < a.cardinality && a.values.get(i) < b.values.get(j))) {
+                        next = a.values.get(i++);
+                    } else if (i == a.cardinality || a.values.get(i) > b.values.get(j)) {
+                        next = b.values.get(j++);
+                    } else {
+                        next = a.values.get(i++);
+                        j++;
+                    }
+                    result[n++] = next;
+                }
+                return array(result, n);
+            }
+            Container wide = a.type == BITMAP ? a : b;
+            Container other = wide == a ? b : a;
+            long[] bits = wide.toWords();
+            if (other.type == BITMAP) {
+                for (int w = 0; w < WORDS; w++) {
+                    bits[w] |= other.words.get(w);
+                }
+            } else if (other.type == ARRAY) {
+                for (int i = 0; i < other.cardinality; i++) {
+                    int value = other.values.get(i);
+                    bits[value >>> 6] |= 1L << value;
+                }
+            } else {
+                for (int run = 0; run < other.values.limit() / 2; run++) {
+                    setRange(bits, other.values.get(run * 2), other.values.get(run * 2) + other.values.get(run * 2 + 1) + 1);
+                }
+            }
+            return ofWords(bits);
+        }
+
+        static Container andNot(Container a, Container b) {
+            if (a.type == ARRAY) {
+                char[] result = new char[a.cardinality];
+                int n = 0;
+                for (int i = 0; i < a.cardinality; i++) {
+                    char value = a.values.get(i);
+                    if (!b.contains(value)) result[n++] = value;
+                }
+                return n == 0 ? null : array(result, n);
+            }
+            long[] bits = a.toWords();
+            if (b.type == BITMAP) {
+                for (int w = 0; w < WORDS; w++) {
+                    bits[w] &= ~b.words.get(w);
+                }
+            } else if (b.type == ARRAY) {
+                for (int i = 0; i < b.cardinality; i++) {
+                    int value = b.values.get(i);
+                    bits[value >>> 6] &= ~(1L << value);
+                }
+            } else {
+                long[] other = b.toWords();
+                for (int w = 0; w < WORDS; w++) {
+                    bits[w] &= ~other[w];
+                }
+            }
+            return ofWords(bits);
+        }
+
+        // Sets the bits from start to end, exclusive, a word at a time
+        private static void setRange(long[] bits, int start, int end) {
+            int first = start >>> 6;
+            int last = (end - 1) >>> 6;
+            if (first == last) {
+                bits[first] |= (-1L << start) & (-1L >>> -end);
+                return;
+            }
+            bits[first] |= -1L << start;
+            for (int w = first + 1; w < last; w++) {
+                bits[w] = -1L;
+            }
+            bits[last] |= -1L >>> -end;
+        }
+
+        private static int lowerBound(CharBuffer values, int low, int high, int value) {
+            high--;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (values.get(mid) < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * ScoredDocument class is one ranked search result: a document name and its score.
+ */
+public class ScoredDocument {
+    private final String name;
+    private final double score;
+
+    public ScoredDocument(String name, double score) {
+        this.name = name;
+        this.score = score;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%.4f)", name, score);
+    }
+}
@@ -0,0 +1,254 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * SearchServer class keeps one index loaded and answers queries over HTTP with JSON, using the
+ * HTTP server built into the JDK. Every request runs on its own virtual thread (Java 21 and later;
+ * a pool of platform threads on older JDKs), so thousands of concurrent requests only cost memory.
+ * The index is not changed while it is served, so requests need no locking. The server only listens
+ * on the loopback interface, so it is reachable from the same machine only.
+ *
+ * Endpoints (GET, parameters URL-encoded):
+ * <ul>
+ *   <li>{@code /search?q=<query>[&k=<n>]} - documents matching a query, see {@link QueryParser};
+ *       with k, the k best documents ranked by BM25 with their scores;</li>
+ *   <li>{@code /word?q=<word>} - the documents and positions of a word, see {@link QueryHandler};</li>
+ *   <li>{@code /doc?q=<document>} - the words and positions of a document;</li>
+ *   <li>{@code /snippets?q=<word>[&range=<n>]} - the words around each occurrence of a word;</li>
+ *   <li>{@code /suggest?q=<word>[&edits=<n>][&count=<n>]} - the indexed terms closest to a word, see
+ *       {@link InvertedIndex#suggest(String, int, int)};</li>
+ *   <li>{@code /stats} - the number of documents and segments, and the hit and miss counts of the query caches;</li>
+ *   <li>{@code /metrics} - the indexing counters and latency histograms of {@link Metrics}.</li>
+ * </ul>
+ * Errors are returned as {@code {"error": "..."}} with status 400, 404, 405 or 500. Numbers outside
+ * their range, such as a range below 1, are rejected with 400.
+ */
+public class SearchServer {
+    private static final int DEFAULT_SNIPPET_RANGE = 5;
+    private static final int DEFAULT_SUGGESTIONS = 10;
+    private static final int MAX_RESULTS = 10_000;
+    private static final int MAX_SNIPPET_RANGE = 1_000;
+    private static final int MAX_SUGGESTIONS = 1_000;
+    private final InvertedIndex index;
+    private final QueryHandler queryHandler;
+    private final String corpusDirectory;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param index           The index to serve.
+     * @param corpusDirectory The corpus directory, read for snippets; null to disable snippets.
+     * @param port            The TCP port on the loopback interface; 0 picks a free one.
+     * @throws IOException If the port cannot be bound.
+     */
+    public SearchServer(InvertedIndex index, String corpusDirectory, int port) throws IOException {
+        this.index = index;
+        this.queryHandler = new QueryHandler(index);
+        this.corpusDirectory = corpusDirectory;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096); // deep accept backlog for bursts
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    // One virtual thread per request on Java 21 and later, looked up reflectively so the code still compiles on older JDKs
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits up to delaySeconds for the running ones to finish.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                status = 405;
+                body = error("Only GET is supported");
+            } else {
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                body = route(exchange.getRequestURI().getPath(), parameters);
+                if (body == null) {
+                    status = 404;
+                    body = error("Unknown path: " + exchange.getRequestURI().getPath());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            // The details, such as the paths of corpus files, are only logged, never sent to the client
+            System.err.println("Request " + exchange.getRequestURI() + " failed:");
+            e.printStackTrace();
+            status = 500;
+            body = error("Internal error");
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Returns the response body for a path, or null if the path is unknown
+    private String route(String path, Map<String, String> parameters) throws IOException {
+        switch (path) {
+            case "/search":
+                return search(required(parameters, "q"), intParameter(parameters, "k", 0, 0, MAX_RESULTS));
+            case "/word":
+                return queryHandler.searchJson("word", required(parameters, "q"));
+            case "/doc":
+                return queryHandler.searchJson("doc", required(parameters, "q"));
+            case "/snippets":
+                return snippets(required(parameters, "q"), intParameter(parameters, "range", DEFAULT_SNIPPET_RANGE, 1, MAX_SNIPPET_RANGE));
+            case "/suggest":
+                return suggest(required(parameters, "q"), intParameter(parameters, "edits", LevenshteinAutomaton.MAX_EDITS),
+                        intParameter(parameters, "count", DEFAULT_SUGGESTIONS, 1, MAX_SUGGESTIONS));
+            case "/stats":
+                JsonWriter json = new JsonWriter().beginObject()
+                        .name("documents").value(index.getDocumentCount())
+                        .name("segments").value(index.getSegments().size());
+                cacheStats(json.name("resultCache"), index.getResultCache());
+                cacheStats(json.name("snippetCache"), index.getSnippetCache());
+                return json.endObject().toString();
+            case "/metrics":
+                return Metrics.shared().toJson();
+            default:
+                return null;
+        }
+    }
+
+    private String search(String query, int k) {
+        JsonWriter json = new JsonWriter().beginObject().name("query").value(query).name("results").beginArray();
+        if (k > 0) {
+            for (ScoredDocument result : index.searchTopK(query, k)) {
+                json.beginObject().name("document").value(result.getName()).name("score").value(result.getScore()).endObject();
+            }
+        } else {
+            for (String document : new TreeSet<>(index.search(query))) {
+                json.value(document);
+            }
+        }
+        return json.endArray().endObject().toString();
+    }
+
+    private String suggest(String word, int edits, int count) {
+        JsonWriter json = new JsonWriter().beginObject().name("word").value(word).name("suggestions").beginArray();
+        for (String term : index.suggest(word, edits, count)) {
+            json.value(term);
+        }
+        return json.endArray().endObject().toString();
+    }
+
+    private static void cacheStats(JsonWriter json, QueryCache<?> cache) {
+        json.beginObject()
+                .name("entries").value(cache.size())
+                .name("bytes").value(cache.sizeInBytes())
+                .name("hits").value(cache.getHits())
+                .name("misses").value(cache.getMisses())
+                .name("evictions").value(cache.getEvictions())
+                .endObject();
+    }
+
+    private String snippets(String word, int range) throws IOException {
+        if (corpusDirectory == null) {
+            throw new IllegalArgumentException("Snippets need the server to be started with --corpus");
+        }
+        JsonWriter json = new JsonWriter().beginObject().name("word").value(word).name("documents").beginArray();
+        for (Map.Entry<String, Map<Integer, List<String>>> document : index.searchSnippets(word, range, corpusDirectory).entrySet()) {
+            json.beginObject().name("document").value(document.getKey()).name("snippets").beginArray();
+            for (Map.Entry<Integer, List<String>> snippet : document.getValue().entrySet()) {
+                json.beginObject().name("position").value(snippet.getKey()).name("words").beginArray();
+                for (String token : snippet.getValue()) {
+                    json.value(token);
+                }
+                json.endArray().endObject();
+            }
+            json.endArray().endObject();
+        }
+        return json.endArray().endObject().toString();
+    }
+
+    private static String error(String message) {
+        return new JsonWriter().beginObject().name("error").value(message).endObject().toString();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " is not a number: " + value);
+        }
+    }
+
+    // An int parameter that must lie between min and max, both included
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue, int min, int max) {
+        int value = intParameter(parameters, name, defaultValue);
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Parameter " + name + " must be between " + min + " and " + max + ": " + value);
+        }
+        return value;
+    }
+}
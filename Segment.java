@@ -0,0 +1,404 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Segment class is an immutable part of an {@link InvertedIndex}: the term dictionary, posting
+ * lists, forward index and position offsets of the documents with IDs from firstDocId to
+ * firstDocId + documentCount - 1. New documents are collected by a {@link SegmentBuilder} and
+ * become a new segment when it is flushed. A segment is written to its own file once and never
+ * changes afterwards; it is only replaced as a whole when it is merged with its neighbours.
+ *
+ * Document IDs in the posting lists are global. Deleted documents stay in a segment, hidden by the
+ * tombstones of the document table, until the segment is merged. The forward index and the position
+ * offsets are stored by document ID relative to firstDocId. Built and merged segments keep their
+ * terms sorted in a {@link FrontCodedTermDictionary}, so a term's ID is its rank.
+ *
+ * A segment is read in place either from the heap, from its mapped file, or from an
+ * {@link OffHeapArena} (see {@link #offHeap()}), which holds the same sections as the file.
+ */
+public class Segment implements Serializable, Closeable {
+    private static final long serialVersionUID = 1L;
+    private final int number;        // unique within an index; names the segment file
+    private final int firstDocId;
+    private final int documentCount;
+    private transient TermDictionary terms;
+    private transient List<PostingList> postings;        // termID -> postings
+    private final ForwardIndex forwardIndex;             // local docID -> terms and positions; null unless enabled
+    private transient PositionOffsets positionOffsets;   // local docID -> byte offsets of every 64th position
+    private transient long sizeInBytes;
+    private transient volatile File file; // the file the segment was last written to or opened from, or null
+    private transient OffHeapArena arena; // the memory offHeap() copied this segment to, or null
+
+    Segment(int number, int firstDocId, int documentCount, TermDictionary terms, List<PostingList> postings,
+            ForwardIndex forwardIndex, PositionOffsets positionOffsets) {
+        this.number = number;
+        this.firstDocId = firstDocId;
+        this.documentCount = documentCount;
+        this.terms = terms;
+        this.postings = postings;
+        this.forwardIndex = forwardIndex;
+        this.positionOffsets = positionOffsets;
+        this.sizeInBytes = computeSize();
+    }
+
+    /**
+     * Creates a segment from postings collected with a growable dictionary, sorting its terms into
+     * a {@link FrontCodedTermDictionary}. The posting lists and the term IDs of the forward index
+     * are renumbered to the rank of their term.
+     *
+     * @param terms    The terms, with IDs in the order they were first seen.
+     * @param postings The postings of each term ID of terms.
+     */
+    static Segment sorted(int number, int firstDocId, int documentCount, TermDictionary terms, List<PostingList> postings,
+                          ForwardIndex forwardIndex, PositionOffsets positionOffsets) {
+        int termCount = terms.size();
+        Integer[] order = new Integer[termCount];
+        String[] termStrings = new String[termCount];
+        for (int id = 0; id < termCount; id++) {
+            order[id] = id;
+            termStrings[id] = terms.getTerm(id);
+        }
+        Arrays.sort(order, (a, b) -> FrontCodedTermDictionary.compare(termStrings[a], termStrings[b]));
+
+        int[] rankOf = new int[termCount];
+        List<String> sortedTerms = new ArrayList<>(termCount);
+        List<PostingList> sortedPostings = new ArrayList<>(termCount);
+        for (int rank = 0; rank < termCount; rank++) {
+            rankOf[order[rank]] = rank;
+            sortedTerms.add(termStrings[order[rank]]);
+            sortedPostings.add(postings.get(order[rank]));
+        }
+
+        ForwardIndex renumbered = null;
+        if (forwardIndex != null) {
+            renumbered = new ForwardIndex();
+            for (int local = 0; local < documentCount; local++) {
+                ForwardIndex.EntryWriter writer = new ForwardIndex.EntryWriter();
+                if (forwardIndex.forEachTerm(local, (termId, positions, count) -> writer.addTerm(rankOf[termId], positions, count))) {
+                    renumbered.put(local, writer.toBytes());
+                }
+            }
+        }
+        return new Segment(number, firstDocId, documentCount, FrontCodedTermDictionary.of(sortedTerms), sortedPostings,
+                renumbered, positionOffsets);
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public int getFirstDocId() {
+        return firstDocId;
+    }
+
+    /**
+     * Returns the number of document IDs the segment covers, including deleted documents.
+     */
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Returns the last document ID the segment covers.
+     */
+    public int getLastDocId() {
+        return firstDocId + documentCount - 1;
+    }
+
+    public boolean contains(int docId) {
+        return docId >= firstDocId && docId - firstDocId < documentCount;
+    }
+
+    public TermDictionary getTerms() {
+        return terms;
+    }
+
+    /**
+     * Returns the postings of a term, or null if no document of this segment contains it.
+     */
+    public PostingList getPostings(String term) {
+        int termId = terms.getId(term);
+        return termId < 0 ? null : postings.get(termId);
+    }
+
+    public PostingList getPostings(int termId) {
+        return postings.get(termId);
+    }
+
+    List<PostingList> getPostingLists() {
+        return postings;
+    }
+
+    /**
+     * Returns the total encoded size of the posting lists in bytes; merges are planned by this size.
+     */
+    public long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public boolean hasForwardIndex() {
+        return forwardIndex != null;
+    }
+
+    ForwardIndex getForwardIndex() {
+        return forwardIndex;
+    }
+
+    PositionOffsets getPositionOffsets() {
+        return positionOffsets;
+    }
+
+    /**
+     * Passes the terms of a document to the handler, using the forward index; term IDs are those of this segment.
+     *
+     * @return False if the segment has no forward index or no entry for the document.
+     */
+    public boolean forEachTerm(int docId, ForwardIndex.TermHandler handler) {
+        return forwardIndex != null && contains(docId) && forwardIndex.forEachTerm(docId - firstDocId, handler);
+    }
+
+    /**
+     * Returns the number of position checkpoints of a document, 0 if it has none.
+     */
+    public int getCheckpointCount(int docId) {
+        return contains(docId) ? positionOffsets.getCheckpointCount(docId - firstDocId) : 0;
+    }
+
+    /**
+     * Returns the byte offset of the word at position {@code index * PositionOffsets.INTERVAL + 1} in a document.
+     */
+    public int getCheckpoint(int docId, int index) {
+        return positionOffsets.getCheckpoint(docId - firstDocId, index);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns a copy of this segment with a forward index derived from its postings, or without one.
+     */
+    public Segment withForwardIndex(boolean enabled) {
+        if (enabled == (forwardIndex != null)) {
+            return this;
+        }
+        if (!enabled) {
+            return new Segment(number, firstDocId, documentCount, terms, postings, null, positionOffsets);
+        }
+        // Invert the postings: collect each document's terms, then encode one entry per document
+        ForwardIndex.EntryWriter[] writers = new ForwardIndex.EntryWriter[documentCount];
+        for (int termId = 0; termId < postings.size(); termId++) {
+            PostingsIterator it = postings.get(termId).iterator();
+            while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+                int local = it.docId() - firstDocId;
+                if (writers[local] == null) {
+                    writers[local] = new ForwardIndex.EntryWriter();
+                }
+                writers[local].addTerm(termId, it.positions(), it.freq());
+            }
+        }
+        ForwardIndex built = new ForwardIndex();
+        for (int local = 0; local < documentCount; local++) {
+            if (writers[local] != null) {
+                built.put(local, writers[local].toBytes());
+                writers[local] = null;
+            }
+        }
+        return new Segment(number, firstDocId, documentCount, terms, postings, built, positionOffsets);
+    }
+
+    /**
+     * Returns a copy of this segment whose term dictionary, posting lists, forward index and
+     * position offsets are read in place from a new {@link OffHeapArena}, laid out as the sections
+     * of a {@link SegmentFile}, so the segment leaves almost nothing on the heap. Parts read from a
+     * mapped file or another arena already are shared, not copied. Returns this segment if no part
+     * of it is on the heap.
+     */
+    public Segment offHeap() {
+        if (isOffHeap()) {
+            return this;
+        }
+        if (terms instanceof HashTermDictionary) {
+            // Only a .ser import has unsorted terms; sorting renumbers the lists and the forward index
+            return sorted(number, firstDocId, documentCount, terms, postings, forwardIndex, positionOffsets).offHeap();
+        }
+        OffHeapArena target = new OffHeapArena();
+        Segment copy = new Segment(number, firstDocId, documentCount,
+                terms instanceof FrontCodedTermDictionary ? ((FrontCodedTermDictionary) terms).offHeapCopy(target) : terms,
+                postings instanceof SegmentFile.MappedPostings ? postings : SegmentFile.MappedPostings.copyOf(postings, target),
+                forwardIndex != null ? forwardIndex.offHeapCopy(target, documentCount) : null,
+                positionOffsets.offHeapCopy(target, documentCount));
+        copy.arena = target;
+        copy.file = file;
+        return copy;
+    }
+
+    /**
+     * Returns true if no part of the segment is on the heap: it is read from a mapped file or an arena.
+     */
+    public boolean isOffHeap() {
+        return postings instanceof SegmentFile.MappedPostings
+                && (!(terms instanceof FrontCodedTermDictionary) || ((FrontCodedTermDictionary) terms).isDirect())
+                && (forwardIndex == null || forwardIndex.isReadOnly())
+                && positionOffsets.isReadOnly();
+    }
+
+    /**
+     * Returns the bytes this segment allocated off the heap, 0 if it is on the heap or mapped from its file.
+     */
+    public long offHeapBytes() {
+        return arena == null ? 0 : arena.allocatedBytes();
+    }
+
+    /**
+     * Frees the memory {@link #offHeap()} allocated for this segment. The segment must not be read
+     * afterwards, so an index hands the segments it removes to {@link SegmentReaders}, which closes
+     * them once no query can still be reading them. A segment derived
+     * from it, e.g. by {@link #withCodec(PostingsCodec, BitSet)}, shares the parts it did not
+     * replace without owning them; those are freed by the garbage collector once neither segment is
+     * reachable. Closing a segment on the heap or mapped from its file does nothing.
+     */
+    @Override
+    public void close() {
+        if (arena != null) {
+            arena.close();
+        }
+    }
+
+    // Checks the size of a section; like those of a segment file, sections are read with int offsets
+    static int sectionSize(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("A segment section of " + bytes + " bytes does not fit in 2 GB");
+        }
+        return (int) bytes;
+    }
+
+    /**
+     * Returns a copy of this segment with every posting list re-encoded with the given codec.
+     * The postings of deleted documents are dropped on the way.
+     */
+    public Segment withCodec(PostingsCodec codec, BitSet deleted) {
+        List<PostingList> reencoded = new ArrayList<>(postings.size());
+        for (PostingList postingList : postings) {
+            reencoded.add(PostingListBuilder.from(postingList, deleted).build(codec));
+        }
+        return new Segment(number, firstDocId, documentCount, terms, reencoded, forwardIndex, positionOffsets);
+    }
+
+    /**
+     * Merges adjacent segments into one that covers all their documents. The postings, forward
+     * entries and position offsets of deleted documents are dropped, and so are terms left without documents.
+     *
+     * @param number   The number of the new segment.
+     * @param segments The segments to merge, in document ID order.
+     * @param deleted  The deleted documents.
+     * @param codec    The codec of the new posting lists.
+     * @return The merged segment.
+     */
+    static Segment merge(int number, List<Segment> segments, BitSet deleted, PostingsCodec codec) {
+        int firstDocId = segments.get(0).firstDocId;
+        int documentCount = 0;
+        boolean withForwardIndex = true;
+        for (Segment segment : segments) {
+            if (segment.firstDocId != firstDocId + documentCount) {
+                throw new IllegalArgumentException("Only adjacent segments can be merged");
+            }
+            documentCount += segment.documentCount;
+            withForwardIndex &= segment.forwardIndex != null;
+        }
+
+        HashTermDictionary terms = new HashTermDictionary();
+        List<PostingListBuilder> builders = new ArrayList<>();
+        ForwardIndex forwardIndex = withForwardIndex ? new ForwardIndex() : null;
+        PositionOffsets positionOffsets = new PositionOffsets();
+        for (Segment segment : segments) {
+            // Segments cover increasing document IDs, so every list is appended to in order
+            int[] newTermIds = new int[segment.terms.size()];
+            for (int termId = 0; termId < newTermIds.length; termId++) {
+                PostingsIterator it = segment.postings.get(termId).iterator(deleted);
+                if (it.nextDoc() == DocIterator.NO_MORE_DOCS) {
+                    continue; // only deleted documents contain the term
+                }
+                int newTermId = terms.getOrAdd(segment.terms.getTerm(termId));
+                newTermIds[termId] = newTermId;
+                if (newTermId == builders.size()) {
+                    builders.add(new PostingListBuilder());
+                }
+                PostingListBuilder builder = builders.get(newTermId);
+                do {
+                    builder.add(it.docId(), it.positions(), it.freq());
+                } while (it.nextDoc() != DocIterator.NO_MORE_DOCS);
+            }
+
+            for (int docId = segment.firstDocId; docId <= segment.getLastDocId(); docId++) {
+                if (deleted.get(docId)) {
+                    continue;
+                }
+                int local = docId - firstDocId;
+                if (forwardIndex != null) {
+                    ForwardIndex.EntryWriter writer = new ForwardIndex.EntryWriter();
+                    if (segment.forEachTerm(docId, (termId, positions, count) -> writer.addTerm(newTermIds[termId], positions, count))) {
+                        forwardIndex.put(local, writer.toBytes());
+                    }
+                }
+                int checkpointCount = segment.getCheckpointCount(docId);
+                if (checkpointCount > 0) {
+                    int[] checkpoints = new int[checkpointCount];
+                    for (int i = 0; i < checkpointCount; i++) {
+                        checkpoints[i] = segment.getCheckpoint(docId, i);
+                    }
+                    positionOffsets.put(local, checkpoints);
+                }
+            }
+        }
+
+        List<PostingList> postings = new ArrayList<>(builders.size());
+        for (int termId = 0; termId < builders.size(); termId++) {
+            postings.add(builders.get(termId).build(codec));
+            builders.set(termId, null);
+        }
+        return sorted(number, firstDocId, documentCount, terms, postings, forwardIndex, positionOffsets);
+    }
+
+    private long computeSize() {
+        long bytes = 0;
+        for (PostingList postingList : postings) {
+            bytes += postingList.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "segment " + number + " (documents " + firstDocId + "-" + getLastDocId() + ", "
+                + terms.size() + " terms, " + sizeInBytes + " bytes)";
+    }
+
+    // Mapped dictionaries and posting lists are written as heap copies
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(terms instanceof HashTermDictionary ? terms : HashTermDictionary.copyOf(terms));
+        out.writeObject(new ArrayList<>(postings));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        terms = (TermDictionary) in.readObject();
+        postings = (List<PostingList>) in.readObject();
+        positionOffsets = new PositionOffsets(); // not in .ser files; snippets read whole documents
+        sizeInBytes = computeSize();
+    }
+}
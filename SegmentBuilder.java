@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SegmentBuilder class collects, in memory, the documents added to an index since its last flush,
+ * and turns them into a new immutable {@link Segment}. Documents get consecutive IDs starting at
+ * the first ID after the last segment, so every segment covers its own range of document IDs.
+ */
+public class SegmentBuilder {
+    // Estimated heap bytes of a new term: its string, dictionary entries and an empty PostingListBuilder
+    private static final int TERM_OVERHEAD = 240;
+    // Estimated heap bytes of a posting besides its positions: docID, position start and array slack
+    private static final int POSTING_OVERHEAD = 12;
+    private final int firstDocId;
+    private final HashTermDictionary terms = new HashTermDictionary();
+    private final List<PostingListBuilder> postings = new ArrayList<>(); // termID -> postings being built
+    private final ForwardIndex forwardIndex;  // local docID -> terms and positions; null unless enabled
+    private final PositionOffsets positionOffsets = new PositionOffsets();
+    private int documentCount;
+    private long estimatedBytes;
+
+    /**
+     * @param firstDocId          The ID of the first document of the segment.
+     * @param forwardIndexEnabled True to build a forward index too.
+     */
+    public SegmentBuilder(int firstDocId, boolean forwardIndexEnabled) {
+        this.firstDocId = firstDocId;
+        this.forwardIndex = forwardIndexEnabled ? new ForwardIndex() : null;
+    }
+
+    public int getFirstDocId() {
+        return firstDocId;
+    }
+
+    /**
+     * Returns the number of document IDs added so far.
+     */
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public boolean isEmpty() {
+        return documentCount == 0;
+    }
+
+    /**
+     * Returns an estimate of the heap bytes the collected postings, forward entries and position
+     * offsets take; a memory-bounded build flushes once it reaches its budget.
+     */
+    public long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Adds the postings of a document. Adding a document ID a second time appends to it.
+     *
+     * @param docId          The document ID, at least the first ID of the segment.
+     * @param positionsByTerm The positions of each term in the document.
+     * @param checkpoints    The position offsets of the document, or null if it has none.
+     */
+    public void add(int docId, Map<String, IntList> positionsByTerm, int[] checkpoints) {
+        if (docId < firstDocId) {
+            throw new IllegalArgumentException("Document " + docId + " belongs to an earlier segment");
+        }
+        int local = docId - firstDocId;
+        documentCount = Math.max(documentCount, local + 1);
+        positionOffsets.put(local, checkpoints);
+        estimatedBytes += 8 + (checkpoints == null ? 0 : 16 + checkpoints.length * 4L);
+        ForwardIndex.EntryWriter forwardEntry = forwardIndex == null ? null : new ForwardIndex.EntryWriter();
+        if (forwardEntry != null) {
+            // Same lower-cased name in two files: keep the terms of the earlier file too
+            forwardIndex.forEachTerm(local, forwardEntry::addTerm);
+        }
+        for (Map.Entry<String, IntList> entry : positionsByTerm.entrySet()) {
+            int termId = terms.getOrAdd(entry.getKey());
+            if (termId == postings.size()) {
+                postings.add(new PostingListBuilder());
+                estimatedBytes += TERM_OVERHEAD + 2L * entry.getKey().length();
+            }
+            IntList positions = entry.getValue();
+            estimatedBytes += POSTING_OVERHEAD + positions.size() * 6L; // arrays grow by doubling, so a third is slack
+            postings.get(termId).add(docId, positions.array(), positions.size());
+            if (forwardEntry != null) {
+                forwardEntry.addTerm(termId, positions.array(), positions.size());
+            }
+        }
+        if (forwardEntry != null) {
+            byte[] bytes = forwardEntry.toBytes();
+            forwardIndex.put(local, bytes);
+            estimatedBytes += 24 + bytes.length;
+        }
+    }
+
+    /**
+     * Encodes the collected postings into a segment with a sorted term dictionary. The builder must not be used afterwards.
+     *
+     * @param number The number of the new segment.
+     * @param codec  The codec of the posting lists.
+     */
+    public Segment build(int number, PostingsCodec codec) {
+        List<PostingList> encoded = new ArrayList<>(postings.size());
+        for (int termId = 0; termId < postings.size(); termId++) {
+            encoded.add(postings.get(termId).build(codec));
+            postings.set(termId, null); // release the build-time arrays as we go
+        }
+        return Segment.sorted(number, firstDocId, documentCount, terms, encoded, forwardIndex, positionOffsets);
+    }
+}
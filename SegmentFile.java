@@ -0,0 +1,545 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * SegmentFile class reads and writes the file of one {@link Segment}. A segment file is written
+ * once, when the segment is first saved, and is memory-mapped and read in place when opened.
+ * The segment files of an index sit next to its {@link IndexFile}, which lists them.
+ *
+ * Format, version 3 (all numbers big-endian):
+ * <pre>
+ * Header, 96 bytes:
+ *   int  magic "ESEG" (0x45534547)
+ *   int  format version
+ *   int  flags (bit 1: forward index present, bit 2: position offsets present)
+ *   int  segment number
+ *   int  first document ID
+ *   int  document count
+ *   int  term count
+ *   int  reserved, 0
+ *   long term dictionary offset
+ *   long postings offset
+ *   long forward index offset, 0 if absent
+ *   long position offsets offset, 0 if absent
+ *   long file length
+ *   long CRC32 of all bytes after the header
+ *   16 reserved bytes, 0
+ * Term dictionary (see {@link FrontCodedTermDictionary}):
+ *   the terms sorted by unsigned bytes, front coded in blocks, and again reversed for suffix lookups
+ * Postings, in term dictionary order:
+ *   long[term count + 1] offsets into the posting data, then the encoded posting lists (see {@link PostingList}),
+ *   those of frequent terms ending with their documents as a {@link RoaringDocSet}
+ * Forward index, if present, by document ID relative to the first document:
+ *   long[document count + 1] offsets into the entry data, then the entries (see {@link ForwardIndex}),
+ *   with term IDs already translated to the dictionary order of this file
+ * Position offsets, if present (see {@link PositionOffsets}), by document ID relative to the first document:
+ *   int[document count + 1] index of each document's first checkpoint, then all checkpoints
+ * </pre>
+ * A term's ID is its rank in the sorted dictionary. Each section must be smaller than 2 GB.
+ * Version 1 files, whose term dictionary is {@code int[term count + 1]} offsets followed by the
+ * plain term bytes (see {@link MappedTermDictionary}), are still read, and so are version 2
+ * files, whose posting lists never end with a document set.
+ */
+public class SegmentFile {
+    static final int MAGIC = 0x45534547;
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 96;
+    static final int FLAG_FORWARD_INDEX = 2;
+    static final int FLAG_POSITION_OFFSETS = 4;
+
+    /**
+     * Returns the file of a segment of the index stored in indexFilePath: the index file name
+     * without its ".idx" extension, followed by "_" and the segment number and ".seg".
+     */
+    public static File path(String indexFilePath, int number) {
+        File indexFile = new File(indexFilePath).getAbsoluteFile();
+        return new File(indexFile.getParentFile(), baseName(indexFile) + "_" + number + ".seg");
+    }
+
+    /**
+     * Returns true if the file name has the form of a segment file of the given index file.
+     */
+    static boolean isSegmentFileOf(File indexFile, String fileName) {
+        String prefix = baseName(indexFile) + "_";
+        if (!fileName.startsWith(prefix) || !fileName.endsWith(".seg") || fileName.length() <= prefix.length() + 4) {
+            return false;
+        }
+        for (int i = prefix.length(); i < fileName.length() - 4; i++) {
+            if (fileName.charAt(i) < '0' || fileName.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String baseName(File indexFile) {
+        String name = indexFile.getName();
+        return name.endsWith(".idx") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    /**
+     * Writes a segment to a file. The file is first written under a temporary name and then
+     * renamed, so readers never see a partially written segment.
+     */
+    public static void write(File target, Segment segment) throws IOException {
+        File temp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+        TermDictionary terms = segment.getTerms();
+        ForwardIndex forwardIndex = segment.getForwardIndex();
+        PositionOffsets positionOffsets = segment.getPositionOffsets();
+        int documentCount = segment.getDocumentCount();
+
+        // Terms are written in unsigned UTF-8 byte order; a term's new ID is its rank
+        int termCount = terms.size();
+        byte[][] termBytes = new byte[termCount][];
+        Integer[] order = new Integer[termCount];
+        for (int id = 0; id < termCount; id++) {
+            termBytes[id] = terms.getTerm(id).getBytes(StandardCharsets.UTF_8);
+            order[id] = id;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(termBytes[a], termBytes[b]));
+        int[] rankOf = new int[termCount];
+        for (int rank = 0; rank < termCount; rank++) {
+            rankOf[order[rank]] = rank;
+        }
+
+        CRC32 crc = new CRC32();
+        long termOffset, postingsOffset, forwardOffset = 0, offsetsOffset = 0, fileLength;
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(file, 1 << 16);
+            buffered.write(new byte[HEADER_SIZE]); // rewritten once the offsets are known
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+
+            termOffset = HEADER_SIZE;
+            if (terms instanceof FrontCodedTermDictionary) {
+                out.write(((FrontCodedTermDictionary) terms).toBytes()); // already sorted and encoded
+            } else {
+                List<String> sortedTerms = new ArrayList<>(termCount);
+                for (int rank = 0; rank < termCount; rank++) {
+                    sortedTerms.add(terms.getTerm(order[rank]));
+                }
+                out.write(FrontCodedTermDictionary.encode(sortedTerms));
+            }
+
+            postingsOffset = IndexFile.position(out, file);
+            long dataOffset = 0;
+            out.writeLong(0);
+            for (int rank = 0; rank < termCount; rank++) {
+                dataOffset += segment.getPostings(order[rank]).sizeInBytes();
+                out.writeLong(dataOffset);
+            }
+            byte[] chunk = new byte[8192];
+            for (int rank = 0; rank < termCount; rank++) {
+                ByteBuffer bytes = segment.getPostings(order[rank]).bytes();
+                while (bytes.hasRemaining()) {
+                    int length = Math.min(chunk.length, bytes.remaining());
+                    bytes.get(chunk, 0, length);
+                    out.write(chunk, 0, length);
+                }
+            }
+
+            if (forwardIndex != null) {
+                forwardOffset = IndexFile.position(out, file);
+                writeForwardIndex(out, forwardIndex, documentCount, rankOf);
+            }
+            offsetsOffset = IndexFile.position(out, file);
+            writePositionOffsets(out, positionOffsets, documentCount);
+            fileLength = IndexFile.position(out, file);
+        }
+
+        writeHeader(temp, forwardIndex != null, segment.getNumber(), segment.getFirstDocId(), documentCount, termCount,
+                new long[] {termOffset, postingsOffset, forwardOffset, offsetsOffset, fileLength}, crc.getValue());
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Fills in the header of a written file; offsets holds the term dictionary, postings, forward
+    // index and position offsets offsets, the latter two 0 if absent, then the file length
+    private static void writeHeader(File file, boolean withForwardIndex, int number, int firstDocId, int documentCount,
+                                    int termCount, long[] offsets, long crc) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt((withForwardIndex ? FLAG_FORWARD_INDEX : 0) | FLAG_POSITION_OFFSETS);
+            raf.writeInt(number);
+            raf.writeInt(firstDocId);
+            raf.writeInt(documentCount);
+            raf.writeInt(termCount);
+            raf.writeInt(0);
+            for (long offset : offsets) {
+                raf.writeLong(offset);
+            }
+            raf.writeLong(crc);
+        }
+    }
+
+    /**
+     * Copies the file a segment was written to or opened from to another file, under a temporary
+     * name first like {@link #write(File, Segment)}; used to save a segment whose file is elsewhere.
+     */
+    static void copy(File source, File target) throws IOException {
+        File temp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".tmp");
+        Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Merges adjacent segments into a new segment file and maps it, reading the segments in place
+     * and keeping only one posting list on the heap at a time: the sorted term dictionaries are
+     * merged k ways, and each term's list is built from the lists of the segments and written out
+     * before the next term is read. Only the merged terms and the offsets of the lists and forward
+     * entries are collected in memory, since the file starts with them. The postings, forward
+     * entries and position offsets of deleted documents are dropped, and so are terms left
+     * without documents.
+     *
+     * @param target   The file to write; two scratch files are written next to it meanwhile.
+     * @param number   The number of the new segment.
+     * @param segments The segments to merge, in document ID order.
+     * @param deleted  The deleted documents.
+     * @param codec    The codec of the new posting lists.
+     * @return The merged segment, mapped from target.
+     * @throws IOException If a file cannot be written.
+     */
+    public static Segment merge(File target, int number, List<Segment> segments, BitSet deleted, PostingsCodec codec)
+            throws IOException {
+        int firstDocId = segments.get(0).getFirstDocId();
+        int documentCount = 0;
+        boolean withForwardIndex = true;
+        for (Segment segment : segments) {
+            if (segment.getFirstDocId() != firstDocId + documentCount) {
+                throw new IllegalArgumentException("Only adjacent segments can be merged");
+            }
+            documentCount += segment.getDocumentCount();
+            withForwardIndex &= segment.hasForwardIndex();
+        }
+
+        File directory = target.getAbsoluteFile().getParentFile();
+        File temp = new File(directory, target.getName() + ".tmp");
+        File postingsScratch = new File(directory, target.getName() + ".postings.tmp");
+        File forwardScratch = new File(directory, target.getName() + ".forward.tmp");
+        try {
+            // The posting lists go to a scratch file as the terms are merged; the dictionary must precede them
+            List<String> terms = new ArrayList<>();
+            long[] postingsEnds = new long[1024];
+            int[][] newTermIds = new int[segments.size()][];
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(postingsScratch), 1 << 16))) {
+                PriorityQueue<TermCursor> queue = new PriorityQueue<>();
+                for (int i = 0; i < segments.size(); i++) {
+                    newTermIds[i] = new int[segments.get(i).getTerms().size()];
+                    TermCursor cursor = new TermCursor(i, segments.get(i).getTerms().sortedTerms().iterator());
+                    if (cursor.next()) {
+                        queue.add(cursor);
+                    }
+                }
+                long dataOffset = 0;
+                List<TermCursor> current = new ArrayList<>();
+                while (!queue.isEmpty()) {
+                    String term = queue.peek().term;
+                    while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+                        current.add(queue.poll()); // in segment order, so documents are added in ID order
+                    }
+                    PostingListBuilder builder = new PostingListBuilder();
+                    for (TermCursor cursor : current) {
+                        Segment segment = segments.get(cursor.segment);
+                        PostingsIterator it = segment.getPostings(segment.getTerms().getId(term)).iterator(deleted);
+                        while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+                            builder.add(it.docId(), it.positions(), it.freq());
+                        }
+                    }
+                    if (builder.getDocumentFrequency() > 0) {
+                        for (TermCursor cursor : current) {
+                            newTermIds[cursor.segment][segments.get(cursor.segment).getTerms().getId(term)] = terms.size();
+                        }
+                        ByteBuffer bytes = builder.build(codec).bytes();
+                        dataOffset += bytes.remaining();
+                        if (terms.size() == postingsEnds.length) {
+                            postingsEnds = Arrays.copyOf(postingsEnds, postingsEnds.length * 2);
+                        }
+                        postingsEnds[terms.size()] = dataOffset;
+                        terms.add(term);
+                        out.write(bytes.array(), bytes.arrayOffset(), bytes.remaining());
+                    }
+                    for (TermCursor cursor : current) {
+                        if (cursor.next()) {
+                            queue.add(cursor);
+                        }
+                    }
+                    current.clear();
+                }
+            }
+
+            // Forward entries are re-encoded with the merged term IDs, also to a scratch file
+            long[] forwardEnds = withForwardIndex ? new long[documentCount] : null;
+            if (withForwardIndex) {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(forwardScratch), 1 << 16))) {
+                    long offset = 0;
+                    int local = 0;
+                    for (int i = 0; i < segments.size(); i++) {
+                        Segment segment = segments.get(i);
+                        int[] termIds = newTermIds[i];
+                        for (int docId = segment.getFirstDocId(); docId <= segment.getLastDocId(); docId++, local++) {
+                            ForwardIndex.EntryWriter writer = new ForwardIndex.EntryWriter();
+                            if (!deleted.get(docId)
+                                    && segment.forEachTerm(docId, (termId, positions, count) -> writer.addTerm(termIds[termId], positions, count))) {
+                                byte[] entry = writer.toBytes();
+                                out.write(entry);
+                                offset += entry.length;
+                            }
+                            forwardEnds[local] = offset;
+                        }
+                    }
+                }
+            }
+
+            CRC32 crc = new CRC32();
+            long termOffset, postingsOffset, forwardOffset = 0, offsetsOffset, fileLength;
+            try (FileOutputStream file = new FileOutputStream(temp)) {
+                BufferedOutputStream buffered = new BufferedOutputStream(file, 1 << 16);
+                buffered.write(new byte[HEADER_SIZE]); // rewritten once the offsets are known
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+
+                termOffset = HEADER_SIZE;
+                out.write(FrontCodedTermDictionary.encode(terms));
+
+                postingsOffset = IndexFile.position(out, file);
+                out.writeLong(0);
+                for (int rank = 0; rank < terms.size(); rank++) {
+                    out.writeLong(postingsEnds[rank]);
+                }
+                Files.copy(postingsScratch.toPath(), out);
+
+                if (withForwardIndex) {
+                    forwardOffset = IndexFile.position(out, file);
+                    out.writeLong(0);
+                    for (long end : forwardEnds) {
+                        out.writeLong(end);
+                    }
+                    Files.copy(forwardScratch.toPath(), out);
+                }
+
+                offsetsOffset = IndexFile.position(out, file);
+                int start = 0;
+                out.writeInt(0);
+                for (Segment segment : segments) {
+                    for (int docId = segment.getFirstDocId(); docId <= segment.getLastDocId(); docId++) {
+                        start += deleted.get(docId) ? 0 : segment.getCheckpointCount(docId);
+                        out.writeInt(start);
+                    }
+                }
+                for (Segment segment : segments) {
+                    for (int docId = segment.getFirstDocId(); docId <= segment.getLastDocId(); docId++) {
+                        int count = deleted.get(docId) ? 0 : segment.getCheckpointCount(docId);
+                        for (int i = 0; i < count; i++) {
+                            out.writeInt(segment.getCheckpoint(docId, i));
+                        }
+                    }
+                }
+                fileLength = IndexFile.position(out, file);
+            }
+            writeHeader(temp, withForwardIndex, number, firstDocId, documentCount, terms.size(),
+                    new long[] {termOffset, postingsOffset, forwardOffset, offsetsOffset, fileLength}, crc.getValue());
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(postingsScratch.toPath());
+            Files.deleteIfExists(forwardScratch.toPath());
+            Files.deleteIfExists(temp.toPath());
+        }
+        return open(target, number, firstDocId, documentCount, false);
+    }
+
+    // The next term of one segment's sorted dictionary in a k-way merge; ties go to the earlier segment
+    private static class TermCursor implements Comparable<TermCursor> {
+        final int segment;
+        final Iterator<String> terms;
+        String term;
+
+        TermCursor(int segment, Iterator<String> terms) {
+            this.segment = segment;
+            this.terms = terms;
+        }
+
+        boolean next() {
+            term = terms.hasNext() ? terms.next() : null;
+            return term != null;
+        }
+
+        @Override
+        public int compareTo(TermCursor other) {
+            int order = FrontCodedTermDictionary.compare(term, other.term);
+            return order != 0 ? order : Integer.compare(segment, other.segment);
+        }
+    }
+
+    // Re-encodes the forward entries with term IDs translated to dictionary ranks
+    private static void writeForwardIndex(DataOutputStream out, ForwardIndex forwardIndex, int documentCount,
+                                          int[] rankOf) throws IOException {
+        byte[][] entries = new byte[documentCount][];
+        for (int docId = 0; docId < documentCount; docId++) {
+            ForwardIndex.EntryWriter writer = new ForwardIndex.EntryWriter();
+            boolean present = forwardIndex.forEachTerm(docId, (termId, positions, count) -> writer.addTerm(rankOf[termId], positions, count));
+            entries[docId] = present ? writer.toBytes() : new byte[0];
+        }
+        long offset = 0;
+        out.writeLong(0);
+        for (byte[] entry : entries) {
+            offset += entry.length;
+            out.writeLong(offset);
+        }
+        for (byte[] entry : entries) {
+            out.write(entry);
+        }
+    }
+
+    private static void writePositionOffsets(DataOutputStream out, PositionOffsets positionOffsets, int documentCount)
+            throws IOException {
+        int start = 0;
+        out.writeInt(0);
+        for (int docId = 0; docId < documentCount; docId++) {
+            start += positionOffsets.getCheckpointCount(docId);
+            out.writeInt(start);
+        }
+        for (int docId = 0; docId < documentCount; docId++) {
+            for (int i = 0; i < positionOffsets.getCheckpointCount(docId); i++) {
+                out.writeInt(positionOffsets.getCheckpoint(docId, i));
+            }
+        }
+    }
+
+    /**
+     * Maps a segment file into memory.
+     *
+     * @param file           The segment file.
+     * @param number         The segment number the index file expects.
+     * @param firstDocId     The first document ID the index file expects.
+     * @param documentCount  The document count the index file expects.
+     * @param verifyChecksum True to read the whole file once and check its CRC32.
+     * @return The segment.
+     * @throws IOException If the file cannot be read or does not hold the expected segment.
+     */
+    public static Segment open(File file, int number, int firstDocId, int documentCount, boolean verifyChecksum)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(file + " is not a segment file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a segment file");
+            }
+            int version = header.getInt(4);
+            if (version < 1 || version > VERSION) {
+                throw new IOException(file + " has unsupported format version " + version);
+            }
+            int flags = header.getInt(8);
+            if (header.getInt(12) != number || header.getInt(16) != firstDocId || header.getInt(20) != documentCount) {
+                throw new IOException(file + " does not hold segment " + number + " of the index");
+            }
+            int termCount = header.getInt(24);
+            long termOffset = header.getLong(32);
+            long postingsOffset = header.getLong(40);
+            long forwardOffset = (flags & FLAG_FORWARD_INDEX) != 0 ? header.getLong(48) : 0;
+            long offsetsOffset = (flags & FLAG_POSITION_OFFSETS) != 0 ? header.getLong(56) : 0;
+            long fileLength = header.getLong(64);
+            if (fileLength != channel.size()) {
+                throw new IOException(file + " is truncated: expected " + fileLength + " bytes, found " + channel.size());
+            }
+
+            long offsetsEnd = fileLength;
+            long forwardEnd = offsetsOffset != 0 ? offsetsOffset : offsetsEnd;
+            long postingsEnd = forwardOffset != 0 ? forwardOffset : forwardEnd;
+            MappedByteBuffer termSection = IndexFile.map(channel, termOffset, postingsOffset);
+            MappedByteBuffer postingsSection = IndexFile.map(channel, postingsOffset, postingsEnd);
+            MappedByteBuffer forwardSection = forwardOffset != 0 ? IndexFile.map(channel, forwardOffset, forwardEnd) : null;
+            MappedByteBuffer offsetsSection = offsetsOffset != 0 ? IndexFile.map(channel, offsetsOffset, offsetsEnd) : null;
+
+            if (verifyChecksum) {
+                CRC32 crc = new CRC32();
+                crc.update(termSection.duplicate());
+                crc.update(postingsSection.duplicate());
+                if (forwardSection != null) {
+                    crc.update(forwardSection.duplicate());
+                }
+                if (offsetsSection != null) {
+                    crc.update(offsetsSection.duplicate());
+                }
+                if (crc.getValue() != header.getLong(72)) {
+                    throw new IOException(file + " is corrupt: checksum mismatch");
+                }
+            }
+
+            // The mappings stay valid after the channel is closed
+            Segment segment = new Segment(number, firstDocId, documentCount,
+                    version == 1 ? new MappedTermDictionary(termSection, termCount) : new FrontCodedTermDictionary(termSection),
+                    new MappedPostings(postingsSection, termCount),
+                    forwardSection != null ? new ForwardIndex(forwardSection, documentCount) : null,
+                    offsetsSection != null ? new PositionOffsets(offsetsSection, documentCount) : new PositionOffsets());
+            segment.setFile(file.getAbsoluteFile());
+            return segment;
+        }
+    }
+
+    // Posting lists of a mapped file or an arena; each get() wraps a slice of the section without copying it
+    static class MappedPostings extends AbstractList<PostingList> {
+        private final ByteBuffer section;
+        private final int termCount;
+        private final int dataStart;
+
+        MappedPostings(ByteBuffer section, int termCount) {
+            this.section = section;
+            this.termCount = termCount;
+            this.dataStart = (termCount + 1) * 8;
+        }
+
+        // Copies posting lists into a section of an arena, laid out as in a segment file
+        static MappedPostings copyOf(List<PostingList> postings, OffHeapArena arena) {
+            int termCount = postings.size();
+            long dataBytes = 0;
+            for (PostingList postingList : postings) {
+                dataBytes += postingList.sizeInBytes();
+            }
+            ByteBuffer section = arena.allocate(Segment.sectionSize((termCount + 1) * 8L + dataBytes));
+            long dataOffset = 0;
+            section.putLong(0);
+            for (PostingList postingList : postings) {
+                dataOffset += postingList.sizeInBytes();
+                section.putLong(dataOffset);
+            }
+            for (PostingList postingList : postings) {
+                section.put(postingList.bytes());
+            }
+            return new MappedPostings(section.clear(), termCount);
+        }
+
+        @Override
+        public PostingList get(int termId) {
+            int start = dataStart + (int) section.getLong(termId * 8);
+            int end = dataStart + (int) section.getLong(termId * 8 + 8);
+            ByteBuffer slice = section.duplicate();
+            slice.position(start).limit(end);
+            return new PostingList(slice);
+        }
+
+        @Override
+        public int size() {
+            return termCount;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SegmentReaders class defers closing the segments an {@link InvertedIndex} no longer lists until
+ * no query that may still be reading them is running, so freeing a segment's {@link OffHeapArena}
+ * never pulls memory from under a reader.
+ *
+ * Every read of the segments happens between {@link #enter()} and the close of the returned
+ * {@link Generation}. Retiring segments starts a new generation, and the retired segments are
+ * closed once the generation they were retired in, and every earlier one, has no reader left.
+ * Queries that start later only see the segments that replaced them, so a steady stream of
+ * queries never holds back the memory of segments retired before it started.
+ */
+public class SegmentReaders {
+    private final ArrayDeque<Generation> generations = new ArrayDeque<>(); // oldest first; guarded by this
+    private volatile Generation current = new Generation();                 // the last of generations
+
+    public SegmentReaders() {
+        generations.add(current);
+    }
+
+    /**
+     * The readers that started while the same segments were listed. Closing it ends one read.
+     */
+    public final class Generation implements AutoCloseable {
+        private final AtomicInteger readers = new AtomicInteger();
+        private final List<Segment> retired = new ArrayList<>(); // closed once this generation is over; guarded by SegmentReaders.this
+
+        @Override
+        public void close() {
+            if (readers.decrementAndGet() == 0 && this != current) {
+                reclaim();
+            }
+        }
+    }
+
+    /**
+     * Starts a read of the segments; call it before reading the segment list, and close the
+     * generation once nothing read from the segments is used any more.
+     */
+    public Generation enter() {
+        while (true) {
+            Generation generation = current;
+            generation.readers.incrementAndGet();
+            if (generation == current) {
+                return generation;
+            }
+            generation.close(); // retired meanwhile: later retirements would not wait for it
+        }
+    }
+
+    /**
+     * Closes segments once no running read can still see them; call it after removing them from
+     * the segment list.
+     */
+    public void retire(Collection<Segment> segments) {
+        synchronized (this) {
+            current.retired.addAll(segments);
+            current = new Generation();
+            generations.add(current);
+        }
+        reclaim();
+    }
+
+    /**
+     * Returns the number of retired segments still waiting for their readers.
+     */
+    public synchronized int pendingSegments() {
+        int pending = 0;
+        for (Generation generation : generations) {
+            pending += generation.retired.size();
+        }
+        return pending;
+    }
+
+    // Closes the segments of the generations, oldest first, that no reader is left in
+    private void reclaim() {
+        List<Segment> closing = new ArrayList<>();
+        synchronized (this) {
+            while (generations.peekFirst() != current && generations.peekFirst().readers.get() == 0) {
+                closing.addAll(generations.pollFirst().retired);
+            }
+        }
+        for (Segment segment : closing) {
+            segment.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shard interface is one part of a {@link ShardedIndex}: an index over a subset of the corpus,
+ * either loaded in the coordinator's JVM ({@link LocalShard}) or served by another process
+ * ({@link RemoteShard}). The methods match those of {@link InvertedIndex}.
+ */
+public interface Shard extends Closeable {
+    int getDocumentCount() throws IOException;
+
+    Set<String> search(String query) throws IOException;
+
+    /**
+     * Returns the statistics of this shard for a query, see {@link InvertedIndex#getStatistics(String)}.
+     */
+    CollectionStatistics getStatistics(String query) throws IOException;
+
+    /**
+     * Returns the k best documents of this shard, scored with the statistics of all shards.
+     */
+    List<ScoredDocument> searchTopK(String query, int k, CollectionStatistics statistics) throws IOException;
+
+    Map<String, List<Integer>> searchWord(String word) throws IOException;
+
+    Map<String, List<Integer>> searchDocument(String document) throws IOException;
+
+    Map<String, Map<Integer, List<String>>> searchSnippets(String term, int snipRange, String corpusDirPath) throws IOException;
+}
@@ -0,0 +1,348 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * ShardServer class serves one shard of a {@link ShardedIndex} to a {@link RemoteShard} over a
+ * loopback TCP connection, so that the shards of an index can live in separate JVMs on one machine.
+ * A connection carries any number of requests, one at a time; the client opens several connections
+ * to send concurrent requests, and each connection is served on its own (virtual, if available) thread.
+ *
+ * Protocol (DataOutputStream encoding, strings as modified UTF-8):
+ * <pre>
+ * Request:  operation byte, then its arguments
+ *   DOCUMENT_COUNT                                 -> int
+ *   SEARCH      query                              -> int n, n * document
+ *   STATISTICS  query                              -> statistics
+ *   TOP_K       query, int k, statistics           -> int n, n * (document, double score)
+ *   WORD        word                               -> positions
+ *   DOCUMENT    document                           -> positions
+ *   SNIPPETS    term, int range, corpus directory  -> int n, n * (document, int m, m * (int position, int w, w * word))
+ * Response: OK byte, then the result; or ERROR byte, then a message
+ *
+ * statistics: int documents, long total length, int n, n * (term, int document frequency)
+ * positions:  int n, n * (name, int m, m * int position)
+ * </pre>
+ */
+public class ShardServer {
+    static final int DOCUMENT_COUNT = 1;
+    static final int SEARCH = 2;
+    static final int STATISTICS = 3;
+    static final int TOP_K = 4;
+    static final int WORD = 5;
+    static final int DOCUMENT = 6;
+    static final int SNIPPETS = 7;
+    static final int OK = 0;
+    static final int ERROR = 1;
+    static final String READY = "Shard listening on port "; // printed by main once requests are accepted
+
+    private final InvertedIndex index;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Thread acceptor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet(); // open connections, closed by stop
+
+    // The result of a request, written once the request has been answered successfully
+    private interface Reply {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * @param index The shard to serve.
+     * @param port  The TCP port on the loopback address; 0 picks a free one.
+     * @throws IOException If the port cannot be bound.
+     */
+    public ShardServer(InvertedIndex index, int port) throws IOException {
+        this.index = index;
+        this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        this.executor = SearchServer.newRequestExecutor();
+        this.acceptor = new Thread(this::accept, "shard-server-" + serverSocket.getLocalPort());
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    public void stop() throws IOException {
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                executor.execute(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            // The server socket was closed by stop
+        }
+    }
+
+    // Answers the requests of one connection until the client closes it
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            int operation;
+            while ((operation = in.read()) >= 0) {
+                Reply reply;
+                try {
+                    reply = handle(operation, in);
+                } catch (RuntimeException e) {
+                    out.writeByte(ERROR);
+                    out.writeUTF(e.getMessage() != null ? e.getMessage() : e.toString());
+                    out.flush();
+                    continue;
+                }
+                out.writeByte(OK);
+                reply.write(out);
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            // The client went away in the middle of a request
+        } catch (IOException e) {
+            System.err.println("Shard connection failed: " + e);
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    // Reads the arguments of a request and runs it; a RuntimeException fails the request but not the connection
+    private Reply handle(int operation, DataInputStream in) throws IOException {
+        switch (operation) {
+            case DOCUMENT_COUNT: {
+                int count = index.getDocumentCount();
+                return out -> out.writeInt(count);
+            }
+            case SEARCH: {
+                Set<String> documents = index.search(in.readUTF());
+                return out -> writeStrings(out, documents);
+            }
+            case STATISTICS: {
+                CollectionStatistics statistics = index.getStatistics(in.readUTF());
+                return out -> writeStatistics(out, statistics);
+            }
+            case TOP_K: {
+                String query = in.readUTF();
+                int k = in.readInt();
+                List<ScoredDocument> results = index.searchTopK(query, k, readStatistics(in));
+                return out -> writeScoredDocuments(out, results);
+            }
+            case WORD: {
+                Map<String, List<Integer>> positions = index.searchWord(in.readUTF());
+                return out -> writePositions(out, positions);
+            }
+            case DOCUMENT: {
+                Map<String, List<Integer>> positions = index.searchDocument(in.readUTF());
+                return out -> writePositions(out, positions);
+            }
+            case SNIPPETS: {
+                String term = in.readUTF();
+                int range = in.readInt();
+                String corpusDirPath = in.readUTF();
+                Map<String, Map<Integer, List<String>>> snippets;
+                try {
+                    snippets = index.searchSnippets(term, range, corpusDirPath);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e); // a corpus file, not the connection, failed
+                }
+                return out -> writeSnippets(out, snippets);
+            }
+            default:
+                // The arguments cannot be skipped, so the connection cannot go on
+                throw new IOException("Unknown shard operation: " + operation);
+        }
+    }
+
+    static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    static Set<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    static void writeStatistics(DataOutputStream out, CollectionStatistics statistics) throws IOException {
+        out.writeInt(statistics.getDocumentCount());
+        out.writeLong(statistics.getTotalLength());
+        out.writeInt(statistics.getDocumentFrequencies().size());
+        for (Map.Entry<String, Integer> entry : statistics.getDocumentFrequencies().entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    static CollectionStatistics readStatistics(DataInputStream in) throws IOException {
+        int documentCount = in.readInt();
+        long totalLength = in.readLong();
+        int count = in.readInt();
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            documentFrequencies.put(in.readUTF(), in.readInt());
+        }
+        return new CollectionStatistics(documentCount, totalLength, documentFrequencies);
+    }
+
+    static void writeScoredDocuments(DataOutputStream out, List<ScoredDocument> results) throws IOException {
+        out.writeInt(results.size());
+        for (ScoredDocument result : results) {
+            out.writeUTF(result.getName());
+            out.writeDouble(result.getScore());
+        }
+    }
+
+    static List<ScoredDocument> readScoredDocuments(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<ScoredDocument> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(new ScoredDocument(in.readUTF(), in.readDouble()));
+        }
+        return results;
+    }
+
+    static void writePositions(DataOutputStream out, Map<String, List<Integer>> positions) throws IOException {
+        out.writeInt(positions.size());
+        for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (int position : entry.getValue()) {
+                out.writeInt(position);
+            }
+        }
+    }
+
+    static Map<String, List<Integer>> readPositions(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int size = in.readInt();
+            List<Integer> list = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                list.add(in.readInt());
+            }
+            positions.put(name, list);
+        }
+        return positions;
+    }
+
+    static void writeSnippets(DataOutputStream out, Map<String, Map<Integer, List<String>>> snippets) throws IOException {
+        out.writeInt(snippets.size());
+        for (Map.Entry<String, Map<Integer, List<String>>> document : snippets.entrySet()) {
+            out.writeUTF(document.getKey());
+            out.writeInt(document.getValue().size());
+            for (Map.Entry<Integer, List<String>> snippet : document.getValue().entrySet()) {
+                out.writeInt(snippet.getKey());
+                writeStrings(out, snippet.getValue());
+            }
+        }
+    }
+
+    static Map<String, Map<Integer, List<String>>> readSnippets(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, Map<Integer, List<String>>> snippets = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String document = in.readUTF();
+            int size = in.readInt();
+            Map<Integer, List<String>> windows = new LinkedHashMap<>();
+            for (int j = 0; j < size; j++) {
+                int position = in.readInt();
+                int words = in.readInt();
+                List<String> window = new ArrayList<>(words);
+                for (int w = 0; w < words; w++) {
+                    window.add(in.readUTF());
+                }
+                windows.put(position, window);
+            }
+            snippets.put(document, windows);
+        }
+        return snippets;
+    }
+
+    /**
+     * Serves one shard index file until the process is stopped.
+     * Usage: java ShardServer --stopword=&lt;file&gt; --index=&lt;file&gt; [--port=&lt;number&gt;] [--exit-with-parent]
+     */
+    public static void main(String[] args) throws IOException {
+        String stopwordFile = null;      // Path to stopword file
+        String indexFilePath = null;     // The shard's index file
+        int port = 0;                    // Port on the loopback address; 0 for any free port
+        boolean exitWithParent = false;  // Exit when standard input closes, i.e. when the launching process is gone
+
+        for (String arg : args) {
+            if (arg.startsWith("--stopword=")) stopwordFile = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--index=")) indexFilePath = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.equals("--exit-with-parent")) exitWithParent = true;
+        }
+        if (stopwordFile == null || indexFilePath == null) {
+            System.err.println("Usage: java ShardServer --stopword=<file> --index=<file> [--port=<number>] [--exit-with-parent]");
+            System.exit(1);
+        }
+
+        InvertedIndex index = InvertedIndex.open(indexFilePath, stopwordFile);
+        if (index == null) {
+            System.err.println("Cannot open shard index " + indexFilePath);
+            System.exit(1);
+        }
+        ShardServer server = new ShardServer(index, port);
+        server.start();
+        if (exitWithParent) {
+            Thread watcher = new Thread(() -> {
+                try {
+                    while (System.in.read() >= 0) {
+                        // Nothing is sent; wait for the end of the stream
+                    }
+                } catch (IOException e) {
+                    // Treated like the end of the stream
+                }
+                System.exit(0);
+            }, "parent-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        System.out.println(READY + server.getPort());
+    }
+}
@@ -0,0 +1,384 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * ShardedIndex class partitions a corpus by document into shards, each a separate {@link InvertedIndex}
+ * with its own index file, and answers queries by sending them to all shards in parallel and merging
+ * the results (scatter-gather). A document belongs to the shard given by the hash of its lower-cased
+ * name, so every shard is about as large and a document always stays in the same shard.
+ *
+ * Shards are either loaded in this JVM ({@link LocalShard}) or served by other JVMs on the same machine
+ * ({@link RemoteShard}), so that no JVM has to hold the whole index. Ranked queries take two rounds:
+ * the shards first report their BM25 statistics for the query, then rank their documents with the
+ * sum, so the merged top k is the same as that of a single index over the whole corpus.
+ */
+public class ShardedIndex implements Closeable {
+    private final List<Shard> shards;
+    private final ExecutorService executor; // runs the requests to the shards
+
+    // One request to one shard
+    private interface ShardCall<T> {
+        T call(Shard shard) throws IOException;
+    }
+
+    /**
+     * @param shards The shards, in order: a document is looked up in shard {@link #shardOf(String, int)}.
+     */
+    public ShardedIndex(List<Shard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A sharded index needs at least one shard");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shard-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the shard a document belongs to.
+     *
+     * @param documentName The lower-cased file name of the document.
+     * @param shardCount   The number of shards.
+     */
+    public static int shardOf(String documentName, int shardCount) {
+        return Math.floorMod(documentName.hashCode(), shardCount); // String.hashCode is the same in every JVM
+    }
+
+    /**
+     * Returns the index file of one shard, e.g. {@code Index.shard2of4.idx} for {@code Index.idx}.
+     * Each shard count has its own files, so changing it builds a new set of shards.
+     */
+    public static String shardPath(String indexFilePath, int shard, int shardCount) {
+        int dot = indexFilePath.lastIndexOf('.');
+        if (dot <= indexFilePath.lastIndexOf(File.separatorChar)) {
+            dot = indexFilePath.length();
+        }
+        return indexFilePath.substring(0, dot) + ".shard" + shard + "of" + shardCount + indexFilePath.substring(dot);
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    public int getDocumentCount() throws IOException {
+        int count = 0;
+        for (int shardCount : scatter(Shard::getDocumentCount)) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the documents matching a query in any shard, see {@link InvertedIndex#search(String)}.
+     */
+    public Set<String> search(String query) throws IOException {
+        Set<String> results = new HashSet<>();
+        for (Set<String> shardResults : scatter(shard -> shard.search(query))) {
+            results.addAll(shardResults);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the k documents that best match a query over all shards, ranked by BM25 with the
+     * statistics of the whole corpus; see {@link InvertedIndex#searchTopK(String, int)}.
+     *
+     * @param query The query.
+     * @param k     The maximum number of results.
+     * @return The results, best first; equal scores keep the order of the shards.
+     */
+    public List<ScoredDocument> searchTopK(String query, int k) throws IOException {
+        CollectionStatistics statistics = null;
+        for (CollectionStatistics shardStatistics : scatter(shard -> shard.getStatistics(query))) {
+            statistics = statistics == null ? shardStatistics : statistics.add(shardStatistics);
+        }
+        CollectionStatistics global = statistics;
+        List<List<ScoredDocument>> shardResults = scatter(shard -> shard.searchTopK(query, k, global));
+
+        // Merge the sorted lists of the shards, taking the best head each time
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> {
+            int byScore = Double.compare(shardResults.get(b[0]).get(b[1]).getScore(), shardResults.get(a[0]).get(a[1]).getScore());
+            return byScore != 0 ? byScore : Integer.compare(a[0], b[0]);
+        });
+        for (int shard = 0; shard < shardResults.size(); shard++) {
+            if (!shardResults.get(shard).isEmpty()) {
+                heads.add(new int[] {shard, 0});
+            }
+        }
+        List<ScoredDocument> results = new ArrayList<>(k);
+        while (results.size() < k && !heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<ScoredDocument> list = shardResults.get(head[0]);
+            results.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the documents and positions of a word over all shards, see {@link InvertedIndex#searchWord(String)}.
+     */
+    public Map<String, List<Integer>> searchWord(String word) throws IOException {
+        Map<String, List<Integer>> result = new HashMap<>();
+        for (Map<String, List<Integer>> shardResult : scatter(shard -> shard.searchWord(word))) {
+            result.putAll(shardResult);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the words and positions of a document; only the shard holding it is asked.
+     */
+    public Map<String, List<Integer>> searchDocument(String document) throws IOException {
+        return shards.get(shardOf(document.toLowerCase(), shards.size())).searchDocument(document);
+    }
+
+    /**
+     * Returns the words around each occurrence of a term over all shards, see
+     * {@link InvertedIndex#searchSnippets(String, int, String)}.
+     */
+    public Map<String, Map<Integer, List<String>>> searchSnippets(String term, int snipRange, String corpusDirPath) throws IOException {
+        Map<String, Map<Integer, List<String>>> result = new LinkedHashMap<>();
+        for (Map<String, Map<Integer, List<String>>> shardResult : scatter(shard -> shard.searchSnippets(term, snipRange, corpusDirPath))) {
+            result.putAll(shardResult);
+        }
+        return result;
+    }
+
+    // Sends a request to every shard at once and returns their results in shard order
+    private <T> List<T> scatter(ShardCall<T> request) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            futures.add(executor.submit(() -> request.call(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Sharded query interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException("Sharded query failed", cause);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Closes every shard, stopping the processes of launched {@link RemoteShard}s.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        IOException failure = null;
+        for (Shard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Builds or opens the shards of an index, reconciling them with the corpus, and runs the queries
+     * of the command line on them. Called by {@link InvertedIndex#main(String[])} for {@code --shards}.
+     */
+    public static void main(String[] args) {
+        String stopwordFile = null;         // Path to stopword file
+        String corpusDirectory = null;     // Path to the directory containing documents
+        String queryFilePath = null;       // Path to the query file
+        String singleQuery = null;         // Single query from the command line
+        String searchOutputFile = null;    // File to save search results
+        String snippetOutputFile = null;   // File to save snippets
+        int snippetRange = 0;              // Range for generating snippets
+        int threadCount = 1;               // Worker threads used to build each shard
+        int topK = 0;                      // Number of ranked results per query; 0 for unranked boolean search
+        int mergeThreads = 1;              // Segment merges that can run at the same time, per shard
+        int maxBufferedDocuments = 0;      // Documents per flushed segment; 0 for the default
+        int shardCount = 0;                // Number of shards
+        List<String> shardJvmOptions = new ArrayList<>(); // Options of the shard JVMs
+        PostingsCodec postingsCodec = PostingsCodec.VARINT; // Compression of the posting lists
+        boolean shardProcesses = false;    // Flag to serve every shard from its own JVM
+        boolean enableForwardIndex = false; // Flag to keep a document -> terms index
+        boolean offHeap = false;           // Flag to keep built and merged segments off the heap
+        long memoryBudgetMegabytes = 0;    // Heap budget of each shard's build; 0 to build in memory
+        String spillDirectory = null;      // Directory of the spilled runs; null for the temporary directory
+        boolean enableStemming = false;    // Flag to enable stemming
+        boolean verbose = false;           // Flag to print every indexed document
+
+        for (String arg : args) {
+            if (arg.startsWith("--stopword=")) stopwordFile = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--corpus=")) corpusDirectory = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--query-file=")) queryFilePath = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--query=")) singleQuery = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--search-output=")) searchOutputFile = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--snip=")) snippetRange = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--snip-output=")) snippetOutputFile = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--codec=")) postingsCodec = PostingsCodec.fromName(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--threads=")) threadCount = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--k=")) topK = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--merge-threads=")) mergeThreads = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--max-buffered-docs=")) maxBufferedDocuments = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--shards=")) shardCount = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--shard-jvm-option=")) shardJvmOptions.add(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.equals("--shard-processes")) shardProcesses = true;
+            else if (arg.equals("--forward-index")) enableForwardIndex = true;
+            else if (arg.equals("--off-heap")) offHeap = true;
+            else if (arg.startsWith("--memory-budget-mb=")) memoryBudgetMegabytes = Long.parseLong(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.startsWith("--spill-dir=")) spillDirectory = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.equals("--stem") || arg.equals("-st")) enableStemming = true;
+            else if (arg.equals("--verbose")) verbose = true;
+        }
+
+        if (stopwordFile == null || shardCount < 1) {
+            System.err.println("Usage: java ShardedIndex --stopword=<file> --shards=<number> [--shard-processes] [--shard-jvm-option=<option>] [--corpus=<dir>] [--query-file=<file>] [--query=<query>] [--search-output=<file>] [--k=<number>] [--snip=<number>] [--snip-output=<file>] [--threads=<number>] [--merge-threads=<number>] [--max-buffered-docs=<number>] [--codec=varint|packed] [--forward-index] [--off-heap] [--memory-budget-mb=<number>] [--spill-dir=<dir>] [--verbose] [--stem]");
+            System.exit(1);
+        }
+
+        List<Shard> shards = new ArrayList<>(shardCount);
+        try {
+            String indexFilePath = enableStemming ? "InvertedIndexStemmed.idx" : "InvertedIndexNonStemmed.idx";
+            System.out.println("Stemming enabled: " + enableStemming);
+            System.out.println("Using " + shardCount + " shards of " + indexFilePath + (shardProcesses ? ", each in its own process" : ""));
+
+            // Open or build the shards one at a time, so only one is in memory while indexing
+            for (int shard = 0; shard < shardCount; shard++) {
+                String shardFilePath = shardPath(indexFilePath, shard, shardCount);
+                int owner = shard;
+                int total = shardCount;
+                Predicate<String> owns = name -> shardOf(name, total) == owner;
+                boolean outdated = IndexFile.isOutdated(shardFilePath);
+                if (outdated && corpusDirectory == null) {
+                    System.err.println(shardFilePath + " was written by an older version of the index format. Run again with --corpus=<dir> to rebuild it.");
+                    closeShards(shards);
+                    System.exit(1);
+                }
+                InvertedIndex index = outdated ? null : InvertedIndex.open(shardFilePath, stopwordFile);
+                if (index == null) {
+                    if (outdated) {
+                        System.out.println(shardFilePath + " was written by an older version and will be rebuilt from " + corpusDirectory);
+                    }
+                    index = new InvertedIndex(stopwordFile, enableStemming);
+                    index.setVerbose(verbose);
+                    index.setPostingsCodec(postingsCodec);
+                    index.setForwardIndexEnabled(enableForwardIndex);
+                    index.setOffHeap(offHeap);
+                    index.setMemoryBudget(memoryBudgetMegabytes << 20, spillDirectory != null ? new File(spillDirectory) : null);
+                    index.setMergeThreads(mergeThreads);
+                    if (maxBufferedDocuments > 0) {
+                        index.setMaxBufferedDocuments(maxBufferedDocuments);
+                    }
+                    if (corpusDirectory != null) {
+                        index.buildIndex(corpusDirectory, threadCount, owns);
+                    }
+                    index.waitForMerges();
+                    index.save(shardFilePath);
+                } else {
+                    index.setVerbose(verbose);
+                    index.setOffHeap(offHeap);
+                    index.setMemoryBudget(memoryBudgetMegabytes << 20, spillDirectory != null ? new File(spillDirectory) : null);
+                    index.setMergeThreads(mergeThreads);
+                    if (corpusDirectory != null && index.reconcile(corpusDirectory, threadCount, owns)) {
+                        index.waitForMerges();
+                        index.save(shardFilePath);
+                    }
+                }
+
+                if (shardProcesses) {
+                    index.waitForMerges();
+                    RemoteShard remote = RemoteShard.launch(shardFilePath, stopwordFile, shardJvmOptions);
+                    System.out.println("Shard " + shard + " is served by the " + remote);
+                    shards.add(remote);
+                } else {
+                    shards.add(new LocalShard(index));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeShards(shards);
+            return;
+        }
+
+        try (ShardedIndex index = new ShardedIndex(shards)) {
+            System.out.println("Sharded index has " + index.getDocumentCount() + " documents.");
+
+            List<String> queries = new ArrayList<>();
+            if (queryFilePath != null) {
+                queries = InvertedIndex.readQueriesFromFile(queryFilePath);
+            } else if (singleQuery != null) {
+                queries.add(singleQuery);
+            }
+
+            // Queries run one after the other, each on all shards at once
+            long start = System.nanoTime();
+            if (searchOutputFile != null && topK > 0) {
+                Map<String, List<ScoredDocument>> rankedResults = new LinkedHashMap<>();
+                for (String query : queries) {
+                    rankedResults.put(query, index.searchTopK(query, topK));
+                }
+                System.out.printf("Processed %d ranked queries on %d shards in %.1f ms%n",
+                        queries.size(), shardCount, (System.nanoTime() - start) / 1e6);
+                InvertedIndex.saveRankedSearchResults(rankedResults, searchOutputFile);
+            } else if (searchOutputFile != null) {
+                Map<String, Set<String>> queryResults = new LinkedHashMap<>();
+                for (String query : queries) {
+                    queryResults.put(query, index.search(query));
+                }
+                System.out.printf("Processed %d queries on %d shards in %.1f ms%n",
+                        queries.size(), shardCount, (System.nanoTime() - start) / 1e6);
+                InvertedIndex.saveFormattedSearchResults(queryResults, searchOutputFile);
+            }
+
+            if (snippetRange > 0 && snippetOutputFile != null) {
+                System.out.println("Extracting snippets for " + queries.size() + " queries from " + shardCount + " shards");
+                for (String query : queries) {
+                    InvertedIndex.saveSnippets(index.searchSnippets(query, snippetRange, corpusDirectory), snippetOutputFile, query);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void closeShards(List<Shard> shards) {
+        for (Shard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close " + shard + ": " + e.getMessage());
+            }
+        }
+    }
+}
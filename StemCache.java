@@ -0,0 +1,72 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StemCache class is a bounded, thread-safe cache from words to their stems, shared by the
+ * indexing threads and the queries. It is a fixed-size table where each word has one slot,
+ * chosen by its hash; a new word simply replaces whatever was in its slot. Slots hold immutable
+ * entries and are read and written without locks, so a racing reader sees either the old or the
+ * new entry, and at worst stems a word again.
+ */
+public class StemCache {
+    private static final StemCache SHARED = new StemCache(1 << 16);
+    private static final ThreadLocal<PorterStemmer> STEMMER = ThreadLocal.withInitial(PorterStemmer::new);
+
+    private final Entry[] slots;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static class Entry {
+        final String word;
+        final String stem;
+
+        Entry(String word, String stem) {
+            this.word = word;
+            this.stem = stem;
+        }
+    }
+
+    /**
+     * @param capacity The number of slots, rounded up to a power of two.
+     */
+    public StemCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the cache used by the index and the query parser.
+     */
+    public static StemCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the stem of a lower-case word, from the cache if possible.
+     *
+     * @param word The word.
+     * @return The stem.
+     */
+    public String stem(String word) {
+        int h = word.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        Entry entry = slots[slot];
+        if (entry != null && entry.word.equals(word)) {
+            hits.increment();
+            return entry.stem;
+        }
+        misses.increment();
+        String stem = STEMMER.get().stem(word);
+        slots[slot] = new Entry(word, stem);
+        return stem;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TermDictionary interface maps each distinct term to a dense integer term ID and back.
+ * Term IDs index the posting lists of an {@link InvertedIndex}.
+ */
+public interface TermDictionary {
+
+    /**
+     * Returns the ID of a term, assigning the next free ID if the term is new.
+     *
+     * @throws UnsupportedOperationException If the dictionary is read-only.
+     */
+    int getOrAdd(String term);
+
+    /**
+     * Returns the ID of a term, or -1 if the term is not in the dictionary.
+     */
+    int getId(String term);
+
+    String getTerm(int id);
+
+    int size();
+
+    /**
+     * Returns all terms; the order depends on the implementation.
+     */
+    Iterable<String> terms();
+
+    /**
+     * Returns all terms in dictionary order, see {@link FrontCodedTermDictionary#compare(String, String)}.
+     * Sorted dictionaries return their terms as they are; others sort a copy.
+     */
+    default Iterable<String> sortedTerms() {
+        List<String> sorted = new ArrayList<>(size());
+        for (String term : terms()) {
+            sorted.add(term);
+        }
+        sorted.sort(FrontCodedTermDictionary::compare);
+        return sorted;
+    }
+
+    /**
+     * Returns the terms starting with a prefix. Sorted dictionaries find them without a full scan.
+     */
+    default List<String> termsWithPrefix(String prefix) {
+        List<String> matches = new ArrayList<>();
+        for (String term : terms()) {
+            if (term.startsWith(prefix)) matches.add(term);
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the terms ending with a suffix. Dictionaries that keep their terms reversed find them without a full scan.
+     */
+    default List<String> termsWithSuffix(String suffix) {
+        List<String> matches = new ArrayList<>();
+        for (String term : terms()) {
+            if (term.endsWith(suffix)) matches.add(term);
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the terms a Levenshtein automaton accepts. Sorted dictionaries skip the terms whose
+     * prefix already rules them out; this default runs the automaton on every term.
+     */
+    default List<String> termsWithin(LevenshteinAutomaton automaton) {
+        List<String> matches = new ArrayList<>();
+        for (String term : terms()) {
+            if (automaton.matches(term)) matches.add(term);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * TermPostings class is the postings of one term across all segments of an index: one
+ * {@link PostingList} per segment containing the term, in document ID order. The statistics add
+ * up the segments, so ranking sees the same numbers as it would for a single posting list.
+ * A copy made by {@link #decode(BitSet, boolean)} iterates over {@link DecodedPostings} instead.
+ */
+public class TermPostings {
+    private final PostingList[] parts;
+    private final int[] lastDocIds; // the last document ID covered by the segment of each part
+    private final DecodedPostings decoded; // the parts decoded once, or null
+
+    TermPostings(PostingList[] parts, int[] lastDocIds) {
+        this(parts, lastDocIds, null);
+    }
+
+    private TermPostings(PostingList[] parts, int[] lastDocIds, DecodedPostings decoded) {
+        this.parts = parts;
+        this.lastDocIds = lastDocIds;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Returns a copy with the same statistics whose iterators read the postings decoded once here,
+     * so iterating many times costs no decoding.
+     *
+     * @param deleted       The documents left out, or null to keep all.
+     * @param withPositions True to decode the positions too; otherwise the iterators have no positions.
+     */
+    public TermPostings decode(BitSet deleted, boolean withPositions) {
+        return new TermPostings(parts, lastDocIds, DecodedPostings.decode(iterator(deleted), withPositions));
+    }
+
+    /**
+     * Returns the decoded postings of a copy made by {@link #decode(BitSet, boolean)}, or null.
+     */
+    public DecodedPostings getDecoded() {
+        return decoded;
+    }
+
+    /**
+     * Returns the number of documents containing the term, including deleted ones.
+     */
+    public int getDocumentFrequency() {
+        int documentFrequency = 0;
+        for (PostingList part : parts) {
+            documentFrequency += part.getDocumentFrequency();
+        }
+        return documentFrequency;
+    }
+
+    /**
+     * Returns the number of occurrences of the term, including those in deleted documents.
+     */
+    public long getPositionCount() {
+        long positionCount = 0;
+        for (PostingList part : parts) {
+            positionCount += part.getPositionCount();
+        }
+        return positionCount;
+    }
+
+    /**
+     * Returns the highest frequency of the term in a single document.
+     */
+    public int getMaxFrequency() {
+        int maxFrequency = 0;
+        for (PostingList part : parts) {
+            maxFrequency = Math.max(maxFrequency, part.getMaxFrequency());
+        }
+        return maxFrequency;
+    }
+
+    /**
+     * Returns true if the term is frequent enough in some segment for its posting list there to
+     * store its documents as a {@link RoaringDocSet}.
+     */
+    public boolean hasDocSet() {
+        for (PostingList part : parts) {
+            if (part.hasDocSet()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the documents of the term in all segments as one set, including deleted documents,
+     * or null if {@link #hasDocSet()} is false. The lists of the segments where the term is too
+     * rare to store a set are read into it.
+     */
+    public RoaringDocSet getDocSet() {
+        if (!hasDocSet()) {
+            return null;
+        }
+        if (parts.length == 1) {
+            return parts[0].getDocSet();
+        }
+        List<RoaringDocSet> sets = new ArrayList<>(parts.length);
+        for (PostingList part : parts) {
+            RoaringDocSet set = part.getDocSet();
+            sets.add(set != null ? set : RoaringDocSet.of(part.iterator()));
+        }
+        return RoaringDocSet.or(sets); // segments cover disjoint ranges, so few containers are combined
+    }
+
+    /**
+     * Returns the number of segments the term occurs in.
+     */
+    public int getSegmentCount() {
+        return parts.length;
+    }
+
+    /**
+     * Returns a new iterator that skips the given documents.
+     *
+     * @param deleted The deleted documents, or null to skip none.
+     */
+    public PostingsIterator iterator(BitSet deleted) {
+        if (decoded != null) {
+            return decoded.iterator(deleted);
+        }
+        if (parts.length == 1) {
+            return parts[0].iterator(deleted);
+        }
+        PostingsIterator[] iterators = new PostingsIterator[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            iterators[i] = parts[i].iterator(deleted);
+        }
+        return new MultiPostingsIterator(iterators, lastDocIds);
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * TieredMergePolicy class decides which segments of an index to merge. Segments are sorted into
+ * size tiers, each tier mergeFactor times larger than the one below it, and whenever mergeFactor
+ * adjacent segments are in the same tier they are merged into one segment of the next tier.
+ * A document is thus rewritten about once per tier, so ingesting costs O(log n) writes per
+ * document, and a query visits fewer than mergeFactor segments per tier.
+ *
+ * Only adjacent segments are merged, so every segment keeps covering one range of document IDs.
+ */
+public class TieredMergePolicy {
+    private final int mergeFactor;
+    private final long floorSegmentBytes; // segments up to this size are all in the lowest tier
+
+    public TieredMergePolicy() {
+        this(10, 1 << 20);
+    }
+
+    /**
+     * @param mergeFactor       The number of segments merged at once, at least 2.
+     * @param floorSegmentBytes Segments up to this size are treated as equally small.
+     */
+    public TieredMergePolicy(int mergeFactor, long floorSegmentBytes) {
+        if (mergeFactor < 2) {
+            throw new IllegalArgumentException("The merge factor must be at least 2: " + mergeFactor);
+        }
+        this.mergeFactor = mergeFactor;
+        this.floorSegmentBytes = Math.max(1, floorSegmentBytes);
+    }
+
+    public int getMergeFactor() {
+        return mergeFactor;
+    }
+
+    /**
+     * Finds the merges to run now.
+     *
+     * @param segments The segments of the index, in document ID order.
+     * @param merging  The segments that are already being merged; they are left alone.
+     * @return Runs of mergeFactor adjacent segments, each to be merged into one segment; empty if none.
+     */
+    public List<List<Segment>> findMerges(List<Segment> segments, Set<Segment> merging) {
+        List<List<Segment>> merges = new ArrayList<>();
+        int runStart = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (merging.contains(segment)) {
+                runStart = i + 1;
+                continue;
+            }
+            if (tier(segment) != tier(segments.get(runStart))) {
+                runStart = i;
+            }
+            if (i - runStart + 1 == mergeFactor) {
+                merges.add(new ArrayList<>(segments.subList(runStart, i + 1)));
+                runStart = i + 1;
+            }
+        }
+        return merges;
+    }
+
+    /**
+     * Returns the size tier of a segment: 0 up to the floor size, then one more for every mergeFactor times larger.
+     */
+    int tier(Segment segment) {
+        int tier = 0;
+        long limit = floorSegmentBytes;
+        while (segment.sizeInBytes() > limit) {
+            tier++;
+            if (limit > Long.MAX_VALUE / mergeFactor) break;
+            limit *= mergeFactor;
+        }
+        return tier;
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer class splits text into word tokens the same way as {@code split("\\W+")} does,
+ * but scans a character buffer directly instead of compiling regexes and allocating arrays.
+ * Tokens are lower-cased in place and reported with their 1-based word position and the
+ * character offset where they start. In markup mode, HTML tags are skipped like the old
+ * {@code replaceAll("<[^>]+>", " ")} pass.
+ *
+ * A Tokenizer keeps its read buffer between calls, so it is not thread-safe; use one per thread.
+ */
+public class Tokenizer {
+
+    /**
+     * Receives the tokens found by the tokenizer.
+     */
+    public interface TokenHandler {
+        /**
+         * Called once per token.
+         *
+         * @param buffer   The buffer holding the token; only valid during the call.
+         * @param start    Index of the first character of the token in the buffer.
+         * @param length   Number of characters in the token.
+         * @param position The 1-based word position of the token in the text.
+         * @param offset   The character offset of the token in the text.
+         */
+        void token(char[] buffer, int start, int length, int position, int offset);
+    }
+
+    private char[] buffer = new char[8192];
+    private int length;
+
+    /**
+     * Reads the whole file, as UTF-8, into the reusable buffer and tokenizes it. Tokens are ASCII,
+     * so the file's real encoding only matters for the byte offsets in {@link PositionOffsets}.
+     *
+     * @param file       The file to tokenize.
+     * @param skipMarkup True to skip HTML tags.
+     * @param lowercase  True to lower-case the tokens in place.
+     * @param handler    The handler receiving the tokens.
+     * @return The number of tokens found.
+     * @throws IOException If the file cannot be read.
+     */
+    public int tokenize(File file, boolean skipMarkup, boolean lowercase, TokenHandler handler) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            fill(reader);
+        }
+        return tokenize(buffer, 0, length, skipMarkup, lowercase, handler);
+    }
+
+    /**
+     * Tokenizes a string such as a query. Tokens are always lower-cased.
+     *
+     * @param text    The text to tokenize.
+     * @param handler The handler receiving the tokens.
+     * @return The number of tokens found.
+     */
+    public int tokenize(String text, TokenHandler handler) {
+        ensureCapacity(text.length(), 0); // the old content is overwritten, so none is copied
+        length = text.length();
+        text.getChars(0, length, buffer, 0);
+        return tokenize(buffer, 0, length, false, true, handler);
+    }
+
+    /**
+     * Tokenizes a region of a character buffer.
+     *
+     * @param text       The characters to scan; tokens are lower-cased in place when requested.
+     * @param from       The first index to scan.
+     * @param to         The index after the last character to scan.
+     * @param skipMarkup True to skip HTML tags.
+     * @param lowercase  True to lower-case the tokens in place.
+     * @param handler    The handler receiving the tokens.
+     * @return The number of tokens found.
+     */
+    public static int tokenize(char[] text, int from, int to, boolean skipMarkup, boolean lowercase, TokenHandler handler) {
+        int position = 0;
+        int i = from;
+        boolean closingBracketAhead = true; // becomes false once no '>' is left, so '<' scans stay linear
+
+        while (i < to) {
+            char ch = text[i];
+            if (isWordChar(ch)) {
+                int start = i;
+                do {
+                    if (lowercase && ch >= 'A' && ch <= 'Z') {
+                        text[i] = (char) (ch + ('a' - 'A'));
+                    }
+                    i++;
+                } while (i < to && isWordChar(ch = text[i]));
+                position++;
+                handler.token(text, start, i - start, position, start - from);
+            } else if (skipMarkup && ch == '<' && closingBracketAhead) {
+                int close = indexOf(text, '>', i + 1, to);
+                if (close < 0) {
+                    closingBracketAhead = false;
+                    i++;
+                } else {
+                    // "<>" is not a tag for <[^>]+>; both characters are plain separators
+                    i = close > i + 1 ? close + 1 : i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Checks whether a character belongs to a token, matching the regex class {@code \w}.
+     *
+     * @param ch The character to check.
+     * @return True if the character is a word character.
+     */
+    public static boolean isWordChar(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+    }
+
+    private static int indexOf(char[] text, char target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text[i] == target) return i;
+        }
+        return -1;
+    }
+
+    private void fill(Reader reader) throws IOException {
+        length = 0;
+        int read;
+        while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                ensureCapacity(length * 2, length);
+            }
+        }
+    }
+
+    // Grows the buffer to at least capacity characters, keeping its first "keep" characters
+    private void ensureCapacity(int capacity, int keep) {
+        if (buffer.length < capacity) {
+            char[] grown = new char[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, keep);
+            buffer = grown;
+        }
+    }
+
+    // Compares tokenizer throughput against the old line.split("\\W+") path on a corpus directory
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java Tokenizer <corpus_directory> [rounds]");
+            return;
+        }
+
+        File[] files = new File(args[0]).listFiles((dir, name) -> name.toLowerCase().endsWith(".txt") || name.toLowerCase().endsWith(".html"));
+        if (files == null || files.length == 0) {
+            System.out.println("No text or HTML files found in the directory: " + args[0]);
+            return;
+        }
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Tokenizer tokenizer = new Tokenizer();
+        long[] checksum = new long[1];
+        TokenHandler counter = (buf, start, len, position, offset) -> checksum[0] += len;
+
+        for (int round = 1; round <= rounds; round++) {
+            long splitTokens = 0;
+            long begin = System.nanoTime();
+            for (File file : files) {
+                splitTokens += splitTokenize(file, file.getName().toLowerCase().endsWith(".html"));
+            }
+            long splitNanos = System.nanoTime() - begin;
+
+            long scanTokens = 0;
+            begin = System.nanoTime();
+            for (File file : files) {
+                scanTokens += tokenizer.tokenize(file, file.getName().toLowerCase().endsWith(".html"), true, counter);
+            }
+            long scanNanos = System.nanoTime() - begin;
+
+            System.out.printf("Round %d: split %d tokens %.0f tokens/s | tokenizer %d tokens %.0f tokens/s | speedup %.2fx%n",
+                    round, splitTokens, splitTokens * 1e9 / splitNanos, scanTokens, scanTokens * 1e9 / scanNanos,
+                    (double) splitNanos / scanNanos);
+        }
+    }
+
+    // The pre-tokenizer code path, kept only for the comparison in main
+    private static long splitTokenize(File file, boolean html) throws IOException {
+        long count = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            if (html) {
+                StringBuilder content = new StringBuilder();
+                String line;
+                while ((line = br.readLine()) != null) {
+                    content.append(line).append(" ");
+                }
+                String text = content.toString().replaceAll("<[^>]+>", " ").replaceAll("\\s+", " ").trim();
+                for (String token : text.split("\\W+")) {
+                    if (!token.isEmpty() && !token.toLowerCase().isEmpty()) count++;
+                }
+            } else {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    for (String token : line.split("\\W+")) {
+                        if (!token.isEmpty() && !token.toLowerCase().isEmpty()) count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * WandScorer class finds the k documents with the highest BM25 score for a set of terms, using
+ * the WAND algorithm. The term cursors are kept sorted by their current document; the first
+ * document where the summed score upper bounds of the cursors before it exceed the score of the
+ * current k-th result is the pivot, and every cursor behind it jumps straight to it. Documents
+ * that cannot beat the k-th result are never scored, and skipped postings are never decoded.
+ *
+ * A filter iterator can restrict the results, e.g. to the documents matching a phrase.
+ */
+public class WandScorer {
+    private final Cursor[] cursors;
+    private final Bm25 bm25;
+    private final DocumentTable documents;
+    private final DocIterator filter;
+    private int live;
+    private long scoredDocuments;
+
+    // A term's postings with its idf and score upper bound
+    private static class Cursor {
+        final PostingsIterator postings;
+        final double idf;
+        final double upperBound;
+
+        Cursor(PostingsIterator postings, double idf, double upperBound) {
+            this.postings = postings;
+            this.idf = idf;
+            this.upperBound = upperBound;
+        }
+
+        int docId() {
+            return postings.docId();
+        }
+    }
+
+    // A scored document in the heap of the current top k
+    private static class Hit {
+        final int docId;
+        final double score;
+
+        Hit(int docId, double score) {
+            this.docId = docId;
+            this.score = score;
+        }
+    }
+
+    /**
+     * @param postings  The postings of the query terms, not yet positioned.
+     * @param bm25      The scoring function.
+     * @param documents The document table, for document lengths and names.
+     * @param filter    Documents outside this iterator are not returned; null to accept all.
+     */
+    public WandScorer(List<TermPostings> postings, Bm25 bm25, DocumentTable documents, DocIterator filter) {
+        this(postings, documentFrequencies(postings), bm25, documents, filter);
+    }
+
+    /**
+     * @param postings            The postings of the query terms, not yet positioned.
+     * @param documentFrequencies The document frequency of each term, for its idf; those of a larger
+     *                            collection when this index is one shard of it.
+     * @param bm25                The scoring function.
+     * @param documents           The document table, for document lengths and names.
+     * @param filter              Documents outside this iterator are not returned; null to accept all.
+     */
+    public WandScorer(List<TermPostings> postings, int[] documentFrequencies, Bm25 bm25, DocumentTable documents,
+                      DocIterator filter) {
+        this.bm25 = bm25;
+        this.documents = documents;
+        this.filter = filter;
+        this.cursors = new Cursor[postings.size()];
+        int minLength = documents.getMinLength();
+        for (int i = 0; i < postings.size(); i++) {
+            TermPostings termPostings = postings.get(i);
+            double idf = bm25.idf(documentFrequencies[i]);
+            double upperBound = bm25.upperBound(idf, termPostings.getMaxFrequency(), minLength);
+            Cursor cursor = new Cursor(termPostings.iterator(documents.getDeleted()), idf, upperBound);
+            if (cursor.postings.nextDoc() != DocIterator.NO_MORE_DOCS) {
+                cursors[live++] = cursor;
+            }
+        }
+    }
+
+    private static int[] documentFrequencies(List<TermPostings> postings) {
+        int[] frequencies = new int[postings.size()];
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = postings.get(i).getDocumentFrequency();
+        }
+        return frequencies;
+    }
+
+    /**
+     * Returns the k best documents, highest score first; ties go to the lower document ID.
+     *
+     * @param k The maximum number of documents to return.
+     */
+    public List<ScoredDocument> topK(int k) {
+        // Min-heap on score; among equal scores the later document is evicted first
+        PriorityQueue<Hit> heap = new PriorityQueue<>(Math.max(1, k), (a, b) ->
+            a.score != b.score ? Double.compare(a.score, b.score) : Integer.compare(b.docId, a.docId));
+
+        while (k > 0 && live > 0) {
+            sortCursors();
+            double threshold = heap.size() == k ? heap.peek().score : Double.NEGATIVE_INFINITY;
+
+            // The pivot is the first cursor at which the best possible score beats the threshold
+            int pivot = -1;
+            double bound = 0;
+            for (int i = 0; i < live; i++) {
+                bound += cursors[i].upperBound;
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break; // no remaining document can enter the top k
+            }
+
+            int pivotDoc = cursors[pivot].docId();
+            if (cursors[0].docId() != pivotDoc) {
+                // Documents before the pivot cannot score enough; move the cursors behind it forward
+                for (int i = 0; i < pivot; i++) {
+                    cursors[i].postings.advance(pivotDoc);
+                }
+            } else if (filter != null && filterDoc(pivotDoc) != pivotDoc) {
+                int next = filter.docId();
+                for (int i = 0; i < live && cursors[i].docId() < next; i++) {
+                    cursors[i].postings.advance(next);
+                }
+            } else {
+                int length = documents.getLength(pivotDoc);
+                double score = 0;
+                for (int i = 0; i < live && cursors[i].docId() == pivotDoc; i++) {
+                    score += bm25.score(cursors[i].idf, cursors[i].postings.freq(), length);
+                    cursors[i].postings.nextDoc();
+                }
+                scoredDocuments++;
+                if (heap.size() < k) {
+                    heap.add(new Hit(pivotDoc, score));
+                } else if (score > threshold) {
+                    heap.poll();
+                    heap.add(new Hit(pivotDoc, score));
+                }
+            }
+            removeExhausted();
+        }
+
+        List<ScoredDocument> results = new ArrayList<>(heap.size());
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort((a, b) -> a.score != b.score ? Double.compare(b.score, a.score) : Integer.compare(a.docId, b.docId));
+        for (Hit hit : hits) {
+            results.add(new ScoredDocument(documents.getName(hit.docId), hit.score));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the number of documents that were fully scored, for reporting how much was skipped.
+     */
+    public long getScoredDocuments() {
+        return scoredDocuments;
+    }
+
+    private int filterDoc(int target) {
+        return filter.docId() < target ? filter.advance(target) : filter.docId();
+    }
+
+    // Insertion sort by current document; only the cursors that moved are out of place
+    private void sortCursors() {
+        for (int i = 1; i < live; i++) {
+            Cursor cursor = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].docId() > cursor.docId()) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+    }
+
+    private void removeExhausted() {
+        int kept = 0;
+        for (int i = 0; i < live; i++) {
+            if (cursors[i].docId() != DocIterator.NO_MORE_DOCS) {
+                cursors[kept++] = cursors[i];
+            }
+        }
+        live = kept;
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * EngineOps class exposes the engine operations measured by the benchmarks with JDK types only.
+ * The engine classes are in the default package, which code in a named package cannot refer to,
+ * while JMH only accepts benchmarks in a named package; benchmarks.Engine calls these methods
+ * through method handles.
+ */
+public final class EngineOps {
+
+    private EngineOps() {
+    }
+
+    // Counts tokens, so the tokenizer's work cannot be optimized away
+    private static final class TokenCounter implements Tokenizer.TokenHandler {
+        long checksum;
+
+        @Override
+        public void token(char[] buffer, int start, int length, int position, int offset) {
+            checksum += buffer[start] + length;
+        }
+    }
+
+    /**
+     * Returns a new, empty index with the query caches disabled, so every query is measured.
+     */
+    public static Object newIndex(String stopwordFile, boolean stemming) {
+        try {
+            InvertedIndex index = new InvertedIndex(stopwordFile, stemming);
+            index.setQueryCacheSize(0, 0);
+            return index;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Turns the forward index on or off, and sets whether segments are kept off the heap.
+     */
+    public static void configureIndex(Object index, boolean forwardIndex, boolean offHeap) {
+        ((InvertedIndex) index).setForwardIndexEnabled(forwardIndex);
+        ((InvertedIndex) index).setOffHeap(offHeap);
+    }
+
+    /**
+     * Waits for the merges of an index and frees the memory of its segments kept off the heap.
+     */
+    public static void closeIndex(Object index) {
+        try {
+            ((InvertedIndex) index).close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void buildIndex(Object index, String corpusDirectory, int threadCount) {
+        try {
+            ((InvertedIndex) index).buildIndex(corpusDirectory, threadCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Set<String> search(Object index, String query) {
+        return ((InvertedIndex) index).search(query);
+    }
+
+    public static Map<String, List<Integer>> searchDocument(Object index, String document) {
+        return ((InvertedIndex) index).searchDocument(document);
+    }
+
+    public static Map<String, Map<Integer, List<String>>> searchSnippets(Object index, String term, int range,
+                                                                        String corpusDirectory) {
+        try {
+            return ((InvertedIndex) index).searchSnippets(term, range, corpusDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void saveToSerFile(Object index, String serFile) {
+        ((InvertedIndex) index).saveToSerFile(serFile);
+    }
+
+    public static Object loadFromSerFile(String serFile, String stopwordFile) {
+        try {
+            return InvertedIndex.loadFromSerFile(serFile, stopwordFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Object newTokenizer() {
+        return new Tokenizer();
+    }
+
+    /**
+     * Tokenizes a text and returns a checksum of its tokens.
+     */
+    public static long tokenize(Object tokenizer, String text) {
+        TokenCounter counter = new TokenCounter();
+        ((Tokenizer) tokenizer).tokenize(text, counter);
+        return counter.checksum;
+    }
+
+    public static Object newStemmer() {
+        return new PorterStemmer();
+    }
+
+    public static String stem(Object stemmer, String word) {
+        return ((PorterStemmer) stemmer).stem(word);
+    }
+
+    public static Object loadStopwords(String stopwordFile) {
+        try {
+            StopwordHandler stopwords = new StopwordHandler();
+            stopwords.loadStopwords(stopwordFile);
+            return stopwords;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static boolean isStopword(Object stopwords, String word) {
+        return ((StopwordHandler) stopwords).isStopword(word);
+    }
+}
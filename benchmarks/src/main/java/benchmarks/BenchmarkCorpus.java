@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+
+/**
+ * BenchmarkCorpus class provides the inputs shared by the benchmarks: the stopword file and
+ * generated corpora, which are cached on disk by size and seed and only generated once.
+ *
+ * System properties (pass them to the forked JVMs with -jvmArgsAppend):
+ * <ul>
+ *   <li>{@code stopwords} - the stopword file, default {@code stopwords.txt} in the working directory;</li>
+ *   <li>{@code corpus.dir} - where generated corpora are kept, default the temporary directory;</li>
+ *   <li>{@code corpus.seed} - the generator seed, default {@value CorpusGenerator#DEFAULT_SEED}.</li>
+ * </ul>
+ */
+final class BenchmarkCorpus {
+    private static final PrintStream STDOUT = System.out;
+
+    private BenchmarkCorpus() {
+    }
+
+    static long seed() {
+        return Long.getLong("corpus.seed", CorpusGenerator.DEFAULT_SEED);
+    }
+
+    static CorpusGenerator generator() {
+        return new CorpusGenerator(seed());
+    }
+
+    static String stopwordFile() {
+        File file = new File(System.getProperty("stopwords", "stopwords.txt"));
+        if (!file.isFile()) {
+            throw new IllegalStateException("Stopword file not found: " + file.getAbsolutePath()
+                    + "; run from the repository root or pass -jvmArgsAppend -Dstopwords=<file>");
+        }
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Returns the directory of a generated corpus of the given size, generating it if needed.
+     */
+    static String directory(int megabytes) {
+        File root = new File(System.getProperty("corpus.dir", System.getProperty("java.io.tmpdir")));
+        File directory = new File(root, "search-engine-corpus-" + megabytes + "mb-seed" + seed());
+        if (!new File(directory, CorpusGenerator.COMPLETE_MARKER).exists()) {
+            try {
+                STDOUT.println("Generating a " + megabytes + " MB corpus in " + directory);
+                generator().generate(directory, (long) megabytes << 20);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return directory.getAbsolutePath();
+    }
+
+    /**
+     * Hides the engine's per-document progress messages, which would otherwise flood the benchmark output.
+     */
+    static void silence() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void restore() {
+        System.setOut(STDOUT);
+    }
+}
@@ -0,0 +1,202 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * CorpusGenerator class writes a synthetic corpus of text and HTML files for the benchmarks.
+ * The output depends only on the seed: the vocabulary is made of pronounceable made-up words,
+ * drawn with a Zipf distribution like the words of natural text and mixed with common English
+ * stopwords, and document i is generated from its own random stream, so any size from a few
+ * megabytes to many gigabytes can be produced offline and reproduced exactly.
+ *
+ * Usage: java -cp benchmarks.jar benchmarks.CorpusGenerator &lt;directory&gt; &lt;megabytes&gt; [seed]
+ */
+public class CorpusGenerator {
+    public static final long DEFAULT_SEED = 42;
+    static final String COMPLETE_MARKER = ".complete"; // written last, so a partial corpus is regenerated
+    private static final int VOCABULARY_SIZE = 50000;
+    private static final double ZIPF_EXPONENT = 1.07;
+    private static final double STOPWORD_RATIO = 0.4;
+    private static final int AVERAGE_DOCUMENT_BYTES = 8192;
+    private static final String[] STOPWORDS = {
+        "the", "of", "and", "to", "a", "in", "is", "that", "for", "it", "as", "was", "with", "be", "by",
+        "on", "not", "he", "this", "are", "or", "his", "from", "at", "which", "but", "have", "an", "had",
+        "they", "you", "were", "their", "one", "all", "we", "can", "her", "has", "there", "been", "if",
+        "more", "when", "will", "would", "who", "so", "no"
+    };
+    private static final String[] ONSETS = {"b", "c", "d", "f", "g", "h", "l", "m", "n", "p", "r", "s", "t", "v", "w",
+        "br", "cl", "dr", "fl", "gr", "pl", "pr", "sh", "st", "str", "th", "tr"};
+    private static final String[] VOWELS = {"a", "e", "i", "o", "u", "ai", "ea", "ee", "io", "ou"};
+    private static final String[] CODAS = {"", "", "n", "r", "s", "t", "l", "m", "nd", "nt", "rt", "st", "ck"};
+    // Suffixes give the stemmer real work: "flowering", "flowered" and "flowers" all stem to "flower"
+    private static final String[] SUFFIXES = {"", "", "", "", "s", "ing", "ed", "er", "ly", "ness", "ation", "ful", "ize"};
+
+    private final long seed;
+    private final String[] words;       // by frequency rank, most frequent first
+    private final double[] cumulative;  // Zipf distribution function over the ranks
+
+    public CorpusGenerator(long seed) {
+        this.seed = seed;
+        this.words = vocabulary(new Random(seed));
+        this.cumulative = new double[VOCABULARY_SIZE];
+        double sum = 0;
+        for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+            sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    private static String[] vocabulary(Random random) {
+        Set<String> seen = new HashSet<>();
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        int count = 0;
+        while (count < VOCABULARY_SIZE) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 1 + random.nextInt(3);
+            for (int i = 0; i < syllables; i++) {
+                word.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+            }
+            word.append(CODAS[random.nextInt(CODAS.length)]).append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+            if (word.length() > 2 && seen.add(word.toString())) {
+                vocabulary[count++] = word.toString();
+            }
+        }
+        return vocabulary;
+    }
+
+    public int getVocabularySize() {
+        return VOCABULARY_SIZE;
+    }
+
+    /**
+     * Returns the word of a frequency rank; rank 0 is the most frequent word after the stopwords.
+     */
+    public String word(int rank) {
+        return words[rank];
+    }
+
+    /**
+     * Returns the file name of document i; every fifth document is an HTML page.
+     */
+    public String documentName(int i) {
+        return i % 5 == 4 ? "page" + i + ".html" : "doc" + i + ".txt";
+    }
+
+    /**
+     * Returns the content of document i.
+     */
+    public String document(int i) {
+        Random random = new Random(seed * 0x9E3779B97F4A7C15L + i);
+        boolean html = i % 5 == 4;
+        int targetLength = (int) (AVERAGE_DOCUMENT_BYTES * (0.25 + 1.5 * random.nextDouble()));
+        StringBuilder text = new StringBuilder(targetLength + 256);
+        if (html) {
+            text.append("<html><head><title>");
+            sentence(random, text, 3 + random.nextInt(4), false);
+            text.append("</title></head>\n<body>\n");
+        }
+        while (text.length() < targetLength) {
+            text.append(html ? "<p>" : "");
+            int sentences = 2 + random.nextInt(5);
+            for (int s = 0; s < sentences; s++) {
+                if (html && random.nextInt(8) == 0) {
+                    text.append("<a href=\"").append(documentName(random.nextInt(i + 1) / 5 * 5 + 4)).append("\">");
+                    sentence(random, text, 2 + random.nextInt(3), false);
+                    text.append("</a> ");
+                }
+                sentence(random, text, 6 + random.nextInt(15), true);
+                text.append(' ');
+            }
+            text.append(html ? "</p>\n" : "\n\n");
+        }
+        if (html) {
+            text.append("</body></html>\n");
+        }
+        return text.toString();
+    }
+
+    private void sentence(Random random, StringBuilder text, int wordCount, boolean punctuate) {
+        for (int w = 0; w < wordCount; w++) {
+            String word;
+            if (random.nextDouble() < STOPWORD_RATIO) {
+                double r = random.nextDouble();
+                word = STOPWORDS[(int) (r * r * STOPWORDS.length)]; // the first stopwords are the most frequent
+            } else {
+                word = words[rank(random.nextDouble())];
+            }
+            if (w > 0) {
+                text.append(w % 9 == 8 && punctuate ? ", " : " ");
+            }
+            if (w == 0 && punctuate) {
+                text.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            } else {
+                text.append(word);
+            }
+        }
+        if (punctuate) {
+            text.append('.');
+        }
+    }
+
+    // Binary search of the distribution function
+    private int rank(double p) {
+        int low = 0;
+        int high = VOCABULARY_SIZE - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < p) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Writes documents into a directory until they add up to the given size.
+     *
+     * @param directory  The output directory; created if missing.
+     * @param totalBytes The corpus size in bytes.
+     * @return The number of documents written.
+     * @throws IOException If a file cannot be written.
+     */
+    public int generate(File directory, long totalBytes) throws IOException {
+        Files.createDirectories(directory.toPath());
+        long written = 0;
+        int count = 0;
+        while (written < totalBytes) {
+            String content = document(count);
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            Files.write(new File(directory, documentName(count)).toPath(), bytes);
+            written += bytes.length;
+            count++;
+        }
+        try (BufferedWriter marker = Files.newBufferedWriter(new File(directory, COMPLETE_MARKER).toPath())) {
+            marker.write(count + " documents, " + written + " bytes, seed " + seed);
+            marker.newLine();
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java -cp benchmarks.jar benchmarks.CorpusGenerator <directory> <megabytes> [seed]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        long megabytes = Long.parseLong(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        long start = System.nanoTime();
+        int count = new CorpusGenerator(seed).generate(directory, megabytes << 20);
+        System.out.printf("Generated %d documents (%d MB) in %s in %.1f s%n", count, megabytes, directory,
+                (System.nanoTime() - start) / 1e9);
+    }
+}
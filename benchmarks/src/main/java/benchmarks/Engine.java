@@ -0,0 +1,172 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Engine class calls the engine, whose classes are in the default package, through the
+ * EngineOps methods. The method handles are static final constants, so the JIT compiler inlines
+ * the calls and the benchmarks measure the engine, not the indirection.
+ */
+final class Engine {
+    private static final MethodHandle NEW_INDEX = find("newIndex", Object.class, String.class, boolean.class);
+    private static final MethodHandle CONFIGURE_INDEX = find("configureIndex", void.class, Object.class, boolean.class, boolean.class);
+    private static final MethodHandle CLOSE_INDEX = find("closeIndex", void.class, Object.class);
+    private static final MethodHandle BUILD_INDEX = find("buildIndex", void.class, Object.class, String.class, int.class);
+    private static final MethodHandle SEARCH = find("search", Set.class, Object.class, String.class);
+    private static final MethodHandle SEARCH_DOCUMENT = find("searchDocument", Map.class, Object.class, String.class);
+    private static final MethodHandle SEARCH_SNIPPETS = find("searchSnippets", Map.class, Object.class, String.class, int.class, String.class);
+    private static final MethodHandle SAVE_TO_SER_FILE = find("saveToSerFile", void.class, Object.class, String.class);
+    private static final MethodHandle LOAD_FROM_SER_FILE = find("loadFromSerFile", Object.class, String.class, String.class);
+    private static final MethodHandle NEW_TOKENIZER = find("newTokenizer", Object.class);
+    private static final MethodHandle TOKENIZE = find("tokenize", long.class, Object.class, String.class);
+    private static final MethodHandle NEW_STEMMER = find("newStemmer", Object.class);
+    private static final MethodHandle STEM = find("stem", String.class, Object.class, String.class);
+    private static final MethodHandle LOAD_STOPWORDS = find("loadStopwords", Object.class, String.class);
+    private static final MethodHandle IS_STOPWORD = find("isStopword", boolean.class, Object.class, String.class);
+
+    private Engine() {
+    }
+
+    private static MethodHandle find(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            Class<?> ops = Class.forName("EngineOps");
+            return MethodHandles.publicLookup().findStatic(ops, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+
+    static Object newIndex(String stopwordFile, boolean stemming) {
+        try {
+            return (Object) NEW_INDEX.invokeExact(stopwordFile, stemming);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void configureIndex(Object index, boolean forwardIndex, boolean offHeap) {
+        try {
+            CONFIGURE_INDEX.invokeExact(index, forwardIndex, offHeap);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void closeIndex(Object index) {
+        try {
+            CLOSE_INDEX.invokeExact(index);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void buildIndex(Object index, String corpusDirectory, int threadCount) {
+        try {
+            BUILD_INDEX.invokeExact(index, corpusDirectory, threadCount);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Set<String> search(Object index, String query) {
+        try {
+            return (Set<String>) SEARCH.invokeExact(index, query);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, List<Integer>> searchDocument(Object index, String document) {
+        try {
+            return (Map<String, List<Integer>>) SEARCH_DOCUMENT.invokeExact(index, document);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Map<Integer, List<String>>> searchSnippets(Object index, String term, int range, String corpusDirectory) {
+        try {
+            return (Map<String, Map<Integer, List<String>>>) SEARCH_SNIPPETS.invokeExact(index, term, range, corpusDirectory);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void saveToSerFile(Object index, String serFile) {
+        try {
+            SAVE_TO_SER_FILE.invokeExact(index, serFile);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object loadFromSerFile(String serFile, String stopwordFile) {
+        try {
+            return (Object) LOAD_FROM_SER_FILE.invokeExact(serFile, stopwordFile);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newTokenizer() {
+        try {
+            return (Object) NEW_TOKENIZER.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long tokenize(Object tokenizer, String text) {
+        try {
+            return (long) TOKENIZE.invokeExact(tokenizer, text);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newStemmer() {
+        try {
+            return (Object) NEW_STEMMER.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static String stem(Object stemmer, String word) {
+        try {
+            return (String) STEM.invokeExact(stemmer, word);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object loadStopwords(String stopwordFile) {
+        try {
+            return (Object) LOAD_STOPWORDS.invokeExact(stopwordFile);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean isStopword(Object stopwords, String word) {
+        try {
+            return (boolean) IS_STOPWORD.invokeExact(stopwords, word);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
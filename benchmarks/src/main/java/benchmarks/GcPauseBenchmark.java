@@ -0,0 +1,78 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GcPauseBenchmark class compares the garbage collection cost of an index whose segments are on
+ * the heap with one whose segments are kept off the heap ({@code offHeap}). {@code fullCollection}
+ * measures the pause of a full collection, which traces and compacts the whole live heap;
+ * {@code search} runs conjunctive queries, whose young collections are reported by
+ * {@code -prof gc}. The forward index is enabled, so the segments hold every position twice.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-XX:MaxDirectMemorySize=8g"})
+@State(Scope.Benchmark)
+public class GcPauseBenchmark {
+    private static final int QUERIES = 64;
+
+    @Param({"64"})
+    public int corpusMegabytes;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    private Object index;
+    private final String[] conjunctions = new String[QUERIES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String corpusDirectory = BenchmarkCorpus.directory(corpusMegabytes);
+        BenchmarkCorpus.silence();
+        index = Engine.newIndex(BenchmarkCorpus.stopwordFile(), false);
+        Engine.configureIndex(index, true, offHeap);
+        Engine.buildIndex(index, corpusDirectory, Runtime.getRuntime().availableProcessors());
+
+        CorpusGenerator generator = BenchmarkCorpus.generator();
+        Random random = new Random(BenchmarkCorpus.seed());
+        for (int i = 0; i < QUERIES; i++) {
+            conjunctions[i] = generator.word(random.nextInt(50)) + " " + generator.word(100 + random.nextInt(2000));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Engine.closeIndex(index);
+        BenchmarkCorpus.restore();
+    }
+
+    @Benchmark
+    public void fullCollection() {
+        System.gc();
+    }
+
+    @Benchmark
+    public Set<String> search() {
+        next = (next + 1) % QUERIES;
+        return Engine.search(index, conjunctions[next]);
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IndexBuildBenchmark class measures building an index from a generated corpus with
+ * {@code buildIndex}. Each operation builds a complete index; divide the corpus size by the
+ * time per operation for the throughput.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class IndexBuildBenchmark {
+
+    @Param({"16"})
+    public int corpusMegabytes;
+
+    @Param({"1"})
+    public int threads;
+
+    @Param({"false"})
+    public boolean stemming;
+
+    private String stopwordFile;
+    private String corpusDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stopwordFile = BenchmarkCorpus.stopwordFile();
+        corpusDirectory = BenchmarkCorpus.directory(corpusMegabytes);
+        BenchmarkCorpus.silence();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkCorpus.restore();
+    }
+
+    @Benchmark
+    public Object buildIndex() {
+        Object index = Engine.newIndex(stopwordFile, stemming);
+        Engine.buildIndex(index, corpusDirectory, threads);
+        return index;
+    }
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueryBenchmark class measures queries against an index built once from a generated corpus:
+ * conjunctive {@code search}, boolean {@code search} over the most frequent words (read from their
+ * document sets), {@code searchDocument} and snippet extraction. The query caches are
+ * disabled, and every operation runs the next of 64 prepared queries, so no single query dominates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    private static final int QUERIES = 64;
+
+    @Param({"16"})
+    public int corpusMegabytes;
+
+    @Param({"5"})
+    public int snippetRange;
+
+    private Object index;
+    private String corpusDirectory;
+    private final String[] conjunctions = new String[QUERIES]; // a frequent and a less frequent word
+    private final String[] commonTerms = new String[QUERIES];  // frequent words combined with AND, OR and NOT
+    private final String[] documents = new String[QUERIES];
+    private final String[] snippetTerms = new String[QUERIES];  // words in a few dozen documents
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        corpusDirectory = BenchmarkCorpus.directory(corpusMegabytes);
+        BenchmarkCorpus.silence();
+        index = Engine.newIndex(BenchmarkCorpus.stopwordFile(), false);
+        Engine.buildIndex(index, corpusDirectory, Runtime.getRuntime().availableProcessors());
+
+        CorpusGenerator generator = BenchmarkCorpus.generator();
+        int documentCount = new File(corpusDirectory).list((dir, name) -> !name.startsWith(".")).length;
+        Random random = new Random(BenchmarkCorpus.seed());
+        for (int i = 0; i < QUERIES; i++) {
+            conjunctions[i] = generator.word(random.nextInt(50)) + " " + generator.word(100 + random.nextInt(2000));
+            String[] frequent = {generator.word(random.nextInt(10)), generator.word(10 + random.nextInt(10)), generator.word(20 + random.nextInt(10))};
+            commonTerms[i] = i % 3 == 0 ? frequent[0] + " " + frequent[1]
+                    : i % 3 == 1 ? frequent[0] + " OR " + frequent[1] + " OR " + frequent[2]
+                    : frequent[0] + " " + frequent[1] + " NOT " + frequent[2];
+            documents[i] = generator.documentName(random.nextInt(documentCount));
+            snippetTerms[i] = generator.word(2000 + random.nextInt(8000));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkCorpus.restore();
+    }
+
+    private int nextQuery() {
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+    @Benchmark
+    public Set<String> conjunctiveSearch() {
+        return Engine.search(index, conjunctions[nextQuery()]);
+    }
+
+    @Benchmark
+    public Set<String> commonTermSearch() {
+        return Engine.search(index, commonTerms[nextQuery()]);
+    }
+
+    @Benchmark
+    public Map<String, List<Integer>> searchDocument() {
+        return Engine.searchDocument(index, documents[nextQuery()]);
+    }
+
+    @Benchmark
+    public Map<String, Map<Integer, List<String>>> snippets() {
+        return Engine.searchSnippets(index, snippetTerms[nextQuery()], snippetRange, corpusDirectory);
+    }
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SerializationBenchmark class measures saving an index to a legacy {@code .ser} file and
+ * loading it back.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"16"})
+    public int corpusMegabytes;
+
+    private String stopwordFile;
+    private Object index;
+    private File savedFile;  // written once, read by load
+    private File targetFile; // overwritten by save
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        try {
+            stopwordFile = BenchmarkCorpus.stopwordFile();
+            String corpusDirectory = BenchmarkCorpus.directory(corpusMegabytes);
+            BenchmarkCorpus.silence();
+            index = Engine.newIndex(stopwordFile, false);
+            Engine.buildIndex(index, corpusDirectory, Runtime.getRuntime().availableProcessors());
+            savedFile = File.createTempFile("index-saved", ".ser");
+            targetFile = File.createTempFile("index-target", ".ser");
+            Engine.saveToSerFile(index, savedFile.getPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        savedFile.delete();
+        targetFile.delete();
+        BenchmarkCorpus.restore();
+    }
+
+    @Benchmark
+    public long save() {
+        Engine.saveToSerFile(index, targetFile.getPath());
+        return targetFile.length();
+    }
+
+    @Benchmark
+    public Object load() {
+        return Engine.loadFromSerFile(savedFile.getPath(), stopwordFile);
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TextBenchmark class measures the per-token work of indexing: tokenization of a document,
+ * {@code PorterStemmer.stem} and {@code StopwordHandler.isStopword}. Stemming and stopword lookups
+ * are reported per word.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TextBenchmark {
+    private static final int WORDS = 1024;
+
+    private Object tokenizer;
+    private Object stemmer;
+    private Object stopwords;
+    private String text;
+    private final String[] words = new String[WORDS];  // vocabulary words, many with suffixes to strip
+    private final String[] tokens = new String[WORDS]; // tokens as they occur in text, stopwords included
+
+    @Setup
+    public void setUp() {
+        CorpusGenerator generator = BenchmarkCorpus.generator();
+        tokenizer = Engine.newTokenizer();
+        stemmer = Engine.newStemmer();
+        stopwords = Engine.loadStopwords(BenchmarkCorpus.stopwordFile());
+
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; document.length() < 64 * 1024; i++) {
+            if (!generator.documentName(i).endsWith(".html")) {
+                document.append(generator.document(i));
+            }
+        }
+        text = document.toString();
+
+        Random random = new Random(BenchmarkCorpus.seed());
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = generator.word(random.nextInt(generator.getVocabularySize()));
+        }
+        String[] textTokens = text.toLowerCase().split("[^a-z0-9]+");
+        for (int i = 0; i < WORDS; i++) {
+            tokens[i] = textTokens[1 + random.nextInt(textTokens.length - 1)];
+        }
+    }
+
+    /**
+     * Tokenizes 64 KB of text.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long tokenize() {
+        return Engine.tokenize(tokenizer, text);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public void stem(Blackhole blackhole) {
+        for (String word : words) {
+            blackhole.consume(Engine.stem(stemmer, word));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public void isStopword(Blackhole blackhole) {
+        for (String token : tokens) {
+            blackhole.consume(Engine.isStopword(stopwords, token));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * PorterStemmerTest class checks that the in-place PorterStemmer, and the StemCache in front of
+ * it, give the same stems as the previous implementation, {@link ReferenceStemmer}.
+ */
+class PorterStemmerTest {
+    private static final String[] STEMS = {
+            "", "a", "y", "by", "sky", "cat", "hop", "fil", "fail", "plaster", "relat", "condit", "ration",
+            "agree", "feed", "bled", "sing", "troubl", "siz", "hope", "rate", "control", "roll", "generaliz",
+            "oscill", "electr", "adjust", "depend", "happ", "tann", "fizz", "bow", "box", "tray", "formal"
+    };
+    private static final String[] SUFFIXES = {
+            "", "s", "ss", "sses", "ies", "ed", "eed", "ing", "y", "e", "l", "ll", "at", "bl", "iz",
+            "ational", "tional", "icate", "ative", "ance", "ence", "ation", "ement", "ness", "ful", "ly"
+    };
+
+    @Test
+    void sameStemsForSuffixedWords() {
+        List<String> words = new ArrayList<>();
+        for (String stem : STEMS) {
+            for (String suffix : SUFFIXES) {
+                for (String second : SUFFIXES) {
+                    words.add(stem + suffix + second);
+                }
+            }
+        }
+        assertSameStems(words);
+    }
+
+    @Test
+    void sameStemsForRandomWords() {
+        Random random = new Random(42);
+        String letters = "aeiouybcdfghlmnprstvwxz";
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            char[] word = new char[1 + random.nextInt(14)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = letters.charAt(random.nextInt(letters.length()));
+            }
+            words.add(new String(word));
+        }
+        assertSameStems(words);
+    }
+
+    @Test
+    void knownStems() {
+        PorterStemmer stemmer = new PorterStemmer();
+        assertEquals("caress", stemmer.stem("caresses"));
+        assertEquals("poni", stemmer.stem("ponies"));
+        assertEquals("hop", stemmer.stem("hopping"));
+        assertEquals("relat", stemmer.stem("relational"));
+        assertEquals("hope", new PorterStemmer("Hoped").stem());
+    }
+
+    private static void assertSameStems(List<String> words) {
+        PorterStemmer stemmer = new PorterStemmer(); // reused, as the indexer does
+        for (String word : words) {
+            String expected = new ReferenceStemmer(word).stem();
+            assertEquals(expected, stemmer.stem(word), word);
+            assertEquals(expected, new PorterStemmer(word).stem(), word);
+            assertEquals(expected, StemCache.shared().stem(word), word);
+        }
+    }
+}
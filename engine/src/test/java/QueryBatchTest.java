@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * QueryBatchTest class checks that a batch returns the same results as the queries run one by one,
+ * and that it answers from and fills the result cache of the index like they do.
+ */
+class QueryBatchTest {
+    private static final List<String> QUERIES = List.of("rose", "red rose", "Rose red", "lily OR rose", "...", "garden NOT lily");
+
+    @TempDir
+    File directory;
+    private InvertedIndex index;
+
+    @BeforeEach
+    void buildIndex() throws IOException {
+        File corpus = new File(directory, "corpus");
+        Files.createDirectory(corpus.toPath());
+        for (int i = 0; i < 30; i++) {
+            String text = (i % 3 == 0 ? "red rose " : "white lily ") + "garden " + i;
+            Files.write(new File(corpus, "d" + i + ".txt").toPath(), text.getBytes(StandardCharsets.UTF_8));
+        }
+        File stopwords = new File(directory, "stopwords.txt");
+        Files.write(stopwords.toPath(), new byte[0]);
+        index = new InvertedIndex(stopwords.getPath(), false);
+        index.buildIndex(corpus.getPath(), 1);
+    }
+
+    @Test
+    void batchFillsTheCacheForLaterQueries() throws IOException {
+        QueryBatch batch = new QueryBatch(index, 2);
+        List<Set<String>> results = batch.search(QUERIES);
+        List<List<ScoredDocument>> ranked = batch.searchTopK(QUERIES, 5);
+        QueryCache<?> cache = index.getResultCache();
+        assertEquals(0, cache.getHits());
+        assertEquals(8, cache.getMisses()); // 4 distinct queries with words, searched and ranked
+        assertEquals(8, cache.size());
+
+        for (int i = 0; i < QUERIES.size(); i++) {
+            assertEquals(index.search(QUERIES.get(i)), results.get(i), QUERIES.get(i));
+            assertEquals(describe(index.searchTopK(QUERIES.get(i), 5)), describe(ranked.get(i)), QUERIES.get(i));
+        }
+        assertEquals(10, cache.getHits()); // the five queries with words, each searched and ranked
+        assertEquals(8, cache.getMisses());
+    }
+
+    @Test
+    void batchAnswersCachedQueriesFromTheCache() throws IOException {
+        Set<String> expected = index.search("red rose");
+        QueryBatch batch = new QueryBatch(index, 1);
+        assertEquals(List.of(expected, expected), batch.search(List.of("rose red", "red rose")));
+        assertEquals(1, index.getResultCache().getHits());
+        assertEquals(1, index.getResultCache().getMisses());
+        assertEquals(0, batch.getDecodedTermCount()); // nothing left to evaluate
+    }
+
+    private static List<String> describe(List<ScoredDocument> results) {
+        List<String> descriptions = new ArrayList<>();
+        for (ScoredDocument result : results) {
+            descriptions.add(result.getName() + " " + (float) result.getScore());
+        }
+        return descriptions;
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * QueryParserTest class checks how queries are parsed, in particular which operands {@code NEAR/k}
+ * takes next to NOT, groups and other operators.
+ */
+class QueryParserTest {
+    private final QueryParser parser = new QueryParser(new Tokenizer(), new StopwordHandler(), false,
+            pattern -> List.of(pattern.replaceAll("[*~0-9]", "")));
+
+    @Test
+    void nearTakesThePlainTermsOnBothSides() {
+        assertEquals("tea NEAR/3 all", parse("tea NEAR/3 all"));
+        assertEquals("(tea NEAR/3 all AND with)", parse("with tea NEAR/3 all"));
+        assertEquals("(cup AND tea NEAR/3 all)", parse("tea NEAR/3 all-cup"));
+    }
+
+    @Test
+    void nearAfterNotIsNegatedWithItsLeftOperand() {
+        assertEquals("(NOT tea NEAR/3 all AND with)", parse("with NOT tea NEAR/3 all"));
+        assertEquals("(NOT (green AND tea NEAR/3 all) AND with)", parse("with NOT green-tea NEAR/3 all"));
+        assertEquals("(NOT NOT tea NEAR/3 all AND with)", parse("with NOT NOT tea NEAR/3 all"));
+    }
+
+    @Test
+    void nearAfterAGroupOfOneWord() {
+        assertEquals("tea NEAR/3 all", parse("(tea) NEAR/3 all"));
+        assertEquals("(tea NEAR/3 all AND with)", parse("with (tea) NEAR/3 all"));
+        assertEquals("tea NEAR/3 all", parse("\"tea\" NEAR/3 all"));
+    }
+
+    @Test
+    void orphanedNearIsDropped() {
+        assertEquals("all", parse("NEAR/3 all"));
+        assertEquals("tea", parse("tea NEAR/3"));
+        assertEquals("((green AND tea) AND all)", parse("(green tea) NEAR/3 all"));
+        assertEquals("(tea OR x)", parse("tea NEAR/3 OR x"));
+        assertEquals("(all AND with)", parse("with NOT NEAR/3 all"));
+        assertEquals("(a NEAR/3 b AND c)", parse("a NEAR/3 b NEAR/2 c"));
+        assertEquals("(flow* AND tea)", parse("tea NEAR/3 flow*"));
+    }
+
+    @Test
+    void malformedNearIsSearchedAsWords() {
+        assertEquals("(all AND near AND tea AND x)", parse("tea NEAR/x all"));
+        assertEquals("(all AND near AND tea)", parse("tea NEAR/ all"));
+    }
+
+    private String parse(String query) {
+        return parser.parse(query).key();
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * RankingTest class checks BM25 top-k search: WAND pruning must return the same documents and
+ * scores as ranking every match, also when deleted documents still count in the posting lists.
+ */
+class RankingTest {
+    private static final String[] QUERIES = {"rose", "rose red", "red", "rose garden", "garden"};
+
+    @TempDir
+    File directory;
+    private InvertedIndex index;
+
+    @BeforeEach
+    void buildIndex() throws IOException {
+        File corpus = new File(directory, "corpus");
+        assertTrue(corpus.mkdir());
+        // "rose" is in 20 of the 24 documents, with frequencies and lengths varying independently
+        for (int i = 0; i < 24; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < (i < 20 ? 1 + i % 4 : 0); j++) {
+                text.append("rose ");
+            }
+            for (int j = 0; j < i % 5; j++) {
+                text.append("red ");
+            }
+            for (int j = 0; j < (i * 7) % 11; j++) {
+                text.append("garden").append(j % 3 == 0 ? " " : j + " ");
+            }
+            Files.write(new File(corpus, "d" + i + ".txt").toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        File stopwords = new File(directory, "stopwords.txt");
+        Files.write(stopwords.toPath(), new byte[0]);
+        index = new InvertedIndex(stopwords.getPath(), false);
+        index.setQueryCacheSize(0, 0);
+        index.buildIndex(corpus.getPath(), 1);
+    }
+
+    @Test
+    void pruningMatchesFullRanking() {
+        assertRankingConsistent(Set.of());
+    }
+
+    @Test
+    void pruningMatchesFullRankingWithDeletions() {
+        // Leave fewer live documents than the posting lists of "rose" still count
+        Set<String> deleted = new TreeSet<>();
+        for (int i = 0; i < 16; i++) {
+            assertTrue(index.deleteDocument("d" + i + ".txt"));
+            deleted.add("d" + i + ".txt");
+        }
+        assertEquals(8, index.getDocumentCount());
+        assertTrue(index.getPostings("rose").getDocumentFrequency() > index.getDocumentCount());
+        assertRankingConsistent(deleted);
+    }
+
+    @Test
+    void idfStaysPositive() {
+        Bm25 bm25 = new Bm25(4, 40);
+        assertTrue(bm25.idf(0) > bm25.idf(2));
+        assertTrue(bm25.idf(4) > 0);
+        assertEquals(bm25.idf(4), bm25.idf(20));
+    }
+
+    private void assertRankingConsistent(Set<String> deleted) {
+        for (String query : QUERIES) {
+            List<ScoredDocument> all = index.searchTopK(query, 1000);
+            Set<String> names = new TreeSet<>();
+            for (ScoredDocument result : all) {
+                assertTrue(result.getScore() > 0, query + ": " + result);
+                assertFalse(deleted.contains(result.getName()), query + ": " + result);
+                names.add(result.getName());
+            }
+            assertEquals(new TreeSet<>(index.search(query.replace(" ", " OR "))), names, query);
+
+            for (int k = 1; k <= all.size(); k++) {
+                List<ScoredDocument> top = index.searchTopK(query, k);
+                assertEquals(describe(all.subList(0, k)), describe(top), query + ", k=" + k);
+            }
+        }
+    }
+
+    private static List<String> describe(List<ScoredDocument> results) {
+        List<String> descriptions = new ArrayList<>();
+        for (ScoredDocument result : results) {
+            descriptions.add(result.getName() + " " + (float) result.getScore());
+        }
+        return descriptions;
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SegmentReadersTest class checks that the arenas of off-heap segments an index removes are only
+ * freed once no query that may still read them is running.
+ */
+class SegmentReadersTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void retiredSegmentsWaitForEarlierReaders() throws IOException {
+        InvertedIndex index = offHeapIndex(2);
+        List<Segment> segments = index.getSegments();
+        SegmentReaders readers = new SegmentReaders();
+
+        SegmentReaders.Generation early = readers.enter();
+        readers.retire(segments.subList(0, 1));
+        SegmentReaders.Generation late = readers.enter(); // cannot see the retired segment
+        assertTrue(segments.get(0).offHeapBytes() > 0);
+        assertEquals(1, readers.pendingSegments());
+
+        late.close();
+        assertTrue(segments.get(0).offHeapBytes() > 0);
+        early.close();
+        assertEquals(0, segments.get(0).offHeapBytes());
+        assertEquals(0, readers.pendingSegments());
+
+        readers.retire(segments.subList(1, 2)); // no reader: freed at once
+        assertEquals(0, segments.get(1).offHeapBytes());
+    }
+
+    @Test
+    void closeKeepsSegmentsReadableUntilTheReadEnds() throws IOException {
+        InvertedIndex index = offHeapIndex(1);
+        Segment segment = index.getSegments().get(0);
+        Set<String> expected = index.search("rose");
+
+        SegmentReaders.Generation read = index.beginRead();
+        PostingsIterator it = index.postings("rose");
+        index.close();
+        assertTrue(index.getSegments().isEmpty());
+        assertTrue(segment.offHeapBytes() > 0);
+
+        List<Integer> found = new ArrayList<>();
+        while (it.nextDoc() != DocIterator.NO_MORE_DOCS) {
+            found.add(it.docId());
+            assertEquals(1, it.freq());
+        }
+        assertEquals(expected.size(), found.size());
+        read.close();
+        assertEquals(0, segment.offHeapBytes());
+    }
+
+    @Test
+    void mergedSegmentsAreFreedAfterTheirQueries() throws IOException {
+        InvertedIndex index = offHeapIndex(3);
+        List<Segment> before = index.getSegments();
+        assertEquals(3, before.size());
+        Set<String> expected = index.search("rose");
+
+        SegmentReaders.Generation read = index.beginRead();
+        index.mergeSegments(before);
+        assertEquals(1, index.getSegments().size());
+        for (Segment segment : before) {
+            assertTrue(segment.offHeapBytes() > 0);
+        }
+        read.close();
+        for (Segment segment : before) {
+            assertEquals(0, segment.offHeapBytes());
+        }
+        assertEquals(expected, index.search("rose"));
+        index.close();
+    }
+
+    @Test
+    void closedIndexCannotBeSearchedOrSaved() throws IOException {
+        InvertedIndex index = offHeapIndex(1);
+        File indexFile = new File(directory, "index.idx");
+        index.save(indexFile.getPath());
+        long savedLength = indexFile.length();
+        index.close();
+
+        assertThrows(IllegalStateException.class, () -> index.search("rose"));
+        assertThrows(IllegalStateException.class, () -> index.searchTopK("rose", 10));
+        assertThrows(IllegalStateException.class, index::beginRead);
+        assertThrows(IllegalStateException.class, () -> index.save(indexFile.getPath()));
+        assertThrows(IllegalStateException.class, () -> index.buildIndex(new File(directory, "corpus0").getPath()));
+        assertFalse(index.getSegments().iterator().hasNext());
+        assertEquals(savedLength, indexFile.length());
+        index.close(); // closing twice does nothing
+    }
+
+    // An index of segmentCount segments of 10 documents each, kept off the heap
+    private InvertedIndex offHeapIndex(int segmentCount) throws IOException {
+        File stopwords = new File(directory, "stopwords.txt");
+        Files.write(stopwords.toPath(), new byte[0]);
+        InvertedIndex index = new InvertedIndex(stopwords.getPath(), false);
+        index.setQueryCacheSize(0, 0);
+        index.setOffHeap(true);
+        for (int s = 0; s < segmentCount; s++) {
+            File corpus = new File(directory, "corpus" + s);
+            assertTrue(corpus.mkdir());
+            for (int i = s * 10; i < s * 10 + 10; i++) {
+                String text = (i % 3 == 0 ? "red rose " : "white lily ") + "garden " + i;
+                Files.write(new File(corpus, "d" + i + ".txt").toPath(), text.getBytes(StandardCharsets.UTF_8));
+            }
+            index.buildIndex(corpus.getPath(), 1); // one segment per build
+        }
+        index.waitForMerges();
+        assertEquals(segmentCount, index.getSegments().size());
+        return index;
+    }
+}
@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * TokenizerTest class checks that the Tokenizer splits text like {@code split("\\W+")}, including
+ * texts longer than its initial buffer and a reused Tokenizer whose buffer has already grown.
+ */
+class TokenizerTest {
+
+    @Test
+    void splitsLikeTheRegex() {
+        String text = "Hello, World! it's_a 42-test\n\tof  the Tokenizer";
+        assertEquals(split(text), tokens(new Tokenizer(), text));
+    }
+
+    @Test
+    void tokenizesStringsLongerThanTheBuffer() {
+        Tokenizer tokenizer = new Tokenizer();
+        String shortText = "a short text";
+        String longText = words(20_000);
+        assertEquals(split(shortText), tokens(tokenizer, shortText));
+        assertEquals(split(longText), tokens(tokenizer, longText));
+        assertEquals(split(shortText), tokens(tokenizer, shortText));
+        assertEquals(split(longText + " " + longText), tokens(tokenizer, longText + " " + longText));
+    }
+
+    @Test
+    void tokenizesFilesLongerThanTheBuffer(@TempDir File directory) throws IOException {
+        Tokenizer tokenizer = new Tokenizer();
+        String text = words(50_000);
+        File file = new File(directory, "long.txt");
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        List<String> fromFile = new ArrayList<>();
+        tokenizer.tokenize(file, false, true, (buffer, start, length, position, offset) -> fromFile.add(new String(buffer, start, length)));
+        assertEquals(split(text), fromFile);
+        assertEquals(split(text), tokens(tokenizer, text));
+    }
+
+    @Test
+    void skipsMarkup() {
+        List<String> found = new ArrayList<>();
+        char[] html = "<p class=\"x\">Red <b>rose</b></p>".toCharArray();
+        Tokenizer.tokenize(html, 0, html.length, true, true, (buffer, start, length, position, offset) -> found.add(new String(buffer, start, length)));
+        assertEquals(List.of("red", "rose"), found);
+    }
+
+    private static String words(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i % 7 == 0 ? "Word" : "w").append(i).append(i % 5 == 0 ? ", " : " ");
+        }
+        return text.toString();
+    }
+
+    private static List<String> tokens(Tokenizer tokenizer, String text) {
+        List<String> found = new ArrayList<>();
+        tokenizer.tokenize(text, (buffer, start, length, position, offset) -> found.add(new String(buffer, start, length)));
+        return found;
+    }
+
+    private static List<String> split(String text) {
+        List<String> expected = new ArrayList<>();
+        for (String token : text.toLowerCase().split("\\W+")) {
+            if (!token.isEmpty()) {
+                expected.add(token);
+            }
+        }
+        return expected;
+    }
+}